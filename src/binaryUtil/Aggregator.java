@@ -0,0 +1,394 @@
+package binaryUtil;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * SLHA parsing program
+ * Copyright (C) 2014 Patrick Cowan
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of this License, or
+ * (at your option) any later version.
+ *
+ *You should have received a copy of the GNU General Public License
+ *along with this program if not, see <http://www.gnu.org/licenses/>.
+ */
+/**
+ * Computes the count, mean, variance, least and greatest value and a histogram of many variables in a single pass
+ * over the rows of a snapshot (see ColumnAggregate), instead of reading each cell through getData.
+ *
+ * Rows are read a chunk of whole rows at a time (see Query.ColumnReader), and the values of each column that hold
+ * data are gathered into an array. Each aggregate is then a loop over the array with four independent lanes and
+ * no branches, which the JIT compiler vectorizes and pipelines. The mean and variance of a chunk are found from the
+ * chunk alone, and chunks are combined pairwise, so the variance keeps its precision over many rows.
+ *
+ * The work is split into tasks of a chunk of rows and a group of columns, run on a pool of threads. Large binaries
+ * are split by chunk, and binaries of few chunks are also split by column. Histograms cover the range of each
+ * column given by the zone map (see ZoneMap); when it is not known the range is found by a first pass.
+ * @author Patrick
+ *
+ */
+public class Aggregator
+{
+	private static final int LANES = 4;	//the independent partial results of each loop.
+
+	/**
+	 * Aggregates variables over the live rows of a snapshot, on one thread per processor.
+	 * @param vars -- The variables to aggregate.
+	 * @param bins -- The number of bins of each histogram, 0 for none.
+	 * @return -- The aggregates of each variable, in the order given.
+	 */
+	public static List<ColumnAggregate> aggregate(BinarySnapshot snapshot, List<Variable> vars, int bins) throws IOException
+	{
+		return aggregate(snapshot, vars, bins, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Aggregates variables over the live rows of a snapshot.
+	 * @param vars -- The variables to aggregate.
+	 * @param bins -- The number of bins of each histogram, 0 for none.
+	 * @param threads -- The number of threads reading and aggregating chunks.
+	 * @return -- The aggregates of each variable, in the order given.
+	 */
+	public static List<ColumnAggregate> aggregate(BinarySnapshot snapshot, List<Variable> vars, int bins, int threads)
+			throws IOException
+	{
+		int rows = snapshot.getUsedFiles();
+		int[] columns = new int[vars.size()];
+		for(int i = 0; i < columns.length; i++)
+			columns[i] = snapshot.columnOf(vars.get(i));
+		bins = Math.max(0, bins);
+		double[][] edges = new double[columns.length][];
+		boolean known = true;
+		for(int i = 0; i < columns.length && bins > 0; i++)
+		{
+			if(columns[i] >= 0)
+				edges[i] = snapshot.getBounds(columns[i], 0, rows);
+			known &= columns[i] < 0 || edges[i] != null;
+		}
+		if(!known)
+		{
+			Accumulator[] ranges = scan(snapshot, columns, 0, edges, threads);
+			for(int i = 0; i < columns.length; i++)
+				edges[i] = new double[]{ranges[i].min, ranges[i].max};
+		}
+		Accumulator[] totals = scan(snapshot, columns, bins, edges, threads);
+
+		long liveRows = snapshot.getLiveRows(0, rows).cardinality();
+		ArrayList<ColumnAggregate> result = new ArrayList<ColumnAggregate>(columns.length);
+		for(int i = 0; i < columns.length; i++)
+		{
+			Accumulator a = totals[i];
+			boolean empty = a.count == 0;
+			result.add(new ColumnAggregate(vars.get(i), a.count, liveRows - a.count - a.nanCount, a.nanCount,
+					empty ? Double.NaN : a.mean, empty ? Double.NaN : a.m2 / a.count, empty ? Double.NaN : a.min,
+					empty ? Double.NaN : a.max, a.histogram, empty ? Double.NaN : a.low, empty ? Double.NaN : a.high));
+		}
+		return result;
+	}
+
+	/**
+	 * Helper method. Aggregates the columns over every chunk of rows, on a pool of threads.
+	 * @param edges -- The range of each column's histogram, null for columns the binary does not hold.
+	 * @return -- The aggregates of each column.
+	 */
+	private static Accumulator[] scan(final BinarySnapshot snapshot, final int[] columns, final int bins,
+			final double[][] edges, int threads) throws IOException
+	{
+		final int rows = snapshot.getUsedFiles();
+		final int rowsPerChunk = new Query.ColumnReader(snapshot).getRowsPerChunk();
+		final int chunks = (rows + rowsPerChunk - 1) / rowsPerChunk;
+		threads = Math.max(1, threads);
+		//binaries of fewer chunks than threads are split by column too, each task reading its chunk.
+		final int groups = chunks >= threads ? 1 : Math.max(1, Math.min(columns.length, (threads + chunks - 1) / Math.max(chunks, 1)));
+		final int groupSize = (columns.length + groups - 1) / groups;
+		final int tasks = chunks * groups;
+		threads = Math.max(1, Math.min(threads, tasks));
+		final AtomicInteger next = new AtomicInteger();
+
+		LinkedList<Callable<Accumulator[]>> workers = new LinkedList<Callable<Accumulator[]>>();
+		for(int t = 0; t < threads; t++)
+		{
+			workers.add(new Callable<Accumulator[]>()
+			{
+				public Accumulator[] call() throws IOException
+				{
+					Accumulator[] partial = newAccumulators(columns.length, bins, edges);
+					Query.ColumnReader reader = new Query.ColumnReader(snapshot);
+					double[] dense = new double[rowsPerChunk];
+					for(int task = next.getAndIncrement(); task < tasks; task = next.getAndIncrement())
+					{
+						int first = (task / groups) * rowsPerChunk;
+						int count = Math.min(rowsPerChunk, rows - first);
+						int from = (task % groups) * groupSize;
+						int to = Math.min(columns.length, from + groupSize);
+						BitSet live = snapshot.getLiveRows(first, first + count);
+						boolean read = false;
+						for(int i = from; i < to; i++)
+						{
+							if(columns[i] < 0)
+								continue;
+							BitSet selected = (BitSet) live.clone();
+							selected.andNot(snapshot.getMissingRows(columns[i], first, first + count));
+							if(selected.isEmpty())
+								continue;
+							if(!read)
+								reader.read(first, count);
+							read = true;
+							double[] values = reader.column(columns[i]);
+							//gather the values of the chunk into a dense array, NaN apart.
+							int n = 0;
+							long nan = 0;
+							for(int r = selected.nextSetBit(0); r >= 0; r = selected.nextSetBit(r + 1))
+							{
+								double d = values[r];
+								if(d != d)
+									nan++;
+								else
+									dense[n++] = d;
+							}
+							partial[i].nanCount += nan;
+							partial[i].add(dense, n);
+						}
+					}
+					return partial;
+				}
+			});
+		}
+
+		Accumulator[] totals = newAccumulators(columns.length, bins, edges);
+		ExecutorService pool = threads > 1 ? Executors.newFixedThreadPool(threads) : null;
+		try
+		{
+			if(pool == null)
+			{
+				merge(totals, workers.getFirst().call());
+				return totals;
+			}
+			LinkedList<Future<Accumulator[]>> results = new LinkedList<Future<Accumulator[]>>();
+			for(Callable<Accumulator[]> worker: workers)
+				results.add(pool.submit(worker));
+			for(Future<Accumulator[]> f: results)
+				merge(totals, get(f));
+		}
+		catch(IOException e)
+		{
+			throw e;
+		}
+		catch(Exception e)
+		{
+			throw new IOException(e);
+		}
+		finally
+		{
+			if(pool != null)
+				pool.shutdownNow();
+		}
+		return totals;
+	}
+
+	private static Accumulator[] newAccumulators(int columns, int bins, double[][] edges)
+	{
+		Accumulator[] a = new Accumulator[columns];
+		for(int i = 0; i < columns; i++)
+			a[i] = new Accumulator(bins, edges[i]);
+		return a;
+	}
+
+	private static void merge(Accumulator[] totals, Accumulator[] partial)
+	{
+		for(int i = 0; i < totals.length; i++)
+			totals[i].merge(partial[i]);
+	}
+
+	private static Accumulator[] get(Future<Accumulator[]> f) throws IOException
+	{
+		try
+		{
+			return f.get();
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new IOException("Aggregation interrupted");
+		}
+		catch(ExecutionException e)
+		{
+			if(e.getCause() instanceof IOException)
+				throw (IOException)e.getCause();
+			throw new IOException(e.getCause());
+		}
+	}
+
+	/**
+	 * Helper method. Sums the first n values.
+	 */
+	static double sum(double[] values, int n)
+	{
+		double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+		int i = 0;
+		for(; i + LANES <= n; i += LANES)
+		{
+			s0 += values[i];
+			s1 += values[i + 1];
+			s2 += values[i + 2];
+			s3 += values[i + 3];
+		}
+		for(; i < n; i++)
+			s0 += values[i];
+		return (s0 + s1) + (s2 + s3);
+	}
+
+	/**
+	 * Helper method. Sums the squared differences of the first n values from their mean.
+	 */
+	static double sumOfSquares(double[] values, int n, double mean)
+	{
+		double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+		int i = 0;
+		for(; i + LANES <= n; i += LANES)
+		{
+			double d0 = values[i] - mean;
+			double d1 = values[i + 1] - mean;
+			double d2 = values[i + 2] - mean;
+			double d3 = values[i + 3] - mean;
+			s0 += d0 * d0;
+			s1 += d1 * d1;
+			s2 += d2 * d2;
+			s3 += d3 * d3;
+		}
+		for(; i < n; i++)
+		{
+			double d = values[i] - mean;
+			s0 += d * d;
+		}
+		return (s0 + s1) + (s2 + s3);
+	}
+
+	/**
+	 * Helper method. Returns the least of the first n values, positive infinity if n is 0.
+	 */
+	static double min(double[] values, int n)
+	{
+		double m0 = Double.POSITIVE_INFINITY, m1 = m0, m2 = m0, m3 = m0;
+		int i = 0;
+		for(; i + LANES <= n; i += LANES)
+		{
+			m0 = Math.min(m0, values[i]);
+			m1 = Math.min(m1, values[i + 1]);
+			m2 = Math.min(m2, values[i + 2]);
+			m3 = Math.min(m3, values[i + 3]);
+		}
+		for(; i < n; i++)
+			m0 = Math.min(m0, values[i]);
+		return Math.min(Math.min(m0, m1), Math.min(m2, m3));
+	}
+
+	/**
+	 * Helper method. Returns the greatest of the first n values, negative infinity if n is 0.
+	 */
+	static double max(double[] values, int n)
+	{
+		double m0 = Double.NEGATIVE_INFINITY, m1 = m0, m2 = m0, m3 = m0;
+		int i = 0;
+		for(; i + LANES <= n; i += LANES)
+		{
+			m0 = Math.max(m0, values[i]);
+			m1 = Math.max(m1, values[i + 1]);
+			m2 = Math.max(m2, values[i + 2]);
+			m3 = Math.max(m3, values[i + 3]);
+		}
+		for(; i < n; i++)
+			m0 = Math.max(m0, values[i]);
+		return Math.max(Math.max(m0, m1), Math.max(m2, m3));
+	}
+
+	/**
+	 * The running aggregates of one column.
+	 */
+	private static class Accumulator
+	{
+		private long count;
+		private long nanCount;
+		private double mean;
+		private double m2;	//the sum of squared differences from the mean.
+		private double min = Double.POSITIVE_INFINITY;
+		private double max = Double.NEGATIVE_INFINITY;
+		private long[] histogram;
+		private double low;
+		private double high;
+		private double scale;	//bins per unit of value.
+
+		/**
+		 * @param bins -- The number of bins of the histogram, 0 for none.
+		 * @param edges -- The range of the histogram, or null if there are no values.
+		 */
+		public Accumulator(int bins, double[] edges)
+		{
+			histogram = new long[edges == null ? 0 : bins];
+			if(edges != null)
+			{
+				low = edges[0];
+				high = edges[1];
+				//a range of one value, or of infinite values, puts every value in the first bin.
+				double width = high - low;
+				scale = width > 0 && width < Double.POSITIVE_INFINITY ? bins / width : 0;
+			}
+		}
+
+		/**
+		 * Adds the first n values of a chunk.
+		 */
+		public void add(double[] values, int n)
+		{
+			if(n == 0)
+				return;
+			double chunkMean = sum(values, n) / n;
+			merge(n, chunkMean, sumOfSquares(values, n, chunkMean));
+			min = Math.min(min, min(values, n));
+			max = Math.max(max, max(values, n));
+			int bins = histogram.length;
+			for(int i = 0; i < n && bins > 0; i++)
+			{
+				//values outside the range, e.g. of rows rewritten after the zone map was copied, go to the end bins.
+				int bin = (int)((values[i] - low) * scale);
+				histogram[bin < 0 ? 0 : bin >= bins ? bins - 1 : bin]++;
+			}
+		}
+
+		public void merge(Accumulator o)
+		{
+			merge(o.count, o.mean, o.m2);
+			nanCount += o.nanCount;
+			min = Math.min(min, o.min);
+			max = Math.max(max, o.max);
+			for(int i = 0; i < histogram.length; i++)
+				histogram[i] += o.histogram[i];
+		}
+
+		/**
+		 * Helper method. Combines the mean and squared differences of another set of values with these.
+		 */
+		private void merge(long n, double otherMean, double otherM2)
+		{
+			if(n == 0)
+				return;
+			long total = count + n;
+			double delta = otherMean - mean;
+			mean += delta * n / total;
+			m2 += otherM2 + delta * delta * ((double)count * n / total);
+			count = total;
+		}
+	}
+}
@@ -0,0 +1,282 @@
+package binaryUtil;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * SLHA parsing program
+ * Copyright (C) 2014 Patrick Cowan
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of this License, or
+ * (at your option) any later version.
+ *
+ *You should have received a copy of the GNU General Public License
+ *along with this program if not, see <http://www.gnu.org/licenses/>.
+ */
+/**
+ * The catalog section of a version 2 binary. The catalog is an append only list of records that
+ * describe the variables, files and missing cells of the binary. It lives in a reserved region directly
+ * after the header, so the whole catalog can be read back with a single read when the binary is opened.
+ *
+ * Every record is framed as [type byte][payload length int][payload], so readers can skip record
+ * types they do not know about. Strings are stored as a length int followed by UTF-8 bytes.
+ *
+ * Record payloads:
+ * VARIABLE - column int, PDG string, PDG2 string, PDG3 string, first row int, block string, description string
+ * FILE - row int, last modified long, name string, version long, size long, content hash int. A later record for the 
+ * 		same name replaces the earlier one. The name is the path of the file relative to the directory of the binary.
+ * 		The version is the write of the row, counted across the whole binary, so rows written after a version can be found.
+ * 		Records written without a version are read as version 0, and records without a size and hash as size -1.
+ * 		A FILE record with a row of -1 is a tombstone: the file was removed, and is not added again when it is found.
+ * MISSING/PRESENT - column int, row int
+ * REMOVED_VARIABLE - column int. The variable of the column was removed, its cells hold no data.
+ * @author Patrick
+ *
+ */
+class BinaryCatalog
+{
+	//record types
+	static final byte VARIABLE = 1;
+	static final byte FILE = 2;
+	static final byte MISSING = 3;
+	static final byte PRESENT = 4;
+	static final byte REMOVED_VARIABLE = 5;
+
+	private static final int FRAME_SIZE = 5;
+
+	/**
+	 * Receives the records of a catalog as it is read.
+	 */
+	interface Visitor
+	{
+		public void variable(Variable var, int column, int firstRow);
+		public void file(String name, int row, long lastModified, long version, long size, int hash);
+		public void presence(byte type, int column, int row);
+		public void variableRemoved(int column);
+	}
+
+	private long capacity;
+	private long length;
+	private ByteArrayOutputStream pending;
+	private ByteArrayOutputStream payload;
+	private DataOutputStream payloadOut;
+
+	/**
+	 * Creates a catalog with the given reserved space.
+	 * @param capacity -- The number of bytes reserved for the catalog in the binary.
+	 * @param length -- The number of bytes of the catalog already written to the binary.
+	 */
+	BinaryCatalog(long capacity, long length)
+	{
+		this.capacity = capacity;
+		this.length = length;
+		pending = new ByteArrayOutputStream();
+		payload = new ByteArrayOutputStream();
+		payloadOut = new DataOutputStream(payload);
+	}
+
+	public void addVariable(Variable var, int column, int firstRow)
+	{
+		try
+		{
+			payloadOut.writeInt(column);
+			writeString(var.getPDG());
+			writeString(var.getPDG2());
+			writeString(var.getPDG3());
+			payloadOut.writeInt(firstRow);
+			writeString(var.getBlock());
+			writeString(var.getDescription());
+		}
+		catch(IOException e)
+		{
+			//writes to a byte array can not fail
+		}
+		frame(VARIABLE);
+	}
+
+	public void addFile(String name, int row, long lastModified, long version, long size, int hash)
+	{
+		try
+		{
+			payloadOut.writeInt(row);
+			payloadOut.writeLong(lastModified);
+			writeString(name);
+			payloadOut.writeLong(version);
+			payloadOut.writeLong(size);
+			payloadOut.writeInt(hash);
+		}
+		catch(IOException e)
+		{
+			//writes to a byte array can not fail
+		}
+		frame(FILE);
+	}
+
+	public void addRemovedVariable(int column)
+	{
+		try
+		{
+			payloadOut.writeInt(column);
+		}
+		catch(IOException e)
+		{
+			//writes to a byte array can not fail
+		}
+		frame(REMOVED_VARIABLE);
+	}
+
+	public void addPresence(byte type, int column, int row)
+	{
+		try
+		{
+			payloadOut.writeInt(column);
+			payloadOut.writeInt(row);
+		}
+		catch(IOException e)
+		{
+			//writes to a byte array can not fail
+		}
+		frame(type);
+	}
+
+	private void writeString(String s) throws IOException
+	{
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		payloadOut.writeInt(bytes.length);
+		payloadOut.write(bytes);
+	}
+
+	/**
+	 * Moves the current payload into the pending records with its frame.
+	 */
+	private void frame(byte type)
+	{
+		int size = payload.size();
+		pending.write(type);
+		pending.write(size >>> 24);
+		pending.write(size >>> 16);
+		pending.write(size >>> 8);
+		pending.write(size);
+		pending.write(payload.toByteArray(), 0, size);
+		payload.reset();
+	}
+
+	/**
+	 * Reports whether the pending records fit within the reserved space.
+	 */
+	public boolean fits()
+	{
+		return length + pending.size() <= capacity;
+	}
+
+	/**
+	 * Returns the records that have not yet been written, and counts them as written.
+	 * The caller must write the returned bytes at the current write offset (see getLength, before this call).
+	 */
+	public byte[] drainPending()
+	{
+		byte[] records = pending.toByteArray();
+		pending.reset();
+		length += records.length;
+		return records;
+	}
+
+	/**
+	 * Discards any records that have not been written. Used when the catalog is rebuilt from memory.
+	 */
+	public void discardPending()
+	{
+		pending.reset();
+	}
+
+	public int pendingSize()
+	{
+		return pending.size();
+	}
+
+	public long getLength()
+	{
+		return length;
+	}
+
+	public long getCapacity()
+	{
+		return capacity;
+	}
+
+	/**
+	 * Reads the records of a catalog, passing them on to the visitor in the order they were written.
+	 * Records that are not asked for are skipped over without being decoded.
+	 * A record cut short at the end of the region (e.g. from a crash) ends the read.
+	 * @param region -- The used bytes of the catalog, from its position to its limit.
+	 * @param visitor -- The visitor to be given each record.
+	 * @param columns -- Whether VARIABLE, MISSING and PRESENT records are read.
+	 * @param files -- Whether FILE records are read.
+	 */
+	public static void read(ByteBuffer region, Visitor visitor, boolean columns, boolean files)
+	{
+		ByteBuffer b = region.duplicate();
+		while(b.remaining() >= FRAME_SIZE)
+		{
+			byte type = b.get();
+			int size = b.getInt();
+			if(size < 0 || size > b.remaining())
+				break;
+			int next = b.position() + size;
+			if(type == FILE ? !files : !columns)
+			{
+				b.position(next);
+				continue;
+			}
+			switch(type)
+			{
+			case VARIABLE:
+				int column = b.getInt();
+				String pdg = readString(b);
+				String pdg2 = readString(b);
+				String pdg3 = readString(b);
+				int firstRow = b.getInt();
+				String block = readString(b);
+				String description = readString(b);
+				visitor.variable(new Variable(pdg, pdg2, pdg3, null, description, block), column, firstRow);
+				break;
+			case FILE:
+				int row = b.getInt();
+				long lastModified = b.getLong();
+				String name = readString(b);
+				long version = next - b.position() >= 8 ? b.getLong() : 0;
+				long fileSize = -1;
+				int hash = 0;
+				if(next - b.position() >= 12)
+				{
+					fileSize = b.getLong();
+					hash = b.getInt();
+				}
+				visitor.file(name, row, lastModified, version, fileSize, hash);
+				break;
+			case MISSING:
+			case PRESENT:
+				visitor.presence(type, b.getInt(), b.getInt());
+				break;
+			case REMOVED_VARIABLE:
+				visitor.variableRemoved(b.getInt());
+				break;
+			default:
+				//unknown record, written by a newer version. skip it.
+			}
+			b.position(next);
+		}
+	}
+
+	private static String readString(ByteBuffer b)
+	{
+		byte[] bytes = new byte[b.getInt()];
+		b.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
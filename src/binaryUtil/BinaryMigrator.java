@@ -0,0 +1,241 @@
+package binaryUtil;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+/**
+ * SLHA parsing program
+ * Copyright (C) 2014 Patrick Cowan
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of this License, or
+ * (at your option) any later version.
+ *
+ *You should have received a copy of the GNU General Public License
+ *along with this program if not, see <http://www.gnu.org/licenses/>.
+ */
+/**
+ * Converts binaries written in the original (version 1) layout to the current layout.
+ *
+ * Version 1 layout:
+ * header - available variables int, used variables int, available files int, used files int.
+ * variable table - available variables entries of 110 bytes: PDG int, PDG2 int, PDG3 int, 20 char block name,
+ * 		25 char description, location of the first instance long.
+ * file table - available files entries of 62 bytes: last modified long, 25 char name, row int.
+ * data - one row of available variables doubles per file.
+ * Missing cells hold Double.MAX_VALUE, and may be described by a presence log next to the binary (binary.bin.nulls).
+ * @author Patrick
+ *
+ */
+public class BinaryMigrator
+{
+	private static final int V1_HEADER_SIZE = 16;
+	private static final int V1_VARIABLE_SIZE = 110;
+	private static final int V1_FILE_SIZE = 62;
+	private static final int V1_BLOCK_CHARS = 20;
+	private static final int V1_DESCRIPTION_CHARS = 25;
+	private static final int V1_NAME_CHARS = 25;
+	private static final String V1_PRESENCE_EXTENSION = ".nulls";
+	//record types of the version 1 presence log
+	private static final byte V1_EXTENT = 0;
+	private static final byte V1_MISSING = 1;
+	private static final byte V1_PRESENT = 2;
+
+	/**
+	 * Reports whether the given binary is already in the current layout.
+	 * @param binary -- The binary to check.
+	 * @return -- True if the binary starts with the current magic number.
+	 */
+	public static boolean isCurrentFormat(File binary) throws IOException
+	{
+		RandomAccessFile f = new RandomAccessFile(binary, "r");
+		try
+		{
+			return f.length() >= 4 && f.readInt() == BinaryParser.MAGIC;
+		}
+		finally
+		{
+			f.close();
+		}
+	}
+
+	/**
+	 * Converts a version 1 binary to the current layout in place. The original binary is kept
+	 * beside the converted one with a ".v1" extension, and its presence log is folded into the catalog.
+	 * @param binary -- The binary to convert.
+	 * @throws IOException -- if the binary can not be read, or the converted binary can not be written.
+	 */
+	public static void migrate(File binary) throws IOException
+	{
+		File temp = new File(binary.getParentFile(), binary.getName() + ".tmp");
+		File presenceLog = new File(binary.getParentFile(), binary.getName() + V1_PRESENCE_EXTENSION);
+		migrate(binary, presenceLog, temp);
+		File backup = new File(binary.getParentFile(), binary.getName() + ".v1");
+		backup.delete();
+		if(!binary.renameTo(backup) || !temp.renameTo(binary))
+			throw new IOException("Could not replace " + binary + " with its converted copy " + temp);
+		presenceLog.delete();
+	}
+
+	/**
+	 * Writes a copy of a version 1 binary in the current layout.
+	 * @param source -- The version 1 binary.
+	 * @param presenceLog -- The presence log of the binary. Does not have to exist.
+	 * @param target -- The file to write the converted binary to.
+	 */
+	public static void migrate(File source, File presenceLog, File target) throws IOException
+	{
+		RandomAccessFile in = new RandomAccessFile(source, "r");
+		RandomAccessFile out = new RandomAccessFile(target, "rw");
+		try
+		{
+			out.setLength(0);
+			ByteBuffer header = read(in, 0, V1_HEADER_SIZE);
+			int availableVars = header.getInt();
+			int usedVars = header.getInt();
+			int availableFiles = header.getInt();
+			int usedFiles = header.getInt();
+			long dataStart = V1_HEADER_SIZE + ((long)availableVars*V1_VARIABLE_SIZE) + ((long)availableFiles*V1_FILE_SIZE);
+			int rowSize = 8*availableVars;
+
+			//the tables are read with one read each
+			Variable[] columns = new Variable[usedVars];
+			ByteBuffer vars = read(in, V1_HEADER_SIZE, usedVars*V1_VARIABLE_SIZE);
+			for(int i = 0; i < usedVars; i++)
+			{
+				int PDG = vars.getInt();
+				int PDG_2 = vars.getInt();
+				int PDG_3 = vars.getInt();
+				String block = readChars(vars, V1_BLOCK_CHARS);
+				String description = readChars(vars, V1_DESCRIPTION_CHARS);
+				int column = (int) ((vars.getLong() - dataStart)/8);
+				columns[column] = new Variable(PDG + "", PDG_2 + "", PDG_3 + "", null, description, block);
+			}
+
+			//presence comes from the log if there is one, and from the Double.MAX_VALUE marker of missing cells.
+			NullBitmap presence = new NullBitmap(null);
+			if(presenceLog.exists())
+				replayPresence(presenceLog, presence);
+			int rowsPerChunk = Math.max(1, (1 << 22) / rowSize);
+			for(int first = 0; first < usedFiles; first += rowsPerChunk)
+			{
+				int count = Math.min(rowsPerChunk, usedFiles - first);
+				long location = dataStart + (long)first*rowSize;
+				ByteBuffer rows = read(in, location, (int) Math.max(0, Math.min((long)count*rowSize, in.length() - location)));
+				for(int r = 0; r < count; r++)
+				{
+					for(int column = 0; column < usedVars; column++)
+					{
+						int index = r*rowSize + column*8;
+						boolean missing = index + 8 > rows.limit() || rows.getDouble(index) == Double.MAX_VALUE;
+						if(missing && presence.isPresent(column, first + r))
+							presence.load(BinaryCatalog.MISSING, column, first + r);
+					}
+				}
+			}
+
+			//build the catalog
+			long capacity = BinaryParser.INITIAL_CATALOG_CAPACITY;
+			BinaryCatalog catalog = buildCatalog(in, capacity, columns, presence, availableVars, usedFiles);
+			while(catalog.pendingSize() > capacity)
+			{
+				capacity *= 2;
+				catalog = buildCatalog(in, capacity, columns, presence, availableVars, usedFiles);
+			}
+			byte[] records = catalog.drainPending();
+			long dataOffset = BinaryParser.HEADER_SIZE + capacity;
+			out.write(BinaryParser.encodeHeader(availableVars, usedVars, usedFiles, 0, capacity, records.length, dataOffset));
+			out.write(records);
+			BinaryParser.copyRows(in, dataStart, rowSize, out, dataOffset, rowSize, usedFiles, usedVars);
+		}
+		finally
+		{
+			in.close();
+			out.close();
+		}
+	}
+
+	/**
+	 * Builds the catalog of the converted binary from the version 1 tables.
+	 */
+	private static BinaryCatalog buildCatalog(RandomAccessFile in, long capacity, Variable[] columns, NullBitmap presence,
+			int availableVars, int usedFiles) throws IOException
+	{
+		BinaryCatalog catalog = new BinaryCatalog(capacity, 0);
+		for(int i = 0; i < columns.length; i++)
+			catalog.addVariable(columns[i], i, presence.getFirstRow(i));
+		//the whole file table is read at once
+		ByteBuffer files = read(in, V1_HEADER_SIZE + ((long)availableVars*V1_VARIABLE_SIZE), usedFiles*V1_FILE_SIZE);
+		for(int i = 0; i < usedFiles; i++)
+		{
+			long lastModified = files.getLong();
+			String name = readChars(files, V1_NAME_CHARS);
+			//some version 1 binaries stored the path of the file, only the name is kept.
+			name = name.substring(Math.max(name.lastIndexOf('/'), name.lastIndexOf('\\')) + 1);
+			catalog.addFile(name, files.getInt(), lastModified, 0, -1, 0);
+		}
+		presence.writeTo(catalog);
+		return catalog;
+	}
+
+	/**
+	 * Reads the version 1 presence log into the given bitmap.
+	 */
+	private static void replayPresence(File presenceLog, NullBitmap presence) throws IOException
+	{
+		DataInputStream log = new DataInputStream(new BufferedInputStream(new FileInputStream(presenceLog)));
+		try
+		{
+			while(true)
+			{
+				byte type = log.readByte();
+				int column = log.readInt();
+				int row = log.readInt();
+				if(type == V1_EXTENT)
+					presence.addColumn(column, row);
+				else if(type == V1_MISSING)
+					presence.load(BinaryCatalog.MISSING, column, row);
+				else if(type == V1_PRESENT)
+					presence.load(BinaryCatalog.PRESENT, column, row);
+			}
+		}
+		catch(EOFException e)
+		{
+			//end of the log
+		}
+		finally
+		{
+			log.close();
+		}
+	}
+
+	private static ByteBuffer read(RandomAccessFile in, long location, int length) throws IOException
+	{
+		byte[] bytes = new byte[length];
+		in.seek(location);
+		in.readFully(bytes);
+		return ByteBuffer.wrap(bytes);
+	}
+
+	/**
+	 * Reads a fixed number of UTF-16 characters, dropping the zero padding.
+	 */
+	private static String readChars(ByteBuffer b, int count)
+	{
+		StringBuilder s = new StringBuilder();
+		for(int i = 0; i < count; i++)
+		{
+			char c = b.getChar();
+			if(c != 0)
+				s.append(c);
+		}
+		return s.toString().trim();
+	}
+}
@@ -7,11 +7,22 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
-import java.security.InvalidParameterException;
-import java.util.HashMap;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.Iterator;
 import java.util.LinkedList;
-import java.util.NoSuchElementException;
+import java.util.List;
 import java.util.Scanner;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * SLHA parsing program
@@ -30,58 +41,126 @@ public class BinaryParser
 	//NOTE: the inconsistency file will be overwritten automatically with each instance
 	//of this object. 
 	//private members used for tracking the internal binary file
-	private int offset;
+	private int offset;		//the number of bytes in each row of data
 	private int availableVars;
 	private int usedVars;
-	private int availableFiles;
 	private int usedFiles;
+	private long dataOffset;	//the location of the first row of data
 	private File binary;
-	private HashMap<Variable, Long> variableInfo;
+	private VariableIndex variableInfo; //the column of every variable contained within this binary.
 	private PrintWriter out;	//used for logging inconsistencies within files.
+	private boolean logStarted;	//whether the log was written to since the binary was opened.
 	private int loggedInconsistencies; //used to track the number of inconsistencies that have occurred in this instance.
-	private HashMap<String, FileInfo> fileInfo; //a hash map used to track all of the files contained within this binary.
+	private FileIndex fileInfo; //an index used to track all of the files contained within this binary.
+	private BinaryCatalog catalog; //the variable, file and presence records of the binary.
+	private NullBitmap presence; //tracks which cells of the binary hold data.
+	private VerificationSummary verification; //what was found to have changed when the binary was opened.
+	private long version; //the version of the last row written, see BinaryCatalog.
+	private boolean renamed; //true when files have been moved to new names, and the catalog should be rewritten.
+	private boolean deduplicate; //true when files with the same data are stored as references to one row.
+	private HashIndex rowHashes; //the row of every canonical row hash, built when deduplication is first used.
+	private long[] hashOfRow; //the canonical hash of every row, so rows rewritten in place can be told apart.
+	private HashIndex contentFiles; //the file of every size and content hash.
+	private int generation; //counts the times the binary has been rewritten to a new file.
+	private volatile int committedRows; //the number of rows whose data and header are on disk, see openSnapshot.
+	private ZoneMap zones; //the statistics of every column by zone of rows, loaded when first needed by read only binaries.
+	private LinkedList<SortedIndex> indexes; //the indexes of chosen variables, loaded when first needed by read only binaries.
+	private SketchSet sketches; //the quantile and distinct value sketches of every column, loaded when first needed by read only binaries.
+	private LinkedList<BinarySnapshot> snapshots; //the open snapshots, which keep the rows rewritten in place after they were opened.
+	private boolean rewritten; //true when a row was rewritten in place, and its write may still be queued.
 	
 	//private members used for read/writes to the binary file
 	private BinaryWorker worker;
 	private RandomAccessFile bin;
+	private boolean readOnly;	//read only binaries have no worker, and load the catalog when it is first needed.
+	private boolean columnsLoaded;
+	private boolean filesLoaded;
 	
 	//A list of listeners to be notified of a writeComplete event.
 	private LinkedList<IBinaryListener> listeners;
 	
 	//constants to help make code easier to understand
+	//Binary layout (version 2):
+	//header - magic int, version int, available variables int, used variables int, used files int, flags int,
+	//		catalog capacity long, catalog length long, data offset long, padded to HEADER_SIZE bytes.
+	//catalog - starts at HEADER_SIZE, see BinaryCatalog for the record layout.
+	//data - starts at the data offset, one row of available variables doubles per file.
+	public static final String DEFAULT_NAME = "binary.bin";	//the name of the binary within the directory it is built from.
+	public static final String LOG_NAME = "inconsistencies.log";
+	static final int MAGIC = 0x44434232;		//"DCB2"
+	static final int VERSION = 2;
+	static final int HEADER_SIZE = 64;
+	static final int FLAG_DEDUPLICATE = 1;	//header flag, files with the same data share a row.
 	private final float LOAD = 0.85f;	//The load factor for this object.
-	private final int HEADER_SIZE = 16;
-	private final int VAR_BLOCK_MAX_CHARS = 20;
-	private final int VAR_DESC_MAX_CHARS = 25;
-	private final int FILE_BINARY_SIZE = 62;		//the amount of space for each file entry in the table
-	private final int VARIABLE_BINARY_SIZE = 110;	//the number of bytes for each variable entry int the table
 	private static final int INITIAL_AVAILABLE_VARIABLES = 150;
-	private static final int INITIAL_AVAILABLE_FILES = 2000;
+	static final long INITIAL_CATALOG_CAPACITY = (1 << 20) - HEADER_SIZE;	//data starts on the first megabyte
+	private static final int COPY_CHUNK_BYTES = 1 << 22;	//the amount of row data moved at a time when the binary is rewritten.
+	private static final int VERIFY_WINDOW = 4096;	//the number of files of the directory checked at a time when the binary is opened.
+	private static final long MISSING_BITS = 0x7FF0000000000BADL;	//hashed for missing cells, a NaN that doubleToLongBits never returns.
 	
+	/**
+	 * Opens the given binary for reading and writing, creating it if it does not exist. Existing binaries
+	 * are checked against the files in their directory, and any altered files are updated.
+	 * @param BinaryFile -- The binary to be opened.
+	 */
 	public BinaryParser(File BinaryFile) throws IOException
+	{
+		this(BinaryFile, false);
+	}
+	
+	/**
+	 * Opens the given binary. A read only binary is opened for queries and exports only: only the header is read 
+	 * when it is opened, the catalog is mapped and read the first time it is needed, no writer thread is started 
+	 * and the files in the directory are not verified. Read only binaries must already exist in the current format.
+	 * @param BinaryFile -- The binary to be opened.
+	 * @param readOnly -- True to open the binary read only.
+	 */
+	public BinaryParser(File BinaryFile, boolean readOnly) throws IOException
 	{
 		binary = BinaryFile;
+		this.readOnly = readOnly;
 		//initialize members.
 		listeners = new LinkedList<IBinaryListener>();
-		variableInfo = new HashMap<Variable, Long>();
-		fileInfo = new HashMap<String, FileInfo>();
+		snapshots = new LinkedList<BinarySnapshot>();
+		variableInfo = new VariableIndex();
+		fileInfo = new FileIndex();
 	
 		loggedInconsistencies = 0;
+		verification = new VerificationSummary(0, 0, 0, 0, 0, 0);
 	
 		out = null;
 		
-		if(binary.exists())
+		if(readOnly)
 		{
+			if(!BinaryMigrator.isCurrentFormat(binary))
+				throw new IOException("Binary must be opened for writing once to be converted to the current format: " + binary);
+			this.bin = new RandomAccessFile(binary,"r");
+			gatherHeader();
+			offset = 8*availableVars;
+			committedRows = usedFiles;
+		}
+		else if(binary.exists() && binary.length() > 0)
+		{
+			//binaries written before version 2 are converted in place, the original is kept beside it.
+			if(!BinaryMigrator.isCurrentFormat(binary))
+				BinaryMigrator.migrate(binary);
 			this.bin = new RandomAccessFile(binary,"rwd");
 			worker = new BinaryWorker(this.bin);
 			new Thread(worker).start();
 			//get values
 			gatherHeader();
-			//calculate the offset. (double - 8 * variable space allocated - 200/loaded in.)
+			committedRows = usedFiles;
+			//calculate the offset. (double - 8 * variable space allocated)
 			offset = 8*availableVars;
 			//build file and variable table
-			gatherVariables();
-			//build file table and verify that there have been no changes to them.
+			loadColumns();
+			loadFiles();
+			if(deduplicate)
+				indexRows();
+			loadZones();
+			loadIndexes();
+			loadSketches();
+			//verify that there have been no changes to the files.
 			verifyFiles();
 			
 		}
@@ -92,8 +171,11 @@ public class BinaryParser
 			worker = new BinaryWorker(this.bin);
 			new Thread(worker).start();
 			createNewBinaryFile();			
-			//calculate the offset. (double - 8 * variable space allocated - 200/loaded in.)
+			//calculate the offset. (double - 8 * variable space allocated)
 			offset = 8*availableVars;
+			zones = new ZoneMap();
+			indexes = new LinkedList<SortedIndex>();
+			sketches = new SketchSet();
 			
 			
 		}
@@ -102,317 +184,1383 @@ public class BinaryParser
 
 	/**
 	 * This method verifies that all file information in the binary is up to date. Any files that are found to be new
-	 * or altered will be updated or added to the binary.
+	 * or altered will be updated or added to the binary. The directory tree is walked in order (see DirectoryScanner) 
+	 * and checked a window of files at a time: each window is stat'ed once, its changed and new files are parsed in 
+	 * parallel, and its rows are written as one batch. Files whose timestamp changed but whose size and content hash 
+	 * did not are only given their new timestamp, and are not parsed.
 	 */
 	private void verifyFiles() {
+		//IT IS ASSUMED THAT THE BINAY FILE WILL BE WITHIN THE SAME DIRECTORY AS THE PARSED FILES.
+		Iterator<File> walk = new DirectoryScanner(this.binary.getAbsoluteFile().getParentFile()).iterator();
+		ExecutorService pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
 		try
 		{
-			for(int i = 0; i < usedFiles; i++)
+			boolean[] seen = new boolean[fileInfo.size()];
+			File[] listing = new File[VERIFY_WINDOW];
+			long[] modified = new long[VERIFY_WINDOW];
+			long[] sizes = new long[VERIFY_WINDOW];
+			SlhaFile parsedTemplate = null;
+			int changedFiles = 0;
+			long parsedBytes = 0;
+			int addedFiles = 0;
+			int failed = 0;
+			int unchanged = 0;
+			boolean written = false;
+			while(walk.hasNext())
 			{
-				//seek the location of the file info in the file table
-				this.bin.seek(HEADER_SIZE + (availableVars * VARIABLE_BINARY_SIZE) + (i*FILE_BINARY_SIZE));
+				int length = 0;
+				while(length < listing.length && walk.hasNext())
+					listing[length++] = walk.next();
+				statFiles(listing, length, modified, sizes, pool);
+				
+				//sort the window into changed, new and unchanged files. Files with a known size and hash 
+				//that only have a new timestamp are hashed again before they are counted as changed.
+				ArrayList<File> changed = new ArrayList<File>();
+				ArrayList<Integer> changedInfo = new ArrayList<Integer>();
+				ArrayList<File> touched = new ArrayList<File>();
+				ArrayList<Integer> touchedInfo = new ArrayList<Integer>();
+				ArrayList<File> added = new ArrayList<File>();
+				File template = null;
+				for(int i = 0; i < length; i++)
+				{
+					File file = listing[i];
+					if(modified[i] < 0 || !isDataFile(file))
+						continue;
+					int fInfo = findFile(file);
+					if(fInfo < 0)
+					{
+						added.add(file);
+						continue;
+					}
+					seen[fInfo] = true;
+					if(fileInfo.isRemoved(fInfo))
+						continue;
+					long size = fileInfo.getSize(fInfo);
+					if(fileInfo.getLastModified(fInfo) == modified[i] && (size < 0 || size == sizes[i]))
+					{
+						if(template == null)
+							template = file;
+					}
+					else if(size == sizes[i])
+					{
+						touched.add(file);
+						touchedInfo.add(fInfo);
+					}
+					else
+					{
+						//NOTE: map is now out of date for this file
+						changed.add(file);
+						changedInfo.add(fInfo);
+					}
+				}
+				
+				//files with the same content keep their row, only the new timestamp is recorded.
+				int[] hashes = hashFiles(touched, pool);
+				for(int i = 0; i < touched.size(); i++)
+				{
+					int fInfo = touchedInfo.get(i);
+					File file = touched.get(i);
+					if(hashes[i] == fileInfo.getContentHash(fInfo) && file.length() == fileInfo.getSize(fInfo))
+					{
+						fileInfo.setLastModified(fInfo, file.lastModified());
+						recordFile(fInfo);
+						unchanged++;
+						if(template == null)
+							template = file;
+					}
+					else
+					{
+						changed.add(file);
+						changedInfo.add(fInfo);
+					}
+				}
 				
-				StringBuilder fileName = new StringBuilder();
-				long modificationDate = bin.readLong();
-				for(int j = 0; j < 25; j++)
+				//the template is parsed once, and shared by every file.
+				if(parsedTemplate == null && template != null)
+				{
+					ParsedFile t = parseFiles(Arrays.asList(template), pool)[0];
+					if(t != null)
+						parsedTemplate = t.file;
+				}
+				ArrayList<RowWrite> rows = new ArrayList<RowWrite>();
+				ParsedFile[] parsed = parseFiles(changed, pool);
+				for(int i = 0; i < parsed.length; i++)
+				{
+					if(parsed[i] == null)
+					{
+						failed++;
+						continue;
+					}
+					if(parsedTemplate == null)
+						parsedTemplate = parsed[i].file;
+					rows.add(updateFile(parsed[i], parsedTemplate, changedInfo.get(i)));
+					changedFiles++;
+					parsedBytes += parsed[i].size;
+				}
+				if(deduplicate)
+				{
+					//byte identical copies of files already in the binary are not parsed.
+					ArrayList<File> unique = new ArrayList<File>();
+					for(File file: added)
+					{
+						if(storeDuplicate(file))
+							addedFiles++;
+						else
+							unique.add(file);
+					}
+					added = unique;
+				}
+				parsed = parseFiles(added, pool);
+				for(int i = 0; i < parsed.length; i++)
 				{
-					char c = bin.readChar();
-					if(c == 0)
-						break;
-					fileName.append(c);
+					if(parsed[i] == null)
+					{
+						//not every file in the directory is an SLHA file, these are not counted as failures.
+						continue;
+					}
+					if(parsedTemplate == null)
+						parsedTemplate = parsed[i].file;
+					RowWrite row = appendFile(parsed[i].file, parsedTemplate, parsed[i].size, parsed[i].hash);
+					if(row != null)
+						rows.add(row);
+					addedFiles++;
+					parsedBytes += parsed[i].size;
 				}
-				FileInfo temp = new FileInfo(modificationDate, bin.readInt());
-				fileInfo.put(fileName.toString(), temp);
+				writeRows(rows);
+				written |= !rows.isEmpty();
+				Arrays.fill(listing, null);
+			}
+			int removed = 0;
+			for(int f = 0; f < seen.length; f++)
+			{
+				//streamed documents have no file in the directory.
+				if(!seen[f] && !fileInfo.isRemoved(f) && !fileInfo.getName(f).startsWith(StreamSource.NAME_PREFIX))
+					removed++;
+			}
+			
+			//files stored under old style names were moved to their full names, the catalog is rewritten 
+			//so the old records are dropped.
+			if(renamed)
+			{
+				renamed = false;
+				grow();
 			}
+			//update the header values for when the binary is reopened.
+			else if(written || unchanged > 0 || addedFiles > 0)
+				updateBinary();
+			verification = new VerificationSummary(changedFiles, addedFiles, removed, failed, unchanged, parsedBytes);
 		}
-		catch(IOException e)
+		finally
 		{
-			System.err.println("Error reading file table in binary");
-			e.printStackTrace();
-			return;
+			pool.shutdown();
 		}
-		
-		//now the files are verified. IT IS ASSUMED THAT THE BINAY FILE WILL BE WITHIN THE SAME DIRECTORY AS THE PARSED FILES.
-		
-		File template = null;
-		for(File file: this.binary.getParentFile().listFiles())
+	}
+	
+	/**
+	 * Helper method. Reads the last modified time and size of the first files of the listing, split across the pool.
+	 * Directories and files that could not be read are given a last modified time of -1.
+	 */
+	private static void statFiles(final File[] listing, final int length, final long[] modified, final long[] sizes, 
+			ExecutorService pool)
+	{
+		int batches = Math.max(1, Math.min(length / 256, Runtime.getRuntime().availableProcessors() * 4));
+		final int batchSize = (length + batches - 1) / batches;
+		ArrayList<Future<?>> results = new ArrayList<Future<?>>();
+		for(int b = 0; b < batches; b++)
 		{
-			int index = file.getName().lastIndexOf('.');
-			FileInfo fInfo = null;
-			if(index < 0)
-				fInfo = fileInfo.get(file.getName());
-			else
-				fInfo = fileInfo.get(file.getName().substring(0, file.getName().lastIndexOf('.')));
-			if(fInfo == null)
-				continue;
-			Long lastModified = fInfo.lastModified;
-			if(lastModified == null)
+			final int first = b * batchSize;
+			results.add(pool.submit(new Runnable()
 			{
-				try
+				public void run()
 				{
-				this.addFile(new SlhaFile(file),new SlhaFile(template));
-				} 
-				catch(Exception e)
+					for(int i = first; i < Math.min(first + batchSize, length); i++)
+					{
+						try
+						{
+							BasicFileAttributes attributes = Files.readAttributes(listing[i].toPath(), BasicFileAttributes.class);
+							modified[i] = attributes.isRegularFile() ? attributes.lastModifiedTime().toMillis() : -1;
+							sizes[i] = attributes.size();
+						}
+						catch(IOException e)
+						{
+							modified[i] = -1;
+						}
+					}
+				}
+			}));
+		}
+		waitFor(results);
+	}
+	
+	/**
+	 * Helper method. Hashes the content of the given files in parallel.
+	 * @return -- The hash of each file. Files that could not be read are given a hash of 0.
+	 */
+	private static int[] hashFiles(final List<File> files, ExecutorService pool)
+	{
+		final int[] hashes = new int[files.size()];
+		ArrayList<Future<?>> results = new ArrayList<Future<?>>();
+		for(int i = 0; i < hashes.length; i++)
+		{
+			final int index = i;
+			results.add(pool.submit(new Runnable()
+			{
+				public void run()
 				{
-					System.err.println("Error on the creation of slhafiles for file verification, please check to ensure that no data was destroyed");
-					e.printStackTrace();
+					try
+					{
+						hashes[index] = ContentHash.of(files.get(index));
+					}
+					catch(IOException e)
+					{
+						hashes[index] = 0;
+					}
 				}
-				
+			}));
+		}
+		waitFor(results);
+		return hashes;
+	}
+	
+	private static void waitFor(List<Future<?>> results)
+	{
+		for(Future<?> f: results)
+		{
+			try
+			{
+				f.get();
 			}
-			else if(lastModified != file.lastModified())
+			catch(Exception e)
 			{
-				//NOTE: map is now out of date for this file
-				this.updateFile(file, template,fInfo);
+				e.printStackTrace();
 			}
-			template = file;
 		}
-		
 	}
-
+	
+	/**
+	 * Helper method. Parses and hashes the given files in parallel.
+	 * @return -- The parsed files, in the same order. Files that could not be parsed are null.
+	 */
+	private static ParsedFile[] parseFiles(List<File> files, ExecutorService pool)
+	{
+		ArrayList<Future<ParsedFile>> results = new ArrayList<Future<ParsedFile>>();
+		for(final File f: files)
+		{
+			results.add(pool.submit(new Callable<ParsedFile>()
+			{
+				public ParsedFile call() throws Exception
+				{
+					long size = f.length();
+					int hash = ContentHash.of(f);
+					return new ParsedFile(new SlhaFile(f), size, hash);
+				}
+			}));
+		}
+		ParsedFile[] parsed = new ParsedFile[files.size()];
+		for(int i = 0; i < parsed.length; i++)
+		{
+			try
+			{
+				parsed[i] = results.get(i).get();
+			}
+			catch(Exception e)
+			{
+				//the file is not a valid SLHA file.
+				parsed[i] = null;
+			}
+		}
+		return parsed;
+	}
+	
+	/**
+	 * Helper method. Reports whether a file in the directory of the binary may hold SLHA data, 
+	 * rather than being the binary, one of its side files, or an export.
+	 */
+	public boolean isDataFile(File f)
+	{
+		return isDataFile(binary, f);
+	}
+	
+	/**
+	 * Reports whether a file in the directory of a binary may hold SLHA data, see isDataFile. Used before the
+	 * binary is opened.
+	 * @param binary -- The binary, which need not exist yet.
+	 */
+	static boolean isDataFile(File binary, File f)
+	{
+		String name = f.getName();
+		return !name.startsWith(binary.getName()) && !name.endsWith(".log") && !name.endsWith(".dat")
+				&& !NpyWriter.isExportName(name) && !name.endsWith(IncrementalExport.MARK_EXTENSION);
+	}
+	
+	/**
+	 * Helper method. Returns the name a file is stored under in the binary, its path relative to the 
+	 * directory of the binary with '/' separators. Files outside of the directory are stored by name.
+	 */
+	private String keyOf(File f)
+	{
+		Path directory = binary.getAbsoluteFile().getParentFile().toPath();
+		Path path = f.getAbsoluteFile().toPath();
+		if(!path.startsWith(directory))
+			return f.getName();
+		return directory.relativize(path).toString().replace(File.separatorChar, '/');
+	}
+	
+	/**
+	 * Helper method. Looks up a file in the file index. Files stored under the old style name (the file name
+	 * without its extension) are moved to their full name, unless the binary is read only.
+	 * @return -- The number of the file in the file index, or -1 if it is not in the binary.
+	 */
+	private int findFile(File f)
+	{
+		String key = keyOf(f);
+		int fInfo = fileInfo.find(key);
+		if(fInfo >= 0)
+			return fInfo;
+		fInfo = fileInfo.find(nameOf(f.getName()));
+		if(fInfo >= 0 && !readOnly)
+		{
+			fileInfo.rename(fInfo, key);
+			recordFile(fInfo);
+			renamed = true;
+		}
+		return fInfo;
+	}
+	
+	/**
+	 * Helper method. Adds the current state of a file to the catalog, replacing its earlier record.
+	 */
+	private void recordFile(int fInfo)
+	{
+		catalog.addFile(fileInfo.getName(fInfo), fileInfo.getRow(fInfo), fileInfo.getLastModified(fInfo), 
+				fileInfo.getVersion(fInfo), fileInfo.getSize(fInfo), fileInfo.getContentHash(fInfo));
+	}
+	
 	/**
 	 * Updates the file location in the binary file with new values if the file has been found to be modified.
-	 * @param fInfo -- The file data location in the binary, required so modifications can be made to proper part of file.
-	 * @param fileName --The name of the file to be updated within the binary.
+	 * @param file -- The parsed, modified file.
 	 * @param template -- a template to compare this file to, necessary for any potential additions to file.
+	 * @param fInfo -- The number of the file in the file index, required so modifications can be made to proper part of file.
+	 * @return -- The row to be written.
 	 */
-	private void updateFile(File f, File template, FileInfo fInfo)
+	private RowWrite updateFile(ParsedFile parsed, SlhaFile template, int fInfo)
 	{
+		SlhaFile file = parsed.file;
 		//a file has been found to be altered. re-add it to the binary, but adjust the values 
-		SlhaFile file = null;
-		try {
-			file = new SlhaFile(f);
-		} catch (Exception e) {
-			//creation of the file failed. Print stack, abort.
-			System.err.print("Error Creating SLHA file"+ f.getName() + "\n");
-			e.printStackTrace();
+		//the row is rewritten in place, in the slot the file was first given. Rows shared with duplicate
+		//files are left as they are, and the file is given a row of its own.
+		int row = fileInfo.getRow(fInfo);
+		if(row < 0 || fileInfo.references(row) > 1)
+		{
+			row = usedFiles++;
+			fileInfo.put(fileInfo.getName(fInfo), file.lastModified(), row, version);
+		}
+		else
+			keepRow(row);
+		ByteBuffer buffer = buildRow(file, row);
+		checkConsistency(file, template);
+
+		//update the last modified date, content and version, the newer file record replaces the old one.
+		fileInfo.setLastModified(fInfo, file.lastModified());
+		fileInfo.setVersion(fInfo, ++version);
+		fileInfo.setContent(fInfo, parsed.size, parsed.hash);
+		recordFile(fInfo);
+		
+		//write all of the updated variable data
+		return new RowWrite(row, buffer.array());
+	}
+	
+	/**
+	 * Helper method. Writes rows to the binary, sorted by row. Runs of consecutive rows are joined 
+	 * into a single write. If a row appears more than once, the last one is written.
+	 */
+	private void writeRows(List<RowWrite> rows)
+	{
+		RowWrite[] sorted = rows.toArray(new RowWrite[rows.size()]);
+		//a stable sort keeps later writes of the same row after earlier ones.
+		Arrays.sort(sorted, new Comparator<RowWrite>()
+		{
+			public int compare(RowWrite a, RowWrite b)
+			{
+				return Integer.compare(a.row, b.row);
+			}
+		});
+		int rowsPerWrite = Math.max(1, COPY_CHUNK_BYTES / offset);
+		int i = 0;
+		while(i < sorted.length)
+		{
+			int first = sorted[i].row;
+			byte[] run = new byte[0];
+			int count = 0;
+			while(i < sorted.length && sorted[i].row - first <= count && count < rowsPerWrite)
+			{
+				if(sorted[i].row - first == count)
+				{
+					count++;
+					if(run.length < count * offset)
+						run = Arrays.copyOf(run, Math.min(rowsPerWrite, Math.max(count * 2, 16)) * offset);
+				}
+				else
+				{
+					//the same row again, the later write replaces it.
+					Arrays.fill(run, (count - 1) * offset, count * offset, (byte) 0);
+				}
+				System.arraycopy(sorted[i].data, 0, run, (sorted[i].row - first) * offset, sorted[i].data.length);
+				i++;
+			}
+			worker.addRequest(dataOffset + (long)first * offset, Arrays.copyOf(run, count * offset));
+		}
+	}
+	
+	/**
+	 * Private helper method. Builds the variable and presence maps from the catalog, if they have not been built yet.
+	 */
+	private synchronized void loadColumns()
+	{
+		if(columnsLoaded)
+			return;
+		presence = new NullBitmap(catalog);
+		gatherCatalog(true, false);
+		columnsLoaded = true;
+	}
+	
+	/**
+	 * Private helper method. Builds the file map from the catalog, if it has not been built yet.
+	 */
+	private synchronized void loadFiles()
+	{
+		if(filesLoaded)
 			return;
+		gatherCatalog(false, true);
+		filesLoaded = true;
+	}
+	
+	/**
+	 * Private helper method. Loads the zone map saved beside the binary, reading back the rows written since it
+	 * was saved, or builds it from the binary if it has not been saved. See ZoneMap.
+	 */
+	private synchronized ZoneMap loadZones() throws IOException
+	{
+		if(zones != null)
+			return zones;
+		loadColumns();
+		loadFiles();
+		long[] versions = new long[usedFiles];
+		for(int row = 0; row < usedFiles; row++)
+			versions[row] = getRowVersion(row);
+		zones = ZoneMap.load(ZoneMap.fileOf(binary), versions, version, bin.getChannel(), dataOffset, offset, presence);
+		return zones;
+	}
+	
+	/**
+	 * Private helper method. Saves the zone map beside the binary, so it need not be built again when the binary
+	 * is next opened.
+	 */
+	private synchronized void saveZones()
+	{
+		try
+		{
+			zones.save(ZoneMap.fileOf(binary), version);
+		}
+		catch(IOException e)
+		{
+			e.printStackTrace();
+			System.err.println("Error saving the zone map, it will be rebuilt when the binary is next opened");
+		}
+	}
+	
+	/**
+	 * Private helper method. Maps the whole catalog into memory, and builds the requested maps from its records.
+	 * @param columns -- True to build the variable and presence maps.
+	 * @param files -- True to build the file map.
+	 */
+	private void gatherCatalog(boolean columns, boolean files) {
+		ByteBuffer region;
+		try
+		{
+			region = bin.getChannel().map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE, catalog.getLength());
 		}
+		catch(IOException e)
+		{
+			throw new IllegalStateException("Error reading the catalog of " + binary, e);
+		}
+		BinaryCatalog.read(region, new BinaryCatalog.Visitor()
+		{
+			public void variable(Variable var, int column, int firstRow)
+			{
+				variableInfo.add(var, column);
+				presence.addColumn(column, firstRow);
+			}
+
+			public void file(String name, int row, long lastModified, long rowVersion, long size, int hash)
+			{
+				fileInfo.setContent(fileInfo.put(name, lastModified, row, rowVersion), size, hash);
+				version = Math.max(version, rowVersion);
+			}
 
+			public void presence(byte type, int column, int row)
+			{
+				presence.load(type, column, row);
+			}
+
+			public void variableRemoved(int column)
+			{
+				if(column < variableInfo.size() && variableInfo.get(column) != null)
+					variableInfo.remove(column);
+				presence.removeColumn(column);
+			}
+		}, columns, files);
+	}
+
+	/**
+	 * private helper method. Gathers the header information from the binary file regarding
+	 * the current load factor of the binary file.
+	 */
+	private void gatherHeader() throws IOException {
+		byte[] header = new byte[HEADER_SIZE];
+		bin.seek(0);
+		bin.readFully(header);
+		ByteBuffer b = ByteBuffer.wrap(header);
+		if(b.getInt() != MAGIC)
+			throw new IOException("Not a binary file: " + binary);
+		int version = b.getInt();
+		if(version != VERSION)
+			throw new IOException("Unsupported binary version " + version + ": " + binary);
+		availableVars = b.getInt();
+		usedVars = b.getInt();
+		usedFiles = b.getInt();
+		deduplicate = (b.getInt() & FLAG_DEDUPLICATE) != 0;
+		long capacity = b.getLong();
+		long length = b.getLong();
+		dataOffset = b.getLong();
+		catalog = new BinaryCatalog(capacity, length);
+	}
+
+	/**
+	 * Creates a new binary file at the given location with the default size values.
+	 */
+	private void createNewBinaryFile() throws IOException 
+	{
+		//new files can hold 150 different variables initially, files are appended as rows.
+		availableVars = INITIAL_AVAILABLE_VARIABLES;
+		usedVars = 0;
+		usedFiles = 0;
+		catalog = new BinaryCatalog(INITIAL_CATALOG_CAPACITY, 0);
+		dataOffset = HEADER_SIZE + INITIAL_CATALOG_CAPACITY;
+		presence = new NullBitmap(catalog);
+		columnsLoaded = true;
+		filesLoaded = true;
+		//build/write the header.
+		worker.addRequest(0, encodeHeader());
+	}
+	
+	/**
+	 * Helper method. Builds the header from the current values of this object.
+	 */
+	private byte[] encodeHeader()
+	{
+		return encodeHeader(availableVars, usedVars, usedFiles, deduplicate ? FLAG_DEDUPLICATE : 0, 
+				catalog.getCapacity(), catalog.getLength(), dataOffset);
+	}
+	
+	/**
+	 * Builds a version 2 header from the given values.
+	 */
+	static byte[] encodeHeader(int availableVars, int usedVars, int usedFiles, int flags, long catalogCapacity, 
+			long catalogLength, long dataOffset)
+	{
+		ByteBuffer b = ByteBuffer.allocate(HEADER_SIZE);
+		b.putInt(MAGIC);
+		b.putInt(VERSION);
+		b.putInt(availableVars);
+		b.putInt(usedVars);
+		b.putInt(usedFiles);
+		b.putInt(flags);
+		b.putLong(catalogCapacity);
+		b.putLong(catalogLength);
+		b.putLong(dataOffset);
+		return b.array();
+	}
+	
+	/**
+	 * Helper method. Returns the name a file is stored under in the binary, the file name without its extension.
+	 */
+	private static String nameOf(String fileName)
+	{
+		int index = fileName.lastIndexOf('.');
+		if(index > 0)
+			return fileName.substring(0, index);
+		return fileName;
+	}
+	
+	/**
+	 * Adds a file to the binary as a new row. If the binary already holds a file at the same path, 
+	 * its row is rewritten in place instead. Removed files are stored again.
+	 * @param file -- The parsed file to add.
+	 * @param template -- A template to compare the file to, for logging inconsistencies.
+	 */
+	public synchronized boolean addFile(SlhaFile file, SlhaFile template)
+	{
+		checkWritable();
+		long size = -1;
+		int hash = 0;
+		if(file.getFile() != null && file.getFile().exists())
+		{
+			try
+			{
+				size = file.getFile().length();
+				hash = ContentHash.of(file.getFile());
+			}
+			catch(IOException e)
+			{
+				//the content could not be hashed, the file will be parsed again if its timestamp changes.
+				size = -1;
+			}
+		}
+		return addFile(file, template, size, hash);
+	}
+	
+	/**
+	 * Adds a file to the binary with the given content fingerprint. Documents that were not read from a file 
+	 * of their own are stored under their file name, and a document with the same name rewrites its row in place.
+	 * @param size -- The size of the file, or -1 if its content was not hashed.
+	 * @param hash -- The content hash of the file.
+	 */
+	synchronized boolean addFile(SlhaFile file, SlhaFile template, long size, int hash)
+	{
+		checkWritable();
+		int fInfo = file.getFile() == null ? fileInfo.find(file.getFileName()) : findFile(file.getFile());
+		RowWrite row;
+		if(fInfo >= 0)
+			row = updateFile(new ParsedFile(file, size, hash), template, fInfo);
+		else
+			row = appendFile(file, template, size, hash);
+		if(row != null)
+			worker.addRequest(dataOffset + ((long)row.row * offset), row.data);
+		
+		//update the header values for when the binary is reopened.
+		updateBinary();
+		
+		return true;
+		
+	}
+	
+	/**
+	 * Helper method. Adds a file to the catalog and file index as the next row, without writing the row.
+	 * When deduplicating, a file with the same data as an earlier row is stored as a reference to that row.
+	 * @param size -- The size of the file, or -1 if the content was not hashed.
+	 * @param hash -- The content hash of the file.
+	 * @return -- The row to be written, or null if the file was stored as a reference to an existing row.
+	 */
+	private RowWrite appendFile(SlhaFile file, SlhaFile template, long size, int hash)
+	{
+		//we assume that the file does not already exist within the binary.
+		//use the slhaFileBuffer to convert all of the data into 
+		//a single large buffer to be written 
+		
 		//go through file, get variable, place in array in proper order
-		//convert array to byte buffer and write it to the file. 
-		ByteBuffer buffer = ByteBuffer.allocate(file.numberOfVariables*8);
-		for(String b: file.getBlocks())
+		//convert array to byte buffer and write it to the file. New variables may grow
+		//the binary, so this happens before any locations are calculated.
+		FilledRow filled = fillRow(file, usedFiles);
+		ByteBuffer row = filled.values;
+		String name = file.getFile() == null ? file.getFileName() : keyOf(file.getFile());
+		checkConsistency(file, template);
+		
+		if(deduplicate)
+		{
+			int existing = findRow(rowHash(row, filled.present));
+			if(existing >= 0)
+			{
+				addReference(name, file.lastModified(), existing, size, hash);
+				return null;
+			}
+		}
+		markRow(row, filled.present, usedFiles);
+		
+		//add the file to the catalog and the map
+		catalog.addFile(name, usedFiles, file.lastModified(), ++version, size, hash);
+		int fInfo = fileInfo.put(name, file.lastModified(), usedFiles, version);
+		fileInfo.setContent(fInfo, size, hash);
+		if(deduplicate && size >= 0)
+			contentFiles.put(contentKey(size, hash), fInfo);
+		return new RowWrite(usedFiles++, row.array());
+	}
+	
+	/**
+	 * Helper method. Stores a file as a reference to the row of an earlier file with the same data.
+	 * The file takes the version of the row it refers to.
+	 */
+	private void addReference(String name, long lastModified, int row, long size, int hash)
+	{
+		int owner = fileInfo.fileAt(row);
+		long rowVersion = owner < 0 ? 0 : fileInfo.getVersion(owner);
+		catalog.addFile(name, row, lastModified, rowVersion, size, hash);
+		fileInfo.setContent(fileInfo.put(name, lastModified, row, rowVersion), size, hash);
+	}
+	
+	/**
+	 * Turns deduplication on or off for files added from now on. When it is on, a file whose numeric row
+	 * matches an earlier row is stored as a reference to that row instead of a new row, and addDuplicateFile
+	 * can store byte identical files without parsing them. Rows are matched by a 64 bit hash of their values.
+	 * The setting is kept in the header, so files found when the binary is reopened are deduplicated as well.
+	 * Deduplication is off by default.
+	 */
+	public synchronized void setDeduplicate(boolean deduplicate)
+	{
+		checkWritable();
+		if(deduplicate && rowHashes == null)
+			indexRows();
+		this.deduplicate = deduplicate;
+		updateBinary();
+	}
+	
+	public boolean isDeduplicating()
+	{
+		return deduplicate;
+	}
+	
+	/**
+	 * Stores the given file as a reference to an earlier file with exactly the same content, without parsing it.
+	 * Only used when deduplicating.
+	 * @param f -- The file to add.
+	 * @return -- True if the file was stored, false if it has to be parsed and added with addFile.
+	 */
+	public synchronized boolean addDuplicateFile(File f)
+	{
+		checkWritable();
+		if(!deduplicate || findFile(f) >= 0 || !storeDuplicate(f))
+			return false;
+		updateBinary();
+		return true;
+	}
+	
+	/**
+	 * Helper method. Stores a file as a reference to an earlier file with exactly the same content, if there is one.
+	 */
+	private boolean storeDuplicate(File f)
+	{
+		try
+		{
+			long size = f.length();
+			int hash = ContentHash.of(f);
+			int original = contentFiles.get(contentKey(size, hash));
+			if(original < 0 || fileInfo.isRemoved(original) || fileInfo.getSize(original) != size 
+					|| fileInfo.getContentHash(original) != hash)
+				return false;
+			//the content hash is only 32 bits, so the files themselves are compared.
+			File originalFile = new File(binary.getAbsoluteFile().getParentFile(), fileInfo.getName(original));
+			if(!sameContent(f, originalFile))
+				return false;
+			addReference(keyOf(f), f.lastModified(), fileInfo.getRow(original), size, hash);
+			return true;
+		}
+		catch(IOException e)
+		{
+			return false;
+		}
+	}
+	
+	/**
+	 * Returns the files that share a row with other files, one list for every shared row. 
+	 * The first name of each list is the file the row was written for.
+	 */
+	public LinkedList<LinkedList<String>> getDuplicateGroups()
+	{
+		loadFiles();
+		HashIndex groupOfRow = new HashIndex();
+		ArrayList<LinkedList<String>> groups = new ArrayList<LinkedList<String>>();
+		for(int f = 0; f < fileInfo.size(); f++)
+		{
+			int row = fileInfo.getRow(f);
+			if(fileInfo.references(row) < 2)
+				continue;
+			int group = groupOfRow.get(row);
+			if(group < 0)
+			{
+				group = groups.size();
+				groupOfRow.put(row, group);
+				groups.add(new LinkedList<String>());
+				groups.get(group).add(fileInfo.getName(fileInfo.fileAt(row)));
+			}
+			if(fileInfo.fileAt(row) != f)
+				groups.get(group).add(fileInfo.getName(f));
+		}
+		return new LinkedList<LinkedList<String>>(groups);
+	}
+	
+	/**
+	 * Returns the highest number among the files named by a prefix followed by a number, e.g. the documents of
+	 * a stream (see StreamSource). Removed files are counted, so their names are not given out again.
+	 * @return -- The highest number, or 0 if no file is so named.
+	 */
+	public synchronized int getLastNumber(String prefix)
+	{
+		loadFiles();
+		int last = 0;
+		for(int f = 0; f < fileInfo.size(); f++)
+		{
+			String name = fileInfo.getName(f);
+			if(!name.startsWith(prefix))
+				continue;
+			try
+			{
+				last = Math.max(last, Integer.parseInt(name.substring(prefix.length())));
+			}
+			catch(NumberFormatException e)
+			{
+				//not one of the numbered files.
+			}
+		}
+		return last;
+	}
+	
+	/**
+	 * Returns the number of files stored in the binary. Files stored as references to another row
+	 * are counted, so this can be larger than the number of rows.
+	 */
+	public int getNumberOfFiles()
+	{
+		loadFiles();
+		return fileInfo.size();
+	}
+	
+	/**
+	 * Opens a read only view of the binary as of the last committed row: every row whose data and header have 
+	 * been written. The view keeps its own handle on the binary, so it can be read from any thread while files 
+	 * are added, the binary grows or is compacted, without waiting on writes. Rows added after the view was 
+	 * opened are not visible, and removed rows stay visible. Rows rewritten in place (see getRowVersion) keep 
+	 * the values they held when the view was opened. The view should be closed when it is no longer needed.
+	 */
+	public synchronized BinarySnapshot openSnapshot() throws IOException
+	{
+		loadColumns();
+		loadFiles();
+		if(rewritten)
+		{
+			//a rewrite still queued would be read with the presence of its new values, see keepRow.
+			waitForWrites();
+			rewritten = false;
+		}
+		int rows = Math.min(committedRows, usedFiles);
+		BitSet live = new BitSet(rows);
+		long[] rowVersions = new long[rows];
+		for(int row = 0; row < rows; row++)
+		{
+			if(fileInfo.references(row) > 0)
+			{
+				live.set(row);
+				int file = fileInfo.fileAt(row);
+				rowVersions[row] = file < 0 ? 0 : fileInfo.getVersion(file);
+			}
+			else
+				rowVersions[row] = -1;
+		}
+		//read only binaries without saved zones are not read in full just to skip parts of them.
+		ZoneMap zoneCopy = zones != null || ZoneMap.fileOf(binary).exists() ? loadZones().copy() : null;
+		BinarySnapshot snapshot = new BinarySnapshot(new RandomAccessFile(binary, "r"), dataOffset, offset, rows, 
+				variableInfo.copy(), presence.copy(), live, rowVersions, version, zoneCopy);
+		//read only binaries are never rewritten.
+		if(!readOnly)
+			snapshots.addLast(snapshot);
+		return snapshot;
+	}
+	
+	/**
+	 * Helper method. Has every open snapshot keep the data of a row that is about to be rewritten in place, as it 
+	 * is on disk. Snapshots are opened once every queued rewrite has been written, so the first rewrite of a row 
+	 * after a snapshot is opened finds the row as the snapshot saw it. Closed snapshots are let go.
+	 */
+	private void keepRow(int row)
+	{
+		rewritten = true;
+		Iterator<BinarySnapshot> it = snapshots.iterator();
+		while(it.hasNext())
+		{
+			BinarySnapshot snapshot = it.next();
+			if(!snapshot.isOpen())
+			{
+				it.remove();
+				continue;
+			}
+			try
+			{
+				snapshot.keepRow(row);
+			}
+			catch(IOException e)
+			{
+				e.printStackTrace();
+				System.err.println("Error keeping row " + row + " for a snapshot");
+			}
+		}
+	}
+	
+	/**
+	 * Removes a file from the binary. The file is tombstoned: its row no longer belongs to any file and is left 
+	 * out of exports, and its name is kept so the file is not added again when the binary is verified. 
+	 * The space of the row is reclaimed by compact.
+	 * @param name -- The name of the file, its path relative to the directory of the binary.
+	 * @return -- True if the file was removed, false if the binary holds no such file.
+	 */
+	public synchronized boolean removeFile(String name)
+	{
+		checkWritable();
+		int fInfo = fileInfo.find(name);
+		if(fInfo < 0 || fileInfo.isRemoved(fInfo))
+			return false;
+		int row = fileInfo.getRow(fInfo);
+		fileInfo.remove(fInfo);
+		recordFile(fInfo);
+		//rows shared with duplicate files stay in the indexes until every file using them is removed.
+		if(row >= 0 && fileInfo.references(row) == 0)
+		{
+			for(SortedIndex index: indexes)
+				index.removeRow(row);
+			sketches.removeRow();
+		}
+		updateBinary();
+		return true;
+	}
+	
+	/**
+	 * Removes the given file from the binary, see removeFile(String).
+	 */
+	public boolean removeFile(File f)
+	{
+		return removeFile(keyOf(f));
+	}
+	
+	/**
+	 * Removes a variable from the binary. Its cells hold no data from now on, and its column is reclaimed 
+	 * by compact. If a file holding the variable is added later, the variable is given a new column.
+	 * @return -- True if the variable was removed, false if the binary holds no such variable.
+	 */
+	public synchronized boolean removeVariable(Variable var)
+	{
+		checkWritable();
+		int column = columnOf(var);
+		if(column < 0)
+			return false;
+		variableInfo.remove(column);
+		presence.removeColumn(column);
+		zones.removeColumn(column);
+		sketches.removeColumn(column);
+		dropIndex(var);
+		catalog.addRemovedVariable(column);
+		updateBinary();
+		return true;
+	}
+	
+	/**
+	 * Reports whether the given row holds the data of at least one file. Rows of removed files are dead 
+	 * until the binary is compacted.
+	 */
+	public boolean isLiveRow(int row)
+	{
+		loadFiles();
+		return fileInfo.references(row) > 0;
+	}
+	
+	/**
+	 * Returns the number of rows that hold no file, and would be reclaimed by compact.
+	 */
+	public int getNumberOfDeadRows()
+	{
+		loadFiles();
+		int dead = 0;
+		for(int row = 0; row < usedFiles; row++)
+		{
+			if(fileInfo.references(row) == 0)
+				dead++;
+		}
+		return dead;
+	}
+	
+	/**
+	 * Compacts the binary in a background thread, see compact.
+	 * @return -- The (started) thread running the compaction.
+	 */
+	public Thread compactInBackground()
+	{
+		checkWritable();
+		Thread t = new Thread(new Runnable()
+		{
+			public void run()
+			{
+				try
+				{
+					compact();
+				}
+				catch(IOException e)
+				{
+					e.printStackTrace();
+					System.err.println("Error compacting binary file");
+				}
+			}
+		});
+		t.start();
+		return t;
+	}
+	
+	/**
+	 * Rewrites the binary without the rows of removed files and the columns of removed variables. Live rows 
+	 * keep their order but are renumbered, so row numbers read before compacting should not be used after it.
+	 * 
+	 * The rows are copied from a snapshot without holding up readers or writers. Once they are copied, writes are
+	 * held briefly while the rows added or rewritten since the snapshot are copied and the binary is switched over. 
+	 * Files and variables removed after the snapshot are reclaimed by the next compaction.
+	 */
+	public void compact() throws IOException
+	{
+		checkWritable();
+		int[] rowMap;
+		int[] columnMap;
+		int snapshotRows;
+		int snapshotColumns;
+		long snapshotVersion;
+		int snapshotGeneration;
+		int liveRows = 0;
+		int liveColumns = 0;
+		RandomAccessFile source;
+		long sourceOffset;
+		int rowSize;
+		long capacity;
+		synchronized(this)
+		{
+			waitForWrites();
+			snapshotRows = usedFiles;
+			snapshotColumns = usedVars;
+			snapshotVersion = version;
+			snapshotGeneration = generation;
+			rowMap = new int[snapshotRows];
+			for(int row = 0; row < snapshotRows; row++)
+				rowMap[row] = fileInfo.references(row) > 0 ? liveRows++ : -1;
+			columnMap = new int[snapshotColumns];
+			for(int column = 0; column < snapshotColumns; column++)
+				columnMap[column] = variableInfo.get(column) != null ? liveColumns++ : -1;
+			if(liveRows == snapshotRows && liveColumns == snapshotColumns)
+				return;
+			source = new RandomAccessFile(binary, "r");
+			sourceOffset = dataOffset;
+			rowSize = offset;
+			capacity = catalog.getCapacity();
+		}
+		File tempFile = new File(binary.getParentFile(), binary.getName() + ".tmp");
+		RandomAccessFile tempBin = new RandomAccessFile(tempFile, "rw");
+		try
 		{
-			for(Variable v: file.getField(b).getVariables())
+			tempBin.setLength(0);
+			long targetOffset = HEADER_SIZE + capacity;
+			copyRows(source, sourceOffset, rowSize, 0, snapshotRows, rowMap, columnMap, tempBin, targetOffset, rowSize);
+			
+			synchronized(this)
 			{
-				//ensure that variable exists
-				Long firstInstance = variableInfo.get(v);
-				if(firstInstance == null)
+				waitForWrites();
+				if(generation != snapshotGeneration)
+				{
+					//the binary was grown while the rows were copied, so they are copied again from the new layout.
+					source.close();
+					source = new RandomAccessFile(binary, "r");
+					sourceOffset = dataOffset;
+					rowSize = offset;
+					capacity = catalog.getCapacity();
+					targetOffset = HEADER_SIZE + capacity;
+					tempBin.setLength(0);
+					copyRows(source, sourceOffset, rowSize, 0, snapshotRows, rowMap, columnMap, tempBin, targetOffset, rowSize);
+				}
+				//rows and columns added since the snapshot follow the live ones.
+				rowMap = Arrays.copyOf(rowMap, usedFiles);
+				for(int row = snapshotRows; row < usedFiles; row++)
+					rowMap[row] = liveRows++;
+				columnMap = Arrays.copyOf(columnMap, usedVars);
+				for(int column = snapshotColumns; column < usedVars; column++)
+					columnMap[column] = liveColumns++;
+				copyRows(source, sourceOffset, rowSize, snapshotRows, usedFiles, rowMap, columnMap, tempBin, targetOffset, rowSize);
+				//rows rewritten in place since the snapshot are copied again.
+				for(int f = 0; f < fileInfo.size(); f++)
+				{
+					int row = fileInfo.getRow(f);
+					if(row >= 0 && row < snapshotRows && fileInfo.getVersion(f) > snapshotVersion && rowMap[row] >= 0)
+						copyRows(source, sourceOffset, rowSize, row, row + 1, rowMap, columnMap, tempBin, targetOffset, rowSize);
+				}
+				source.close();
+				
+				//build the compacted variable, file and presence maps.
+				VariableIndex newVariables = new VariableIndex();
+				NullBitmap newPresence = new NullBitmap(null);
+				for(int column = 0; column < usedVars; column++)
 				{
-					boolean newVariable = addVariable(v);
-					if(newVariable)
+					if(columnMap[column] < 0)
+						continue;
+					if(variableInfo.get(column) != null)
+						newVariables.add(variableInfo.get(column), columnMap[column]);
+					int first = presence.getFirstRow(column);
+					int newFirst = liveRows;
+					for(int row = first; row < usedFiles; row++)
 					{
-						//the variable is new, previous files must have an entry. This entry 
-						//will be the maximum double value to signify an error in the data
-						ByteBuffer buf = ByteBuffer.allocate(8);
-						buf.putDouble(Double.MAX_VALUE);
-						buf.flip();
-						for(int i = this.usedFiles; i > 0; i--)
+						if(rowMap[row] >= 0)
 						{
-							worker.addRequest(this.variableInfo.get(v) + (this.offset*i), buf.array());
+							newFirst = rowMap[row];
+							break;
 						}
 					}
-					firstInstance = variableInfo.get(v);
+					newPresence.addColumn(columnMap[column], newFirst);
+					for(int row = first; row < usedFiles; row++)
+					{
+						if(rowMap[row] >= 0 && !presence.isPresent(column, row))
+							newPresence.load(BinaryCatalog.MISSING, columnMap[column], rowMap[row]);
+					}
 				}
-				//proceed with parsing the file. 
-				int index = (int) (firstInstance - HEADER_SIZE - 
-						(VARIABLE_BINARY_SIZE*availableVars) - (FILE_BINARY_SIZE*availableFiles));
-				try
+				FileIndex newFiles = new FileIndex();
+				for(int f = 0; f < fileInfo.size(); f++)
 				{
-					buffer.putDouble(index, Double.parseDouble(v.getValue()));
+					int row = fileInfo.getRow(f);
+					int n = newFiles.put(fileInfo.getName(f), fileInfo.getLastModified(f), row < 0 ? -1 : rowMap[row], 
+							fileInfo.getVersion(f));
+					newFiles.setContent(n, fileInfo.getSize(f), fileInfo.getContentHash(f));
 				}
-				catch(NumberFormatException e)
+				variableInfo = newVariables;
+				fileInfo = newFiles;
+				presence = newPresence;
+				usedVars = liveColumns;
+				usedFiles = liveRows;
+				
+				//write the catalog and header, then switch over.
+				catalog.discardPending();
+				BinaryCatalog newCatalog = buildCatalog(capacity);
+				while(newCatalog.pendingSize() > capacity*LOAD)
 				{
-					//the value is a string. these will be removed from the binary file to
-					//retain constant data access time.
+					capacity *= 2;
+					newCatalog = buildCatalog(capacity);
+				}
+				long newDataOffset = HEADER_SIZE + capacity;
+				if(newDataOffset != targetOffset)
+				{
+					//the catalog outgrew its space, the rows are moved along.
+					tempBin.close();
+					File moved = new File(binary.getParentFile(), binary.getName() + ".tmp2");
+					RandomAccessFile from = new RandomAccessFile(tempFile, "r");
+					tempBin = new RandomAccessFile(moved, "rw");
+					tempBin.setLength(0);
+					copyRows(from, targetOffset, rowSize, tempBin, newDataOffset, rowSize, usedFiles, usedVars);
+					from.close();
+					tempFile.delete();
+					tempFile = moved;
 				}
+				byte[] records = newCatalog.drainPending();
+				//the saved zones describe the rows before they were moved.
+				File zoneFile = ZoneMap.fileOf(binary);
+				if(zoneFile.exists() && !zoneFile.delete())
+					System.err.println("Could not delete " + zoneFile);
+				for(SortedIndex index: indexes)
+					SortedIndex.invalidate(SortedIndex.fileOf(binary, index.getVariable()), index.getVariable());
+				File sketchFile = SketchSet.fileOf(binary);
+				if(sketchFile.exists() && !sketchFile.delete())
+					System.err.println("Could not delete " + sketchFile);
+				tempBin.seek(0);
+				tempBin.write(encodeHeader(availableVars, usedVars, usedFiles, deduplicate ? FLAG_DEDUPLICATE : 0, 
+						capacity, records.length, newDataOffset));
+				tempBin.write(records);
+				ChangePrimaryFile(tempBin, tempFile);
+				committedRows = usedFiles;
+				offset = rowSize;
+				dataOffset = newDataOffset;
+				catalog = newCatalog;
+				presence.setCatalog(catalog);
+				if(deduplicate)
+					indexRows();
+				zones = null;
+				loadZones();
+				rebuildIndexes();
+				//the sketches are built again when next asked for, or when the binary is closed.
+				sketches = null;
+				loadSketches();
 			}
-		}	
-		
-		LinkedList<String> inconsistencies = new LinkedList<String>();
-		SlhaFile temp = null;
-		try {
-			temp = new SlhaFile(template);
-		} 
-		catch (Exception e1) 
-		{
-			e1.printStackTrace();
-			System.err.println("Error creating slha file" + template.getName()+" Failed to update file: " + file.getFileName());
-			return;
-		}
-		try
-		{
-			inconsistencies = FileChecker.reportDifferences(file, temp);
-		} 
-		catch(Exception e)
-		{
-			System.err.println("Error detecting inconsistencies for file: " + file.getFileName() + " Template: " + temp.getFileName());
-			e.printStackTrace();
 		}
-		for(String s: inconsistencies)
+		finally
 		{
-			resolveError(s, temp);
+			tempBin.close();
+			source.close();
+			tempFile.delete();
 		}
-
-		//update the header values for when the binary is reopened.
-		updateBinary();
-		
-		//write all of the updated variable data
-		buffer.flip();
-		long fileLocation = HEADER_SIZE + (VARIABLE_BINARY_SIZE * availableVars)
-				+ (FILE_BINARY_SIZE * availableFiles) + (usedFiles * offset);
-		worker.addRequest(fileLocation, buffer.array());
-		//update the binary last modified date.
-		ByteBuffer b = ByteBuffer.allocate(8);
-		b.putLong(file.lastModified());
-		b.flip();
-		worker.addRequest(HEADER_SIZE + (availableVars*VARIABLE_BINARY_SIZE) + (fInfo.fileLocation * FILE_BINARY_SIZE), b.array());
 	}
-
+	
 	/**
-	 * Private helper method. Builds the map to navigate to the starting point for each variable
-	 * using the information gathered from the variable table in the binary file.
+	 * Copies a range of rows to another binary, moving each row and column to its place in the target.
+	 * @param first -- The first row of the range to copy.
+	 * @param last -- The row after the last row of the range.
+	 * @param rowMap -- The target row of every source row, -1 for rows that are not copied.
+	 * @param columnMap -- The target column of every source column, -1 for columns that are not copied.
 	 */
-	private void gatherVariables() throws IOException {
-		//variable table starts at the end of the header
-		bin.seek(HEADER_SIZE);
-		for(int i = 0; i < usedVars; i++)
+	private static void copyRows(RandomAccessFile source, long sourceOffset, int sourceRowSize, int first, int last,
+			int[] rowMap, int[] columnMap, RandomAccessFile target, long targetOffset, int targetRowSize) throws IOException
+	{
+		int rowsPerChunk = Math.max(1, COPY_CHUNK_BYTES / Math.max(sourceRowSize, targetRowSize));
+		ByteBuffer in = ByteBuffer.allocate(rowsPerChunk * sourceRowSize);
+		byte[] outBuffer = new byte[rowsPerChunk * targetRowSize];
+		for(int chunk = first; chunk < last; chunk += rowsPerChunk)
 		{
-			//build the variable table
-			int PDG_1 = bin.readInt();
-			int PDG_2 = bin.readInt();
-			int PDG_3 = bin.readInt();
-			//get the blockname. blocks are given 20 characters per variable
-			StringBuilder blockName = new StringBuilder();
-			for(int j = 0; j < VAR_BLOCK_MAX_CHARS; j++)
+			int count = Math.min(rowsPerChunk, last - chunk);
+			in.clear();
+			in.limit(count * sourceRowSize);
+			source.getChannel().read(in, sourceOffset + (long)chunk * sourceRowSize);
+			//the last row of the source may have been written without its unused columns.
+			Arrays.fill(in.array(), in.position(), count * sourceRowSize, (byte) 0);
+			//live rows are written in runs of consecutive target rows.
+			int runStart = -1;
+			int runLength = 0;
+			for(int r = 0; r <= count; r++)
 			{
-				char c = bin.readChar();
-				if(c == 0)
+				int targetRow = r < count ? rowMap[chunk + r] : -1;
+				if(runLength > 0 && targetRow != runStart + runLength)
+				{
+					target.seek(targetOffset + (long)runStart * targetRowSize);
+					target.write(outBuffer, 0, runLength * targetRowSize);
+					runLength = 0;
+				}
+				if(targetRow < 0)
 					continue;
-				blockName.append(c);
+				if(runLength == 0)
+					runStart = targetRow;
+				int out = runLength * targetRowSize;
+				Arrays.fill(outBuffer, out, out + targetRowSize, (byte) 0);
+				for(int column = 0; column < columnMap.length; column++)
+				{
+					if(columnMap[column] >= 0)
+						System.arraycopy(in.array(), r * sourceRowSize + column * 8, outBuffer, out + columnMap[column] * 8, 8);
+				}
+				runLength++;
 			}
-			String block = blockName.toString();
-			StringBuilder description = new StringBuilder();
-			
-			for(int j = 0; j < VAR_DESC_MAX_CHARS; j++)
+		}
+	}
+	
+	/**
+	 * Helper method. Waits until every queued write has been written to the binary.
+	 */
+	private void waitForWrites()
+	{
+		while(worker.completedRequests < worker.totalRequests)
+		{
+			try
 			{
-				char c = bin.readChar();
-				if(c == 0)
-					continue;
-				description.append(c);
+			Thread.sleep(50);
 			}
-			String desc = description.toString();
-			//first variable instance location
-			long firstInstance = bin.readLong();
-			//add to variable map
-			variableInfo.put(new Variable(PDG_1 +"", PDG_2+"", PDG_3+"", null, desc.trim(), block.trim()) ,firstInstance);
+			catch(InterruptedException e){}
 		}
 	}
-
+	
 	/**
-	 * private helper method. Gathers the header information from the binary file regarding
-	 * the current load factor of the binary file.
+	 * Helper method. Hashes the values of a row, so rows holding the same numbers hash the same. Trailing 
+	 * missing cells are ignored, since rows written before a variable was added do not hold its column, 
+	 * and negative zero is hashed as zero. Missing cells hash apart from every value, Double.MAX_VALUE included.
+	 * @param present -- Whether each cell of the row holds a value.
 	 */
-	private void gatherHeader() throws IOException {
-		bin.seek(0);
-		availableVars = bin.readInt();
-		usedVars = bin.readInt();
-		availableFiles = bin.readInt();
-		usedFiles = bin.readInt();	
+	private static long rowHash(ByteBuffer row, boolean[] present)
+	{
+		int columns = row.capacity() / 8;
+		while(columns > 0 && !present[columns - 1])
+			columns--;
+		long h = 0x9E3779B97F4A7C15L ^ columns;
+		for(int column = 0; column < columns; column++)
+		{
+			double d = row.getDouble(column*8);
+			long bits = present[column] ? Double.doubleToLongBits(d == 0 ? 0.0 : d) : MISSING_BITS;
+			h = Long.rotateLeft((h ^ bits) * 0xBF58476D1CE4E5B9L, 31);
+		}
+		h ^= h >>> 29;
+		return h * 0x94D049BB133111EBL;
 	}
-
+	
+	private static long contentKey(long size, int hash)
+	{
+		return (size * 0x9E3779B97F4A7C15L) ^ (hash & 0xffffffffL);
+	}
+	
 	/**
-	 * Creates a new binary file at the given location with the default size values.
+	 * Helper method. Returns the row holding data with the given hash, or -1 if there is none.
 	 */
-	private void createNewBinaryFile() throws IOException 
+	private int findRow(long hash)
 	{
-		//new files can hold 200 different variables initially, and have
-		//room for 1000 files.
-		ByteBuffer b = ByteBuffer.allocate(HEADER_SIZE);
-		availableVars = INITIAL_AVAILABLE_VARIABLES;
-		usedVars = 0;
-		availableFiles = INITIAL_AVAILABLE_FILES;
-		usedFiles = 0;
-		//build/write buffer.
-		b.putInt(availableVars);
-		b.putInt(usedVars);
-		b.putInt(availableFiles);
-		b.putInt(usedFiles);
-		b.flip();
-		worker.addRequest(0, b.array());
-		
-		//allocate empty space for the rest of the binary
-		b = ByteBuffer.allocate((FILE_BINARY_SIZE*availableFiles) + (VARIABLE_BINARY_SIZE*availableVars));
-		worker.addRequest(HEADER_SIZE, b.array());
+		int row = rowHashes.get(hash);
+		if(row < 0 || hashOfRow[row] != hash)
+			return -1;
+		return row;
 	}
 	
-	public boolean addFile(SlhaFile file, SlhaFile template)
+	/**
+	 * Helper method. Records the hash of the data written to a row.
+	 */
+	private void indexRow(long hash, int row)
 	{
-		//we assume that the file does not already exist within the binary.
-		if(usedFiles == availableFiles)
-			grow();
-		//use the slhaFileBuffer to convert all of the data into 
-		//a single large buffer to be written 
-		
-		//add the file to the table
-		long location = (HEADER_SIZE + (VARIABLE_BINARY_SIZE*availableVars) + usedFiles * FILE_BINARY_SIZE);
-		
-		ByteBuffer buffer = ByteBuffer.allocate(FILE_BINARY_SIZE);
-		buffer.putLong(file.lastModified());
-		char[] chars = file.getFileName().substring(0, file.getFileName().indexOf('.')).toCharArray();
-		//copy the maximum number of characters over(26) and place in the buffer.
-		char[] writeChars = new char[25];
-		for(int i = 0; i < chars.length; i++)
-			writeChars[i] = chars[i];
-		for(int i = chars.length; i < 25; i++)
-			writeChars[i] = 0;
-		for(char c: writeChars)
-			buffer.putChar(c);
-		//finally, add the file number in the binary file, and write it
-		buffer.putInt(usedFiles);
-		buffer.flip();
-		worker.addRequest(location, buffer.array());
-		//go through file, get variable, place in array in proper order
-		//convert array to byte buffer and write it to the file. 
-		buffer = ByteBuffer.allocate(file.numberOfVariables*8);
-		for(String b: file.getBlocks())
+		if(row >= hashOfRow.length)
+			hashOfRow = Arrays.copyOf(hashOfRow, Math.max(row + 1, hashOfRow.length * 2));
+		hashOfRow[row] = hash;
+		if(rowHashes.get(hash) < 0 || hashOfRow[rowHashes.get(hash)] != hash)
+			rowHashes.put(hash, row);
+	}
+	
+	/**
+	 * Helper method. Builds the row and content hash indexes from the rows and files already in the binary.
+	 */
+	private void indexRows()
+	{
+		loadColumns();
+		loadFiles();
+		rowHashes = new HashIndex();
+		hashOfRow = new long[Math.max(16, usedFiles)];
+		contentFiles = new HashIndex();
+		for(int f = 0; f < fileInfo.size(); f++)
 		{
-			for(Variable v: file.getField(b).getVariables())
+			if(fileInfo.getSize(f) >= 0 && !fileInfo.isRemoved(f))
+				contentFiles.put(contentKey(fileInfo.getSize(f), fileInfo.getContentHash(f)), f);
+		}
+		//rows still waiting to be written must be on disk before they are read.
+		waitForWrites();
+		int rowsPerChunk = Math.max(1, COPY_CHUNK_BYTES / offset);
+		ByteBuffer chunk = ByteBuffer.allocate(rowsPerChunk * offset);
+		try
+		{
+			for(int first = 0; first < usedFiles; first += rowsPerChunk)
 			{
-				//ensure that variable exists
-				Long firstInstance = variableInfo.get(v);
-				if(firstInstance == null)
+				int count = Math.min(rowsPerChunk, usedFiles - first);
+				chunk.clear();
+				chunk.limit(count * offset);
+				bin.getChannel().read(chunk, dataOffset + (long)first * offset);
+				for(int r = 0; r < count; r++)
 				{
-					boolean newVariable = addVariable(v);
-					if(newVariable)
+					ByteBuffer row = ByteBuffer.allocate(usedVars * 8);
+					boolean[] present = new boolean[usedVars];
+					for(int column = 0; column < usedVars; column++)
 					{
-						//the variable is new, previous files must have an entry. This entry 
-						//will be the maximum double value to signify an error in the data
-						ByteBuffer buf = ByteBuffer.allocate(8);
-						buf.putDouble(Double.MAX_VALUE);
-						buf.flip();
-						for(int i = this.usedFiles; i > 0; i--)
-						{
-							worker.addRequest(this.variableInfo.get(v) + (this.offset*i), buf.array());
-						}
+						int index = r * offset + column * 8;
+						present[column] = presence.isPresent(column, first + r) && index + 8 <= chunk.position();
+						row.putDouble(column * 8, present[column] ? chunk.getDouble(index) : Double.MAX_VALUE);
 					}
-					firstInstance = variableInfo.get(v);
-				}
-				//proceed with parsing the file. 
-				int index = (int) (firstInstance - HEADER_SIZE - 
-						(VARIABLE_BINARY_SIZE*availableVars) - (FILE_BINARY_SIZE*availableFiles));
-				try
-				{
-				buffer.putDouble(index, Double.parseDouble(v.getValue()));
-				}
-				catch(NumberFormatException e)
-				{
-					//the value is a string. these will be removed from the binary file to
-					//retain constant data access time.
+					indexRow(rowHash(row, present), first + r);
 				}
 			}
-		}	
-		
+		}
+		catch(IOException e)
+		{
+			e.printStackTrace();
+			System.err.println("Error reading the rows of the binary");
+		}
+	}
+	
+	/**
+	 * Helper method. Reports whether two files hold exactly the same bytes.
+	 */
+	private static boolean sameContent(File a, File b) throws IOException
+	{
+		if(!b.exists() || a.length() != b.length())
+			return false;
+		return Arrays.equals(Files.readAllBytes(a.toPath()), Files.readAllBytes(b.toPath()));
+	}
+	
+	/**
+	 * Helper method. Compares a file to the template, counting and logging any inconsistencies.
+	 */
+	private void checkConsistency(SlhaFile file, SlhaFile template)
+	{
 		//detect inconsistencies
 		LinkedList<String> inconsistencies = new LinkedList<String>();
 		try
@@ -438,11 +1586,13 @@ public class BinaryParser
 				{
 					try
 					{
-					File logFile = new File(binary.getParent() + "\\inconsistencies.log");
+					File logFile = new File(getDirectory(), LOG_NAME);
 					if(!logFile.exists())
 						logFile.createNewFile();
 				
-					out = new PrintWriter(new FileWriter(logFile));
+					//a log closed earlier in this session is appended to, rather than started again.
+					out = new PrintWriter(new FileWriter(logFile, logStarted));
+					logStarted = true;
 					}
 					catch(IOException e)
 					{
@@ -454,22 +1604,112 @@ public class BinaryParser
 			}
 			i++;
 		}
+	}
+	
+	/**
+	 * Helper method. Throws an IllegalStateException if this binary was opened read only.
+	 */
+	private void checkWritable()
+	{
+		if(readOnly)
+			throw new IllegalStateException("Binary is open read only: " + binary);
+	}
+	
+	/**
+	 * Helper method. Converts the values of the given file into a single row buffer, ordered by
+	 * the column of each variable. Variables seen for the first time are added to the binary, and only
+	 * record the row they start at, so earlier rows are implicitly missing and need no writes. Columns the
+	 * file has no numeric value for are marked missing, and hold Double.MAX_VALUE for older readers.
+	 * @param file -- The file whose values make up the row.
+	 * @param row -- The row the buffer will be written to.
+	 * @return -- A buffer holding one double for every used column, ready to be written.
+	 */
+	private ByteBuffer buildRow(SlhaFile file, int row)
+	{
+		FilledRow filled = fillRow(file, row);
+		markRow(filled.values, filled.present, row);
+		return filled.values;
+	}
+	
+	/**
+	 * Helper method. Builds the row buffer of a file as buildRow does, without marking the presence of its cells.
+	 * Columns the file has no numeric value for hold Double.MAX_VALUE, and are told apart from a value of 
+	 * Double.MAX_VALUE by the presence of the returned row.
+	 */
+	private FilledRow fillRow(SlhaFile file, int row)
+	{
+		//add any new variables first, adding a variable may grow the binary.
+		for(String b: file.getBlocks())
+		{
+			for(Variable v: file.getField(b).getVariables())
+			{
+				if(variableInfo.find(v) < 0)
+					addVariable(v, row);
+			}
+		}
 		
-		buffer.flip();
-		long fileLocation = HEADER_SIZE + (VARIABLE_BINARY_SIZE * availableVars)
-				+ (FILE_BINARY_SIZE * availableFiles) + (usedFiles * offset);
-		worker.addRequest(fileLocation, buffer.array());
-		
-		//add the file to the map
-		fileInfo.put(file.getFileName().substring(0, file.getFileName().lastIndexOf('.'))
-				, new FileInfo(file.lastModified(), usedFiles));
-		usedFiles++;
-		
-		//update the header values for when the binary is reopened.
-		updateBinary();
-		
-		return true;
-		
+		ByteBuffer buffer = ByteBuffer.allocate(usedVars*8);
+		boolean[] filled = new boolean[usedVars];
+		for(String b: file.getBlocks())
+		{
+			for(Variable v: file.getField(b).getVariables())
+			{
+				int column = columnOf(v);
+				try
+				{
+					buffer.putDouble(column*8, Double.parseDouble(v.getValue()));
+					filled[column] = true;
+				}
+				catch(NumberFormatException e)
+				{
+					//the value is a string. these will be removed from the binary file to
+					//retain constant data access time.
+				}
+			}
+		}
+		for(int column = 0; column < usedVars; column++)
+		{
+			if(!filled[column])
+				buffer.putDouble(column*8, Double.MAX_VALUE);
+		}
+		return new FilledRow(buffer, filled);
+	}
+	
+	/**
+	 * Helper method. Marks the cells of a row built by fillRow as present or missing.
+	 * @param present -- Whether each cell of the row holds a value, one per column of the buffer.
+	 */
+	private void markRow(ByteBuffer buffer, boolean[] present, int row)
+	{
+		//the zones take out the earlier values of a rewritten row, so they are counted before its presence changes.
+		zones.addRow(row, buffer, present, presence);
+		sketches.addRow(row, buffer, present);
+		int columns = buffer.capacity() / 8;
+		for(SortedIndex index: indexes)
+		{
+			int column = columnOf(index.getVariable());
+			boolean held = column >= 0 && column < columns && present[column];
+			index.setRow(row, held, held ? buffer.getDouble(column*8) : 0);
+		}
+		for(int column = 0; column < columns; column++)
+		{
+			if(variableInfo.get(column) == null)
+				continue;
+			if(present[column])
+				presence.markPresent(column, row);
+			else
+				presence.markMissing(column, row);
+		}
+		if(deduplicate)
+			indexRow(rowHash(buffer, present), row);
+	}
+	
+	/**
+	 * Helper method. Returns the column index of the given variable within each row.
+	 */
+	private int columnOf(Variable v)
+	{
+		return variableInfo.find(v);
 	}
 	
 	/**
@@ -481,7 +1721,6 @@ public class BinaryParser
 		//missing/unmatched variables can be added in separate writes for now, consider altering the buffer to save writes.
 		Scanner s = new Scanner(inconsistency);
 		//the errors will follow a specific format
-		String blockName = "";
 		int code = s.nextInt();
 		switch(code)
 		{
@@ -490,26 +1729,8 @@ public class BinaryParser
 			//the error contains the missing block. all variables within this block from the template must be 
 			//resolved
 			this.loggedInconsistencies++;
-			blockName = s.next();
 			s.close();
-			IBlock blockToAdd = null;
-			try
-			{
-			blockToAdd = template.getField(blockName);
-			}
-			catch(InvalidParameterException e)
-			{
-				break;
-			}
-			for(Variable v : blockToAdd.getVariables())
-			{
-				long location = this.variableInfo.get(v);
-				//write a double max to the offset location
-				ByteBuffer b = ByteBuffer.allocate(8);
-				b.putDouble(Double.MAX_VALUE);
-				b.flip();
-				this.worker.addRequest(location + (this.offset * this.usedFiles), b.array());
-			}
+			//the cells of the missing variables have already been marked missing when the row was built.
 			break;
 		case 2:
 			//unmatched variable, the controller should make it so this never happens.
@@ -517,26 +1738,8 @@ public class BinaryParser
 			s.close();
 			break;
 		case 3:
-			//missing variable, (the ideal case)
+			//missing variable, (the ideal case). The cell has already been marked missing when the row was built.
 			this.loggedInconsistencies++;
-			String pdg = null, pdg_2 = null, pdg_3 = null;
-			String description = null;
-			try
-			{
-				pdg = s.next();
-				pdg_2 = s.next();
-				pdg_3 = s.next();
-				blockName = s.next();
-				description = s.next();
-				
-			}
-			catch(NoSuchElementException e) {}	//Description does not exist most likley, use what has been provided.
-			long location = this.variableInfo.get(new Variable(pdg,pdg_2,pdg_3,null,description, blockName));
-			//write a double max to the offset location
-			ByteBuffer b = ByteBuffer.allocate(8);
-			b.putDouble(Double.MAX_VALUE);
-			b.flip();
-			this.worker.addRequest(location + (this.offset * this.usedFiles), b.array());
 			s.close();
 			break;
 		default:
@@ -547,18 +1750,22 @@ public class BinaryParser
 	}
 
 	/**
-	 * Helper method. Updates binary file header with new values for future access.
+	 * Helper method. Writes any new catalog records, then updates binary file header with new values for future access.
+	 * If the catalog has outgrown its reserved space, the binary is rewritten with a larger catalog instead.
 	 */
 	private void updateBinary() {
-		
-		ByteBuffer b = ByteBuffer.allocate(HEADER_SIZE);
-		b.putInt(availableVars);
-		b.putInt(usedVars);
-		b.putInt(availableFiles);
-		b.putInt(usedFiles);
+		if(!catalog.fits())
+		{
+			grow();
+			return;
+		}
 		try
 		{
-		worker.addRequest(0, b.array());
+		long location = HEADER_SIZE + catalog.getLength();
+		if(catalog.pendingSize() > 0)
+			worker.addRequest(location, catalog.drainPending());
+		//the header is written after the rows it counts, so writing it commits them.
+		worker.addRequest(0, encodeHeader(), usedFiles);
 		}
 		catch(IllegalArgumentException e)
 		{
@@ -571,64 +1778,20 @@ public class BinaryParser
 	 * Helper method. Adds a variable to the binary file. If the variable already exists,
 	 * the method will return false, otherwise the method will return true.
 	 * @param var -- The variable to be added.
+	 * @param row -- The first row that holds data for the variable.
 	 */
-	private boolean addVariable(Variable var) {
+	private boolean addVariable(Variable var, int row) {
 		if(usedVars == availableVars)
 			grow();
 		//check to see if the variable already exists, if it does, just add the info
-		Long l = this.variableInfo.get(var);
-
-		if(l == null)
+		if(this.variableInfo.find(var) < 0)
 		{
-
-			//the map does not contain the variable, add it in
-			//variable information starts at byte 16. variables are allocated 90 bytes each, so we multiply the number of variables in the file
-			//by the offset value to find how far in the header we must move ahead.			
-			long offset = (this.usedVars * VARIABLE_BINARY_SIZE) + HEADER_SIZE;
-
-			//write the variable information here. Information regarding how the variable headers are set up is in a separate file (hopefully included with
-			//this source.)
-
-			//use a byteBuffer, then write the entire buffer to the binary.
-							
-
-			ByteBuffer b = ByteBuffer.allocate(VARIABLE_BINARY_SIZE);
-
-			b.putInt(Integer.parseInt(var.getPDG()));
-			b.putInt(Integer.parseInt(var.getPDG2()));
-			b.putInt(Integer.parseInt(var.getPDG3()));
-			char[] letters = var.getBlock().trim().toCharArray();
-			for(int i = 0; i < 20; i++)
-			{
-				if(i >= letters.length)
-					b.putChar((char) 0);
-				else
-					b.putChar(letters[i]);
-			}
-			letters = var.getDescription().trim().toCharArray();
-			for(int i = 0; i < 25; i++)
-			{
-				if(i >= letters.length)
-					b.putChar((char) 0);
-				else
-					b.putChar(letters[i]);
-			}
-			int DOUBLE_BYTE_SIZE = 8;
-			long StartingVariableLocation = HEADER_SIZE + (availableVars*VARIABLE_BINARY_SIZE) + (availableFiles*FILE_BINARY_SIZE) + (usedVars*DOUBLE_BYTE_SIZE);
-			b.putLong(StartingVariableLocation);
-
-			b.flip();
-			try
-			{
-				worker.addRequest(offset, b.array());
-			}
-			catch(IllegalArgumentException e)
-			{
-				e.printStackTrace();
-				System.err.println("Error Adding Variable");
-			}
-
-			this.variableInfo.put(var, StartingVariableLocation);
+			//the map does not contain the variable, add it in. The variable takes the next free column
+			//of every row, rows before the given row hold no data for it.
+			int column = usedVars;
+			catalog.addVariable(var, column, row);
+			presence.addColumn(column, row);
+			this.variableInfo.add(var, column);
 
 			this.usedVars++;
 
@@ -640,60 +1803,47 @@ public class BinaryParser
 		
 	}
 
+	/**
+	 * Rewrites the binary with room for more variables and/or a larger catalog. The catalog is rebuilt
+	 * from memory, so the rewritten catalog only holds the current record of every file.
+	 */
 	private void grow() {
 		//wait for all pending writes to complete before continuing. 
-		while(worker.writeRequestQueue.size() > 0)
-		{
-			try
-			{
-			Thread.sleep(250);
-			}
-			catch(InterruptedException e){}
-		}
+		waitForWrites();
 		//First, determine what has to grow. Useful for when more files need to be added, but no more variables
-		boolean growFiles = false;
-		boolean growVars = false;
-		float f = usedVars/availableVars;
-		//determine what needs to grow
-		if(f >= LOAD)
-			growVars = true;
-		f = usedFiles/availableFiles;
-		if(f >= LOAD)
-			growFiles = true;		
+		int newVars = availableVars;
+		if((float)usedVars/availableVars >= LOAD)
+			newVars = (int)(availableVars * 1.25);
+		catalog.discardPending();
+		BinaryCatalog newCatalog = buildCatalog(catalog.getCapacity());
+		long capacity = catalog.getCapacity();
+		while(newCatalog.pendingSize() > capacity*LOAD)
+			capacity *= 2;
+		newCatalog = buildCatalog(capacity);
 		//create a temporary binary
-		File tempFile = new File(binary.getParentFile().getAbsolutePath()+"\\temp.bin");
+		File tempFile = new File(binary.getParentFile(), binary.getName() + ".tmp");
 		try
 		{
-			tempFile.createNewFile();
-			RandomAccessFile tempBin = new RandomAccessFile(tempFile,"rwd");
-			//create a new worker to reduce time spend writing.
-			BinaryWorker tempWorker = new BinaryWorker(tempBin);
-			new Thread(tempWorker).start();
-			//start by writing the header
-			int oldVars = availableVars;
-			int oldFiles = availableFiles;
-			writeNewHeader(growVars,growFiles, tempBin, tempWorker);
-			//now calculate the new offset to use for this file
-			long oldOffset = offset;	//used later for accessing old file.
-			offset = (8*availableVars); //the new offset is calculated by the number of bytes required for each file.
+			RandomAccessFile tempBin = new RandomAccessFile(tempFile,"rw");
+			tempBin.setLength(0);
+			long newDataOffset = HEADER_SIZE + capacity;
+			byte[] records = newCatalog.drainPending();
+			tempBin.write(encodeHeader(newVars, usedVars, usedFiles, deduplicate ? FLAG_DEDUPLICATE : 0, 
+					capacity, records.length, newDataOffset));
+			tempBin.write(records);
 			
-			//allocate empty variable record
-			byte[] block = new byte[availableVars*VARIABLE_BINARY_SIZE];
-			tempBin.write(block);
-			//allocate empty file record
-			block = new byte[availableFiles * FILE_BINARY_SIZE];
-			tempBin.write(block);
-			
-			//copy all of the old variable and file records over to the new file
-			HashMap<Variable, Long> tempMap = copyOldRecords(oldVars, tempWorker);
-			
-			//copy all of the old data.
-			CopyData(oldOffset, oldVars, oldFiles, tempWorker, tempMap);
+			//copy all of the old data, columns keep their index so only the row size changes.
+			copyRows(bin, dataOffset, offset, tempBin, newDataOffset, 8*newVars, usedFiles, usedVars);
 			
 			//close off everything, replace, open up new threads and whatnot
-			ChangePrimaryFile(tempBin, tempWorker, tempFile, tempMap);
-			
-			
+			ChangePrimaryFile(tempBin, tempFile);
+			//every row was copied, so they are all committed.
+			committedRows = usedFiles;
+			availableVars = newVars;
+			offset = 8*availableVars;
+			dataOffset = newDataOffset;
+			catalog = newCatalog;
+			presence.setCatalog(catalog);
 		}
 		catch(Exception e)
 		{
@@ -702,39 +1852,83 @@ public class BinaryParser
 		}
 	}
 	
+	/**
+	 * Builds a compact catalog holding the current state of every variable, file and missing cell.
+	 * @param capacity -- The reserved space of the new catalog.
+	 * @return -- A catalog with every record pending.
+	 */
+	private BinaryCatalog buildCatalog(long capacity)
+	{
+		BinaryCatalog c = new BinaryCatalog(capacity, 0);
+		for(int i = 0; i < usedVars; i++)
+		{
+			//removed variables leave their column empty.
+			if(i < variableInfo.size() && variableInfo.get(i) != null)
+				c.addVariable(variableInfo.get(i), i, presence.getFirstRow(i));
+		}
+		for(int i = 0; i < fileInfo.size(); i++)
+			c.addFile(fileInfo.getName(i), fileInfo.getRow(i), fileInfo.getLastModified(i), fileInfo.getVersion(i), 
+					fileInfo.getSize(i), fileInfo.getContentHash(i));
+		presence.writeTo(c);
+		return c;
+	}
+	
+	/**
+	 * Copies rows of data from one binary to another with a different row size. Rows are moved in
+	 * large chunks rather than one value at a time.
+	 * @param source -- The binary to read from.
+	 * @param sourceOffset -- The location of the first row in the source.
+	 * @param sourceRowSize -- The number of bytes in each row of the source.
+	 * @param target -- The binary to write to.
+	 * @param targetOffset -- The location of the first row in the target.
+	 * @param targetRowSize -- The number of bytes in each row of the target.
+	 * @param rows -- The number of rows to copy.
+	 * @param columns -- The number of used columns in each row.
+	 */
+	static void copyRows(RandomAccessFile source, long sourceOffset, int sourceRowSize, RandomAccessFile target, 
+			long targetOffset, int targetRowSize, int rows, int columns) throws IOException
+	{
+		int rowsPerChunk = Math.max(1, COPY_CHUNK_BYTES / Math.max(sourceRowSize, targetRowSize));
+		byte[] in = new byte[rowsPerChunk * sourceRowSize];
+		byte[] outBuffer = new byte[rowsPerChunk * targetRowSize];
+		int used = Math.min(columns*8, Math.min(sourceRowSize, targetRowSize));
+		for(int first = 0; first < rows; first += rowsPerChunk)
+		{
+			int count = Math.min(rowsPerChunk, rows - first);
+			source.seek(sourceOffset + (long)first * sourceRowSize);
+			//the last row of the source may have been written without its unused columns.
+			int available = (int) Math.min((long)count * sourceRowSize, source.length() - source.getFilePointer());
+			source.readFully(in, 0, Math.max(available, 0));
+			Arrays.fill(in, Math.max(available, 0), count * sourceRowSize, (byte) 0);
+			for(int r = 0; r < count; r++)
+				System.arraycopy(in, r * sourceRowSize, outBuffer, r * targetRowSize, used);
+			target.seek(targetOffset + (long)first * targetRowSize);
+			target.write(outBuffer, 0, count * targetRowSize);
+		}
+	}
+	
 	/**
 	 * Helper method, switches the primary binary and worker thread over to a temporary file. 
 	 * The temporary file replaces the old one. NOTE: THIS DELETES THE OLD FILE.
 	 * @param tempBin -- The temporary binary to switch to.
-	 * @param tempWorker -- The worker thread for the temporary binary
-	 * @param tempFile -- the file that the binary and thread are connected to. 
+	 * @param tempFile -- the file that the binary is connected to. 
 	 * @exception IOException -- An IOException can occur if there is an issue with growing the 
 	 * files when there is access to them.
 	 */
-	private void ChangePrimaryFile(RandomAccessFile tempBin, BinaryWorker tempWorker, File tempFile, HashMap<Variable,Long> tempMap) {
+	private void ChangePrimaryFile(RandomAccessFile tempBin, File tempFile) {
 		try {
-			while(tempWorker.writeRequestQueue.size() > 0)
-			{
-				try
-				{
-					Thread.sleep(250);
-					
-				}
-				catch(InterruptedException e)
-				{}
-			}
 			this.bin.close();
 			tempBin.close();
 			this.worker.Close();
-			tempWorker.Close();
+			generation++;
+			//open snapshots keep their handle on the old file, which is not written again.
+			snapshots.clear();
 			binary.delete();
 			tempFile.renameTo(binary);
 			//open up new stuff and start it up.
 			bin = new RandomAccessFile(binary, "rwd");
 			worker = new BinaryWorker(bin);
 			new Thread(worker).start();
-			//update the map
-			this.variableInfo = tempMap;
 		} catch (IOException e) 
 		{
 			e.printStackTrace();
@@ -744,243 +1938,408 @@ public class BinaryParser
 		
 	}
 
+	
+	/**
+	 * Adds the listener to the list of classes to be notified when
+	 * a write event completes. Will call upon the WriteComplete method. 
+	 * @param listener -- The listener to notified.
+	 */
+	public void addBinaryListener(IBinaryListener listener)
+	{
+		listeners.add(listener);
+	}
+	
 	/**
-	 * private helper method that will copy all of the data in given binary to a new file
-	 * @throws IOException 
+	 * returns whether or not this file already exists within 
+	 * this binary file, with the same content.
+	 * @param f -- the file to be checked. Files are stored by their
+	 * path relative to the binary. A file with a matching path is contained if its timestamp and size are 
+	 * unchanged, or if its size and content hash are unchanged. Files that were removed are reported as contained,
+	 * so they are not added again.
+	 * @return -- True if the file is contained within this binary already, 
+	 * false otherwise.
 	 */
-	private void CopyData(long oldOffset, int oldVars, int oldFiles, BinaryWorker tempWorker, HashMap<Variable,Long> tempMap) throws IOException 
+	public synchronized boolean CotainsFile(File f)
 	{
-		//go through the current variable map and the temp map, place variables in the correct place. 
-		for(int i = 0; i < usedFiles; i++)
+		loadFiles();
+		int fInfo = findFile(f);
+		if(fInfo < 0)
+			return false;
+		//removed files are kept out of the binary.
+		if(fileInfo.isRemoved(fInfo))
+			return true;
+		long size = fileInfo.getSize(fInfo);
+		if(size < 0)
+			return fileInfo.getLastModified(fInfo) == f.lastModified();
+		if(size != f.length())
+			return false;
+		if(fileInfo.getLastModified(fInfo) == f.lastModified())
+			return true;
+		try
 		{
-			//use same algorithm for adding file data.	
-			ByteBuffer b = ByteBuffer.allocate(8*this.usedVars);
-				for(Variable v: variableInfo.keySet())
-				{
-					Long firstInstance = tempMap.get(v);
-					//proceed with gathering the data and placing it within the new file.
-					double d = getData(v, i);
-					//build new file binary "block."
-					int index = (int) (firstInstance - HEADER_SIZE - 
-							(VARIABLE_BINARY_SIZE*availableVars) - (FILE_BINARY_SIZE*availableFiles));
-					b.putDouble(index, d);
-				}
-				b.flip();
-				long fileLocation = HEADER_SIZE + (VARIABLE_BINARY_SIZE * availableVars)
-						+ (FILE_BINARY_SIZE * availableFiles) + (i * offset);
-				tempWorker.addRequest(fileLocation, b.array());
+			return ContentHash.of(f) == fileInfo.getContentHash(fInfo);
+		}
+		catch(IOException e)
+		{
+			return false;
 		}
 	}
-
+	
+	
 	/**
-	 * Private helper method used by the file growth method. Copies the 
-	 * header information from the old file, and moves it to the new file. 
-	 * @param oldVars -- The old number of available variables from the original variables.
-	 * @param tempWorker -- A binary worker thread set to write to the temporary file. BE SURE
-	 * TO SET TO WRITE FILES TO THE CORRECT BINARY.
+	 * Reads the value of the given variable for the given file. Cells that hold no data
+	 * return Double.MAX_VALUE, use hasData to tell them apart from real values.
 	 */
-	private HashMap<Variable,Long> copyOldRecords(int oldVars, BinaryWorker tempWorker)
+	public synchronized double getData(Variable var, int FileNumber)
 	{
-		//copy over all existing variables, give a new starting point.
-		HashMap<Variable,Long> tempMap = copyVariables(tempWorker);
-
-		//copy over file record
-		copyFiles(tempWorker, oldVars);
-		
-		return tempMap;
+		loadColumns();
+		int column = columnOf(var);
+		if(column < 0 || !presence.isPresent(column, FileNumber))
+			return Double.MAX_VALUE;
+		try {
+			//positional reads do not move the file pointer used by the worker.
+			ByteBuffer b = ByteBuffer.allocate(8);
+			bin.getChannel().read(b, dataOffset + 8L*column + ((long)offset*FileNumber));
+			return b.getDouble(0);
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.err.println("Error accessing Binary File");
+		}
+		return Double.MAX_VALUE;
+	}
+	
+	/**
+	 * Reports whether the given file holds a value for the given variable. Files added before 
+	 * the variable was first seen, and files missing the variable, hold no data.
+	 */
+	public synchronized boolean hasData(Variable var, int FileNumber)
+	{
+		loadColumns();
+		int column = columnOf(var);
+		return column >= 0 && presence.isPresent(column, FileNumber);
+	}
+	
+	/**
+	 * Returns the version of the last row written to this binary. Every write of a row, whether it is added or
+	 * rewritten in place, is given the next version, so rows written after a saved version can be found.
+	 */
+	public long getVersion()
+	{
+		loadFiles();
+		return version;
+	}
+	
+	/**
+	 * Returns the version of the last write of the given row.
+	 * @return -- The version, 0 if the row was written before versions were kept, or -1 if no file is stored in the row.
+	 */
+	public long getRowVersion(int row)
+	{
+		loadFiles();
+		int file = fileInfo.fileAt(row);
+		return file < 0 ? -1 : fileInfo.getVersion(file);
 	}
 	
+	/**
+	 * Returns the last modified time of the file stored in the given row, when it was last written.
+	 * @return -- The last modified time, or -1 if no file is stored in the row.
+	 */
+	public long getRowLastModified(int row)
+	{
+		loadFiles();
+		int file = fileInfo.fileAt(row);
+		return file < 0 ? -1 : fileInfo.getLastModified(file);
+	}
 	
 	/**
-	 * Helper method,Copies over the file table from the current binary file in this object to a given file.
-	 * @param tempWorker -- The binary worker thread that will write to the temporary file.
-	 * @param oldVariables -- (used for seeking) the number of variables available to this binary
-	 * file.
+	 * Builds an index of a variable, so rows holding values within a range, or values nearest a number, are found
+	 * without reading the binary (see lookup, nearest and SortedIndex). Queries use indexes for the predicates they
+	 * can. The index is saved beside the binary and kept up to date as rows are written, which slows writes a little.
+	 * @return -- True if the index was built, false if the binary holds no such variable or it is already indexed.
 	 */
-	private void copyFiles(BinaryWorker tempWorker, int oldVars)
+	public synchronized boolean createIndex(Variable var) throws IOException
 	{
+		checkWritable();
+		if(columnOf(var) < 0 || findIndex(var) != null)
+			return false;
+		//rows whose writes are still queued would be missing from the snapshot the index is built from.
+		waitForWrites();
+		BinarySnapshot snapshot = openSnapshot();
 		try
 		{
-			this.bin.seek(HEADER_SIZE + (oldVars*VARIABLE_BINARY_SIZE));	//start of the old file table
-			for(int i = 0; i < usedFiles; i++)
-			{
-				ByteBuffer buff = ByteBuffer.allocate(FILE_BINARY_SIZE);
-				buff.putLong(bin.readLong());	//modified date
-				for(int j = 0; j < 25; j++)
-				{
-					//copy all chars used for the name over
-					buff.putChar(bin.readChar());
-				}
-				buff.putInt(bin.readInt());	//copy the data location int
-				buff.flip();
-				tempWorker.addRequest(HEADER_SIZE + (availableVars*VARIABLE_BINARY_SIZE)
-						+ (i*FILE_BINARY_SIZE), buff.array());
-			}
+			SortedIndex index = SortedIndex.build(variableInfo.get(columnOf(var)), snapshot);
+			index.save(SortedIndex.fileOf(binary, index.getVariable()), version);
+			indexes.addLast(index);
 		}
-		catch(IOException e)
+		finally
 		{
-			System.err.println("Error reading file table in binary");
-			e.printStackTrace();
-			return;
+			snapshot.close();
 		}
+		return true;
 	}
 	
 	/**
-	 * Copies of the variables from the current binary file in this to a given temporary file.
-	 * @param tempWorker -- A Binary worker to write the table to the file. (Assumes headers will
-	 * be of the same size.)
+	 * Removes the index of a variable, and its file.
+	 * @return -- True if the variable was indexed.
 	 */
-	private HashMap<Variable,Long> copyVariables(BinaryWorker tempWorker) 
+	public synchronized boolean dropIndex(Variable var)
 	{
-		try {
-			bin.seek(HEADER_SIZE);	//seek the start of the variable table.
-			HashMap<Variable, Long> tempMap = new HashMap<Variable, Long>();
-			for(int i = 0; i < usedVars; i++)
+		checkWritable();
+		SortedIndex index = findIndex(var);
+		if(index == null)
+			return false;
+		indexes.remove(index);
+		File f = SortedIndex.fileOf(binary, index.getVariable());
+		if(f.exists() && !f.delete())
+			System.err.println("Could not delete " + f);
+		return true;
+	}
+	
+	/**
+	 * Returns the indexed variables.
+	 */
+	public synchronized List<Variable> getIndexedVariables() throws IOException
+	{
+		loadIndexes();
+		LinkedList<Variable> vars = new LinkedList<Variable>();
+		for(SortedIndex index: indexes)
+			vars.addLast(index.getVariable());
+		return vars;
+	}
+	
+	/**
+	 * Finds the rows holding values of a variable from one number to another, both included, from its index.
+	 * Rows of removed files are left out. Rows written but not yet committed (see openSnapshot) may be included.
+	 * @return -- The rows, or null if the variable is not indexed.
+	 */
+	public synchronized BitSet lookup(Variable var, double from, double to) throws IOException
+	{
+		loadIndexes();
+		SortedIndex index = findIndex(var);
+		return index == null ? null : index.range(from, true, to, true);
+	}
+	
+	/**
+	 * Finds the rows holding the values of a variable nearest a number, from its index. Of rows as near as each
+	 * other, the lower rows come first. Rows of removed files are left out.
+	 * @return -- At most k rows, nearest first, or null if the variable is not indexed.
+	 */
+	public synchronized int[] nearest(Variable var, double value, int k) throws IOException
+	{
+		loadIndexes();
+		SortedIndex index = findIndex(var);
+		return index == null ? null : index.nearest(value, k);
+	}
+	
+	/**
+	 * Looks up the rows matching the predicates of a query on indexed variables, see Query.lookup.
+	 */
+	synchronized BitSet[] lookup(Query query) throws IOException
+	{
+		loadIndexes();
+		return query.lookup(indexes);
+	}
+	
+	/**
+	 * Private helper method. Returns the index of a variable, or null if it is not indexed.
+	 */
+	private SortedIndex findIndex(Variable var)
+	{
+		for(SortedIndex index: indexes)
+		{
+			if(index.getVariable().equals(var))
+				return index;
+		}
+		return null;
+	}
+	
+	/**
+	 * Private helper method. Loads the indexes saved beside the binary, reading back the rows written since they
+	 * were saved. Indexes of variables the binary no longer holds are deleted.
+	 */
+	private synchronized void loadIndexes() throws IOException
+	{
+		if(indexes != null)
+			return;
+		LinkedList<SortedIndex> loaded = new LinkedList<SortedIndex>();
+		File[] listing = binary.getAbsoluteFile().getParentFile().listFiles();
+		BinarySnapshot snapshot = openSnapshot();
+		try
+		{
+			for(int i = 0; listing != null && i < listing.length; i++)
 			{
-				ByteBuffer buff = ByteBuffer.allocate(VARIABLE_BINARY_SIZE);
-				//read the variable from the old file and buffer it(construct a variable along the way.)
-				int PDG = bin.readInt();
-				int PDG_2 = bin.readInt();
-				int PDG_3 = bin.readInt();
-				buff.putInt(PDG);
-				buff.putInt(PDG_2);
-				buff.putInt(PDG_3);
-				StringBuilder blockName = new StringBuilder();
-				for(int j = 0; j < 20; j++)
-				{
-					char c = bin.readChar();
-					buff.putChar(c);
-			    	if(c == 0)
-			    		continue;
-					blockName.append(c);
-				}
-				String block = blockName.toString().trim();
-				StringBuilder description = new StringBuilder();
-				for(int j = 0; j < 25; j++)
-				{
-					char c = bin.readChar();
-					buff.putChar(c);
-					if(c == 0)
-						continue;
-					description.append(c);
-				}
-				String desc = description.toString().trim();
-				bin.readLong();
-				//create the variable from the given info
-				Variable var = new Variable(PDG + "", PDG_2 + "", PDG_3 + "", null, desc,block);
-				int DOUBLE_BYTE_SIZE = 8;
-				long StartingVariableLocation = HEADER_SIZE + (availableVars*VARIABLE_BINARY_SIZE) 
-						+ (availableFiles*FILE_BINARY_SIZE) + (i*DOUBLE_BYTE_SIZE);	//calc new starting location.
-				buff.putLong(StartingVariableLocation);
-				buff.flip();
-				tempWorker.addRequest(HEADER_SIZE + (i*VARIABLE_BINARY_SIZE),buff.array());
-				//place in temporary map (for data copy.)
-				tempMap.put(var, StartingVariableLocation);
+				if(!SortedIndex.isIndexFile(binary, listing[i]))
+					continue;
+				SortedIndex index = SortedIndex.load(listing[i], snapshot);
+				if(index == null)
+					continue;
+				if(columnOf(index.getVariable()) >= 0)
+					loaded.addLast(index);
+				else if(!readOnly && !listing[i].delete())
+					System.err.println("Could not delete " + listing[i]);
 			}
-			return tempMap;
-		} 
-		catch (IOException e1) 
+		}
+		finally
 		{
-			e1.printStackTrace();
-			System.err.println("Error seeking binary VariableTable in temp file, copyOldRecords method");
-			return null;
+			snapshot.close();
 		}
-		
+		indexes = loaded;
 	}
-
 	
 	/**
-	 * Adds the listener to the list of classes to be notified when
-	 * a write event completes. Will call upon the WriteComplete method. 
-	 * @param listener -- The listener to notified.
+	 * Private helper method. Builds every index again from the binary, e.g. once its rows have been renumbered.
 	 */
-	public void addBinaryListener(IBinaryListener listener)
+	private void rebuildIndexes() throws IOException
 	{
-		listeners.add(listener);
+		BinarySnapshot snapshot = openSnapshot();
+		try
+		{
+			LinkedList<SortedIndex> rebuilt = new LinkedList<SortedIndex>();
+			for(SortedIndex index: indexes)
+				rebuilt.addLast(SortedIndex.build(index.getVariable(), snapshot));
+			indexes = rebuilt;
+		}
+		finally
+		{
+			snapshot.close();
+		}
+		saveIndexes();
 	}
 	
-
 	/**
-	 * Private Helper method, creates a new header at the start of the given file.
-	 * If the boolean values either growVars or growFiles is set to true, the header
-	 * will indicate a 25% increase in the available space for those tables within the
-	 * binary
-	 * @param growVars -- Used to indicate if there will be an increase in space within the
-	 * binary file for more variables. THIS WILL UPDATE THIS OBJECTS AVAILABLE VARIABLES VARIABLE.
-	 * @param growFiles -- Used to indicate if there will be an increase in space within the binary
-	 * file for more files. THIS WILL UPDATE THIS OBJECTS AVAILABLE FILE VARIABLE
-	 * @param binaryFile -- The binary file to have the header written to. This method is normally
-	 * used for growing files. The temporary file for growth would be placed here.
-	 * @param tempWorker -- A binaryWorker thread to help speed up the writing process. BE SURE
-	 * TO USE THE CORRECT WRITER THAT WILL WRITE TO THE CORRECT FILE.
-	 */
-	private void writeNewHeader(boolean growVars, boolean growFiles, RandomAccessFile binaryFile, BinaryWorker tempWorker)
-	{
-		//create a new header and write it to the beginning of the file.
-		try {
-			ByteBuffer b = ByteBuffer.allocate(HEADER_SIZE);
-			
-			if(growVars)
-			{
-				availableVars = (int)(availableVars * 1.25);
-				b.putInt(availableVars);
-				b.putInt(usedVars);
-			}
-			else
-			{
-				b.putInt(availableVars);
-				b.putInt(usedVars);
-			}
-			if(growFiles)
+	 * Private helper method. Saves every index beside the binary.
+	 */
+	private synchronized void saveIndexes()
+	{
+		for(SortedIndex index: indexes)
+		{
+			try
 			{
-				availableFiles = (int)(availableFiles*2);
-				b.putInt(availableFiles);
-				b.putInt(usedFiles);
+				index.save(SortedIndex.fileOf(binary, index.getVariable()), version);
 			}
-			else
+			catch(IOException e)
 			{
-				b.putInt(availableFiles);
-				b.putInt(usedFiles);
+				e.printStackTrace();
+				System.err.println("Error saving the index of " + index.getVariable().getKey() 
+						+ ", it will be rebuilt when the binary is next opened");
 			}
-			b.flip();
-			tempWorker.addRequest(0, b.array());
-		} catch (Exception e) {
+		}
+	}
+	
+	/**
+	 * Returns the least and greatest value of a variable, from the zone map without reading the binary. The bounds
+	 * take in rows of removed files until the binary is compacted, and may be wider than the current values where
+	 * rows were rewritten in place.
+	 * @return -- The bounds, or null if the binary holds no value of the variable.
+	 */
+	public synchronized double[] getRange(Variable var)
+	{
+		loadColumns();
+		int column = columnOf(var);
+		if(column < 0)
+			return null;
+		try
+		{
+			return loadZones().getRange(column);
+		}
+		catch(IOException e)
+		{
 			e.printStackTrace();
-			System.err.println("Exception thrown in the writeNewHeaderMethod. Cause Unknown");
+			System.err.println("Error reading the zone map");
 		}
+		return null;
 	}
 	
 	/**
-	 * returns whether or not this file already exists within 
-	 * this binary file.
-	 * @param f -- the file to be checked. Files are stored by their
-	 * names, so a matching name will return true.
-	 * @return -- True if the file is contained within this binary already, 
-	 * false otherwise.
+	 * Returns the number of rows holding a value of a variable, rows of removed files included, from the zone map.
 	 */
-	public boolean CotainsFile(File f)
+	public synchronized long getValueCount(Variable var)
 	{
-		//strip out the .txt if it exists
-		String name = f.getName();
-		int index = name.lastIndexOf(".");
-		if(index > 0)
-			name = name.substring(0,index);
-		FileInfo i = this.fileInfo.get(name);
-		return i != null;
+		loadColumns();
+		int column = columnOf(var);
+		if(column < 0)
+			return 0;
+		try
+		{
+			return loadZones().getCount(column);
+		}
+		catch(IOException e)
+		{
+			e.printStackTrace();
+			System.err.println("Error reading the zone map");
+		}
+		return 0;
 	}
 	
+	/**
+	 * Returns the sketches of a variable's values over the live rows, so quantiles and the number of distinct values
+	 * are found without reading the binary (see ColumnSketch). The sketches are kept up to date as rows are appended;
+	 * once rows were rewritten in place or removed, they are built again from the binary when next asked for.
+	 * @return -- A copy of the sketches, or null if the binary holds no such variable.
+	 */
+	public synchronized ColumnSketch getSketch(Variable var) throws IOException
+	{
+		loadColumns();
+		int column = columnOf(var);
+		if(column < 0)
+			return null;
+		loadSketches();
+		if(sketches.isStale())
+			rebuildSketches();
+		return sketches.getSketch(variableInfo.get(column), column);
+	}
 	
-	public double getData(Variable var, int FileNumber)
+	/**
+	 * Private helper method. Builds the sketches again from the live rows of the binary.
+	 */
+	private synchronized void rebuildSketches() throws IOException
 	{
-		long location = variableInfo.get(var);
-		try {
-			bin.seek(location+(offset*FileNumber));
-			return bin.readDouble();
-		} catch (IOException e) {
+		//rows whose writes are still queued would be missing from the snapshot the sketches are built from.
+		if(worker != null)
+			waitForWrites();
+		BinarySnapshot snapshot = openSnapshot();
+		try
+		{
+			sketches = SketchSet.build(snapshot);
+		}
+		finally
+		{
+			snapshot.close();
+		}
+	}
+	
+	/**
+	 * Private helper method. Loads the sketches saved beside the binary, if they are up to date. See SketchSet.
+	 */
+	private synchronized void loadSketches()
+	{
+		if(sketches != null)
+			return;
+		loadColumns();
+		loadFiles();
+		long[] versions = new long[usedFiles];
+		for(int row = 0; row < usedFiles; row++)
+			versions[row] = getRowVersion(row);
+		sketches = SketchSet.load(SketchSet.fileOf(binary), versions, version, getNumberOfDeadRows());
+	}
+	
+	/**
+	 * Private helper method. Saves the sketches beside the binary, so they need not be built again when the binary
+	 * is next opened. Stale sketches are built again first.
+	 */
+	private synchronized void saveSketches()
+	{
+		try
+		{
+			if(sketches.isStale())
+				rebuildSketches();
+			sketches.save(SketchSet.fileOf(binary), version, getNumberOfDeadRows());
+		}
+		catch(IOException e)
+		{
 			e.printStackTrace();
-			System.err.println("Error accessing Binary File");
+			System.err.println("Error saving the sketches, they will be rebuilt when next asked for");
 		}
-		return Double.MAX_VALUE;
 	}
 	
 	public int getNumberOfInconsistencies()
@@ -988,9 +2347,12 @@ public class BinaryParser
 		return this.loggedInconsistencies;
 	}
 	
+	/**
+	 * Files are appended to the binary as rows, so the only limit on the number of files is the row index.
+	 */
 	public int getMaximumFiles()
 	{
-		return availableFiles;
+		return Integer.MAX_VALUE;
 	}
 	
 	public int getMaximumVariables()
@@ -1008,11 +2370,15 @@ public class BinaryParser
 		return usedVars;
 	}
 
-	public Iterable<Variable> getAllVariables()
+	public synchronized Iterable<Variable> getAllVariables()
 	{
+		loadColumns();
 		LinkedList<Variable> rtList = new LinkedList<Variable>();
-		for(Variable v: variableInfo.keySet())
-			rtList.addLast(v);
+		for(int i = 0; i < variableInfo.size(); i++)
+		{
+			if(variableInfo.get(i) != null)
+				rtList.addLast(variableInfo.get(i));
+		}
 		return rtList;
 	}
 	
@@ -1023,8 +2389,8 @@ public class BinaryParser
 		private LinkedList<Request> writeRequestQueue;
 		private boolean writing;
 		private Object async = new Object();
-		private int totalRequests;
-		private int completedRequests;
+		private volatile int totalRequests;
+		private volatile int completedRequests;
 		
 		public BinaryWorker(RandomAccessFile bin)
 		{
@@ -1042,9 +2408,13 @@ public class BinaryParser
 				synchronized(async)
 				{
 					//process writes one at a time, if there are no pending writes, we wait and check again later
-					if(writeRequestQueue.size() > 0)
+					Request r;
+					synchronized(this)
+					{
+						r = writeRequestQueue.pollFirst();
+					}
+					if(r != null)
 					{
-						Request r = writeRequestQueue.removeFirst();
 						try
 						{
 						bin.seek(r.location);
@@ -1055,6 +2425,9 @@ public class BinaryParser
 						{
 							System.err.println("Error Writing Infomration to Binary File");
 						}
+						//requests are written in order, so every row before a committing header is on disk.
+						if(r.committedRows >= 0)
+							committedRows = r.committedRows;
 						completedRequests++;
 						notifyListeners(completedRequests, totalRequests);
 					}
@@ -1084,11 +2457,20 @@ public class BinaryParser
 		}
 		
 		public void addRequest(long location, byte[] data)
+		{
+			addRequest(location, data, -1);
+		}
+		
+		/**
+		 * Queues a write. Once it has been written, the first committedRows rows are readable by snapshots.
+		 * @param committedRows -- The number of committed rows, or -1 if the write commits nothing.
+		 */
+		public void addRequest(long location, byte[] data, int committedRows)
 		{
 			synchronized(this)
 			{
 				totalRequests++;
-				writeRequestQueue.addLast(new Request(location,data));
+				writeRequestQueue.addLast(new Request(location,data,committedRows));
 			}
 		}
 		
@@ -1098,30 +2480,108 @@ public class BinaryParser
 		}
 	}
 	
+	/**
+	 * A file parsed during verification, with the size and content hash it was parsed with.
+	 */
+	private static class ParsedFile
+	{
+		public SlhaFile file;
+		public long size;
+		public int hash;
+		public ParsedFile(SlhaFile file, long size, int hash)
+		{
+			this.file = file;
+			this.size = size;
+			this.hash = hash;
+		}
+	}
+	
+	/**
+	 * A row of data waiting to be written.
+	 */
+	private static class RowWrite
+	{
+		public int row;
+		public byte[] data;
+		public RowWrite(int row, byte[] data)
+		{
+			this.row = row;
+			this.data = data;
+		}
+	}
+	
+	/**
+	 * A row of data built from a file, with whether each of its cells holds a value.
+	 */
+	private static class FilledRow
+	{
+		public ByteBuffer values;
+		public boolean[] present;
+		public FilledRow(ByteBuffer values, boolean[] present)
+		{
+			this.values = values;
+			this.present = present;
+		}
+	}
+	
 	private class Request
 	{
 		public long location;
 		public byte[] data;
-		public Request(long location, byte[] data)
+		public int committedRows;
+		public Request(long location, byte[] data, int committedRows)
 		{
 			this.location = location;
 			this.data  = data;
+			this.committedRows = committedRows;
 		}
 	}
 	
-	private class FileInfo
+	public synchronized void closeInconsistencyLogger() {
+		if(out != null)
+			out.close();
+		out = null;
+	}
+	
+	/**
+	 * Returns what was found to have changed in the directory of the binary when it was opened.
+	 * Binaries that were just created, or opened read only, are not verified and report no changes.
+	 */
+	public VerificationSummary getVerificationSummary()
+	{
+		return verification;
+	}
+	
+	/**
+	 * Returns the directory of the binary, which holds the files it was built from.
+	 */
+	public File getDirectory()
+	{
+		return binary.getAbsoluteFile().getParentFile();
+	}
+	
+	/**
+	 * Reports whether this binary was opened read only.
+	 */
+	public boolean isReadOnly()
+	{
+		return readOnly;
+	}
+	
+	/**
+	 * Closes this binary. Pending writes are completed first. The binary can not be used after this call.
+	 */
+	public void close() throws IOException
 	{
-		public long lastModified;
-		public int fileLocation;
-		public FileInfo(long lastModified, int fileLocation)
+		if(worker != null)
 		{
-			this.lastModified = lastModified;
-			this.fileLocation = fileLocation;
+			waitForWrites();
+			worker.Close();
+			saveZones();
+			saveIndexes();
+			saveSketches();
 		}
-	}
-
-	public void closeInconsistencyLogger() {
-		if(out != null)
-			out.close();
+		closeInconsistencyLogger();
+		bin.close();
 	}
 }
@@ -0,0 +1,344 @@
+package binaryUtil;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.BitSet;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * SLHA parsing program
+ * Copyright (C) 2014 Patrick Cowan
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of this License, or
+ * (at your option) any later version.
+ *
+ *You should have received a copy of the GNU General Public License
+ *along with this program if not, see <http://www.gnu.org/licenses/>.
+ */
+/**
+ * A read only view of a binary, as of the last committed row when it was opened (see BinaryParser.openSnapshot).
+ * The view holds copies of the variable and presence maps and its own handle on the binary, so it is not affected
+ * by files added to the binary afterwards, or by the binary being grown or compacted into a new file. Reads use
+ * positional reads and take no locks, so a view can be read from several threads at once.
+ *
+ * Rows rewritten in place while the view is open are kept by the view as they were before the rewrite (see
+ * keepRow), so the values read always agree with the presence map, zones and row versions of the view.
+ * @author Patrick
+ *
+ */
+public class BinarySnapshot
+{
+	private RandomAccessFile file;
+	private FileChannel channel;
+	private long dataOffset;
+	private int offset;
+	private int rows;
+	private VariableIndex variableInfo;
+	private NullBitmap presence;
+	private BitSet live;
+	private long[] rowVersions;
+	private long version;
+	private ZoneMap zones;
+	private ConcurrentHashMap<Integer, byte[]> keptRows; //the data of rows rewritten in place since the view was opened.
+
+	BinarySnapshot(RandomAccessFile file, long dataOffset, int offset, int rows, VariableIndex variableInfo,
+			NullBitmap presence, BitSet live, long[] rowVersions, long version, ZoneMap zones)
+	{
+		this(file, dataOffset, offset, rows, variableInfo, presence, live, rowVersions, version, zones,
+				new ConcurrentHashMap<Integer, byte[]>());
+	}
+
+	private BinarySnapshot(RandomAccessFile file, long dataOffset, int offset, int rows, VariableIndex variableInfo,
+			NullBitmap presence, BitSet live, long[] rowVersions, long version, ZoneMap zones,
+			ConcurrentHashMap<Integer, byte[]> keptRows)
+	{
+		this.file = file;
+		this.channel = file.getChannel();
+		this.dataOffset = dataOffset;
+		this.offset = offset;
+		this.rows = rows;
+		this.variableInfo = variableInfo;
+		this.presence = presence;
+		this.live = live;
+		this.rowVersions = rowVersions;
+		this.version = version;
+		this.zones = zones;
+		this.keptRows = keptRows;
+	}
+
+	/**
+	 * Returns a view of the same rows in which only the given rows are live, e.g. the rows matching a Query.
+	 * Exports of the view leave out every other row. The view shares the handle and kept rows of this view, so
+	 * only one of them should be closed.
+	 * @param selected -- The rows to keep.
+	 */
+	public BinarySnapshot select(BitSet selected)
+	{
+		BitSet kept = (BitSet) live.clone();
+		kept.and(selected);
+		return new BinarySnapshot(file, dataOffset, offset, rows, variableInfo, presence, kept, rowVersions, version, zones, keptRows);
+	}
+
+	/**
+	 * Returns the number of rows in this view.
+	 */
+	public int getUsedFiles()
+	{
+		return rows;
+	}
+
+	/**
+	 * Returns the version of the binary when this view was opened, see BinaryParser.getVersion.
+	 */
+	public long getVersion()
+	{
+		return version;
+	}
+
+	/**
+	 * Returns the version of the last write of a row when this view was opened, see BinaryParser.getRowVersion.
+	 * Versions are never reused, so a row whose version is unchanged holds the same data.
+	 * @return -- The version, or -1 if the row held no file.
+	 */
+	public long getRowVersion(int row)
+	{
+		return row >= 0 && row < rows ? rowVersions[row] : -1;
+	}
+
+	/**
+	 * Reports whether the given row held the data of a file when this view was opened.
+	 */
+	public boolean isLiveRow(int row)
+	{
+		return row >= 0 && row < rows && live.get(row);
+	}
+
+	/**
+	 * Returns every variable of the binary when this view was opened, in column order.
+	 */
+	public Iterable<Variable> getAllVariables()
+	{
+		LinkedList<Variable> rtList = new LinkedList<Variable>();
+		for(int i = 0; i < variableInfo.size(); i++)
+		{
+			if(variableInfo.get(i) != null)
+				rtList.addLast(variableInfo.get(i));
+		}
+		return rtList;
+	}
+
+	/**
+	 * Reports whether the given row holds a value for the given variable.
+	 */
+	public boolean hasData(Variable var, int row)
+	{
+		int column = variableInfo.find(var);
+		return column >= 0 && row >= 0 && row < rows && presence.isPresent(column, row);
+	}
+
+	/**
+	 * Reads the value of the given variable for the given row. Cells that hold no data, and rows
+	 * outside of this view, return Double.MAX_VALUE.
+	 */
+	public double getData(Variable var, int row)
+	{
+		int column = variableInfo.find(var);
+		if(column < 0 || row < 0 || row >= rows || !presence.isPresent(column, row))
+			return Double.MAX_VALUE;
+		byte[] kept = keptRows.get(row);
+		if(kept != null)
+			return ByteBuffer.wrap(kept).getDouble(8*column);
+		try
+		{
+			ByteBuffer b = ByteBuffer.allocate(8);
+			channel.read(b, dataOffset + 8L*column + ((long)offset*row));
+			return b.getDouble(0);
+		}
+		catch(IOException e)
+		{
+			e.printStackTrace();
+			System.err.println("Error accessing Binary File");
+		}
+		return Double.MAX_VALUE;
+	}
+
+	/**
+	 * Returns the column of a variable, or -1 if the variable is not in this view.
+	 */
+	int columnOf(Variable var)
+	{
+		return variableInfo.find(var);
+	}
+	
+	/**
+	 * Reports whether a cell holds a value. Used with readRows, whose cells of missing values are not defined.
+	 */
+	boolean isPresent(int column, int row)
+	{
+		return column >= 0 && row >= 0 && row < rows && presence.isPresent(column, row);
+	}
+	
+	/**
+	 * Reports whether every row of this view holds a value for a column.
+	 */
+	boolean isComplete(int column)
+	{
+		return column >= 0 && presence.isComplete(column, rows);
+	}
+	
+	/**
+	 * Returns the live rows of a range, as bits counted from the first row of the range.
+	 * @param to -- The row after the last row of the range.
+	 */
+	BitSet getLiveRows(int from, int to)
+	{
+		return live.get(from, Math.min(to, rows));
+	}
+	
+	/**
+	 * Returns the rows of a range that hold no data for a column, as bits counted from the first row of the range.
+	 * @param to -- The row after the last row of the range.
+	 */
+	BitSet getMissingRows(int column, int from, int to)
+	{
+		return presence.getMissing(column, from, to);
+	}
+	
+	/**
+	 * Returns the least and greatest value of a column over the zones holding a range of rows (see ZoneMap), so
+	 * ranges that hold no wanted value can be skipped without being read. The bounds are those of the zones when
+	 * the view was opened, as are the values read from it.
+	 * @param from -- The first row of the range.
+	 * @param to -- The row after the last row of the range.
+	 * @return -- The bounds, positive and negative infinity if the rows hold no value, or null if they are not known.
+	 */
+	double[] getBounds(int column, int from, int to)
+	{
+		return zones == null ? null : zones.getBounds(column, from, to);
+	}
+
+	/**
+	 * Returns the number of bytes of a row.
+	 */
+	int getRowSize()
+	{
+		return offset;
+	}
+	
+	/**
+	 * Reads a run of whole rows with a single positional read. Row r of the run starts at (r - first) * getRowSize().
+	 * Cells past the end of the binary are read as 0.
+	 * @param first -- The first row to read.
+	 * @param count -- The number of rows to read, all within this view.
+	 * @param b -- The buffer read into, from its position. It must have room for the rows.
+	 */
+	void readRows(int first, int count, ByteBuffer b) throws IOException
+	{
+		int start = b.position();
+		long location = dataOffset + ((long)offset*first);
+		long end = location + ((long)offset*count);
+		b.limit(b.position() + (int)(end - location));
+		while(location < end)
+		{
+			int read = channel.read(b, location);
+			if(read < 0)
+			{
+				//the last row is only written as far as its used columns, the rest hold no data.
+				while(b.hasRemaining())
+					b.put((byte)0);
+				break;
+			}
+			location += read;
+		}
+		if(keptRows.isEmpty())
+			return;
+		for(Map.Entry<Integer, byte[]> entry: keptRows.entrySet())
+		{
+			int row = entry.getKey();
+			if(row < first || row >= first + count)
+				continue;
+			ByteBuffer target = b.duplicate();
+			target.position(start + (row - first)*offset);
+			target.put(entry.getValue());
+		}
+	}
+	
+	/**
+	 * Returns the number of rows written out in full in the binary. The last row may be written only as far as
+	 * its used columns.
+	 */
+	int getStoredRows() throws IOException
+	{
+		return (int)Math.min(rows, (channel.size() - dataOffset) / Math.max(offset, 1));
+	}
+	
+	/**
+	 * Copies a run of whole rows, as they are stored, straight from the binary to a channel. The copy is left
+	 * to the operating system (see FileChannel.transferTo), so the rows do not pass through the heap.
+	 * @param first -- The first row to copy.
+	 * @param count -- The number of rows to copy, all within getStoredRows.
+	 * @param target -- The channel written to, at its position.
+	 */
+	void transferRows(int first, int count, WritableByteChannel target) throws IOException
+	{
+		if(channel.size() < dataOffset + ((long)offset*(first + count)))
+			throw new IOException("Binary ended within row");
+		int row = first;
+		while(row < first + count)
+		{
+			//kept rows are written from the heap, the runs of rows between them are copied as before.
+			int next = row;
+			while(next < first + count && (keptRows.isEmpty() || !keptRows.containsKey(next)))
+				next++;
+			long location = dataOffset + ((long)offset*row);
+			long end = dataOffset + ((long)offset*next);
+			while(location < end)
+				location += channel.transferTo(location, end - location, target);
+			if(next < first + count)
+			{
+				ByteBuffer kept = ByteBuffer.wrap(keptRows.get(next));
+				while(kept.hasRemaining())
+					target.write(kept);
+				next++;
+			}
+			row = next;
+		}
+	}
+
+	/**
+	 * Keeps the data of a row as it is now, before the row is rewritten in place, so the view goes on reading the
+	 * values its presence map and zones were taken from. Rows outside of the view, and rows already kept, are left
+	 * as they are. The binary must hold no queued write of the row (see BinaryParser.keepRow).
+	 */
+	void keepRow(int row) throws IOException
+	{
+		if(row < 0 || row >= rows || keptRows.containsKey(row))
+			return;
+		ByteBuffer b = ByteBuffer.allocate(offset);
+		readRows(row, 1, b);
+		keptRows.put(row, b.array());
+	}
+
+	/**
+	 * Reports whether the handle of this view on the binary is still open.
+	 */
+	boolean isOpen()
+	{
+		return channel.isOpen();
+	}
+	
+	/**
+	 * Closes the handle of this view on the binary.
+	 */
+	public void close() throws IOException
+	{
+		file.close();
+	}
+}
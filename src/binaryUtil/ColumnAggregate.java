@@ -0,0 +1,146 @@
+package binaryUtil;
+
+/**
+ * SLHA parsing program
+ * Copyright (C) 2014 Patrick Cowan
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of this License, or
+ * (at your option) any later version.
+ *
+ *You should have received a copy of the GNU General Public License
+ *along with this program if not, see <http://www.gnu.org/licenses/>.
+ */
+/**
+ * The aggregates of one variable over the live rows of a binary, see Aggregator. Cells that hold no value are
+ * counted as missing, and NaN values are counted apart; neither takes part in the other aggregates.
+ * @author Patrick
+ *
+ */
+public class ColumnAggregate
+{
+	private Variable var;
+	private long count;
+	private long missing;
+	private long nanCount;
+	private double mean;
+	private double variance;
+	private double minimum;
+	private double maximum;
+	private long[] histogram;
+	private double histogramMinimum;
+	private double histogramMaximum;
+
+	ColumnAggregate(Variable var, long count, long missing, long nanCount, double mean, double variance, double minimum,
+			double maximum, long[] histogram, double histogramMinimum, double histogramMaximum)
+	{
+		this.var = var;
+		this.count = count;
+		this.missing = missing;
+		this.nanCount = nanCount;
+		this.mean = mean;
+		this.variance = variance;
+		this.minimum = minimum;
+		this.maximum = maximum;
+		this.histogram = histogram;
+		this.histogramMinimum = histogramMinimum;
+		this.histogramMaximum = histogramMaximum;
+	}
+
+	public Variable getVariable()
+	{
+		return var;
+	}
+
+	/**
+	 * Returns the number of rows holding a value other than NaN.
+	 */
+	public long getCount()
+	{
+		return count;
+	}
+
+	/**
+	 * Returns the number of rows holding no value.
+	 */
+	public long getMissing()
+	{
+		return missing;
+	}
+
+	/**
+	 * Returns the number of rows holding NaN.
+	 */
+	public long getNaNCount()
+	{
+		return nanCount;
+	}
+
+	/**
+	 * Returns the mean, or NaN if there are no values.
+	 */
+	public double getMean()
+	{
+		return mean;
+	}
+
+	/**
+	 * Returns the population variance, or NaN if there are no values.
+	 */
+	public double getVariance()
+	{
+		return variance;
+	}
+
+	/**
+	 * Returns the sample variance, or NaN if there are fewer than two values.
+	 */
+	public double getSampleVariance()
+	{
+		return count < 2 ? Double.NaN : variance * count / (count - 1);
+	}
+
+	/**
+	 * Returns the population standard deviation, or NaN if there are no values.
+	 */
+	public double getStandardDeviation()
+	{
+		return Math.sqrt(variance);
+	}
+
+	/**
+	 * Returns the least value, or NaN if there are no values.
+	 */
+	public double getMinimum()
+	{
+		return minimum;
+	}
+
+	/**
+	 * Returns the greatest value, or NaN if there are no values.
+	 */
+	public double getMaximum()
+	{
+		return maximum;
+	}
+
+	/**
+	 * Returns the number of values in each bin of the histogram, or an empty array if none was asked for. The bins
+	 * split the range from getHistogramMinimum to getHistogramMaximum evenly, the last bin holding its upper edge.
+	 */
+	public long[] getHistogram()
+	{
+		return histogram.clone();
+	}
+
+	public double getHistogramMinimum()
+	{
+		return histogramMinimum;
+	}
+
+	public double getHistogramMaximum()
+	{
+		return histogramMaximum;
+	}
+}
@@ -0,0 +1,134 @@
+package binaryUtil;
+
+/**
+ * SLHA parsing program
+ * Copyright (C) 2014 Patrick Cowan
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of this License, or
+ * (at your option) any later version.
+ *
+ *You should have received a copy of the GNU General Public License
+ *along with this program if not, see <http://www.gnu.org/licenses/>.
+ */
+/**
+ * The sketches of the values of one variable over the live rows of a binary: a QuantileSketch for quantiles and
+ * ranks, and a DistinctSketch for the number of distinct values. Sketches of the same variable in different
+ * binaries (shards of one scan) are merged with merge. Cells that hold no value, and NaN values, are left out.
+ * @author Patrick
+ *
+ */
+public class ColumnSketch
+{
+	private Variable var;
+	private QuantileSketch quantiles;
+	private DistinctSketch distinct;
+
+	/**
+	 * Creates empty sketches of a variable.
+	 */
+	public ColumnSketch(Variable var)
+	{
+		this(var, new QuantileSketch(), new DistinctSketch());
+	}
+
+	ColumnSketch(Variable var, QuantileSketch quantiles, DistinctSketch distinct)
+	{
+		this.var = var;
+		this.quantiles = quantiles;
+		this.distinct = distinct;
+	}
+
+	public Variable getVariable()
+	{
+		return var;
+	}
+
+	public QuantileSketch getQuantiles()
+	{
+		return quantiles;
+	}
+
+	public DistinctSketch getDistinct()
+	{
+		return distinct;
+	}
+
+	/**
+	 * Adds a value. NaN is ignored.
+	 */
+	public void add(double d)
+	{
+		quantiles.add(d);
+		distinct.add(d);
+	}
+
+	/**
+	 * Adds the values of the sketches of the same variable, e.g. from another binary, to these.
+	 * @throws IllegalArgumentException -- If the other sketches are of another variable.
+	 */
+	public void merge(ColumnSketch other)
+	{
+		if(!var.equals(other.var))
+			throw new IllegalArgumentException("Can not merge sketches of " + other.var.getKey() + " into " + var.getKey());
+		quantiles.merge(other.quantiles);
+		distinct.merge(other.distinct);
+	}
+
+	/**
+	 * Returns the number of values.
+	 */
+	public long getCount()
+	{
+		return quantiles.getCount();
+	}
+
+	/**
+	 * Returns the least value, or NaN if there are no values.
+	 */
+	public double getMinimum()
+	{
+		return quantiles.getMinimum();
+	}
+
+	/**
+	 * Returns the greatest value, or NaN if there are no values.
+	 */
+	public double getMaximum()
+	{
+		return quantiles.getMaximum();
+	}
+
+	/**
+	 * Estimates a quantile of the values, see QuantileSketch.getQuantile.
+	 */
+	public double getQuantile(double q)
+	{
+		return quantiles.getQuantile(q);
+	}
+
+	/**
+	 * Estimates the median of the values.
+	 */
+	public double getMedian()
+	{
+		return quantiles.getQuantile(0.5);
+	}
+
+	/**
+	 * Estimates the fraction of the values that are at most a value, see QuantileSketch.getRank.
+	 */
+	public double getRank(double d)
+	{
+		return quantiles.getRank(d);
+	}
+
+	/**
+	 * Estimates the number of distinct values.
+	 */
+	public long getDistinctCount()
+	{
+		return distinct.getEstimate();
+	}
+}
@@ -0,0 +1,78 @@
+package binaryUtil;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32C;
+
+/**
+ * SLHA parsing program
+ * Copyright (C) 2014 Patrick Cowan
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of this License, or
+ * (at your option) any later version.
+ *
+ *You should have received a copy of the GNU General Public License
+ *along with this program if not, see <http://www.gnu.org/licenses/>.
+ */
+/**
+ * Fingerprints the content of source files, so files whose timestamp changed but whose content did not
+ * (e.g. after a copy with rsync or tar) are not parsed again. The hash is CRC32C, which is computed with
+ * hardware instructions on most machines and is far cheaper than parsing the file.
+ * @author Patrick
+ *
+ */
+class ContentHash
+{
+	private static final int BUFFER_SIZE = 1 << 16;
+	
+	private static final ThreadLocal<ByteBuffer> buffers = new ThreadLocal<ByteBuffer>()
+	{
+		protected ByteBuffer initialValue()
+		{
+			return ByteBuffer.allocateDirect(BUFFER_SIZE);
+		}
+	};
+	
+	/**
+	 * Hashes the whole content of the given file.
+	 * @return -- The CRC32C of the file.
+	 */
+	public static int of(File f) throws IOException
+	{
+		CRC32C crc = new CRC32C();
+		ByteBuffer buffer = buffers.get();
+		FileInputStream in = new FileInputStream(f);
+		try
+		{
+			FileChannel channel = in.getChannel();
+			buffer.clear();
+			while(channel.read(buffer) >= 0)
+			{
+				buffer.flip();
+				crc.update(buffer);
+				buffer.clear();
+			}
+		}
+		finally
+		{
+			in.close();
+		}
+		return (int) crc.getValue();
+	}
+	
+	/**
+	 * Hashes the given bytes, for content that was not read from a file of its own.
+	 * @return -- The CRC32C of the bytes.
+	 */
+	public static int of(byte[] b, int off, int len)
+	{
+		CRC32C crc = new CRC32C();
+		crc.update(b, off, len);
+		return (int) crc.getValue();
+	}
+}
@@ -0,0 +1,156 @@
+package binaryUtil;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * SLHA parsing program
+ * Copyright (C) 2014 Patrick Cowan
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of this License, or
+ * (at your option) any later version.
+ *
+ *You should have received a copy of the GNU General Public License
+ *along with this program if not, see <http://www.gnu.org/licenses/>.
+ */
+/**
+ * The covariance and correlation of every pair of a list of variables over the live rows of a binary, see
+ * Correlator. Each pair is taken over the rows holding a value of both variables (NaN values left out), so the
+ * number of rows differs from pair to pair, and the variances in its correlation are those of the same rows.
+ * @author Patrick
+ *
+ */
+public class CorrelationMatrix
+{
+	private List<Variable> vars;
+	private long[][] counts;
+	private double[][] comoments;	//the sums of products of differences from the means of each pair.
+	private double[][] squares;		//the sums of squared differences of the row's variable, over the rows of each pair.
+
+	CorrelationMatrix(List<Variable> vars, long[][] counts, double[][] comoments, double[][] squares)
+	{
+		this.vars = new ArrayList<Variable>(vars);
+		this.counts = counts;
+		this.comoments = comoments;
+		this.squares = squares;
+	}
+
+	/**
+	 * Returns the variables of the rows and columns of the matrix, in order.
+	 */
+	public List<Variable> getVariables()
+	{
+		return new ArrayList<Variable>(vars);
+	}
+
+	public int size()
+	{
+		return vars.size();
+	}
+
+	/**
+	 * Returns the number of rows holding a value of both variables.
+	 */
+	public long getCount(int i, int j)
+	{
+		return counts[i][j];
+	}
+
+	/**
+	 * Returns the population covariance of two variables, or NaN if no row holds both.
+	 */
+	public double getCovariance(int i, int j)
+	{
+		return counts[i][j] == 0 ? Double.NaN : comoments[i][j] / counts[i][j];
+	}
+
+	/**
+	 * Returns the sample covariance of two variables, or NaN if fewer than two rows hold both.
+	 */
+	public double getSampleCovariance(int i, int j)
+	{
+		return counts[i][j] < 2 ? Double.NaN : comoments[i][j] / (counts[i][j] - 1);
+	}
+
+	/**
+	 * Returns the Pearson correlation of two variables, or NaN if fewer than two rows hold both, or either is
+	 * constant over them.
+	 */
+	public double getCorrelation(int i, int j)
+	{
+		double denominator = Math.sqrt(squares[i][j] * squares[j][i]);
+		if(counts[i][j] < 2 || !(denominator > 0))
+			return Double.NaN;
+		//rounding may take a correlation just past one.
+		return Math.max(-1, Math.min(1, comoments[i][j] / denominator));
+	}
+
+	/**
+	 * Returns the population covariances, a row per variable.
+	 */
+	public double[][] getCovarianceMatrix()
+	{
+		double[][] m = new double[size()][size()];
+		for(int i = 0; i < m.length; i++)
+		{
+			for(int j = 0; j < m.length; j++)
+				m[i][j] = getCovariance(i, j);
+		}
+		return m;
+	}
+
+	/**
+	 * Returns the correlations, a row per variable.
+	 */
+	public double[][] getCorrelationMatrix()
+	{
+		double[][] m = new double[size()][size()];
+		for(int i = 0; i < m.length; i++)
+		{
+			for(int j = 0; j < m.length; j++)
+				m[i][j] = getCorrelation(i, j);
+		}
+		return m;
+	}
+
+	/**
+	 * Writes the correlations, or the covariances, to a file. A .npy file holds a float64 matrix in the order of
+	 * getVariables, other files a table of comma separated values whose first row and column hold the keys of
+	 * the variables. Undefined entries are written as NaN.
+	 * @param covariance -- True to write the population covariances, false for the correlations.
+	 */
+	public void write(File f, boolean covariance) throws IOException
+	{
+		double[][] m = covariance ? getCovarianceMatrix() : getCorrelationMatrix();
+		if(f.getName().toLowerCase().endsWith(NpyWriter.NPY_EXTENSION))
+		{
+			NpyWriter.writeMatrix(m, f);
+			return;
+		}
+		BufferedWriter out = new BufferedWriter(new FileWriter(f));
+		try
+		{
+			out.write("variable");
+			for(Variable v: vars)
+				out.write("," + v.getKey());
+			out.newLine();
+			for(int i = 0; i < m.length; i++)
+			{
+				out.write(vars.get(i).getKey());
+				for(int j = 0; j < m.length; j++)
+					out.write("," + m[i][j]);
+				out.newLine();
+			}
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+}
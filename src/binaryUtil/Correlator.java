@@ -0,0 +1,352 @@
+package binaryUtil;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * SLHA parsing program
+ * Copyright (C) 2014 Patrick Cowan
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of this License, or
+ * (at your option) any later version.
+ *
+ *You should have received a copy of the GNU General Public License
+ *along with this program if not, see <http://www.gnu.org/licenses/>.
+ */
+/**
+ * Computes the covariance and correlation of every pair of many variables in a single pass over the rows of a
+ * snapshot (see CorrelationMatrix). Missing cells are left out pairwise: each pair is computed over the rows that
+ * hold a value of both variables, so a variable missing from some files does not shorten every other pair.
+ *
+ * Rows are read a chunk of whole rows at a time (see Query.ColumnReader). The values of each column are gathered
+ * into an array holding 0 for missing cells, beside an array of weights holding 1 for the cells that hold a value,
+ * so every pair is a loop of multiplications and sums without branches. The matrix is worked through in blocks of
+ * TILE by TILE pairs over ROW_BLOCK rows at once, so the columns of two blocks stay in the processor's cache. The
+ * sums of a chunk are taken from the chunk's first value of each column, and chunks are combined pairwise, so the
+ * covariances keep their precision over many rows.
+ *
+ * The work is split into tasks of a chunk of rows and a group of blocks, run on a pool of threads. Large binaries
+ * are split by chunk, and binaries of few chunks are also split by block.
+ * @author Patrick
+ *
+ */
+public class Correlator
+{
+	private static final int TILE = 16;			//the variables of a block of the matrix.
+	private static final int ROW_BLOCK = 512;	//the rows of a chunk worked through at once.
+
+	/**
+	 * Computes the matrix of variables over the live rows of a snapshot, on one thread per processor.
+	 * @param vars -- The variables, the rows and columns of the matrix in order.
+	 */
+	public static CorrelationMatrix correlate(BinarySnapshot snapshot, List<Variable> vars) throws IOException
+	{
+		return correlate(snapshot, vars, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Computes the matrix of variables over the live rows of a snapshot.
+	 * @param vars -- The variables, the rows and columns of the matrix in order.
+	 * @param threads -- The number of threads reading chunks and computing blocks.
+	 */
+	public static CorrelationMatrix correlate(final BinarySnapshot snapshot, List<Variable> vars, int threads)
+			throws IOException
+	{
+		final int m = vars.size();
+		final int[] columns = new int[m];
+		for(int i = 0; i < m; i++)
+			columns[i] = snapshot.columnOf(vars.get(i));
+		final int rows = snapshot.getUsedFiles();
+		final int rowsPerChunk = new Query.ColumnReader(snapshot).getRowsPerChunk();
+		final int chunks = (rows + rowsPerChunk - 1) / rowsPerChunk;
+		//the blocks on and above the diagonal, as pairs of first variables.
+		int tiles = (m + TILE - 1) / TILE;
+		final int[][] blocks = new int[tiles * (tiles + 1) / 2][];
+		for(int a = 0, b = 0; a < tiles; a++)
+		{
+			for(int c = a; c < tiles; c++)
+				blocks[b++] = new int[]{a * TILE, c * TILE};
+		}
+		threads = Math.max(1, threads);
+		//binaries of fewer chunks than threads are split by block too, each task reading its chunk.
+		final int groups = chunks >= threads ? 1 : Math.max(1, Math.min(blocks.length, (threads + chunks - 1) / Math.max(chunks, 1)));
+		final int groupSize = (blocks.length + groups - 1) / groups;
+		final int tasks = chunks * groups;
+		threads = Math.max(1, Math.min(threads, tasks));
+		final AtomicInteger next = new AtomicInteger();
+
+		LinkedList<Callable<Accumulator>> workers = new LinkedList<Callable<Accumulator>>();
+		for(int t = 0; t < threads; t++)
+		{
+			workers.add(new Callable<Accumulator>()
+			{
+				public Accumulator call() throws IOException
+				{
+					Accumulator partial = new Accumulator(m);
+					Accumulator chunkSums = new Accumulator(m);
+					Query.ColumnReader reader = new Query.ColumnReader(snapshot);
+					double[][] values = new double[m][rowsPerChunk];
+					double[][] weights = new double[m][rowsPerChunk];
+					double[] shifts = new double[m];
+					for(int task = next.getAndIncrement(); task < tasks; task = next.getAndIncrement())
+					{
+						int first = (task / groups) * rowsPerChunk;
+						int count = Math.min(rowsPerChunk, rows - first);
+						BitSet live = snapshot.getLiveRows(first, first + count);
+						if(live.isEmpty())
+							continue;
+						reader.read(first, count);
+						for(int i = 0; i < m; i++)
+							gather(snapshot, reader, columns[i], first, count, live, values[i], weights[i], shifts, i);
+						int from = (task % groups) * groupSize;
+						int to = Math.min(blocks.length, from + groupSize);
+						for(int b = from; b < to; b++)
+						{
+							int rowEnd = Math.min(m, blocks[b][0] + TILE);
+							int columnEnd = Math.min(m, blocks[b][1] + TILE);
+							chunkSums.clear(blocks[b][0], rowEnd, blocks[b][1], columnEnd);
+							for(int start = 0; start < count; start += ROW_BLOCK)
+							{
+								int end = Math.min(count, start + ROW_BLOCK);
+								for(int i = blocks[b][0]; i < rowEnd; i++)
+								{
+									for(int j = Math.max(i, blocks[b][1]); j < columnEnd; j++)
+										chunkSums.sum(i, j, values[i], weights[i], values[j], weights[j], start, end);
+								}
+							}
+							partial.addChunk(chunkSums, shifts, blocks[b][0], rowEnd, blocks[b][1], columnEnd);
+						}
+					}
+					return partial;
+				}
+			});
+		}
+
+		Accumulator totals = new Accumulator(m);
+		ExecutorService pool = threads > 1 ? Executors.newFixedThreadPool(threads) : null;
+		try
+		{
+			if(pool == null)
+				totals.merge(workers.getFirst().call());
+			else
+			{
+				LinkedList<Future<Accumulator>> results = new LinkedList<Future<Accumulator>>();
+				for(Callable<Accumulator> worker: workers)
+					results.add(pool.submit(worker));
+				for(Future<Accumulator> f: results)
+					totals.merge(get(f));
+			}
+		}
+		catch(IOException e)
+		{
+			throw e;
+		}
+		catch(Exception e)
+		{
+			throw new IOException(e);
+		}
+		finally
+		{
+			if(pool != null)
+				pool.shutdownNow();
+		}
+
+		long[][] counts = new long[m][m];
+		double[][] comoments = new double[m][m];
+		double[][] squares = new double[m][m];
+		for(int i = 0; i < m; i++)
+		{
+			for(int j = i; j < m; j++)
+			{
+				int p = i * m + j;
+				counts[i][j] = counts[j][i] = totals.n[p];
+				comoments[i][j] = comoments[j][i] = totals.c[p];
+				squares[i][j] = totals.m2x[p];
+				squares[j][i] = totals.m2y[p];
+			}
+		}
+		return new CorrelationMatrix(vars, counts, comoments, squares);
+	}
+
+	/**
+	 * Helper method. Gathers the values of a column for the live rows of the last chunk read, less the first of
+	 * them, and 0 for the other rows, with a weight of 1 for the rows holding a value.
+	 * @param shifts -- Where the value taken from the column's values is kept, at index i.
+	 */
+	private static void gather(BinarySnapshot snapshot, Query.ColumnReader reader, int column, int first, int count,
+			BitSet live, double[] values, double[] weights, double[] shifts, int i)
+	{
+		Arrays.fill(values, 0, count, 0);
+		Arrays.fill(weights, 0, count, 0);
+		shifts[i] = 0;
+		if(column < 0)
+			return;
+		BitSet selected = (BitSet) live.clone();
+		selected.andNot(snapshot.getMissingRows(column, first, first + count));
+		if(selected.isEmpty())
+			return;
+		double[] read = reader.column(column);
+		boolean shifted = false;
+		for(int r = selected.nextSetBit(0); r >= 0; r = selected.nextSetBit(r + 1))
+		{
+			double d = read[r];
+			//NaN values are left out like missing cells.
+			if(d != d)
+				continue;
+			if(!shifted)
+			{
+				shifts[i] = d;
+				shifted = true;
+			}
+			values[r] = d - shifts[i];
+			weights[r] = 1;
+		}
+	}
+
+	private static Accumulator get(Future<Accumulator> f) throws IOException
+	{
+		try
+		{
+			return f.get();
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new IOException("Correlation interrupted");
+		}
+		catch(ExecutionException e)
+		{
+			if(e.getCause() instanceof IOException)
+				throw (IOException)e.getCause();
+			throw new IOException(e.getCause());
+		}
+	}
+
+	/**
+	 * The running sums of every pair of variables (i, j) with i at most j, indexed by i * m + j. Over the rows
+	 * holding a value of both, x is the value of variable i and y of variable j.
+	 */
+	private static class Accumulator
+	{
+		private int m;
+		private long[] n;
+		private double[] meanX;
+		private double[] meanY;
+		private double[] m2x;	//the sum of squared differences of x from its mean.
+		private double[] m2y;
+		private double[] c;		//the sum of products of the differences of x and y from their means.
+
+		public Accumulator(int m)
+		{
+			this.m = m;
+			n = new long[m * m];
+			meanX = new double[m * m];
+			meanY = new double[m * m];
+			m2x = new double[m * m];
+			m2y = new double[m * m];
+			c = new double[m * m];
+		}
+
+		/**
+		 * Clears the pairs of a block, for the sums of a chunk.
+		 */
+		public void clear(int rowFrom, int rowTo, int columnFrom, int columnTo)
+		{
+			for(int i = rowFrom; i < rowTo; i++)
+			{
+				for(int j = Math.max(i, columnFrom); j < columnTo; j++)
+				{
+					int p = i * m + j;
+					n[p] = 0;
+					meanX[p] = meanY[p] = m2x[p] = m2y[p] = c[p] = 0;
+				}
+			}
+		}
+
+		/**
+		 * Adds the plain sums of a pair over a range of rows of a chunk: the count in n, the sums of x and y in
+		 * meanX and meanY, of their squares in m2x and m2y, and of their products in c. See addChunk.
+		 */
+		public void sum(int i, int j, double[] x, double[] wx, double[] y, double[] wy, int from, int to)
+		{
+			double count = 0, sx = 0, sy = 0, sxx = 0, syy = 0, sxy = 0;
+			for(int r = from; r < to; r++)
+			{
+				//x and y are 0 where they hold no value, so only the rows holding both add to each sum.
+				double xr = x[r] * wy[r];
+				double yr = y[r] * wx[r];
+				count += wx[r] * wy[r];
+				sx += xr;
+				sy += yr;
+				sxx += xr * xr;
+				syy += yr * yr;
+				sxy += xr * yr;
+			}
+			int p = i * m + j;
+			n[p] += (long) count;
+			meanX[p] += sx;
+			meanY[p] += sy;
+			m2x[p] += sxx;
+			m2y[p] += syy;
+			c[p] += sxy;
+		}
+
+		/**
+		 * Combines the plain sums of a chunk, taken from the given values of each variable, with these.
+		 */
+		public void addChunk(Accumulator chunk, double[] shifts, int rowFrom, int rowTo, int columnFrom, int columnTo)
+		{
+			for(int i = rowFrom; i < rowTo; i++)
+			{
+				for(int j = Math.max(i, columnFrom); j < columnTo; j++)
+				{
+					int p = i * m + j;
+					long count = chunk.n[p];
+					if(count == 0)
+						continue;
+					double sx = chunk.meanX[p];
+					double sy = chunk.meanY[p];
+					merge(p, count, shifts[i] + sx / count, shifts[j] + sy / count, chunk.m2x[p] - sx * sx / count,
+							chunk.m2y[p] - sy * sy / count, chunk.c[p] - sx * sy / count);
+				}
+			}
+		}
+
+		public void merge(Accumulator o)
+		{
+			for(int p = 0; p < n.length; p++)
+				merge(p, o.n[p], o.meanX[p], o.meanY[p], o.m2x[p], o.m2y[p], o.c[p]);
+		}
+
+		/**
+		 * Helper method. Combines the means and sums of differences of another set of rows of a pair with these.
+		 */
+		private void merge(int p, long count, double otherMeanX, double otherMeanY, double otherM2x, double otherM2y,
+				double otherC)
+		{
+			if(count == 0)
+				return;
+			long total = n[p] + count;
+			double dx = otherMeanX - meanX[p];
+			double dy = otherMeanY - meanY[p];
+			double f = (double)n[p] * count / total;
+			meanX[p] += dx * count / total;
+			meanY[p] += dy * count / total;
+			m2x[p] += otherM2x + dx * dx * f;
+			m2y[p] += otherM2y + dy * dy * f;
+			c[p] += otherC + dx * dy * f;
+			n[p] = total;
+		}
+	}
+}
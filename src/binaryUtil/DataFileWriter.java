@@ -0,0 +1,300 @@
+package binaryUtil;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * SLHA parsing program
+ * Copyright (C) 2014 Patrick Cowan
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of this License, or
+ * (at your option) any later version.
+ *
+ *You should have received a copy of the GNU General Public License
+ *along with this program if not, see <http://www.gnu.org/licenses/>.
+ */
+/**
+ * Writes .dat data files: one line per file of the binary, holding the values of the chosen variables
+ * in scientific notation, separated by spaces. Missing values are written as Double.MAX_VALUE.
+ *
+ * Rows are read from the binary a chunk of whole rows at a time, formatted without allocating (see DoubleFormatter)
+ * into a buffer, and written to the file a buffer at a time. Chunks are formatted in parallel and written in order.
+ * The output is byte for byte the same as printing every value through DecimalFormat("0.00000000E00") to a 
+ * PrintWriter, in the default character set and line separator.
+ * @author Patrick
+ *
+ */
+public class DataFileWriter
+{
+	private static final int CHUNK_BYTES = 1 << 22;	//the most row data, or formatted text, held for a chunk of rows.
+
+	/**
+	 * Writes the live rows of a snapshot to a data file, replacing the file. Chunks are formatted on one 
+	 * thread per processor.
+	 * @param snapshot -- The rows to be written.
+	 * @param vars -- The variables to write, in column order.
+	 * @param f -- The data file to be written to.
+	 * @return -- The number of lines written.
+	 */
+	public static int write(BinarySnapshot snapshot, List<Variable> vars, File f) throws IOException
+	{
+		return write(snapshot, vars, f, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Writes the live rows of a snapshot to a data file, replacing the file.
+	 * @param threads -- The number of threads formatting chunks.
+	 * @return -- The number of lines written.
+	 */
+	public static int write(BinarySnapshot snapshot, List<Variable> vars, File f, int threads) throws IOException
+	{
+		FileOutputStream out = new FileOutputStream(f);
+		try
+		{
+			return write(snapshot, vars, out.getChannel(), 0, threads);
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+
+	/**
+	 * Replaces the lines of a data file from the given line on with the live rows of a snapshot from the given 
+	 * row on. Used to bring an earlier export up to date, see IncrementalExport.
+	 * @param firstRow -- The first row of the snapshot to write.
+	 * @param keptLines -- The number of lines of the file kept ahead of the rows.
+	 * @return -- The number of lines written, or -1 if the file holds fewer lines than are kept.
+	 */
+	static int append(BinarySnapshot snapshot, List<Variable> vars, File f, int firstRow, int keptLines) throws IOException
+	{
+		RandomAccessFile out = new RandomAccessFile(f, "rw");
+		try
+		{
+			long end = lineOffset(out, keptLines);
+			if(end < 0)
+				return -1;
+			FileChannel channel = out.getChannel();
+			channel.truncate(end);
+			channel.position(end);
+			return write(snapshot, vars, channel, firstRow, Runtime.getRuntime().availableProcessors());
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+
+	/**
+	 * Helper method. Finds where a line of a data file starts, by counting line endings from the start of the file.
+	 * @return -- The offset of the line, the length of the file if it holds exactly that many lines, or -1 if it holds fewer.
+	 */
+	private static long lineOffset(RandomAccessFile in, int line) throws IOException
+	{
+		if(line == 0)
+			return 0;
+		FileChannel channel = in.getChannel();
+		ByteBuffer b = ByteBuffer.allocate(1 << 16);
+		long position = 0;
+		int lines = 0;
+		while(true)
+		{
+			b.clear();
+			int read = channel.read(b, position);
+			if(read < 0)
+				return -1;
+			byte[] a = b.array();
+			for(int i = 0; i < read; i++)
+			{
+				//every line, with either separator, ends with '\n'.
+				if(a[i] == '\n' && ++lines == line)
+					return position + i + 1;
+			}
+			position += read;
+		}
+	}
+
+	/**
+	 * Writes the live rows of a snapshot from the given row on to a channel, at its position. Chunks of rows are 
+	 * read and formatted on a pool of threads, and written in order by the calling thread. At most two chunks per 
+	 * thread are held at once, so memory does not grow with the size of the export.
+	 * @return -- The number of lines written.
+	 */
+	private static int write(BinarySnapshot snapshot, List<Variable> vars, FileChannel channel, int firstRow, int threads) 
+			throws IOException
+	{
+		int rows = snapshot.getUsedFiles();
+		ArrayDeque<ChunkFormatter> free = new ArrayDeque<ChunkFormatter>();
+		free.add(new ChunkFormatter(snapshot, vars));
+		int rowsPerChunk = free.peek().rowsPerChunk;
+		int chunks = (rows - firstRow + rowsPerChunk - 1) / rowsPerChunk;
+		threads = Math.max(1, Math.min(threads, chunks));
+		for(int i = 1; i < 2*threads; i++)
+			free.add(new ChunkFormatter(snapshot, vars));
+		
+		ExecutorService pool = threads > 1 ? Executors.newFixedThreadPool(threads) : null;
+		LinkedList<Future<ChunkFormatter>> pending = new LinkedList<Future<ChunkFormatter>>();
+		int lines = 0;
+		try
+		{
+			int next = firstRow;
+			while(next < rows || !pending.isEmpty())
+			{
+				//start formatting as many chunks as there are free buffers.
+				while(next < rows && !free.isEmpty())
+				{
+					final ChunkFormatter chunk = free.poll();
+					final int first = next;
+					final int count = Math.min(rowsPerChunk, rows - first);
+					next += count;
+					Callable<ChunkFormatter> task = new Callable<ChunkFormatter>()
+					{
+						public ChunkFormatter call() throws IOException
+						{
+							chunk.format(first, count);
+							return chunk;
+						}
+					};
+					if(pool == null)
+					{
+						//a single chunk, or a single thread, is formatted on this thread.
+						FutureTask<ChunkFormatter> now = new FutureTask<ChunkFormatter>(task);
+						now.run();
+						pending.add(now);
+					}
+					else
+						pending.add(pool.submit(task));
+				}
+				//write the oldest chunk once it is formatted.
+				ChunkFormatter chunk = get(pending.removeFirst());
+				ByteBuffer text = chunk.text;
+				while(text.hasRemaining())
+					channel.write(text);
+				lines += chunk.lines;
+				free.add(chunk);
+			}
+		}
+		finally
+		{
+			if(pool != null)
+				pool.shutdownNow();
+		}
+		return lines;
+	}
+
+	private static ChunkFormatter get(Future<ChunkFormatter> f) throws IOException
+	{
+		try
+		{
+			return f.get();
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new IOException("Export interrupted");
+		}
+		catch(ExecutionException e)
+		{
+			if(e.getCause() instanceof IOException)
+				throw (IOException)e.getCause();
+			throw new IOException(e.getCause());
+		}
+	}
+
+	/**
+	 * Reads and formats chunks of rows. Its buffers are reused from chunk to chunk.
+	 */
+	static class ChunkFormatter
+	{
+		private BinarySnapshot snapshot;
+		private int[] columns;
+		private int rowSize;
+		private int rowsPerChunk;
+		private DoubleFormatter formatter;
+		private byte[] space;
+		private byte[] separator;
+		private byte[] newline;
+		private ByteBuffer rows;
+		private byte[] out;
+		//the formatted text of the last chunk, from position to limit, and its number of lines.
+		private ByteBuffer text;
+		private int lines;
+
+		public ChunkFormatter(BinarySnapshot snapshot, List<Variable> vars)
+		{
+			this.snapshot = snapshot;
+			columns = new int[vars.size()];
+			for(int i = 0; i < columns.length; i++)
+				columns[i] = snapshot.columnOf(vars.get(i));
+			Charset charset = Charset.defaultCharset();
+			formatter = new DoubleFormatter(charset);
+			space = " ".getBytes(charset);
+			separator = "    ".getBytes(charset);
+			newline = System.lineSeparator().getBytes(charset);
+			rowSize = Math.max(snapshot.getRowSize(), 1);
+			int lineSize = columns.length * (space.length + formatter.maxLength() + separator.length) + newline.length;
+			rowsPerChunk = Math.max(1, Math.min(CHUNK_BYTES / rowSize, CHUNK_BYTES / lineSize));
+			rows = ByteBuffer.allocate(rowsPerChunk * rowSize);
+			out = new byte[rowsPerChunk * lineSize];
+			text = ByteBuffer.wrap(out, 0, 0);
+		}
+
+		/**
+		 * Reads and formats a chunk of rows into text, leaving out removed rows.
+		 * @return -- The number of lines formatted.
+		 */
+		public int format(int first, int count) throws IOException
+		{
+			rows.clear();
+			snapshot.readRows(first, count, rows);
+			int pos = 0;
+			int lines = 0;
+			for(int r = 0; r < count; r++)
+			{
+				int row = first + r;
+				//rows of removed files are left out.
+				if(!snapshot.isLiveRow(row))
+					continue;
+				int base = r * rowSize;
+				for(int c = 0; c < columns.length; c++)
+				{
+					int column = columns[c];
+					double d = snapshot.isPresent(column, row) ? rows.getDouble(base + 8*column) : Double.MAX_VALUE;
+					if(!(d < 0))
+						pos = put(space, pos);
+					pos = formatter.format(d, out, pos);
+					pos = put(separator, pos);
+				}
+				pos = put(newline, pos);
+				lines++;
+			}
+			text.limit(pos);
+			text.position(0);
+			this.lines = lines;
+			return lines;
+		}
+
+		private int put(byte[] b, int pos)
+		{
+			for(int i = 0; i < b.length; i++)
+				out[pos++] = b[i];
+			return pos;
+		}
+	}
+}
@@ -0,0 +1,561 @@
+package binaryUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.BitSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * SLHA parsing program
+ * Copyright (C) 2014 Patrick Cowan
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of this License, or
+ * (at your option) any later version.
+ *
+ *You should have received a copy of the GNU General Public License
+ *along with this program if not, see <http://www.gnu.org/licenses/>.
+ */
+/**
+ * A directory of SLHA files and its binary, for programs that use the engine without the window. A dataset
+ * is opened on a directory, files are ingested into it, and it is queried and exported. Datasets do not
+ * depend on any GUI classes, and any number of them can be open at once.
+ *
+ * Ingests run on an executor and return a CompletableFuture. Only one ingest runs on a dataset at a time,
+ * later ones wait for it. Queries and exports can run while an ingest is running; exports read a snapshot
+ * (see BinaryParser.openSnapshot) of the rows written when they start.
+ * @author Patrick
+ *
+ */
+public class Dataset
+{
+	//shared by every dataset that is not given an executor. Its threads do not keep the JVM running.
+	private static final ExecutorService INGEST_POOL = Executors.newCachedThreadPool(new ThreadFactory()
+	{
+		public Thread newThread(Runnable r)
+		{
+			Thread t = new Thread(r, "Dataset ingest");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+	private File directory;
+	private BinaryParser parser;
+	private CopyOnWriteArrayList<IProgressListener> listeners;
+	private Object ingesting = new Object();
+
+	private Dataset(File directory, BinaryParser parser)
+	{
+		this.directory = directory;
+		this.parser = parser;
+		listeners = new CopyOnWriteArrayList<IProgressListener>();
+	}
+
+	/**
+	 * Opens the dataset of a directory for writing. Its binary (BinaryParser.DEFAULT_NAME) is created if it
+	 * does not exist, and an existing binary is brought up to date with the directory (see getVerificationSummary).
+	 * @param directory -- The directory of SLHA files.
+	 */
+	public static Dataset open(File directory) throws IOException
+	{
+		if(!directory.isDirectory())
+			throw new IOException("Not a directory: " + directory);
+		File dir = directory.getAbsoluteFile();
+		return new Dataset(dir, new BinaryParser(new File(dir, BinaryParser.DEFAULT_NAME)));
+	}
+
+	/**
+	 * Opens the dataset of a directory for queries and exports only. The binary must already exist.
+	 * @param directory -- The directory of SLHA files.
+	 */
+	public static Dataset openReadOnly(File directory) throws IOException
+	{
+		File dir = directory.getAbsoluteFile();
+		File binary = new File(dir, BinaryParser.DEFAULT_NAME);
+		if(!binary.exists())
+			throw new IOException("No binary in " + dir);
+		return new Dataset(dir, new BinaryParser(binary, true));
+	}
+
+	/**
+	 * Returns the directory of this dataset.
+	 */
+	public File getDirectory()
+	{
+		return directory;
+	}
+
+	/**
+	 * Returns the binary of this dataset, for operations that this class does not offer.
+	 */
+	public BinaryParser getBinary()
+	{
+		return parser;
+	}
+
+	public boolean isReadOnly()
+	{
+		return parser.isReadOnly();
+	}
+
+	/**
+	 * Returns what was found to have changed in the directory when the dataset was opened.
+	 */
+	public VerificationSummary getVerificationSummary()
+	{
+		return parser.getVerificationSummary();
+	}
+
+	/**
+	 * Adds a listener to be told of the progress of ingests.
+	 */
+	public void addProgressListener(IProgressListener listener)
+	{
+		listeners.add(listener);
+	}
+
+	/**
+	 * Adds a listener to be told as writes to the binary complete.
+	 */
+	public void addWriteListener(IBinaryListener listener)
+	{
+		parser.addBinaryListener(listener);
+	}
+
+	/**
+	 * Adds the files of the directory and its subdirectories that are not in the binary, on the shared executor.
+	 * @return -- The result, completed when the ingest is done.
+	 */
+	public CompletableFuture<IngestSummary> ingest()
+	{
+		return ingest(INGEST_POOL);
+	}
+
+	/**
+	 * Adds the files of the directory and its subdirectories that are not in the binary, on the given executor.
+	 * @return -- The result, completed when the ingest is done.
+	 */
+	public CompletableFuture<IngestSummary> ingest(Executor executor)
+	{
+		final CompletableFuture<IngestSummary> result = new CompletableFuture<IngestSummary>();
+		executor.execute(new Runnable()
+		{
+			public void run()
+			{
+				try
+				{
+					result.complete(ingestFiles());
+				}
+				catch(Throwable e)
+				{
+					result.completeExceptionally(e);
+				}
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Adds the files of the directory and its subdirectories that are not in the binary, on the calling thread.
+	 * Files are added in the order of DirectoryScanner. Files that are not SLHA files are skipped.
+	 */
+	public IngestSummary ingestFiles()
+	{
+		synchronized(ingesting)
+		{
+			long start = System.nanoTime();
+			DirectoryScanner files = new DirectoryScanner(directory);
+			long total = listeners.isEmpty() ? -1 : files.count();
+			long progress = 0;
+			int added = 0;
+			long bytes = 0;
+			SlhaFile template = null;
+			for(File f: files)
+			{
+				if(parser.isDataFile(f) && !parser.CotainsFile(f))
+				{
+					try
+					{
+						SlhaFile s = new SlhaFile(f);
+						//the first file read is checked against itself.
+						if(template == null)
+							template = s;
+						parser.addFile(s, template);
+						template = s;
+						added++;
+						bytes += f.length();
+					}
+					catch(Exception e)
+					{
+						//the file could not be created, ignore it and continue.
+					}
+				}
+				notifyListeners(++progress, total);
+			}
+			return new IngestSummary(added, 0, bytes, parser.getNumberOfInconsistencies(), seconds(start));
+		}
+	}
+
+	/**
+	 * Adds concatenated SLHA documents read from a stream, on the shared executor. See StreamSource.
+	 * @param in -- The stream of documents. It is read to its end, but not closed.
+	 * @param source -- The name of the stream, used in the names of its documents.
+	 * @param delimiter -- The line separating documents, or null if every document is preceded by its length.
+	 * @return -- The result, completed when the stream has ended.
+	 */
+	public CompletableFuture<IngestSummary> ingestStream(InputStream in, String source, String delimiter)
+	{
+		return ingestStream(in, source, delimiter, INGEST_POOL);
+	}
+
+	/**
+	 * Adds concatenated SLHA documents read from a stream, on the given executor. See StreamSource.
+	 */
+	public CompletableFuture<IngestSummary> ingestStream(final InputStream in, final String source, final String delimiter,
+			Executor executor)
+	{
+		final CompletableFuture<IngestSummary> result = new CompletableFuture<IngestSummary>();
+		executor.execute(new Runnable()
+		{
+			public void run()
+			{
+				synchronized(ingesting)
+				{
+					try
+					{
+						long start = System.nanoTime();
+						StreamSource s = new StreamSource(parser, in, source);
+						if(delimiter == null)
+							s.readLengthPrefixed();
+						else
+							s.readDelimited(delimiter);
+						notifyListeners(s.getDocuments() + s.getFailed(), -1);
+						result.complete(new IngestSummary(s.getDocuments(), s.getFailed(), s.getBytes(),
+								parser.getNumberOfInconsistencies(), seconds(start)));
+					}
+					catch(Throwable e)
+					{
+						result.completeExceptionally(e);
+					}
+				}
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Starts adding files as they are written into the directory, see DirectoryWatcher.
+	 * @return -- The watcher, which should be closed when it is no longer needed.
+	 */
+	public DirectoryWatcher watch() throws IOException
+	{
+		DirectoryWatcher watcher = new DirectoryWatcher(parser);
+		watcher.start();
+		return watcher;
+	}
+
+	/**
+	 * Returns every variable of the dataset, in column order.
+	 */
+	public List<Variable> getVariables()
+	{
+		LinkedList<Variable> vars = new LinkedList<Variable>();
+		for(Variable v: parser.getAllVariables())
+			vars.addLast(v);
+		return vars;
+	}
+
+	/**
+	 * Looks up a variable by its key, see Variable.getKey.
+	 * @return -- The variable, or null if the dataset has no such variable.
+	 */
+	public Variable findVariable(String key)
+	{
+		Variable wanted = Variable.fromKey(key);
+		for(Variable v: parser.getAllVariables())
+		{
+			if(v.equals(wanted))
+				return v;
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the number of rows in the binary, including rows of removed files.
+	 */
+	public int getRowCount()
+	{
+		return parser.getUsedFiles();
+	}
+
+	/**
+	 * Returns the number of files in the dataset.
+	 */
+	public int getFileCount()
+	{
+		return parser.getNumberOfFiles();
+	}
+
+	/**
+	 * Reads the value of a variable for a row. Cells that hold no data return Double.MAX_VALUE.
+	 */
+	public double getValue(Variable var, int row)
+	{
+		return parser.getData(var, row);
+	}
+
+	/**
+	 * Reports whether a row holds a value for a variable.
+	 */
+	public boolean hasValue(Variable var, int row)
+	{
+		return parser.hasData(var, row);
+	}
+
+	/**
+	 * Returns the least and greatest value of a variable, without reading the rows, see BinaryParser.getRange.
+	 * The bounds take in the rows of removed files until the binary is compacted (see BinaryParser.compact), and
+	 * rows rewritten in place only widen them, so they may be wider than the values the dataset holds now. Use
+	 * aggregate for exact bounds.
+	 * @return -- The bounds, or null if the dataset holds no value of the variable.
+	 */
+	public double[] getRange(Variable var)
+	{
+		return parser.getRange(var);
+	}
+
+	/**
+	 * Returns the number of rows holding a value of a variable, without reading the rows, see
+	 * BinaryParser.getValueCount. The rows of removed files are counted until the binary is compacted.
+	 */
+	public long getValueCount(Variable var)
+	{
+		return parser.getValueCount(var);
+	}
+
+	/**
+	 * Returns the quantile and distinct value sketches of a variable, without reading the rows, see
+	 * BinaryParser.getSketch. Sketches of the same variable in other datasets can be merged into them.
+	 * @return -- A copy of the sketches, or null if the dataset holds no such variable.
+	 */
+	public ColumnSketch getSketch(Variable var) throws IOException
+	{
+		return parser.getSketch(var);
+	}
+
+	/**
+	 * Builds an index of a variable, see BinaryParser.createIndex.
+	 * @return -- True if the index was built, false if the dataset holds no such variable or it is already indexed.
+	 */
+	public boolean createIndex(Variable var) throws IOException
+	{
+		return parser.createIndex(var);
+	}
+
+	/**
+	 * Removes the index of a variable.
+	 * @return -- True if the variable was indexed.
+	 */
+	public boolean dropIndex(Variable var)
+	{
+		return parser.dropIndex(var);
+	}
+
+	/**
+	 * Returns the indexed variables.
+	 */
+	public List<Variable> getIndexedVariables() throws IOException
+	{
+		return parser.getIndexedVariables();
+	}
+
+	/**
+	 * Finds the rows holding values of an indexed variable from one number to another, both included.
+	 * @return -- The rows, or null if the variable is not indexed.
+	 */
+	public BitSet lookup(Variable var, double from, double to) throws IOException
+	{
+		return parser.lookup(var, from, to);
+	}
+
+	/**
+	 * Finds the rows holding the values of an indexed variable nearest a number.
+	 * @return -- At most k rows, nearest first, or null if the variable is not indexed.
+	 */
+	public int[] nearest(Variable var, double value, int k) throws IOException
+	{
+		return parser.nearest(var, value, k);
+	}
+
+	/**
+	 * Finds the rows written so far that match a query, see Query. Predicates on indexed variables are looked up
+	 * in their indexes.
+	 * @return -- The matching rows, the file numbers of the binary.
+	 */
+	public BitSet query(Query query) throws IOException
+	{
+		BinarySnapshot snapshot = parser.openSnapshot();
+		try
+		{
+			return query.evaluate(snapshot, parser.lookup(query));
+		}
+		finally
+		{
+			snapshot.close();
+		}
+	}
+
+	/**
+	 * Finds the rows holding the largest, or smallest, values of a variable among the rows matching a query.
+	 * See Query.top.
+	 * @param query -- The query rows must match, or null to rank every row.
+	 * @return -- At most k rows, best first.
+	 */
+	public int[] top(Query query, Variable var, int k, boolean largest) throws IOException
+	{
+		BinarySnapshot snapshot = parser.openSnapshot();
+		try
+		{
+			return Query.top(snapshot, query == null ? null : query.evaluate(snapshot, parser.lookup(query)), var, k, largest);
+		}
+		finally
+		{
+			snapshot.close();
+		}
+	}
+
+	/**
+	 * Computes the count, mean, variance, least and greatest value and a histogram of variables over the rows
+	 * written so far, in a single pass, see Aggregator.
+	 * @param bins -- The number of bins of each histogram, 0 for none.
+	 * @return -- The aggregates of each variable, in the order given.
+	 */
+	public List<ColumnAggregate> aggregate(List<Variable> vars, int bins) throws IOException
+	{
+		BinarySnapshot snapshot = parser.openSnapshot();
+		try
+		{
+			return Aggregator.aggregate(snapshot, vars, bins);
+		}
+		finally
+		{
+			snapshot.close();
+		}
+	}
+
+	/**
+	 * Computes the covariance and correlation of every pair of variables over the rows written so far, leaving out
+	 * missing cells pairwise, in a single pass, see Correlator.
+	 * @return -- The matrix, its rows and columns in the order of the variables given.
+	 */
+	public CorrelationMatrix correlate(List<Variable> vars) throws IOException
+	{
+		BinarySnapshot snapshot = parser.openSnapshot();
+		try
+		{
+			return Correlator.correlate(snapshot, vars);
+		}
+		finally
+		{
+			snapshot.close();
+		}
+	}
+
+	/**
+	 * Opens a read only view of the rows written so far, see BinaryParser.openSnapshot.
+	 */
+	public BinarySnapshot openSnapshot() throws IOException
+	{
+		return parser.openSnapshot();
+	}
+
+	/**
+	 * Writes an export of the given variables, for the rows written so far. The format follows the extension of
+	 * the file: NumPy arrays for .npy and .npz, a raw matrix for .f64 (see NpyWriter), and a .dat data file
+	 * (see DataFileWriter) for any other name.
+	 * @return -- The number of rows written.
+	 */
+	public int export(File f, List<Variable> vars) throws IOException
+	{
+		return export(f, vars, null);
+	}
+
+	/**
+	 * Writes an export of the given variables, for the rows written so far that match a query.
+	 * @param query -- The query rows must match, or null to write every row.
+	 * @return -- The number of rows written.
+	 */
+	public int export(File f, List<Variable> vars, Query query) throws IOException
+	{
+		//a full export no longer matches the mark of an earlier incremental export.
+		File mark = IncrementalExport.markFileOf(f);
+		if(mark.exists() && !mark.delete())
+			throw new IOException("Could not delete " + mark);
+		BinarySnapshot snapshot = parser.openSnapshot();
+		try
+		{
+			BinarySnapshot rows = query == null ? snapshot : snapshot.select(query.evaluate(snapshot, parser.lookup(query)));
+			String name = f.getName().toLowerCase();
+			if(name.endsWith(NpyWriter.NPY_EXTENSION))
+				return NpyWriter.writeNpy(rows, vars, f);
+			if(name.endsWith(NpyWriter.NPZ_EXTENSION))
+				return NpyWriter.writeNpz(rows, vars, f);
+			if(name.endsWith(NpyWriter.RAW_EXTENSION))
+				return NpyWriter.writeRaw(rows, vars, f);
+			return DataFileWriter.write(rows, vars, f);
+		}
+		finally
+		{
+			snapshot.close();
+		}
+	}
+
+	/**
+	 * Brings an earlier export of the given variables up to date with the rows written so far, writing only the
+	 * rows added or changed since, or writes the export in full if there is no earlier export. See IncrementalExport.
+	 */
+	public ExportSummary exportIncremental(File f, List<Variable> vars) throws IOException
+	{
+		BinarySnapshot snapshot = parser.openSnapshot();
+		try
+		{
+			return IncrementalExport.export(snapshot, vars, f, new File(directory, BinaryParser.DEFAULT_NAME).getPath());
+		}
+		finally
+		{
+			snapshot.close();
+		}
+	}
+
+	/**
+	 * Closes the dataset once its pending writes are done. Ingests still running are waited for.
+	 */
+	public void close() throws IOException
+	{
+		synchronized(ingesting)
+		{
+			parser.close();
+		}
+	}
+
+	private void notifyListeners(long progress, long total)
+	{
+		for(IProgressListener l: listeners)
+			l.progress(progress, total);
+	}
+
+	private static double seconds(long start)
+	{
+		return (System.nanoTime() - start) / 1e9;
+	}
+}
@@ -0,0 +1,222 @@
+package binaryUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.NoSuchElementException;
+
+/**
+ * SLHA parsing program
+ * Copyright (C) 2014 Patrick Cowan
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of this License, or
+ * (at your option) any later version.
+ *
+ *You should have received a copy of the GNU General Public License
+ *along with this program if not, see <http://www.gnu.org/licenses/>.
+ */
+/**
+ * Walks a directory tree, returning its files in order. Only the directories on the path to the current file
+ * are listed at any time, so trees of millions of files are walked without holding the whole listing.
+ *
+ * Entries of each directory are ordered by name: names that are a number (ignoring the extension) come first
+ * in numeric order, followed by the rest in alphabetical order. Subdirectories are walked in the same order,
+ * where they fall among the files. The sort key of every name is parsed once, when its directory is listed.
+ * Symbolic links to directories are not followed.
+ * @author Patrick
+ *
+ */
+public class DirectoryScanner implements Iterable<File>
+{
+	private File root;
+
+	/**
+	 * Creates a scanner of the given directory.
+	 * @param root -- The directory at the top of the tree.
+	 */
+	public DirectoryScanner(File root)
+	{
+		this.root = root;
+	}
+
+	/**
+	 * Returns an iterator over every file in the tree, in order. Directories that can not be read are skipped.
+	 */
+	public Iterator<File> iterator()
+	{
+		return new Walk();
+	}
+
+	/**
+	 * Counts the files in the tree without sorting or holding any listing.
+	 */
+	public long count()
+	{
+		long count = 0;
+		LinkedList<Path> directories = new LinkedList<Path>();
+		directories.add(root.toPath());
+		while(!directories.isEmpty())
+		{
+			try
+			{
+				DirectoryStream<Path> stream = Files.newDirectoryStream(directories.removeFirst());
+				try
+				{
+					for(Path p: stream)
+					{
+						if(Files.isDirectory(p, LinkOption.NOFOLLOW_LINKS))
+							directories.add(p);
+						else
+							count++;
+					}
+				}
+				finally
+				{
+					stream.close();
+				}
+			}
+			catch(IOException e)
+			{
+				//the directory can not be read, it is skipped.
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Lists a single directory, sorted by name.
+	 */
+	private static Entry[] list(Path directory)
+	{
+		ArrayList<Entry> entries = new ArrayList<Entry>();
+		try
+		{
+			DirectoryStream<Path> stream = Files.newDirectoryStream(directory);
+			try
+			{
+				for(Path p: stream)
+					entries.add(new Entry(p.getFileName().toString()));
+			}
+			finally
+			{
+				stream.close();
+			}
+		}
+		catch(IOException e)
+		{
+			//the directory can not be read, it is skipped.
+		}
+		Entry[] sorted = entries.toArray(new Entry[entries.size()]);
+		Arrays.sort(sorted);
+		return sorted;
+	}
+
+	/**
+	 * A name in a directory, with its sort key.
+	 */
+	private static class Entry implements Comparable<Entry>
+	{
+		private String name;
+		private boolean numeric;
+		private long number;
+
+		public Entry(String name)
+		{
+			this.name = name;
+			int dot = name.lastIndexOf('.');
+			String base = dot > 0 ? name.substring(0, dot) : name;
+			try
+			{
+				number = Long.parseLong(base);
+				numeric = true;
+			}
+			catch(NumberFormatException e)
+			{
+				numeric = false;
+			}
+		}
+
+		public int compareTo(Entry o)
+		{
+			if(numeric != o.numeric)
+				return numeric ? -1 : 1;
+			if(numeric && number != o.number)
+				return number < o.number ? -1 : 1;
+			return name.compareTo(o.name);
+		}
+	}
+
+	/**
+	 * Depth first walk over the tree, holding the sorted listing of every directory on the current path.
+	 */
+	private class Walk implements Iterator<File>
+	{
+		private LinkedList<Path> directories = new LinkedList<Path>();
+		private LinkedList<Entry[]> listings = new LinkedList<Entry[]>();
+		private LinkedList<int[]> positions = new LinkedList<int[]>();
+		private File next;
+
+		public Walk()
+		{
+			push(root.toPath());
+			advance();
+		}
+
+		private void push(Path directory)
+		{
+			directories.addFirst(directory);
+			listings.addFirst(list(directory));
+			positions.addFirst(new int[1]);
+		}
+
+		private void advance()
+		{
+			next = null;
+			while(next == null && !directories.isEmpty())
+			{
+				Entry[] listing = listings.getFirst();
+				int[] position = positions.getFirst();
+				if(position[0] == listing.length)
+				{
+					directories.removeFirst();
+					listings.removeFirst();
+					positions.removeFirst();
+					continue;
+				}
+				Path p = directories.getFirst().resolve(listing[position[0]++].name);
+				if(Files.isDirectory(p, LinkOption.NOFOLLOW_LINKS))
+					push(p);
+				else
+					next = p.toFile();
+			}
+		}
+
+		public boolean hasNext()
+		{
+			return next != null;
+		}
+
+		public File next()
+		{
+			if(next == null)
+				throw new NoSuchElementException();
+			File f = next;
+			advance();
+			return f;
+		}
+
+		public void remove()
+		{
+			throw new UnsupportedOperationException();
+		}
+	}
+}
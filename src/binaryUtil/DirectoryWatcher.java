@@ -0,0 +1,300 @@
+package binaryUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SLHA parsing program
+ * Copyright (C) 2014 Patrick Cowan
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of this License, or
+ * (at your option) any later version.
+ *
+ *You should have received a copy of the GNU General Public License
+ *along with this program if not, see <http://www.gnu.org/licenses/>.
+ */
+/**
+ * Watches the directory of a binary and its subdirectories, adding SLHA files to the binary as they are written.
+ * Only the files named by file system events are looked at, so the directory is never scanned again after the
+ * watch is registered. That scan queues every data file the binary does not hold as it is now, so files written
+ * while the binary was being opened, or before the watcher was created, are not missed.
+ *
+ * Generators may still be writing a file when it first appears. A file is only read once its size and timestamp
+ * have not changed for the quiet period, and a file that can not be parsed is read again if it changes later.
+ * Files that are rewritten after they were added have their row rewritten in place (see BinaryParser.addFile).
+ * If the file system drops events, the tree is walked once to find the files that were missed.
+ * @author Patrick
+ *
+ */
+public class DirectoryWatcher implements Runnable
+{
+	public static final long DEFAULT_QUIET_MILLIS = 2000;
+
+	private BinaryParser parser;
+	private Path root;
+	private long quietMillis;
+	private WatchService watcher;
+	private HashMap<WatchKey, Path> directories;
+	//files waiting for their quiet period to pass, in the order they were seen.
+	private LinkedHashMap<Path, Pending> pending;
+	private SlhaFile template;
+	private volatile boolean running;
+	private volatile int addedFiles;
+
+	/**
+	 * Creates a watcher for the directory of the given binary, with the default quiet period.
+	 * @param parser -- The binary new files are added to. It must be open for writing.
+	 */
+	public DirectoryWatcher(BinaryParser parser) throws IOException
+	{
+		this(parser, DEFAULT_QUIET_MILLIS);
+	}
+
+	/**
+	 * Creates a watcher for the directory of the given binary.
+	 * @param parser -- The binary new files are added to. It must be open for writing.
+	 * @param quietMillis -- How long a file must go unchanged before it is read.
+	 */
+	public DirectoryWatcher(BinaryParser parser, long quietMillis) throws IOException
+	{
+		if(parser.isReadOnly())
+			throw new IOException("Files can not be added to a binary opened read only");
+		this.parser = parser;
+		this.root = parser.getDirectory().toPath();
+		this.quietMillis = quietMillis;
+		directories = new HashMap<WatchKey, Path>();
+		pending = new LinkedHashMap<Path, Pending>();
+		watcher = FileSystems.getDefault().newWatchService();
+		//files written after the binary was opened raise no events of their own, they are queued here.
+		register(root, true);
+	}
+
+	/**
+	 * Starts watching on a new thread. Files written before the watcher was created that the binary does not hold
+	 * are added once their quiet period passes.
+	 * @return -- The watching thread.
+	 */
+	public Thread start()
+	{
+		Thread t = new Thread(this, "Directory watcher");
+		t.setDaemon(true);
+		t.start();
+		return t;
+	}
+
+	/**
+	 * Watches the directory until close is called.
+	 */
+	public void run()
+	{
+		running = true;
+		try
+		{
+			while(running)
+			{
+				//wake up often enough to read files soon after their quiet period ends.
+				WatchKey key = watcher.poll(Math.max(1, quietMillis / 4), TimeUnit.MILLISECONDS);
+				while(key != null)
+				{
+					handle(key);
+					key = watcher.poll();
+				}
+				addSettledFiles();
+			}
+		}
+		catch(InterruptedException e)
+		{
+			//stopped.
+		}
+		catch(ClosedWatchServiceException e)
+		{
+			//closed.
+		}
+	}
+
+	/**
+	 * Stops watching. Files still waiting for their quiet period are not added.
+	 */
+	public void close() throws IOException
+	{
+		running = false;
+		watcher.close();
+	}
+
+	/**
+	 * Returns the number of files added or updated since watching started.
+	 */
+	public int getAddedFiles()
+	{
+		return addedFiles;
+	}
+
+	/**
+	 * Helper method. Queues the files named by the events of a key.
+	 */
+	private void handle(WatchKey key)
+	{
+		Path directory = directories.get(key);
+		for(WatchEvent<?> event: key.pollEvents())
+		{
+			if(event.kind() == StandardWatchEventKinds.OVERFLOW)
+			{
+				//events were lost, find any files that were missed.
+				for(File f: new DirectoryScanner(root.toFile()))
+				{
+					if(parser.isDataFile(f) && !parser.CotainsFile(f))
+						queue(f.toPath());
+				}
+				continue;
+			}
+			if(directory == null || event.kind() == StandardWatchEventKinds.ENTRY_DELETE)
+				continue;
+			Path p = directory.resolve((Path)event.context());
+			if(Files.isDirectory(p, LinkOption.NOFOLLOW_LINKS))
+			{
+				//files may be written into a new directory before it is registered.
+				if(event.kind() == StandardWatchEventKinds.ENTRY_CREATE)
+					register(p, true);
+			}
+			else if(parser.isDataFile(p.toFile()))
+				queue(p);
+		}
+		if(!key.reset())
+			directories.remove(key);
+	}
+
+	/**
+	 * Helper method. Starts (or restarts) the quiet period of a file.
+	 */
+	private void queue(Path p)
+	{
+		pending.remove(p);
+		pending.put(p, new Pending());
+	}
+
+	/**
+	 * Helper method. Adds every queued file that has not changed for the quiet period.
+	 */
+	private void addSettledFiles()
+	{
+		long now = System.currentTimeMillis();
+		Iterator<Map.Entry<Path, Pending>> it = pending.entrySet().iterator();
+		while(it.hasNext())
+		{
+			Map.Entry<Path, Pending> entry = it.next();
+			Pending p = entry.getValue();
+			long size;
+			long modified;
+			try
+			{
+				BasicFileAttributes attributes = Files.readAttributes(entry.getKey(), BasicFileAttributes.class);
+				size = attributes.size();
+				modified = attributes.lastModifiedTime().toMillis();
+			}
+			catch(IOException e)
+			{
+				//the file was removed or renamed before it settled.
+				it.remove();
+				continue;
+			}
+			if(size != p.size || modified != p.modified)
+			{
+				p.size = size;
+				p.modified = modified;
+				p.since = now;
+				continue;
+			}
+			if(now - p.since < quietMillis)
+				continue;
+			it.remove();
+			add(entry.getKey().toFile());
+		}
+	}
+
+	/**
+	 * Helper method. Parses a settled file and adds it to the binary, unless it is already there.
+	 */
+	private void add(File f)
+	{
+		if(parser.CotainsFile(f))
+			return;
+		SlhaFile s;
+		try
+		{
+			s = new SlhaFile(f);
+		}
+		catch(Exception e)
+		{
+			//not an SLHA file, or not a complete one. It is read again if it changes.
+			return;
+		}
+		//the first file read is checked against itself.
+		if(template == null)
+			template = s;
+		parser.addFile(s, template);
+		template = s;
+		addedFiles++;
+	}
+
+	/**
+	 * Helper method. Registers a directory and its subdirectories with the watch service.
+	 * @param queueFiles -- Whether the files already in the directories that the binary does not hold are queued.
+	 */
+	private void register(Path directory, boolean queueFiles)
+	{
+		try
+		{
+			WatchKey key = directory.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+					StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+			directories.put(key, directory);
+			DirectoryStream<Path> stream = Files.newDirectoryStream(directory);
+			try
+			{
+				for(Path p: stream)
+				{
+					if(Files.isDirectory(p, LinkOption.NOFOLLOW_LINKS))
+						register(p, queueFiles);
+					else if(queueFiles && parser.isDataFile(p.toFile()) && !parser.CotainsFile(p.toFile()))
+						queue(p);
+				}
+			}
+			finally
+			{
+				stream.close();
+			}
+		}
+		catch(IOException e)
+		{
+			e.printStackTrace();
+			System.err.println("Could not watch directory: " + directory);
+		}
+	}
+
+	/**
+	 * A file waiting for its quiet period to pass. A size of -1 has not been stat'ed yet.
+	 */
+	private static class Pending
+	{
+		private long size = -1;
+		private long modified = -1;
+		private long since;
+	}
+}
@@ -0,0 +1,135 @@
+package binaryUtil;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * SLHA parsing program
+ * Copyright (C) 2014 Patrick Cowan
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of this License, or
+ * (at your option) any later version.
+ *
+ *You should have received a copy of the GNU General Public License
+ *along with this program if not, see <http://www.gnu.org/licenses/>.
+ */
+/**
+ * A HyperLogLog count of the distinct values of a variable, to within about 1.6% from 2^PRECISION bytes. Each value
+ * is hashed, the first PRECISION bits of the hash pick a register, and the register keeps the longest run of
+ * leading zeros seen in the rest. Small counts are taken from the number of empty registers instead, and are near
+ * exact.
+ *
+ * Sketches are merged by keeping the larger of each register (see merge), so the distinct values of a variable
+ * over several binaries are counted without counting values they share twice. NaN values are not added, and 0.0
+ * and -0.0 are the same value.
+ * @author Patrick
+ *
+ */
+public class DistinctSketch
+{
+	public static final int PRECISION = 12;
+
+	private static final int REGISTERS = 1 << PRECISION;
+
+	private byte[] registers = new byte[REGISTERS];
+
+	/**
+	 * Returns a copy of this sketch that is not changed by later changes to it.
+	 */
+	public synchronized DistinctSketch copy()
+	{
+		DistinctSketch c = new DistinctSketch();
+		c.registers = registers.clone();
+		return c;
+	}
+
+	/**
+	 * Adds a value. NaN is ignored.
+	 */
+	public synchronized void add(double d)
+	{
+		if(d != d)
+			return;
+		long hash = hash(Double.doubleToLongBits(d == 0 ? 0.0 : d));
+		int register = (int) (hash >>> (64 - PRECISION));
+		//the bit set below the remaining bits caps the run of zeros for a hash that is zero after the register.
+		byte zeros = (byte) (Long.numberOfLeadingZeros((hash << PRECISION) | (1L << (PRECISION - 1))) + 1);
+		if(zeros > registers[register])
+			registers[register] = zeros;
+	}
+
+	/**
+	 * Adds the values of another sketch to this one.
+	 */
+	public void merge(DistinctSketch other)
+	{
+		byte[] o = other.copy().registers;
+		synchronized(this)
+		{
+			for(int i = 0; i < REGISTERS; i++)
+			{
+				if(o[i] > registers[i])
+					registers[i] = o[i];
+			}
+		}
+	}
+
+	/**
+	 * Estimates the number of distinct values added.
+	 */
+	public synchronized long getEstimate()
+	{
+		double sum = 0;
+		int empty = 0;
+		for(int i = 0; i < REGISTERS; i++)
+		{
+			sum += Math.scalb(1.0, -registers[i]);
+			if(registers[i] == 0)
+				empty++;
+		}
+		double alpha = 0.7213 / (1 + 1.079 / REGISTERS);
+		double estimate = alpha * REGISTERS * REGISTERS / sum;
+		//linear counting is the better estimate while many registers are empty.
+		if(estimate <= 2.5 * REGISTERS && empty > 0)
+			estimate = REGISTERS * Math.log((double) REGISTERS / empty);
+		return Math.round(estimate);
+	}
+
+	/**
+	 * Helper method. Mixes the bits of a value so every bit of the hash depends on every bit of the value
+	 * (the finalizer of MurmurHash3).
+	 */
+	private static long hash(long bits)
+	{
+		bits ^= bits >>> 33;
+		bits *= 0xFF51AFD7ED558CCDL;
+		bits ^= bits >>> 33;
+		bits *= 0xC4CEB9FE1A85EC53L;
+		bits ^= bits >>> 33;
+		return bits;
+	}
+
+	/**
+	 * Writes the sketch, see read.
+	 */
+	synchronized void write(DataOutputStream out) throws IOException
+	{
+		out.writeInt(PRECISION);
+		out.write(registers);
+	}
+
+	/**
+	 * Reads a sketch written by write.
+	 */
+	static DistinctSketch read(DataInputStream in) throws IOException
+	{
+		if(in.readInt() != PRECISION)
+			throw new IOException("Distinct sketch of another precision");
+		DistinctSketch s = new DistinctSketch();
+		in.readFully(s.registers);
+		return s;
+	}
+}
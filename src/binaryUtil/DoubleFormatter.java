@@ -0,0 +1,187 @@
+package binaryUtil;
+
+import java.nio.charset.Charset;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+
+/**
+ * SLHA parsing program
+ * Copyright (C) 2014 Patrick Cowan
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of this License, or
+ * (at your option) any later version.
+ *
+ *You should have received a copy of the GNU General Public License
+ *along with this program if not, see <http://www.gnu.org/licenses/>.
+ */
+/**
+ * Formats doubles the same way as DecimalFormat("0.00000000E00") in the default locale, writing the encoded
+ * characters straight into a byte array without allocating.
+ *
+ * The nine significant digits are found by scaling the value in double arithmetic, which is exact enough
+ * unless the value lies very close to halfway between two nine digit results. Those values, and the ones the
+ * fast path does not handle (zero with a sign, NaN, infinities, subnormals), are formatted by DecimalFormat,
+ * so the output is always identical to it. A formatter is not thread safe.
+ * @author Patrick
+ *
+ */
+class DoubleFormatter
+{
+	public static final String PATTERN = "0.00000000E00";
+
+	private static final int DIGITS = 9;
+	//values this close to a rounding tie, as a fraction of the last digit, are left to DecimalFormat.
+	private static final double TIE_MARGIN = 1e-5;
+	private static final double[] POWERS = new double[23];
+	static
+	{
+		POWERS[0] = 1;
+		for(int i = 1; i < POWERS.length; i++)
+			POWERS[i] = POWERS[i - 1] * 10;
+	}
+
+	private DecimalFormat format;
+	private Charset charset;
+	private boolean fast;
+	private byte zero;
+	private byte point;
+	private byte minus;
+	private byte[] exponent;
+
+	/**
+	 * Creates a formatter writing in the given character set.
+	 * @param charset -- The character set the output is written in.
+	 */
+	public DoubleFormatter(Charset charset)
+	{
+		this.charset = charset;
+		format = new DecimalFormat(PATTERN);
+		DecimalFormatSymbols symbols = format.getDecimalFormatSymbols();
+		char[] used = (symbols.getZeroDigit() + "" + symbols.getDecimalSeparator() + symbols.getMinusSign()
+				+ symbols.getExponentSeparator()).toCharArray();
+		//the fast path writes digits as zero + n, one byte per character.
+		fast = true;
+		for(int i = 0; i < 10; i++)
+			fast &= isSingleByte((char)(symbols.getZeroDigit() + i));
+		for(char c: used)
+			fast &= isSingleByte(c);
+		if(fast)
+		{
+			zero = encode(symbols.getZeroDigit())[0];
+			point = encode(symbols.getDecimalSeparator())[0];
+			minus = encode(symbols.getMinusSign())[0];
+			exponent = symbols.getExponentSeparator().getBytes(charset);
+		}
+	}
+
+	/**
+	 * Writes a formatted value.
+	 * @param d -- The value.
+	 * @param out -- The array written to. It must have room for maxLength bytes from pos.
+	 * @param pos -- Where the value is written.
+	 * @return -- The position after the value.
+	 */
+	public int format(double d, byte[] out, int pos)
+	{
+		if(!fast || Double.isNaN(d) || Double.isInfinite(d) || (d == 0 && 1 / d < 0))
+			return fallback(d, out, pos);
+		if(d == 0)
+			return write(0, 0, false, out, pos);
+		boolean negative = d < 0;
+		double abs = Math.abs(d);
+		if(abs < 1e-290)
+			return fallback(d, out, pos);
+		int e = (int)Math.floor(Math.log10(abs));
+		double scaled = scale(abs, e);
+		//log10 can be off by one next to powers of ten.
+		if(scaled >= 1e9)
+			scaled = scale(abs, ++e);
+		else if(scaled < 1e8)
+			scaled = scale(abs, --e);
+		double floor = Math.floor(scaled);
+		double fraction = scaled - floor;
+		if(Math.abs(fraction - 0.5) < TIE_MARGIN)
+			return fallback(d, out, pos);
+		long mantissa = (long)floor + (fraction > 0.5 ? 1 : 0);
+		if(mantissa >= 1000000000L)
+		{
+			mantissa /= 10;
+			e++;
+		}
+		return write(mantissa, e, negative, out, pos);
+	}
+
+	/**
+	 * The longest output of the fast path, in bytes.
+	 */
+	public int maxLength()
+	{
+		return fast ? Math.max(32, 1 + DIGITS + 1 + exponent.length + 1 + 3) : 64;
+	}
+
+	/**
+	 * Scales a value so that, with a decimal exponent of e, its nine significant digits are left of the point.
+	 */
+	private static double scale(double abs, int e)
+	{
+		int shift = e - (DIGITS - 1);
+		if(shift > 0)
+			return abs / power(shift);
+		return abs * power(-shift);
+	}
+
+	private static double power(int n)
+	{
+		return n < POWERS.length ? POWERS[n] : Math.pow(10, n);
+	}
+
+	private int write(long mantissa, int e, boolean negative, byte[] out, int pos)
+	{
+		if(negative)
+			out[pos++] = minus;
+		//nine digits, the first before the point.
+		int end = pos + DIGITS + 1;
+		for(int i = end - 1; i > pos + 1; i--)
+		{
+			out[i] = (byte)(zero + (int)(mantissa % 10));
+			mantissa /= 10;
+		}
+		out[pos + 1] = point;
+		out[pos] = (byte)(zero + (int)mantissa);
+		pos = end;
+		for(int i = 0; i < exponent.length; i++)
+			out[pos++] = exponent[i];
+		if(e < 0)
+		{
+			out[pos++] = minus;
+			e = -e;
+		}
+		if(e >= 100)
+		{
+			out[pos++] = (byte)(zero + e / 100);
+			e %= 100;
+		}
+		out[pos++] = (byte)(zero + e / 10);
+		out[pos++] = (byte)(zero + e % 10);
+		return pos;
+	}
+
+	private int fallback(double d, byte[] out, int pos)
+	{
+		byte[] b = format.format(d).getBytes(charset);
+		System.arraycopy(b, 0, out, pos, b.length);
+		return pos + b.length;
+	}
+
+	private boolean isSingleByte(char c)
+	{
+		return encode(c).length == 1 && new String(encode(c), charset).equals(String.valueOf(c));
+	}
+
+	private byte[] encode(char c)
+	{
+		return String.valueOf(c).getBytes(charset);
+	}
+}
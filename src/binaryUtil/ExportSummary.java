@@ -0,0 +1,72 @@
+package binaryUtil;
+
+/**
+ * SLHA parsing program
+ * Copyright (C) 2014 Patrick Cowan
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of this License, or
+ * (at your option) any later version.
+ *
+ *You should have received a copy of the GNU General Public License
+ *along with this program if not, see <http://www.gnu.org/licenses/>.
+ */
+/**
+ * The result of an export of a dataset, see IncrementalExport.
+ * @author Patrick
+ *
+ */
+public class ExportSummary
+{
+	private int rows;
+	private int written;
+	private boolean incremental;
+	private double seconds;
+
+	ExportSummary(int rows, int written, boolean incremental, double seconds)
+	{
+		this.rows = rows;
+		this.written = written;
+		this.incremental = incremental;
+		this.seconds = seconds;
+	}
+
+	/**
+	 * Returns the number of rows the export holds.
+	 */
+	public int getRows()
+	{
+		return rows;
+	}
+
+	/**
+	 * Returns the number of rows written by this export. Rows kept from the earlier export are not counted.
+	 */
+	public int getWritten()
+	{
+		return written;
+	}
+
+	/**
+	 * Reports whether rows of an earlier export were kept, rather than the export being written in full.
+	 */
+	public boolean isIncremental()
+	{
+		return incremental;
+	}
+
+	/**
+	 * Returns the time taken by the export, in seconds.
+	 */
+	public double getSeconds()
+	{
+		return seconds;
+	}
+
+	public String toString()
+	{
+		return rows + " rows, " + written + (incremental ? " written after an earlier export" : " written") + " in " 
+				+ seconds + " seconds";
+	}
+}
@@ -0,0 +1,373 @@
+package binaryUtil;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * SLHA parsing program
+ * Copyright (C) 2014 Patrick Cowan
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of this License, or
+ * (at your option) any later version.
+ *
+ *You should have received a copy of the GNU General Public License
+ *along with this program if not, see <http://www.gnu.org/licenses/>.
+ */
+/**
+ * An index of every file held by a binary, keyed by name. Files are numbered in the order they are
+ * added, and every field of a file is kept in a primitive array under that number. Names are kept as
+ * UTF-8 bytes in a single pool, and looked up through an open addressing table of file numbers, so the
+ * index costs a few dozen bytes per file rather than several objects per file.
+ * @author Patrick
+ *
+ */
+class FileIndex
+{
+	private static final float LOAD = 0.5f;
+
+	//open addressing table, holds file number + 1 (0 is an empty slot)
+	private int[] slots;
+	private int mask;
+
+	//per file fields, indexed by file number
+	private int size;
+	private int[] hashes;
+	private int[] nameStart;
+	private int[] nameLength;
+	private long[] lastModified;
+	private long[] versions;
+	private long[] sizes;		//-1 when the content of the file was never hashed
+	private int[] contentHashes;
+	private int[] rows;
+	
+	//file number + 1 of the file that owns every row (0 is a row with no file), and the number of files 
+	//stored in every row. Duplicate files share the row of the first file with the same data.
+	private int[] rowFiles;
+	private int[] rowReferences;
+	//the files stored in a row are linked from its owner: file number + 1 of the next and the previous file
+	//stored in the same row as every file (0 is none), so a file leaves its row without a search.
+	private int[] nextInRow;
+	private int[] previousInRow;
+
+	//the names of all files, back to back
+	private byte[] names;
+	private int namesUsed;
+
+	public FileIndex()
+	{
+		slots = new int[1024];
+		mask = slots.length - 1;
+		hashes = new int[512];
+		nameStart = new int[512];
+		nameLength = new int[512];
+		lastModified = new long[512];
+		versions = new long[512];
+		sizes = new long[512];
+		contentHashes = new int[512];
+		rows = new int[512];
+		rowFiles = new int[512];
+		rowReferences = new int[512];
+		nextInRow = new int[512];
+		previousInRow = new int[512];
+		names = new byte[512*16];
+	}
+
+	/**
+	 * Returns the number of files in this index.
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * Looks up a file by name.
+	 * @return -- The number of the file, or -1 if no file has the given name.
+	 */
+	public int find(String name)
+	{
+		byte[] key = name.getBytes(StandardCharsets.UTF_8);
+		int hash = hash(key);
+		for(int slot = hash & mask; slots[slot] != 0; slot = (slot + 1) & mask)
+		{
+			int file = slots[slot] - 1;
+			if(hashes[file] == hash && sameName(file, key))
+				return file;
+		}
+		return -1;
+	}
+
+	/**
+	 * Adds a file to the index, or replaces the fields of the file with the same name.
+	 * @return -- The number of the file.
+	 */
+	public int put(String name, long modified, int row, long version)
+	{
+		int file = find(name);
+		if(file >= 0)
+		{
+			lastModified[file] = modified;
+			versions[file] = version;
+			setRow(file, row);
+			return file;
+		}
+		if(size + 1 > slots.length * LOAD)
+			rehash(slots.length * 2);
+		if(size == rows.length)
+		{
+			int length = rows.length * 2;
+			hashes = Arrays.copyOf(hashes, length);
+			nameStart = Arrays.copyOf(nameStart, length);
+			nameLength = Arrays.copyOf(nameLength, length);
+			lastModified = Arrays.copyOf(lastModified, length);
+			versions = Arrays.copyOf(versions, length);
+			sizes = Arrays.copyOf(sizes, length);
+			contentHashes = Arrays.copyOf(contentHashes, length);
+			rows = Arrays.copyOf(rows, length);
+			nextInRow = Arrays.copyOf(nextInRow, length);
+			previousInRow = Arrays.copyOf(previousInRow, length);
+		}
+		file = size++;
+		setName(file, name);
+		lastModified[file] = modified;
+		versions[file] = version;
+		sizes[file] = -1;
+		rows[file] = -1;
+		setRow(file, row);
+		insert(file);
+		return file;
+	}
+	
+	private void setRow(int file, int row)
+	{
+		int old = rows[file];
+		if(old == row)
+			return;
+		if(row >= rowFiles.length)
+		{
+			int length = Math.max(row + 1, rowFiles.length * 2);
+			rowFiles = Arrays.copyOf(rowFiles, length);
+			rowReferences = Arrays.copyOf(rowReferences, length);
+		}
+		if(old >= 0)
+			unlink(file, old);
+		rows[file] = row;
+		if(row >= 0)
+			link(file, row);
+	}
+	
+	/**
+	 * Helper method. Adds a file to the files stored in a row. A file stored in a row that has an owner is linked
+	 * after the owner, so the owner keeps the row.
+	 */
+	private void link(int file, int row)
+	{
+		rowReferences[row]++;
+		int owner = rowFiles[row];
+		if(owner == 0)
+		{
+			rowFiles[row] = file + 1;
+			return;
+		}
+		int next = nextInRow[owner - 1];
+		nextInRow[file] = next;
+		previousInRow[file] = owner;
+		if(next != 0)
+			previousInRow[next - 1] = file + 1;
+		nextInRow[owner - 1] = file + 1;
+	}
+	
+	/**
+	 * Helper method. Takes a file out of the files stored in a row. If the file owned the row, the row is handed
+	 * over to the next file stored in it, if there is one.
+	 */
+	private void unlink(int file, int row)
+	{
+		rowReferences[row]--;
+		int next = nextInRow[file];
+		int previous = previousInRow[file];
+		if(previous == 0)
+			rowFiles[row] = next;
+		else
+			nextInRow[previous - 1] = next;
+		if(next != 0)
+			previousInRow[next - 1] = previous;
+		nextInRow[file] = 0;
+		previousInRow[file] = 0;
+	}
+	
+	/**
+	 * Tombstones a file. The file stays in the index under its name, so it is not added again when its 
+	 * source is found, but it no longer holds a row. Adding the file with put stores it again.
+	 */
+	public void remove(int file)
+	{
+		setRow(file, -1);
+	}
+	
+	/**
+	 * Reports whether the given file has been tombstoned.
+	 */
+	public boolean isRemoved(int file)
+	{
+		return rows[file] < 0;
+	}
+	
+	/**
+	 * Returns the number of files stored in the given row.
+	 */
+	public int references(int row)
+	{
+		if(row < 0 || row >= rowReferences.length)
+			return 0;
+		return rowReferences[row];
+	}
+	
+	/**
+	 * Moves a file to a new name. Used to move files stored under an old style name to their full name.
+	 * @param file -- The number of the file.
+	 * @param name -- The new name. No other file may have this name.
+	 */
+	public void rename(int file, String name)
+	{
+		//remove the file from the table, moving any later entries of its cluster back into the gap.
+		int slot = hashes[file] & mask;
+		while(slots[slot] != file + 1)
+			slot = (slot + 1) & mask;
+		int gap = slot;
+		slots[gap] = 0;
+		for(slot = (gap + 1) & mask; slots[slot] != 0; slot = (slot + 1) & mask)
+		{
+			int home = hashes[slots[slot] - 1] & mask;
+			//entries whose home slot lies cyclically in (gap, slot] stay where they are.
+			if(gap <= slot ? (home <= gap || home > slot) : (home <= gap && home > slot))
+			{
+				slots[gap] = slots[slot];
+				slots[slot] = 0;
+				gap = slot;
+			}
+		}
+		setName(file, name);
+		insert(file);
+	}
+	
+	private void setName(int file, String name)
+	{
+		byte[] key = name.getBytes(StandardCharsets.UTF_8);
+		if(namesUsed + key.length > names.length)
+			names = Arrays.copyOf(names, Math.max(names.length * 2, namesUsed + key.length));
+		System.arraycopy(key, 0, names, namesUsed, key.length);
+		nameStart[file] = namesUsed;
+		nameLength[file] = key.length;
+		namesUsed += key.length;
+		hashes[file] = hash(key);
+	}
+	
+	/**
+	 * Looks up the file stored in the given row.
+	 * @return -- The number of the file, or -1 if no file is stored in the row.
+	 */
+	public int fileAt(int row)
+	{
+		if(row < 0 || row >= rowFiles.length)
+			return -1;
+		return rowFiles[row] - 1;
+	}
+
+	public long getLastModified(int file)
+	{
+		return lastModified[file];
+	}
+
+	public void setLastModified(int file, long modified)
+	{
+		lastModified[file] = modified;
+	}
+	
+	/**
+	 * Records the size and content hash of a file.
+	 */
+	public void setContent(int file, long size, int hash)
+	{
+		sizes[file] = size;
+		contentHashes[file] = hash;
+	}
+	
+	/**
+	 * Returns the size of the file when it was last hashed, or -1 if its content was never hashed.
+	 */
+	public long getSize(int file)
+	{
+		return sizes[file];
+	}
+	
+	public int getContentHash(int file)
+	{
+		return contentHashes[file];
+	}
+	
+	public long getVersion(int file)
+	{
+		return versions[file];
+	}
+	
+	public void setVersion(int file, long version)
+	{
+		versions[file] = version;
+	}
+
+	public int getRow(int file)
+	{
+		return rows[file];
+	}
+
+	public String getName(int file)
+	{
+		return new String(names, nameStart[file], nameLength[file], StandardCharsets.UTF_8);
+	}
+
+	private void insert(int file)
+	{
+		int slot = hashes[file] & mask;
+		while(slots[slot] != 0)
+			slot = (slot + 1) & mask;
+		slots[slot] = file + 1;
+	}
+
+	private void rehash(int length)
+	{
+		slots = new int[length];
+		mask = length - 1;
+		for(int file = 0; file < size; file++)
+			insert(file);
+	}
+
+	private boolean sameName(int file, byte[] key)
+	{
+		if(nameLength[file] != key.length)
+			return false;
+		int start = nameStart[file];
+		for(int i = 0; i < key.length; i++)
+		{
+			if(names[start + i] != key[i])
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * FNV-1a hash of the name bytes, with the high bits mixed down for the table mask.
+	 */
+	private static int hash(byte[] key)
+	{
+		int h = 0x811c9dc5;
+		for(byte b: key)
+		{
+			h ^= (b & 0xff);
+			h *= 0x01000193;
+		}
+		return h ^ (h >>> 16);
+	}
+}
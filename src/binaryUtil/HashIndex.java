@@ -0,0 +1,96 @@
+package binaryUtil;
+
+import java.util.Arrays;
+
+/**
+ * SLHA parsing program
+ * Copyright (C) 2014 Patrick Cowan
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of this License, or
+ * (at your option) any later version.
+ *
+ *You should have received a copy of the GNU General Public License
+ *along with this program if not, see <http://www.gnu.org/licenses/>.
+ */
+/**
+ * Maps 64 bit hashes to an int (a row or file number) through an open addressing table of primitive
+ * arrays. Adding a hash that is already in the index replaces its value.
+ * @author Patrick
+ *
+ */
+class HashIndex
+{
+	private long[] keys;
+	private int[] values;	//value + 1 (0 is an empty slot)
+	private int mask;
+	private int size;
+
+	public HashIndex()
+	{
+		keys = new long[1024];
+		values = new int[1024];
+		mask = keys.length - 1;
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * Returns the value stored under the given hash, or -1 if the hash is not in the index.
+	 */
+	public int get(long hash)
+	{
+		for(int slot = slot(hash); values[slot] != 0; slot = (slot + 1) & mask)
+		{
+			if(keys[slot] == hash)
+				return values[slot] - 1;
+		}
+		return -1;
+	}
+
+	public void put(long hash, int value)
+	{
+		if((size + 1) * 2 > keys.length)
+			rehash(keys.length * 2);
+		int slot = slot(hash);
+		while(values[slot] != 0 && keys[slot] != hash)
+			slot = (slot + 1) & mask;
+		if(values[slot] == 0)
+			size++;
+		keys[slot] = hash;
+		values[slot] = value + 1;
+	}
+
+	private int slot(long hash)
+	{
+		return (int) (hash ^ (hash >>> 32)) & mask;
+	}
+
+	private void rehash(int length)
+	{
+		long[] oldKeys = keys;
+		int[] oldValues = values;
+		keys = new long[length];
+		values = new int[length];
+		mask = length - 1;
+		size = 0;
+		for(int i = 0; i < oldKeys.length; i++)
+		{
+			if(oldValues[i] != 0)
+				put(oldKeys[i], oldValues[i] - 1);
+		}
+	}
+
+	/**
+	 * Removes every hash from the index.
+	 */
+	public void clear()
+	{
+		Arrays.fill(values, 0);
+		size = 0;
+	}
+}
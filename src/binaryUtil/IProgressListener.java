@@ -0,0 +1,28 @@
+package binaryUtil;
+/**
+ * SLHA parsing program
+ * Copyright (C) 2014 Patrick Cowan
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by 
+ * the Free Software Foundation, either version 3 of this License, or
+ * (at your option) any later version.
+ *
+ *You should have received a copy of the GNU General Public License 
+ *along with this program if not, see <http://www.gnu.org/licenses/>.
+ */
+/**
+ * Interface used by a dataset to let outside classes follow the progress of an ingest.
+ * Progress is reported from the thread running the ingest.
+ * @author Patrick
+ *
+ */
+public interface IProgressListener {
+	
+	/**
+	 * Called by the dataset as files are read in.
+	 * @param progress -- The number of files looked at so far.
+	 * @param total -- The number of files to be looked at, or -1 if it is not known (e.g. for streams).
+	 */
+	public void progress(long progress, long total);
+}
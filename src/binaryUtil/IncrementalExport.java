@@ -0,0 +1,294 @@
+package binaryUtil;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * SLHA parsing program
+ * Copyright (C) 2014 Patrick Cowan
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of this License, or
+ * (at your option) any later version.
+ *
+ *You should have received a copy of the GNU General Public License
+ *along with this program if not, see <http://www.gnu.org/licenses/>.
+ */
+/**
+ * Exports that are brought up to date rather than written again. Next to the export a mark file (the name of the
+ * export with MARK_EXTENSION) records the binary and variables it was written from, the number of rows of the
+ * binary, and the version of every row (see BinarySnapshot.getRowVersion). A later export to the same file
+ * compares the versions to find the first row that was rewritten, removed or moved by compacting. The export is
+ * cut back to the line of that row, and the rows from it on are written after it. When rows are only added,
+ * only the new rows are read from the binary.
+ *
+ * .dat files are cut back by counting lines, and .npy and .f64 matrices (see NpyWriter) at their fixed size rows,
+ * with the shape in the .npy headers patched in place. .npz archives can not be appended to, so they are always
+ * written in full. Any export that does not match its mark, e.g. one written by another program, is written in full.
+ *
+ * Rows written before versions were kept all have version 0. They are found to have changed like any other row,
+ * since a rewrite gives the row the next version of the binary, and a removal leaves it with none.
+ * @author Patrick
+ *
+ */
+public class IncrementalExport
+{
+	public static final String MARK_EXTENSION = ".mark";
+
+	private static final int MAGIC = 0x44434D4B;	//"DCMK"
+	private static final int FORMAT_VERSION = 1;
+
+	/**
+	 * Returns the mark file of an export.
+	 */
+	public static File markFileOf(File f)
+	{
+		return new File(f.getPath() + MARK_EXTENSION);
+	}
+
+	/**
+	 * Brings an export up to date with a snapshot, or writes it in full if it can not be, and records its mark.
+	 * The format follows the extension of the file, as for Dataset.export.
+	 * @param snapshot -- The rows to be written.
+	 * @param vars -- The variables to write, in column order.
+	 * @param f -- The export.
+	 * @param source -- The path of the binary, so an export is not brought up to date from another binary.
+	 */
+	public static ExportSummary export(BinarySnapshot snapshot, List<Variable> vars, File f, String source) throws IOException
+	{
+		long start = System.nanoTime();
+		File markFile = markFileOf(f);
+		String type = typeOf(f);
+		if(type.equals(NpyWriter.NPZ_EXTENSION))
+		{
+			if(markFile.exists() && !markFile.delete())
+				System.err.println("Could not delete " + markFile);
+			int rows = NpyWriter.writeNpz(snapshot, vars, f);
+			return new ExportSummary(rows, rows, false, seconds(start));
+		}
+
+		Mark old = Mark.read(markFile);
+		int kept = 0;
+		int written = -1;
+		if(old != null && old.matches(snapshot, vars, f, type, source))
+		{
+			int firstRow = old.firstChangedRow(snapshot);
+			kept = old.linesBefore(firstRow);
+			//the mark is removed while the export is changed, so an export that is interrupted is written again.
+			if(!markFile.delete())
+				throw new IOException("Could not delete " + markFile);
+			if(type.equals(NpyWriter.NPY_EXTENSION))
+				written = NpyWriter.appendNpy(snapshot, vars, f, firstRow, kept);
+			else if(type.equals(NpyWriter.RAW_EXTENSION))
+				written = NpyWriter.appendRaw(snapshot, vars, f, firstRow, kept);
+			else
+				written = DataFileWriter.append(snapshot, vars, f, firstRow, kept);
+		}
+		boolean incremental = written >= 0;
+		if(!incremental)
+		{
+			if(markFile.exists() && !markFile.delete())
+				throw new IOException("Could not delete " + markFile);
+			kept = 0;
+			if(type.equals(NpyWriter.NPY_EXTENSION))
+				written = NpyWriter.writeNpy(snapshot, vars, f);
+			else if(type.equals(NpyWriter.RAW_EXTENSION))
+				written = NpyWriter.writeRaw(snapshot, vars, f);
+			else
+				written = DataFileWriter.write(snapshot, vars, f);
+		}
+		new Mark(snapshot, vars, f, type, source).write(markFile);
+		return new ExportSummary(kept + written, written, incremental, seconds(start));
+	}
+
+	/**
+	 * Helper method. Returns the extension that decides the format of an export, ".dat" for every data file.
+	 */
+	private static String typeOf(File f)
+	{
+		String name = f.getName().toLowerCase();
+		if(name.endsWith(NpyWriter.NPY_EXTENSION))
+			return NpyWriter.NPY_EXTENSION;
+		if(name.endsWith(NpyWriter.NPZ_EXTENSION))
+			return NpyWriter.NPZ_EXTENSION;
+		if(name.endsWith(NpyWriter.RAW_EXTENSION))
+			return NpyWriter.RAW_EXTENSION;
+		return ".dat";
+	}
+
+	private static double seconds(long start)
+	{
+		return (System.nanoTime() - start) / 1e9;
+	}
+
+	/**
+	 * The contents of a mark file: what an export was written from.
+	 */
+	private static class Mark
+	{
+		private String type;
+		private String source;
+		private long length;
+		private long maskLength;
+		private String[] keys;
+		private int[] columns;
+		private long[] versions;
+
+		private Mark()
+		{
+		}
+
+		/**
+		 * Describes an export just written from a snapshot.
+		 */
+		public Mark(BinarySnapshot snapshot, List<Variable> vars, File f, String type, String source)
+		{
+			this.type = type;
+			this.source = source;
+			length = f.length();
+			maskLength = maskLengthOf(f, type);
+			keys = new String[vars.size()];
+			columns = new int[vars.size()];
+			for(int i = 0; i < keys.length; i++)
+			{
+				keys[i] = vars.get(i).getKey();
+				columns[i] = snapshot.columnOf(vars.get(i));
+			}
+			versions = new long[snapshot.getUsedFiles()];
+			for(int row = 0; row < versions.length; row++)
+				versions[row] = snapshot.getRowVersion(row);
+		}
+
+		/**
+		 * Reads a mark file.
+		 * @return -- The mark, or null if there is no mark file or it can not be read.
+		 */
+		public static Mark read(File markFile)
+		{
+			if(!markFile.exists())
+				return null;
+			try
+			{
+				DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(markFile)));
+				try
+				{
+					if(in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION)
+						return null;
+					Mark m = new Mark();
+					m.type = in.readUTF();
+					m.source = in.readUTF();
+					m.length = in.readLong();
+					m.maskLength = in.readLong();
+					int vars = in.readInt();
+					m.keys = new String[vars];
+					m.columns = new int[vars];
+					for(int i = 0; i < vars; i++)
+					{
+						m.keys[i] = in.readUTF();
+						m.columns[i] = in.readInt();
+					}
+					m.versions = new long[in.readInt()];
+					for(int row = 0; row < m.versions.length; row++)
+						m.versions[row] = in.readLong();
+					return m;
+				}
+				finally
+				{
+					in.close();
+				}
+			}
+			catch(IOException e)
+			{
+				//a mark that can not be read, e.g. one cut short, leaves the export to be written in full.
+				return null;
+			}
+		}
+
+		public void write(File markFile) throws IOException
+		{
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(markFile)));
+			try
+			{
+				out.writeInt(MAGIC);
+				out.writeInt(FORMAT_VERSION);
+				out.writeUTF(type);
+				out.writeUTF(source);
+				out.writeLong(length);
+				out.writeLong(maskLength);
+				out.writeInt(keys.length);
+				for(int i = 0; i < keys.length; i++)
+				{
+					out.writeUTF(keys[i]);
+					out.writeInt(columns[i]);
+				}
+				out.writeInt(versions.length);
+				for(int row = 0; row < versions.length; row++)
+					out.writeLong(versions[row]);
+			}
+			finally
+			{
+				out.close();
+			}
+		}
+
+		/**
+		 * Reports whether an export is still the one this mark describes, and would be written from the same
+		 * binary and columns.
+		 */
+		public boolean matches(BinarySnapshot snapshot, List<Variable> vars, File f, String type, String source)
+		{
+			if(!this.type.equals(type) || !this.source.equals(source) || keys.length != vars.size()
+					|| length != f.length() || maskLength != maskLengthOf(f, type))
+				return false;
+			for(int i = 0; i < keys.length; i++)
+			{
+				//a variable removed, or moved by compacting, changes every row of its column.
+				if(!keys[i].equals(vars.get(i).getKey()) || columns[i] != snapshot.columnOf(vars.get(i)))
+					return false;
+			}
+			return true;
+		}
+
+		/**
+		 * Returns the first row whose version differs from the snapshot, or the number of rows of the mark or the
+		 * snapshot, whichever is less, if none do.
+		 */
+		public int firstChangedRow(BinarySnapshot snapshot)
+		{
+			int rows = Math.min(versions.length, snapshot.getUsedFiles());
+			for(int row = 0; row < rows; row++)
+			{
+				if(versions[row] != snapshot.getRowVersion(row))
+					return row;
+			}
+			return rows;
+		}
+
+		/**
+		 * Returns the number of lines of the export written for the rows before the given row.
+		 */
+		public int linesBefore(int row)
+		{
+			int lines = 0;
+			for(int r = 0; r < row; r++)
+			{
+				if(versions[r] >= 0)
+					lines++;
+			}
+			return lines;
+		}
+
+		private static long maskLengthOf(File f, String type)
+		{
+			return type.equals(NpyWriter.NPY_EXTENSION) ? NpyWriter.maskFileOf(f).length() : -1;
+		}
+	}
+}
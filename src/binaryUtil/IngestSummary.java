@@ -0,0 +1,83 @@
+package binaryUtil;
+
+/**
+ * SLHA parsing program
+ * Copyright (C) 2014 Patrick Cowan
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of this License, or
+ * (at your option) any later version.
+ *
+ *You should have received a copy of the GNU General Public License
+ *along with this program if not, see <http://www.gnu.org/licenses/>.
+ */
+/**
+ * The result of an ingest into a dataset.
+ * @author Patrick
+ *
+ */
+public class IngestSummary
+{
+	private int files;
+	private int failed;
+	private long bytes;
+	private int inconsistencies;
+	private double seconds;
+
+	IngestSummary(int files, int failed, long bytes, int inconsistencies, double seconds)
+	{
+		this.files = files;
+		this.failed = failed;
+		this.bytes = bytes;
+		this.inconsistencies = inconsistencies;
+		this.seconds = seconds;
+	}
+
+	/**
+	 * Returns the number of files (or streamed documents) added or updated.
+	 */
+	public int getFiles()
+	{
+		return files;
+	}
+
+	/**
+	 * Returns the number of changed files or streamed documents that could not be parsed.
+	 * Files in the directory that are not SLHA files are not counted.
+	 */
+	public int getFailed()
+	{
+		return failed;
+	}
+
+	/**
+	 * Returns the total size of the files or documents that were added.
+	 */
+	public long getBytes()
+	{
+		return bytes;
+	}
+
+	/**
+	 * Returns the number of inconsistencies logged by the binary since it was opened.
+	 */
+	public int getInconsistencies()
+	{
+		return inconsistencies;
+	}
+
+	/**
+	 * Returns the time taken by the ingest, in seconds.
+	 */
+	public double getSeconds()
+	{
+		return seconds;
+	}
+
+	public String toString()
+	{
+		return files + " files added, " + failed + " failed, " + bytes + " bytes in " + seconds + " seconds, " 
+				+ inconsistencies + " inconsistencies";
+	}
+}
@@ -0,0 +1,628 @@
+package binaryUtil;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * SLHA parsing program
+ * Copyright (C) 2014 Patrick Cowan
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of this License, or
+ * (at your option) any later version.
+ *
+ *You should have received a copy of the GNU General Public License
+ *along with this program if not, see <http://www.gnu.org/licenses/>.
+ */
+/**
+ * Writes the live rows of a binary in the binary formats read by NumPy, so exports can be loaded without
+ * parsing text. Three targets are written:
+ *
+ * .npy - a float64 matrix with a row per file and a column per variable, and beside it a bool matrix of the
+ * 		same shape, named with MASK_SUFFIX, that is true where a cell holds no data.
+ * .npz - an archive of the same data one column at a time: an array per variable, named by its key with ':'
+ * 		replaced by '_', its mask under the name with MASK_SUFFIX, and the binary row of every file under ROW_ARRAY.
+ * .f64 - the matrix alone, as raw little-endian doubles in row order.
+ *
+ * Cells that hold no data are written as NaN, rather than the Double.MAX_VALUE of .dat files. The formats are
+ * written directly (NPY format version 1.0, uncompressed zip archives, as numpy.savez writes them), so nothing
+ * beyond the JDK is needed.
+ *
+ * Values are little-endian, except for a .npy of every variable of a binary without removed files or missing
+ * cells. Its rows are stored exactly as the binary stores them, so the matrix is declared big-endian and copied
+ * from the binary by the operating system without passing through the program.
+ * @author Patrick
+ *
+ */
+public class NpyWriter
+{
+	public static final String NPY_EXTENSION = ".npy";
+	public static final String NPZ_EXTENSION = ".npz";
+	public static final String RAW_EXTENSION = ".f64";
+	public static final String MASK_SUFFIX = "_mask";
+	public static final String ROW_ARRAY = "row";
+
+	private static final int CHUNK_BYTES = 1 << 22;	//the most row data read from the binary at once.
+	private static final byte[] MAGIC = {(byte)0x93, 'N', 'U', 'M', 'P', 'Y', 1, 0};
+	private static final int HEADER_ALIGNMENT = 64;
+	private static final int MAX_ROW_DIGITS = String.valueOf(Integer.MAX_VALUE).length();
+	private static final String VALUE_TYPE = "<f8";
+	private static final String STORED_TYPE = ">f8";	//doubles as the binary stores them.
+	private static final String MASK_TYPE = "|b1";
+	private static final String ROW_TYPE = "<i4";
+
+	/**
+	 * Reports whether a file name is that of a target written by this class.
+	 */
+	public static boolean isExportName(String name)
+	{
+		name = name.toLowerCase();
+		return name.endsWith(NPY_EXTENSION) || name.endsWith(NPZ_EXTENSION) || name.endsWith(RAW_EXTENSION);
+	}
+
+	/**
+	 * Returns the file the mask of a .npy export is written to: the name of the export with MASK_SUFFIX before
+	 * its extension.
+	 */
+	public static File maskFileOf(File f)
+	{
+		String name = f.getName();
+		int dot = name.toLowerCase().endsWith(NPY_EXTENSION) ? name.length() - NPY_EXTENSION.length() : name.length();
+		return new File(f.getAbsoluteFile().getParentFile(), name.substring(0, dot) + MASK_SUFFIX + NPY_EXTENSION);
+	}
+
+	/**
+	 * Writes the live rows of a snapshot to a .npy matrix, and its mask to maskFileOf(f). Both files are replaced.
+	 * @param snapshot -- The rows to be written.
+	 * @param vars -- The variables to write, in column order.
+	 * @param f -- The file the matrix is written to.
+	 * @return -- The number of rows written.
+	 */
+	public static int writeNpy(BinarySnapshot snapshot, List<Variable> vars, File f) throws IOException
+	{
+		RowReader reader = new RowReader(snapshot, vars);
+		int rows = reader.countLive(0);
+		//the matrix is the data region of the binary when it holds exactly the chosen cells.
+		boolean stored = reader.isStoredLayout(rows);
+		FileOutputStream data = new FileOutputStream(f);
+		FileOutputStream mask = new FileOutputStream(maskFileOf(f));
+		try
+		{
+			FileChannel dataChannel = data.getChannel();
+			FileChannel maskChannel = mask.getChannel();
+			write(dataChannel, header(stored ? STORED_TYPE : VALUE_TYPE, rows, vars.size()));
+			write(maskChannel, header(MASK_TYPE, rows, vars.size()));
+			return writeRows(reader, 0, dataChannel, maskChannel, stored);
+		}
+		finally
+		{
+			data.close();
+			mask.close();
+		}
+	}
+
+	/**
+	 * Replaces the rows of a .npy matrix and its mask from the given row of the matrix on with the live rows of a 
+	 * snapshot from the given row on, and updates the shape in the headers. Used to bring an earlier export up to 
+	 * date, see IncrementalExport. The headers leave room for the number of rows to grow, so they are patched in place.
+	 * @param firstRow -- The first row of the snapshot to write.
+	 * @param keptRows -- The number of rows of the matrix kept ahead of the rows.
+	 * @return -- The number of rows written, or -1 if the files can not be appended to, and should be written again.
+	 */
+	static int appendNpy(BinarySnapshot snapshot, List<Variable> vars, File f, int firstRow, int keptRows) throws IOException
+	{
+		File maskFile = maskFileOf(f);
+		if(!f.exists() || !maskFile.exists())
+			return -1;
+		RowReader reader = new RowReader(snapshot, vars);
+		int rows = keptRows + reader.countLive(firstRow);
+		int columns = vars.size();
+		RandomAccessFile data = new RandomAccessFile(f, "rw");
+		RandomAccessFile mask = new RandomAccessFile(maskFile, "rw");
+		try
+		{
+			Header dataHeader = Header.read(data);
+			Header maskHeader = Header.read(mask);
+			if(dataHeader == null || maskHeader == null || dataHeader.columns != columns || maskHeader.columns != columns
+					|| dataHeader.rows < keptRows || maskHeader.rows < keptRows || !maskHeader.descr.equals(MASK_TYPE))
+				return -1;
+			//rows copied from the binary can only follow rows copied from the binary.
+			boolean stored = dataHeader.descr.equals(STORED_TYPE);
+			if(stored ? !(keptRows == firstRow && reader.isStoredLayout(rows)) : !dataHeader.descr.equals(VALUE_TYPE))
+				return -1;
+			ByteBuffer newDataHeader = header(dataHeader.descr, rows, columns);
+			ByteBuffer newMaskHeader = header(MASK_TYPE, rows, columns);
+			if(newDataHeader.remaining() != dataHeader.length || newMaskHeader.remaining() != maskHeader.length)
+				return -1;
+			
+			FileChannel dataChannel = data.getChannel();
+			FileChannel maskChannel = mask.getChannel();
+			long dataEnd = dataHeader.length + (long)keptRows*columns*8;
+			long maskEnd = maskHeader.length + (long)keptRows*columns;
+			dataChannel.truncate(dataEnd);
+			dataChannel.position(dataEnd);
+			maskChannel.truncate(maskEnd);
+			maskChannel.position(maskEnd);
+			int written = writeRows(reader, firstRow, dataChannel, maskChannel, stored);
+			write(dataChannel, newDataHeader, 0);
+			write(maskChannel, newMaskHeader, 0);
+			return written;
+		}
+		finally
+		{
+			data.close();
+			mask.close();
+		}
+	}
+
+	/**
+	 * Writes the live rows of a snapshot to a .npz archive of per-variable arrays, replacing the file.
+	 * The columns are gathered into a temporary file next to the archive, so the binary is read once.
+	 * @param snapshot -- The rows to be written.
+	 * @param vars -- The variables to write.
+	 * @param f -- The archive to be written to.
+	 * @return -- The number of rows written.
+	 */
+	public static int writeNpz(BinarySnapshot snapshot, List<Variable> vars, File f) throws IOException
+	{
+		RowReader reader = new RowReader(snapshot, vars);
+		int rows = reader.countLive(0);
+		int columns = vars.size();
+		byte[] valueHeader = header(VALUE_TYPE, rows, -1).array();
+		byte[] maskHeader = header(MASK_TYPE, rows, -1).array();
+		byte[] rowHeader = header(ROW_TYPE, rows, -1).array();
+		//the checksums of the entries, updated as the columns are gathered in row order.
+		CRC32[] valueCrc = new CRC32[columns];
+		CRC32[] maskCrc = new CRC32[columns];
+		CRC32 rowCrc = new CRC32();
+		rowCrc.update(rowHeader);
+		for(int c = 0; c < columns; c++)
+		{
+			valueCrc[c] = new CRC32();
+			valueCrc[c].update(valueHeader);
+			maskCrc[c] = new CRC32();
+			maskCrc[c].update(maskHeader);
+		}
+		//the temporary file holds every value column, then every mask column, then the rows.
+		long valueBytes = (long)rows * 8;
+		long maskStart = valueBytes * columns;
+		long rowStart = maskStart + (long)rows * columns;
+		File temp = File.createTempFile(f.getName(), ".tmp", f.getAbsoluteFile().getParentFile());
+		RandomAccessFile gathered = new RandomAccessFile(temp, "rw");
+		try
+		{
+			FileChannel channel = gathered.getChannel();
+			ByteBuffer[] values = new ByteBuffer[columns];
+			ByteBuffer[] missing = new ByteBuffer[columns];
+			for(int c = 0; c < columns; c++)
+			{
+				values[c] = ByteBuffer.allocate(reader.rowsPerChunk * 8).order(ByteOrder.LITTLE_ENDIAN);
+				missing[c] = ByteBuffer.allocate(reader.rowsPerChunk);
+			}
+			ByteBuffer rowNumbers = ByteBuffer.allocate(reader.rowsPerChunk * 4).order(ByteOrder.LITTLE_ENDIAN);
+			long written = 0;
+			for(int first = 0; first < snapshot.getUsedFiles(); first += reader.rowsPerChunk)
+			{
+				int count = reader.read(first);
+				rowNumbers.clear();
+				for(int c = 0; c < columns; c++)
+				{
+					values[c].clear();
+					missing[c].clear();
+				}
+				for(int r = 0; r < count; r++)
+				{
+					rowNumbers.putInt(reader.rowOf(r));
+					for(int c = 0; c < columns; c++)
+					{
+						values[c].putDouble(reader.value(r, c));
+						missing[c].put(reader.isPresent(r, c) ? (byte)0 : (byte)1);
+					}
+				}
+				for(int c = 0; c < columns; c++)
+				{
+					values[c].flip();
+					valueCrc[c].update(values[c].array(), 0, values[c].limit());
+					write(channel, values[c], valueBytes*c + written*8);
+					missing[c].flip();
+					maskCrc[c].update(missing[c].array(), 0, missing[c].limit());
+					write(channel, missing[c], maskStart + (long)rows*c + written);
+				}
+				rowNumbers.flip();
+				rowCrc.update(rowNumbers.array(), 0, rowNumbers.limit());
+				write(channel, rowNumbers, rowStart + written*4);
+				written += count;
+			}
+
+			ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(f), 1 << 16));
+			try
+			{
+				byte[] copy = new byte[1 << 16];
+				for(int c = 0; c < columns; c++)
+				{
+					String name = arrayName(vars.get(c));
+					addEntry(zip, name + NPY_EXTENSION, valueHeader, valueCrc[c], gathered, valueBytes*c, valueBytes, copy);
+					addEntry(zip, name + MASK_SUFFIX + NPY_EXTENSION, maskHeader, maskCrc[c], gathered,
+							maskStart + (long)rows*c, rows, copy);
+				}
+				addEntry(zip, ROW_ARRAY + NPY_EXTENSION, rowHeader, rowCrc, gathered, rowStart, (long)rows*4, copy);
+			}
+			finally
+			{
+				zip.close();
+			}
+			return rows;
+		}
+		finally
+		{
+			gathered.close();
+			if(!temp.delete())
+				System.err.println("Could not delete " + temp);
+		}
+	}
+
+	/**
+	 * Writes the live rows of a snapshot as a raw matrix of little-endian doubles in row order, with no header,
+	 * replacing the file. Cells that hold no data are NaN.
+	 * @return -- The number of rows written.
+	 */
+	public static int writeRaw(BinarySnapshot snapshot, List<Variable> vars, File f) throws IOException
+	{
+		FileOutputStream out = new FileOutputStream(f);
+		try
+		{
+			return writeRows(new RowReader(snapshot, vars), 0, out.getChannel(), null, false);
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+
+	/**
+	 * Replaces the rows of a raw matrix from the given row of the matrix on with the live rows of a snapshot from
+	 * the given row on. Used to bring an earlier export up to date, see IncrementalExport.
+	 * @param firstRow -- The first row of the snapshot to write.
+	 * @param keptRows -- The number of rows of the matrix kept ahead of the rows.
+	 * @return -- The number of rows written, or -1 if the matrix holds fewer rows than are kept.
+	 */
+	static int appendRaw(BinarySnapshot snapshot, List<Variable> vars, File f, int firstRow, int keptRows) throws IOException
+	{
+		long end = (long)keptRows*vars.size()*8;
+		if(!f.exists() || f.length() < end)
+			return -1;
+		RandomAccessFile out = new RandomAccessFile(f, "rw");
+		try
+		{
+			FileChannel channel = out.getChannel();
+			channel.truncate(end);
+			channel.position(end);
+			return writeRows(new RowReader(snapshot, vars), firstRow, channel, null, false);
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+
+	/**
+	 * Writes a matrix held in memory, e.g. a CorrelationMatrix, as a .npy float64 matrix, replacing the file.
+	 * @param values -- The rows of the matrix, all of the same length.
+	 */
+	static void writeMatrix(double[][] values, File f) throws IOException
+	{
+		int columns = values.length == 0 ? 0 : values[0].length;
+		FileOutputStream out = new FileOutputStream(f);
+		try
+		{
+			FileChannel channel = out.getChannel();
+			write(channel, header(VALUE_TYPE, values.length, columns));
+			ByteBuffer b = ByteBuffer.allocate(8 * columns).order(ByteOrder.LITTLE_ENDIAN);
+			for(double[] row: values)
+			{
+				b.clear();
+				for(double d: row)
+					b.putDouble(d);
+				b.flip();
+				write(channel, b);
+			}
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+
+	/**
+	 * Helper method. Writes the chosen cells of the live rows from the given row on, in row order, to the positions
+	 * of the channels. Missing cells are written as NaN.
+	 * @param mask -- The channel the mask is written to, or null if no mask is written.
+	 * @param stored -- True to copy the rows as stored in the binary, see RowReader.isStoredLayout.
+	 * @return -- The number of rows written.
+	 */
+	private static int writeRows(RowReader reader, int firstRow, FileChannel data, FileChannel mask, boolean stored)
+			throws IOException
+	{
+		BinarySnapshot snapshot = reader.snapshot;
+		int columns = reader.columns.length;
+		int rows = 0;
+		if(stored)
+		{
+			rows = snapshot.getUsedFiles() - firstRow;
+			snapshot.transferRows(firstRow, rows, data);
+			if(mask != null)
+				writeZeros(mask, (long)rows*columns);
+			return rows;
+		}
+		ByteBuffer values = ByteBuffer.allocate(reader.rowsPerChunk * 8 * columns).order(ByteOrder.LITTLE_ENDIAN);
+		ByteBuffer missing = ByteBuffer.allocate(reader.rowsPerChunk * columns);
+		for(int first = firstRow; first < snapshot.getUsedFiles(); first += reader.rowsPerChunk)
+		{
+			int count = reader.read(first);
+			values.clear();
+			missing.clear();
+			for(int r = 0; r < count; r++)
+			{
+				for(int c = 0; c < columns; c++)
+				{
+					values.putDouble(reader.value(r, c));
+					missing.put(reader.isPresent(r, c) ? (byte)0 : (byte)1);
+				}
+			}
+			values.flip();
+			write(data, values);
+			if(mask != null)
+			{
+				missing.flip();
+				write(mask, missing);
+			}
+			rows += count;
+		}
+		return rows;
+	}
+
+	/**
+	 * Returns the name of the array of a variable within a .npz archive.
+	 */
+	public static String arrayName(Variable v)
+	{
+		return v.getKey().replace(':', '_');
+	}
+
+	/**
+	 * Helper method. Builds a version 1.0 NPY header, padded so the data after it is aligned. The padding leaves
+	 * room for the number of rows to grow to any int, so a header can be rewritten in place as rows are appended.
+	 * @param descr -- The NumPy type of the elements, e.g. "<f8".
+	 * @param rows -- The number of rows of the array.
+	 * @param columns -- The number of columns of the array, or -1 for an array of one dimension.
+	 */
+	private static ByteBuffer header(String descr, int rows, int columns)
+	{
+		StringBuilder dict = new StringBuilder();
+		dict.append("{'descr': '").append(descr).append("', 'fortran_order': False, 'shape': (").append(rows);
+		dict.append(columns < 0 ? "," : ", " + columns).append("), }");
+		//the header ends with a newline, after spaces that pad it to the alignment.
+		int length = MAGIC.length + 2 + dict.length() + 1 + (MAX_ROW_DIGITS - String.valueOf(rows).length());
+		int padded = (length + HEADER_ALIGNMENT - 1) / HEADER_ALIGNMENT * HEADER_ALIGNMENT;
+		for(int i = MAGIC.length + 2 + dict.length() + 1; i < padded; i++)
+			dict.append(' ');
+		dict.append('\n');
+		ByteBuffer b = ByteBuffer.allocate(padded).order(ByteOrder.LITTLE_ENDIAN);
+		b.put(MAGIC);
+		b.putShort((short)dict.length());
+		b.put(dict.toString().getBytes(StandardCharsets.US_ASCII));
+		b.flip();
+		return b;
+	}
+
+	/**
+	 * Helper method. Adds an uncompressed entry made of a header and a region of the temporary file.
+	 */
+	private static void addEntry(ZipOutputStream zip, String name, byte[] header, CRC32 crc, RandomAccessFile source,
+			long position, long length, byte[] copy) throws IOException
+	{
+		ZipEntry entry = new ZipEntry(name);
+		entry.setMethod(ZipEntry.STORED);
+		entry.setSize(header.length + length);
+		entry.setCompressedSize(header.length + length);
+		entry.setCrc(crc.getValue());
+		zip.putNextEntry(entry);
+		zip.write(header);
+		source.seek(position);
+		while(length > 0)
+		{
+			int n = (int)Math.min(copy.length, length);
+			source.readFully(copy, 0, n);
+			zip.write(copy, 0, n);
+			length -= n;
+		}
+		zip.closeEntry();
+	}
+
+	private static void write(FileChannel channel, ByteBuffer b) throws IOException
+	{
+		while(b.hasRemaining())
+			channel.write(b);
+	}
+
+	private static void write(FileChannel channel, ByteBuffer b, long position) throws IOException
+	{
+		while(b.hasRemaining())
+			position += channel.write(b, position);
+	}
+
+	private static void writeZeros(FileChannel channel, long length) throws IOException
+	{
+		ByteBuffer zeros = ByteBuffer.allocate((int)Math.min(length, 1 << 16));
+		while(length > 0)
+		{
+			zeros.clear();
+			zeros.limit((int)Math.min(zeros.capacity(), length));
+			length -= zeros.remaining();
+			write(channel, zeros);
+		}
+	}
+
+	/**
+	 * Reads chunks of rows from a snapshot and hands out the cells of the chosen variables for the live rows.
+	 * Its buffer is reused from chunk to chunk.
+	 */
+	private static class RowReader
+	{
+		private BinarySnapshot snapshot;
+		private int[] columns;
+		private int rowSize;
+		private int rowsPerChunk;
+		private ByteBuffer rows;
+		//the first row of the last chunk, and the binary rows of its live rows.
+		private int first;
+		private int[] live;
+
+		public RowReader(BinarySnapshot snapshot, List<Variable> vars)
+		{
+			this.snapshot = snapshot;
+			columns = new int[vars.size()];
+			for(int i = 0; i < columns.length; i++)
+				columns[i] = snapshot.columnOf(vars.get(i));
+			rowSize = Math.max(snapshot.getRowSize(), 1);
+			rowsPerChunk = Math.max(1, CHUNK_BYTES / Math.max(rowSize, 8 * columns.length));
+			rows = ByteBuffer.allocate(rowsPerChunk * rowSize);
+			live = new int[rowsPerChunk];
+		}
+
+		/**
+		 * Returns the number of live rows of the snapshot from the given row on.
+		 */
+		public int countLive(int firstRow)
+		{
+			int count = 0;
+			for(int row = firstRow; row < snapshot.getUsedFiles(); row++)
+			{
+				if(snapshot.isLiveRow(row))
+					count++;
+			}
+			return count;
+		}
+
+		/**
+		 * Reports whether the chosen cells of every row are exactly the stored rows: every column of the binary
+		 * in order, every row live, every cell present and every row written out in full.
+		 * @param liveRows -- The number of live rows of the snapshot.
+		 */
+		public boolean isStoredLayout(int liveRows) throws IOException
+		{
+			if(liveRows != snapshot.getUsedFiles() || 8 * columns.length != snapshot.getRowSize()
+					|| snapshot.getStoredRows() < liveRows)
+				return false;
+			for(int c = 0; c < columns.length; c++)
+			{
+				if(columns[c] != c || !snapshot.isComplete(c))
+					return false;
+			}
+			return true;
+		}
+
+		/**
+		 * Reads the chunk of rows starting at the given row.
+		 * @return -- The number of live rows in the chunk.
+		 */
+		public int read(int first) throws IOException
+		{
+			int count = Math.min(rowsPerChunk, snapshot.getUsedFiles() - first);
+			this.first = first;
+			rows.clear();
+			snapshot.readRows(first, count, rows);
+			int n = 0;
+			for(int r = 0; r < count; r++)
+			{
+				//rows of removed files are left out.
+				if(snapshot.isLiveRow(first + r))
+					live[n++] = first + r;
+			}
+			return n;
+		}
+
+		/**
+		 * Returns the binary row of the given live row of the last chunk.
+		 */
+		public int rowOf(int r)
+		{
+			return live[r];
+		}
+
+		public boolean isPresent(int r, int c)
+		{
+			return snapshot.isPresent(columns[c], live[r]);
+		}
+
+		/**
+		 * Returns a cell of the given live row of the last chunk, or NaN if it holds no data.
+		 */
+		public double value(int r, int c)
+		{
+			if(!isPresent(r, c))
+				return Double.NaN;
+			return rows.getDouble((live[r] - first) * rowSize + 8 * columns[c]);
+		}
+	}
+
+	/**
+	 * The header of an existing .npy file of one or two dimensions.
+	 */
+	private static class Header
+	{
+		private static final Pattern DESCR = Pattern.compile("'descr':\\s*'([^']*)'");
+		private static final Pattern SHAPE = Pattern.compile("'shape':\\s*\\((\\d+),\\s*(\\d*)\\)");
+
+		private int length;
+		private String descr;
+		private int rows;
+		private int columns;
+
+		/**
+		 * Reads the header at the start of a file.
+		 * @return -- The header, or null if the file does not start with a version 1.0 header this class understands.
+		 */
+		public static Header read(RandomAccessFile in) throws IOException
+		{
+			if(in.length() < MAGIC.length + 2)
+				return null;
+			byte[] magic = new byte[MAGIC.length];
+			in.seek(0);
+			in.readFully(magic);
+			if(!Arrays.equals(magic, MAGIC))
+				return null;
+			int size = Short.reverseBytes(in.readShort()) & 0xFFFF;
+			if(in.length() < MAGIC.length + 2 + size)
+				return null;
+			byte[] dict = new byte[size];
+			in.readFully(dict);
+			String text = new String(dict, StandardCharsets.US_ASCII);
+			Matcher descr = DESCR.matcher(text);
+			Matcher shape = SHAPE.matcher(text);
+			if(!descr.find() || !shape.find() || text.contains("'fortran_order': True"))
+				return null;
+			Header h = new Header();
+			h.length = MAGIC.length + 2 + size;
+			h.descr = descr.group(1);
+			h.rows = Integer.parseInt(shape.group(1));
+			h.columns = shape.group(2).isEmpty() ? -1 : Integer.parseInt(shape.group(2));
+			return h;
+		}
+	}
+}
@@ -0,0 +1,202 @@
+package binaryUtil;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * SLHA parsing program
+ * Copyright (C) 2014 Patrick Cowan
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of this License, or
+ * (at your option) any later version.
+ *
+ *You should have received a copy of the GNU General Public License
+ *along with this program if not, see <http://www.gnu.org/licenses/>.
+ */
+/**
+ * Tracks which cells of the binary actually hold data. Each column (variable) has a presence
+ * extent, the first row it exists in, so adding a variable late in an ingest costs a single record
+ * instead of a write for every earlier row. Cells missing within the extent are kept in a bitmap per column.
+ *
+ * The extent of a column is stored with its variable record in the catalog. Changes to single cells
+ * are appended to the catalog as MISSING/PRESENT records, and replayed when the binary is reopened.
+ * Columns without an extent are treated as present from the first row.
+ * @author Patrick
+ *
+ */
+public class NullBitmap
+{
+	private int[] firstRow;
+	private BitSet[] missing;
+	private BinaryCatalog catalog;
+
+	/**
+	 * Creates an empty bitmap.
+	 * @param catalog -- The catalog that changes to single cells are recorded in.
+	 */
+	NullBitmap(BinaryCatalog catalog)
+	{
+		firstRow = new int[0];
+		missing = new BitSet[0];
+		this.catalog = catalog;
+	}
+
+	/**
+	 * Returns a copy of this bitmap that writes no records, and is not changed by later changes to this bitmap.
+	 */
+	synchronized NullBitmap copy()
+	{
+		NullBitmap c = new NullBitmap(null);
+		c.firstRow = firstRow.clone();
+		c.missing = new BitSet[missing.length];
+		for(int i = 0; i < missing.length; i++)
+			c.missing[i] = (BitSet) missing[i].clone();
+		return c;
+	}
+	
+	/**
+	 * Changes the catalog that records are written to. Used when the binary is rewritten.
+	 */
+	void setCatalog(BinaryCatalog catalog)
+	{
+		this.catalog = catalog;
+	}
+
+	private void ensureColumn(int column)
+	{
+		if(column < firstRow.length)
+			return;
+		int oldLength = firstRow.length;
+		int newLength = Math.max(column + 1, oldLength * 2);
+		firstRow = Arrays.copyOf(firstRow, newLength);
+		missing = Arrays.copyOf(missing, newLength);
+		for(int i = oldLength; i < newLength; i++)
+			missing[i] = new BitSet();
+	}
+
+	/**
+	 * Records that a new column exists starting at the given row. All earlier rows are missing.
+	 * The extent is persisted by the variable record of the column, so no record is written here.
+	 * @param column -- The index of the new column.
+	 * @param row -- The first row that holds data for the column.
+	 */
+	public synchronized void addColumn(int column, int row)
+	{
+		ensureColumn(column);
+		firstRow[column] = row;
+	}
+
+	/**
+	 * Records that a column was removed. None of its cells hold data from now on.
+	 * The removal is persisted by its own catalog record, so no record is written here.
+	 */
+	public synchronized void removeColumn(int column)
+	{
+		ensureColumn(column);
+		firstRow[column] = Integer.MAX_VALUE;
+		missing[column] = new BitSet();
+	}
+	
+	/**
+	 * Applies a MISSING/PRESENT record read back from the catalog.
+	 */
+	synchronized void load(byte type, int column, int row)
+	{
+		ensureColumn(column);
+		if(type == BinaryCatalog.MISSING)
+			missing[column].set(row);
+		else
+			missing[column].clear(row);
+	}
+
+	/**
+	 * Marks a single cell as holding no data.
+	 */
+	public synchronized void markMissing(int column, int row)
+	{
+		ensureColumn(column);
+		if(!missing[column].get(row))
+		{
+			missing[column].set(row);
+			catalog.addPresence(BinaryCatalog.MISSING, column, row);
+		}
+	}
+
+	/**
+	 * Marks a single cell as holding data. Only cells previously marked missing produce a record.
+	 */
+	public synchronized void markPresent(int column, int row)
+	{
+		ensureColumn(column);
+		if(missing[column].get(row))
+		{
+			missing[column].clear(row);
+			catalog.addPresence(BinaryCatalog.PRESENT, column, row);
+		}
+	}
+
+	/**
+	 * Reports whether the given cell holds data.
+	 * @return -- false if the row is before the column's extent or was marked missing, true otherwise.
+	 */
+	public synchronized boolean isPresent(int column, int row)
+	{
+		if(column >= firstRow.length)
+			return true;
+		return row >= firstRow[column] && !missing[column].get(row);
+	}
+
+	/**
+	 * Returns the first row the given column holds data for.
+	 */
+	public synchronized int getFirstRow(int column)
+	{
+		if(column >= firstRow.length)
+			return 0;
+		return firstRow[column];
+	}
+
+	/**
+	 * Reports whether every one of the first rows holds data for the given column.
+	 * @param rows -- The number of rows checked.
+	 */
+	public synchronized boolean isComplete(int column, int rows)
+	{
+		if(column >= firstRow.length)
+			return true;
+		int first = missing[column].nextSetBit(0);
+		return firstRow[column] == 0 && (first < 0 || first >= rows);
+	}
+
+	/**
+	 * Returns the rows of a range that hold no data for the given column.
+	 * @param from -- The first row of the range.
+	 * @param to -- The row after the last row of the range.
+	 * @return -- The missing rows, as bits counted from the first row of the range.
+	 */
+	public synchronized BitSet getMissing(int column, int from, int to)
+	{
+		if(column >= firstRow.length)
+			return new BitSet();
+		BitSet rows = missing[column].get(from, to);
+		if(from < firstRow[column])
+			rows.set(0, Math.min(to, firstRow[column]) - from);
+		return rows;
+	}
+
+	/**
+	 * Writes a MISSING record for every missing cell within the column extents to the given catalog.
+	 * Used to build a compact catalog when the binary is rewritten.
+	 */
+	synchronized void writeTo(BinaryCatalog target)
+	{
+		for(int column = 0; column < missing.length; column++)
+		{
+			BitSet bits = missing[column];
+			for(int row = bits.nextSetBit(0); row >= 0; row = bits.nextSetBit(row + 1))
+				target.addPresence(BinaryCatalog.MISSING, column, row);
+		}
+	}
+}
@@ -0,0 +1,206 @@
+package binaryUtil;
+
+/**
+ * SLHA parsing program
+ * Copyright (C) 2014 Patrick Cowan
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of this License, or
+ * (at your option) any later version.
+ *
+ *You should have received a copy of the GNU General Public License
+ *along with this program if not, see <http://www.gnu.org/licenses/>.
+ */
+/**
+ * A comparison of a variable with a constant, e.g. MASS 1000022 < 500. Cells that hold no data never match,
+ * whatever the comparison, and neither do NaN values.
+ * @author Patrick
+ *
+ */
+public class Predicate
+{
+	public static final int LESS = 0;
+	public static final int LESS_OR_EQUAL = 1;
+	public static final int GREATER = 2;
+	public static final int GREATER_OR_EQUAL = 3;
+	public static final int EQUAL = 4;
+	public static final int NOT_EQUAL = 5;
+
+	//the symbols of the operators, by operator. Two character symbols come first so they are matched first.
+	private static final String[] SYMBOLS = {"<", "<=", ">", ">=", "==", "!="};
+	private static final int[] PARSE_ORDER = {LESS_OR_EQUAL, GREATER_OR_EQUAL, EQUAL, NOT_EQUAL, LESS, GREATER};
+
+	private Variable var;
+	private int operator;
+	private double value;
+
+	/**
+	 * Creates a predicate.
+	 * @param var -- The variable compared.
+	 * @param operator -- One of LESS, LESS_OR_EQUAL, GREATER, GREATER_OR_EQUAL, EQUAL and NOT_EQUAL.
+	 * @param value -- The constant the variable is compared with.
+	 */
+	public Predicate(Variable var, int operator, double value)
+	{
+		if(operator < LESS || operator > NOT_EQUAL)
+			throw new IllegalArgumentException("Unknown operator " + operator);
+		this.var = var;
+		this.operator = operator;
+		this.value = value;
+	}
+
+	/**
+	 * Parses a predicate written as a variable, an operator and a number. The variable is written as a key
+	 * (BLOCK:PDG[:PDG2[:PDG3]]) or with spaces instead of the colons, e.g. "MASS 1000022 < 500". The operators
+	 * are <, <=, >, >=, == (or =) and !=.
+	 * @throws IllegalArgumentException -- If the text is not a predicate.
+	 */
+	public static Predicate parse(String text)
+	{
+		for(int operator: PARSE_ORDER)
+		{
+			int at = text.indexOf(SYMBOLS[operator]);
+			if(at < 0)
+				continue;
+			return parse(text, operator, at, SYMBOLS[operator].length());
+		}
+		//a single '=' compares for equality.
+		int at = text.indexOf('=');
+		if(at >= 0)
+			return parse(text, EQUAL, at, 1);
+		throw new IllegalArgumentException("No comparison in predicate: " + text);
+	}
+
+	private static Predicate parse(String text, int operator, int at, int length)
+	{
+		String key = text.substring(0, at).trim().replaceAll("[\\s:]+", ":");
+		String number = text.substring(at + length).trim();
+		if(key.isEmpty() || number.isEmpty())
+			throw new IllegalArgumentException("Predicates are written VARIABLE OPERATOR NUMBER, not " + text);
+		double value;
+		try
+		{
+			value = Double.parseDouble(number);
+		}
+		catch(NumberFormatException e)
+		{
+			throw new IllegalArgumentException("Not a number in predicate: " + text);
+		}
+		return new Predicate(Variable.fromKey(key), operator, value);
+	}
+
+	public Variable getVariable()
+	{
+		return var;
+	}
+
+	public int getOperator()
+	{
+		return operator;
+	}
+
+	public double getValue()
+	{
+		return value;
+	}
+
+	/**
+	 * Reports whether a single value matches. NaN never matches. Cells that hold no data should be left out by the
+	 * caller (see BinaryParser.hasData), since the value stored for them is a value like any other.
+	 */
+	public boolean test(double d)
+	{
+		switch(operator)
+		{
+			case LESS:
+				return d < value;
+			case LESS_OR_EQUAL:
+				return d <= value;
+			case GREATER:
+				return d > value;
+			case GREATER_OR_EQUAL:
+				return d >= value;
+			case EQUAL:
+				return d == value;
+			default:
+				return d < value || d > value;
+		}
+	}
+
+	/**
+	 * Reports whether any value between the given bounds could match, so rows whose values are known to lie
+	 * within the bounds (see ZoneMap) can be skipped when none could.
+	 * @param min -- The least value, positive infinity if there are no values.
+	 * @param max -- The greatest value, negative infinity if there are no values.
+	 */
+	public boolean mayMatch(double min, double max)
+	{
+		if(min > max)
+			return false;
+		switch(operator)
+		{
+			case LESS:
+				return min < value;
+			case LESS_OR_EQUAL:
+				return min <= value;
+			case GREATER:
+				return max > value;
+			case GREATER_OR_EQUAL:
+				return max >= value;
+			case EQUAL:
+				return min <= value && value <= max;
+			default:
+				return min != value || max != value;
+		}
+	}
+
+	/**
+	 * Finds the matching values of a batch. Each comparison is a single loop over the batch, without branches,
+	 * so the JIT compiler can vectorize it. NaN values never match. Cells that hold no data are not told apart, so the
+	 * caller leaves them out (see BinarySnapshot.getMissingRows).
+	 * @param values -- The values of the batch.
+	 * @param count -- The number of values in the batch.
+	 * @param matches -- Set to the matching values, as bits by index. It must have room for count bits.
+	 */
+	void match(double[] values, int count, long[] matches)
+	{
+		int words = (count + 63) >>> 6;
+		for(int i = 0; i < words; i++)
+			matches[i] = 0;
+		double v = value;
+		switch(operator)
+		{
+			case LESS:
+				for(int i = 0; i < count; i++)
+					matches[i >>> 6] |= (values[i] < v ? 1L : 0L) << i;
+				break;
+			case LESS_OR_EQUAL:
+				for(int i = 0; i < count; i++)
+					matches[i >>> 6] |= (values[i] <= v ? 1L : 0L) << i;
+				break;
+			case GREATER:
+				for(int i = 0; i < count; i++)
+					matches[i >>> 6] |= (values[i] > v ? 1L : 0L) << i;
+				break;
+			case GREATER_OR_EQUAL:
+				for(int i = 0; i < count; i++)
+					matches[i >>> 6] |= (values[i] >= v ? 1L : 0L) << i;
+				break;
+			case EQUAL:
+				for(int i = 0; i < count; i++)
+					matches[i >>> 6] |= (values[i] == v ? 1L : 0L) << i;
+				break;
+			default:
+				//NaN is neither less nor greater.
+				for(int i = 0; i < count; i++)
+					matches[i >>> 6] |= (values[i] < v || values[i] > v ? 1L : 0L) << i;
+				break;
+		}
+	}
+
+	public String toString()
+	{
+		return var.getKey() + " " + SYMBOLS[operator] + " " + value;
+	}
+}
@@ -3,16 +3,8 @@ package binaryUtil;
 import guiControl.ParserProgramController;
 
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.text.DecimalFormat;
-import java.text.NumberFormat;
-import java.util.Arrays;
-import java.util.Comparator;
 import java.util.LinkedList;
-
-import javax.swing.JOptionPane;
 /**
  * SLHA parsing program
  * Copyright (C) 2014 Patrick Cowan
@@ -33,10 +25,10 @@ import javax.swing.JOptionPane;
 public class ProgramModel implements Runnable {
 
 	private ParserProgramController ctlr;
-	private File[] files;
-	private BinaryParser p;
+	private Dataset dataset;
 	private File parent;
-	private SlhaFile template;
+	private DirectoryWatcher watcher;
+	private Thread reader;	//the thread reading in the directory opened last.
 	
 	public ProgramModel(ParserProgramController controller)
 	{
@@ -52,24 +44,34 @@ public class ProgramModel implements Runnable {
 	{
 		//start a new thread (within this file) that will go through and parse all of the files.
 		//Basically it will build the binary and add all of the files (if they don't already exist.
-		files = directory.listFiles();
+		//the directory and its subdirectories are walked in order as the files are read in, so the listing is never held whole.
 		parent = directory;
-		Thread t = new Thread(this);
+		//the directory opened before is closed once it has been read in, before this one is opened.
+		final Thread previous = reader;
+		Thread t = new Thread(new Runnable()
+		{
+			public void run()
+			{
+				if(!finish(previous))
+					return;
+				closeDataset();
+				ProgramModel.this.run();
+			}
+		});
+		reader = t;
 		//tell the controller to tell the view what file to display in the tree for browsing, and to 
 		//open up the list.
 		
-		//first, sort the files
-		Arrays.sort(files, new FileComparator());
-		
-		for(File f: files)
+		for(File f: new DirectoryScanner(directory))
 		{
 			//go through all of the files and give the view the 
 			//first valid file. 
+			if(!BinaryParser.isDataFile(new File(directory, BinaryParser.DEFAULT_NAME), f))
+				continue;
 			try
 			{
 				SlhaFile s = new SlhaFile(f);
 				ctlr.InvokeDisplayFileContents(s);
-				template = s;
 				break;
 			}
 			catch(Exception e){continue;}
@@ -96,40 +98,70 @@ public class ProgramModel implements Runnable {
 	public void Close()
 	{
 		//wait for this to complete then return.
+		if(finish(reader))
+			closeDataset();
+	}
+	
+	/**
+	 * Helper method. Waits for a thread reading in a directory to finish.
+	 * @return -- False if the wait was interrupted.
+	 */
+	private static boolean finish(Thread t)
+	{
+		try
+		{
+			if(t != null)
+				t.join();
+			return true;
+		}
+		catch(InterruptedException e)
+		{
+			return false;
+		}
+	}
+	
+	/**
+	 * Helper method. Stops watching the open directory and closes its dataset, saving its zones, indexes and sketches.
+	 */
+	private void closeDataset()
+	{
+		try
+		{
+			if(watcher != null)
+				watcher.close();
+			if(dataset != null)
+				dataset.close();
+		}
+		catch(IOException e)
+		{
+			e.printStackTrace();
+			System.err.println("Error closing the binary");
+		}
+		watcher = null;
+		dataset = null;
 	}
 
 	public void run()
 	{
 		//open up a binary file.
 		try {
-			p = new BinaryParser(new File(parent.getAbsolutePath() + "\\binary.bin"));
-			p.addBinaryListener(ctlr);
-			int progress = 1;
-			for(File f : files)
+			dataset = Dataset.open(parent);
+			dataset.addWriteListener(ctlr);
+			dataset.addProgressListener(new IProgressListener()
 			{
-				if(!p.CotainsFile(f) && !f.getName().contains(".bin") && !f.getName().contains(".log"))
+				public void progress(long progress, long total)
 				{
-					try
-					{
-					SlhaFile temp = new SlhaFile(f);
-					p.addFile(temp,template);
-					template = temp;
-					}
-					catch(Exception e)
-					{
-						//the file could not be created, ignore it and continue.
-					}					
+					ctlr.UpdateProgress((int)Math.min(progress, total), (int)total);	//update the view for files being read in.
 				}
-				ctlr.UpdateProgress(progress++, files.length);	//update the view for files being read in.
-			}
+			});
+			dataset.ingestFiles();
 			//after adding all of the files, check for inconsistencies and notify the user. (and close the writer stream.)
+			BinaryParser p = dataset.getBinary();
 			p.closeInconsistencyLogger();
 			if(p.getNumberOfInconsistencies() > 0)
-			{
-				JOptionPane.showConfirmDialog(null,
-						p.getNumberOfInconsistencies() + " Inconsistencies found, Logged in \"inconsistencies.log\" within the directory"
-						, "Inconsistencies Found", JOptionPane.PLAIN_MESSAGE,JOptionPane.INFORMATION_MESSAGE);
-			}
+				ctlr.ReportInconsistencies(p.getNumberOfInconsistencies());
+			//keep adding files as they are written into the directory, without scanning it again.
+			watcher = dataset.watch();
 			
 		} catch (Exception e) 
 		{
@@ -145,7 +177,7 @@ public class ProgramModel implements Runnable {
 	 */
 	public void AddWriteListener(IBinaryListener listener)
 	{
-		p.addBinaryListener(listener);
+		dataset.addWriteListener(listener);
 	}
 
 	/**
@@ -171,33 +203,10 @@ public class ProgramModel implements Runnable {
 		LinkedList<Variable> vars = ctlr.getSelectedVariables();
 		//create a file writer and write the files. 
 		
-		//use ONLY the files that are legal(e.g. no bins,logs,etc.)
-		LinkedList<File> legalFiles = new LinkedList<File>();
-		for(File file: files)
-		{
-			if(file.getName().contains(".log") || file.getName().contains(".bin") || file.getName().contains(".dat"))
-				continue;
-			else
-				legalFiles.addLast(file);
-		}
 		try
 		{
-			NumberFormat formatter = new DecimalFormat("0.00000000E00");
-			PrintWriter output = new PrintWriter(new FileWriter(f));
-			for(int i = 0; i < legalFiles.size(); i++)
-			{
-
-				for(Variable v: vars)
-				{
-					double d = p.getData(v, i);
-					if(d < 0)
-						output.print(formatter.format(d) + "    " );
-					else
-						output.print(" " + formatter.format(d) + "    ");
-				}
-				output.println();
-			}
-			output.close();
+			//the export reads a snapshot of the rows written so far, so it does not wait on files still being read in.
+			dataset.export(f, vars);
 		}
 		catch(Exception e)
 		{
@@ -208,37 +217,20 @@ public class ProgramModel implements Runnable {
 	
 	
 	
-	public boolean hasFile()
+	/**
+	 * Returns the least and greatest value of a variable in the binary, see Dataset.getRange.
+	 * @return -- The bounds, or null if no directory is open or the binary holds no value of the variable.
+	 */
+	public double[] getRange(Variable var)
 	{
-		return this.p != null;
+		if(dataset == null)
+			return null;
+		return dataset.getRange(var);
 	}
 	
-}
-
-class FileComparator implements Comparator<File> {
-
-
-
-
-	public int compare(File o1, File o2) {
-		//get the file names, without extensions.
-		int lVal = 0;
-		int rVal = 0;
-		try
-		{
-		String lName = o1.getName();
-		lName = lName.substring(0, lName.lastIndexOf('.'));
-		String rName = o2.getName();
-		rName = rName.substring(0, rName.lastIndexOf('.'));
-		
-			lVal = Integer.parseInt(lName);
-			rVal = Integer.parseInt(rName);
-		}
-		catch (Exception e)
-		{
-			return o1.getName().compareTo(o2.getName());
-		}
-		
-		return lVal-rVal;
+	public boolean hasFile()
+	{
+		return this.dataset != null;
 	}
+	
 }
@@ -0,0 +1,325 @@
+package binaryUtil;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * SLHA parsing program
+ * Copyright (C) 2014 Patrick Cowan
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of this License, or
+ * (at your option) any later version.
+ *
+ *You should have received a copy of the GNU General Public License
+ *along with this program if not, see <http://www.gnu.org/licenses/>.
+ */
+/**
+ * A KLL sketch of the values of a variable, answering quantiles and ranks to within about 1.5% of the number of
+ * values from a few hundred retained values, however many were added. Values are kept in levels, a value at level
+ * h standing for 2^h values. When a level outgrows its capacity its values are sorted, and every other one (from
+ * a random start) is moved up a level, the rest are dropped. Higher levels have larger capacities, falling by
+ * CAPACITY_RATIO from the top level down.
+ *
+ * Sketches of different values, e.g. of the same variable in binaries of different scans, are merged by adding
+ * their levels together (see merge). The least and greatest value and the number of values are kept exactly.
+ * NaN values are not added.
+ * @author Patrick
+ *
+ */
+public class QuantileSketch
+{
+	public static final int DEFAULT_K = 200;
+
+	private static final double CAPACITY_RATIO = 2.0 / 3.0;
+	private static final int MIN_CAPACITY = 8;
+	private static final long SEED = 0x4B4C4CL;
+
+	private int k;
+	private long count;
+	private double minimum = Double.POSITIVE_INFINITY;
+	private double maximum = Double.NEGATIVE_INFINITY;
+	private double[][] levels;
+	private int[] sizes;
+	private Random random = new Random(SEED);
+
+	/**
+	 * Creates an empty sketch of the default size.
+	 */
+	public QuantileSketch()
+	{
+		this(DEFAULT_K);
+	}
+
+	/**
+	 * Creates an empty sketch.
+	 * @param k -- The capacity of the top level. The error falls as 1/k, the size of the sketch grows as 3k.
+	 */
+	public QuantileSketch(int k)
+	{
+		this.k = Math.max(k, MIN_CAPACITY);
+		levels = new double[][]{new double[this.k]};
+		sizes = new int[1];
+	}
+
+	/**
+	 * Returns a copy of this sketch that is not changed by later changes to it.
+	 */
+	public synchronized QuantileSketch copy()
+	{
+		QuantileSketch c = new QuantileSketch(k);
+		c.count = count;
+		c.minimum = minimum;
+		c.maximum = maximum;
+		c.levels = new double[levels.length][];
+		for(int h = 0; h < levels.length; h++)
+			c.levels[h] = levels[h].clone();
+		c.sizes = sizes.clone();
+		return c;
+	}
+
+	/**
+	 * Adds a value. NaN is ignored.
+	 */
+	public synchronized void add(double d)
+	{
+		if(d != d)
+			return;
+		count++;
+		if(d < minimum)
+			minimum = d;
+		if(d > maximum)
+			maximum = d;
+		append(0, d);
+		if(sizes[0] >= capacity(0))
+			compress();
+	}
+
+	/**
+	 * Adds the values of another sketch to this one.
+	 */
+	public void merge(QuantileSketch other)
+	{
+		//the other sketch is copied first, so two sketches merged into each other at once do not deadlock.
+		QuantileSketch o = other.copy();
+		if(o.count == 0)
+			return;
+		synchronized(this)
+		{
+			count += o.count;
+			minimum = Math.min(minimum, o.minimum);
+			maximum = Math.max(maximum, o.maximum);
+			for(int h = 0; h < o.levels.length; h++)
+			{
+				for(int i = 0; i < o.sizes[h]; i++)
+					append(h, o.levels[h][i]);
+			}
+			compress();
+		}
+	}
+
+	/**
+	 * Returns the number of values added.
+	 */
+	public synchronized long getCount()
+	{
+		return count;
+	}
+
+	/**
+	 * Returns the least value added, or NaN if none was.
+	 */
+	public synchronized double getMinimum()
+	{
+		return count == 0 ? Double.NaN : minimum;
+	}
+
+	/**
+	 * Returns the greatest value added, or NaN if none was.
+	 */
+	public synchronized double getMaximum()
+	{
+		return count == 0 ? Double.NaN : maximum;
+	}
+
+	/**
+	 * Returns the number of values retained by the sketch.
+	 */
+	public synchronized int getRetained()
+	{
+		int retained = 0;
+		for(int h = 0; h < levels.length; h++)
+			retained += sizes[h];
+		return retained;
+	}
+
+	/**
+	 * Estimates a quantile of the values added.
+	 * @param q -- The quantile, from 0 (the least value) to 1 (the greatest), e.g. 0.5 for the median.
+	 * @return -- The value below which about the fraction q of the values lie, or NaN if none were added.
+	 */
+	public synchronized double getQuantile(double q)
+	{
+		if(count == 0 || q != q)
+			return Double.NaN;
+		if(q <= 0)
+			return minimum;
+		if(q >= 1)
+			return maximum;
+		double[] values = new double[getRetained()];
+		long[] weights = new long[values.length];
+		sorted(values, weights);
+		double target = q * count;
+		long cumulative = 0;
+		for(int i = 0; i < values.length; i++)
+		{
+			cumulative += weights[i];
+			if(cumulative >= target)
+				return values[i];
+		}
+		return maximum;
+	}
+
+	/**
+	 * Estimates the fraction of the values added that are at most a value.
+	 * @return -- The fraction, or NaN if no values were added.
+	 */
+	public synchronized double getRank(double d)
+	{
+		if(count == 0 || d != d)
+			return Double.NaN;
+		long below = 0;
+		for(int h = 0; h < levels.length; h++)
+		{
+			for(int i = 0; i < sizes[h]; i++)
+			{
+				if(levels[h][i] <= d)
+					below += 1L << h;
+			}
+		}
+		return (double) below / count;
+	}
+
+	/**
+	 * Helper method. Fills the retained values in order, with the number of values each stands for.
+	 */
+	private void sorted(double[] values, long[] weights)
+	{
+		int n = 0;
+		for(int h = 0; h < levels.length; h++)
+		{
+			System.arraycopy(levels[h], 0, values, n, sizes[h]);
+			Arrays.fill(weights, n, n + sizes[h], 1L << h);
+			n += sizes[h];
+		}
+		//an insertion sort keeps the weights with their values, and the retained values are few.
+		for(int i = 1; i < n; i++)
+		{
+			double v = values[i];
+			long w = weights[i];
+			int j = i - 1;
+			for(; j >= 0 && values[j] > v; j--)
+			{
+				values[j + 1] = values[j];
+				weights[j + 1] = weights[j];
+			}
+			values[j + 1] = v;
+			weights[j + 1] = w;
+		}
+	}
+
+	/**
+	 * Helper method. Returns the capacity of a level.
+	 */
+	private int capacity(int level)
+	{
+		int depth = levels.length - 1 - level;
+		return Math.max(MIN_CAPACITY, (int) Math.ceil(k * Math.pow(CAPACITY_RATIO, depth)));
+	}
+
+	/**
+	 * Helper method. Adds a value to a level, adding the level if needed.
+	 */
+	private void append(int level, double d)
+	{
+		if(level >= levels.length)
+		{
+			int old = levels.length;
+			levels = Arrays.copyOf(levels, level + 1);
+			sizes = Arrays.copyOf(sizes, level + 1);
+			for(int h = old; h <= level; h++)
+				levels[h] = new double[MIN_CAPACITY];
+		}
+		if(sizes[level] == levels[level].length)
+			levels[level] = Arrays.copyOf(levels[level], levels[level].length * 2);
+		levels[level][sizes[level]++] = d;
+	}
+
+	/**
+	 * Helper method. Compacts every level over its capacity, from the bottom up.
+	 */
+	private void compress()
+	{
+		for(int h = 0; h < levels.length; h++)
+		{
+			if(sizes[h] < capacity(h))
+				continue;
+			Arrays.sort(levels[h], 0, sizes[h]);
+			//an odd value out stays at its level, so the weights still add up to count.
+			int start = sizes[h] % 2;
+			int offset = random.nextBoolean() ? 1 : 0;
+			for(int i = start + offset; i < sizes[h]; i += 2)
+				append(h + 1, levels[h][i]);
+			sizes[h] = start;
+		}
+	}
+
+	/**
+	 * Writes the sketch, see read.
+	 */
+	synchronized void write(DataOutputStream out) throws IOException
+	{
+		out.writeInt(k);
+		out.writeLong(count);
+		out.writeDouble(minimum);
+		out.writeDouble(maximum);
+		out.writeInt(levels.length);
+		for(int h = 0; h < levels.length; h++)
+		{
+			out.writeInt(sizes[h]);
+			for(int i = 0; i < sizes[h]; i++)
+				out.writeDouble(levels[h][i]);
+		}
+	}
+
+	/**
+	 * Reads a sketch written by write.
+	 */
+	static QuantileSketch read(DataInputStream in) throws IOException
+	{
+		QuantileSketch s = new QuantileSketch(in.readInt());
+		s.count = in.readLong();
+		s.minimum = in.readDouble();
+		s.maximum = in.readDouble();
+		int levelCount = in.readInt();
+		if(levelCount < 1 || levelCount > 64)
+			throw new IOException("Corrupt quantile sketch");
+		s.levels = new double[levelCount][];
+		s.sizes = new int[levelCount];
+		for(int h = 0; h < levelCount; h++)
+		{
+			int size = in.readInt();
+			if(size < 0 || size > 64 * s.k)
+				throw new IOException("Corrupt quantile sketch");
+			s.levels[h] = new double[Math.max(size, MIN_CAPACITY)];
+			for(int i = 0; i < size; i++)
+				s.levels[h][i] = in.readDouble();
+			s.sizes[h] = size;
+		}
+		return s;
+	}
+}
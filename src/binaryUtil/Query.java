@@ -0,0 +1,360 @@
+package binaryUtil;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * SLHA parsing program
+ * Copyright (C) 2014 Patrick Cowan
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of this License, or
+ * (at your option) any later version.
+ *
+ *You should have received a copy of the GNU General Public License
+ *along with this program if not, see <http://www.gnu.org/licenses/>.
+ */
+/**
+ * A conjunction of predicates, e.g. MASS 1000022 < 500 and MINPAR 1 > 200, evaluated over the rows of a snapshot.
+ * A row matches when it holds the data of a file and matches every predicate. Cells that hold no data never match.
+ *
+ * Rows are scanned a chunk at a time. The rows of a chunk are read with a single read, the values of each predicate's
+ * column are gathered into an array, and the array is compared in one loop (see Predicate.match), giving a bit per
+ * row. Rows are narrowed down with whole words of bits: first the live rows, less the missing cells of every
+ * predicate's column, then the matches of each predicate in turn. Once no row of a chunk is left, its remaining
+ * predicates are skipped. Chunks whose zones (see ZoneMap) hold no value that a predicate could match are not
+ * read at all, nor are chunks without a row found by an index (see SortedIndex).
+ * @author Patrick
+ *
+ */
+public class Query
+{
+	private static final int CHUNK_BYTES = 1 << 22;	//the most row data read from the binary at once.
+
+	private List<Predicate> predicates;
+
+	/**
+	 * Creates a query matching the rows that match every one of the given predicates.
+	 */
+	public Query(List<Predicate> predicates)
+	{
+		this.predicates = new LinkedList<Predicate>(predicates);
+	}
+
+	/**
+	 * Parses a query written as predicates (see Predicate.parse) joined by "and", "&&" or ",".
+	 * @throws IllegalArgumentException -- If the text is not a query.
+	 */
+	public static Query parse(String text)
+	{
+		LinkedList<Predicate> predicates = new LinkedList<Predicate>();
+		for(String part: text.split("(?i)\\s+and\\s+|&&|,"))
+		{
+			if(!part.trim().isEmpty())
+				predicates.addLast(Predicate.parse(part));
+		}
+		if(predicates.isEmpty())
+			throw new IllegalArgumentException("A query needs at least one predicate");
+		return new Query(predicates);
+	}
+
+	public List<Predicate> getPredicates()
+	{
+		return Collections.unmodifiableList(predicates);
+	}
+
+	/**
+	 * Finds the rows of a snapshot matching this query.
+	 * @return -- The matching rows, the file numbers of the binary.
+	 */
+	public BitSet evaluate(BinarySnapshot snapshot) throws IOException
+	{
+		return evaluate(snapshot, new BitSet[predicates.size()]);
+	}
+
+	/**
+	 * Finds the rows of a snapshot matching this query, taking the rows matching some predicates from indexes
+	 * (see lookup) instead of reading them. Only chunks holding rows found in the indexes are read, and when every
+	 * predicate was looked up no rows are read at all.
+	 * @param lookups -- The rows matching each predicate, by predicate, or null for predicates that are read.
+	 * @return -- The matching rows, the file numbers of the binary.
+	 */
+	BitSet evaluate(BinarySnapshot snapshot, BitSet[] lookups) throws IOException
+	{
+		int rows = snapshot.getUsedFiles();
+		BitSet result = new BitSet(rows);
+		int[] columns = new int[predicates.size()];
+		BitSet candidates = null;
+		for(int i = 0; i < columns.length; i++)
+		{
+			columns[i] = snapshot.columnOf(predicates.get(i).getVariable());
+			//a variable the binary does not hold has no data to match.
+			if(columns[i] < 0)
+				return result;
+			if(lookups[i] != null && candidates == null)
+				candidates = (BitSet) lookups[i].clone();
+			else if(lookups[i] != null)
+				candidates.and(lookups[i]);
+		}
+		ColumnReader reader = new ColumnReader(snapshot);
+		long[] matches = new long[(reader.rowsPerChunk + 63) >>> 6];
+		for(int first = 0; first < rows; first += reader.rowsPerChunk)
+		{
+			int count = Math.min(reader.rowsPerChunk, rows - first);
+			if(candidates != null)
+			{
+				//chunks without a looked up row are passed over, up to the chunk of the next one.
+				int next = candidates.nextSetBit(first);
+				if(next < 0)
+					break;
+				if(next >= first + count)
+					continue;
+			}
+			if(!mayMatch(snapshot, columns, first, first + count))
+				continue;
+			BitSet selected = snapshot.getLiveRows(first, first + count);
+			if(candidates != null)
+				selected.and(candidates.get(first, first + count));
+			boolean read = false;
+			for(int i = 0; i < columns.length && !selected.isEmpty(); i++)
+			{
+				if(lookups[i] != null)
+					continue;
+				selected.andNot(snapshot.getMissingRows(columns[i], first, first + count));
+				read = true;
+			}
+			if(selected.isEmpty())
+				continue;
+			if(read)
+				reader.read(first, count);
+			for(int i = 0; i < columns.length && !selected.isEmpty(); i++)
+			{
+				if(lookups[i] != null)
+					continue;
+				predicates.get(i).match(reader.column(columns[i]), count, matches);
+				selected.and(BitSet.valueOf(matches));
+			}
+			for(int r = selected.nextSetBit(0); r >= 0; r = selected.nextSetBit(r + 1))
+				result.set(first + r);
+		}
+		return result;
+	}
+
+	/**
+	 * Looks up the rows matching the predicates of indexed variables. The predicates on each indexed variable are
+	 * joined into a single range, so e.g. MASS 1000022 > 100 and MASS 1000022 < 101 is a single narrow lookup.
+	 * Predicates comparing with != are not looked up.
+	 * @param indexes -- The indexes of the binary, see BinaryParser.createIndex.
+	 * @return -- The rows matching each predicate, by predicate, null for predicates that were not looked up.
+	 */
+	BitSet[] lookup(List<SortedIndex> indexes)
+	{
+		BitSet[] lookups = new BitSet[predicates.size()];
+		for(SortedIndex index: indexes)
+		{
+			double from = Double.NEGATIVE_INFINITY;
+			boolean fromInclusive = true;
+			double to = Double.POSITIVE_INFINITY;
+			boolean toInclusive = true;
+			boolean used = false;
+			for(Predicate p: predicates)
+			{
+				if(!p.getVariable().equals(index.getVariable()) || p.getOperator() == Predicate.NOT_EQUAL)
+					continue;
+				used = true;
+				double v = p.getValue();
+				int op = p.getOperator();
+				boolean inclusive = op == Predicate.LESS_OR_EQUAL || op == Predicate.GREATER_OR_EQUAL || op == Predicate.EQUAL;
+				if(op != Predicate.GREATER && op != Predicate.GREATER_OR_EQUAL && (v < to || v == to && !inclusive))
+				{
+					to = v;
+					toInclusive = inclusive;
+				}
+				if(op != Predicate.LESS && op != Predicate.LESS_OR_EQUAL && (v > from || v == from && !inclusive))
+				{
+					from = v;
+					fromInclusive = inclusive;
+				}
+			}
+			if(!used)
+				continue;
+			BitSet rows = index.range(from, fromInclusive, to, toInclusive);
+			for(int i = 0; i < lookups.length; i++)
+			{
+				Predicate p = predicates.get(i);
+				if(p.getVariable().equals(index.getVariable()) && p.getOperator() != Predicate.NOT_EQUAL)
+					lookups[i] = rows;
+			}
+		}
+		return lookups;
+	}
+
+	/**
+	 * Helper method. Reports whether the zones of a range of rows may hold a match of every predicate.
+	 */
+	private boolean mayMatch(BinarySnapshot snapshot, int[] columns, int from, int to)
+	{
+		for(int i = 0; i < columns.length; i++)
+		{
+			double[] bounds = snapshot.getBounds(columns[i], from, to);
+			if(bounds != null && !predicates.get(i).mayMatch(bounds[0], bounds[1]))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Finds the rows holding the largest, or smallest, values of a variable. Rows that hold no value are left out.
+	 * @param snapshot -- The rows searched.
+	 * @param rows -- The rows taken part, e.g. the result of evaluate, or null for every live row.
+	 * @param var -- The variable the rows are ranked by.
+	 * @param k -- The number of rows wanted.
+	 * @param largest -- True for the largest values, false for the smallest.
+	 * @return -- At most k rows, best first. Rows with equal values are in row order.
+	 */
+	public static int[] top(BinarySnapshot snapshot, BitSet rows, Variable var, int k, final boolean largest) throws IOException
+	{
+		int column = snapshot.columnOf(var);
+		if(column < 0 || k <= 0)
+			return new int[0];
+		//the worst of the best rows found so far is at the head of the queue.
+		PriorityQueue<Ranked> best = new PriorityQueue<Ranked>(k + 1, new Comparator<Ranked>()
+		{
+			public int compare(Ranked a, Ranked b)
+			{
+				return -rank(a, b, largest);
+			}
+		});
+		ColumnReader reader = new ColumnReader(snapshot);
+		int used = snapshot.getUsedFiles();
+		for(int first = 0; first < used; first += reader.rowsPerChunk)
+		{
+			int count = Math.min(reader.rowsPerChunk, used - first);
+			//later rows only displace the worst row found so far with a better value, not an equal one.
+			double[] bounds = snapshot.getBounds(column, first, first + count);
+			if(bounds != null && (bounds[0] > bounds[1] || best.size() == k
+					&& (largest ? bounds[1] <= best.peek().value : bounds[0] >= best.peek().value)))
+				continue;
+			BitSet selected = snapshot.getLiveRows(first, first + count);
+			if(rows != null)
+				selected.and(rows.get(first, first + count));
+			selected.andNot(snapshot.getMissingRows(column, first, first + count));
+			if(selected.isEmpty())
+				continue;
+			reader.read(first, count);
+			double[] values = reader.column(column);
+			for(int r = selected.nextSetBit(0); r >= 0; r = selected.nextSetBit(r + 1))
+			{
+				if(Double.isNaN(values[r]))
+					continue;
+				Ranked candidate = new Ranked(first + r, values[r]);
+				if(best.size() < k)
+					best.add(candidate);
+				else if(rank(candidate, best.peek(), largest) < 0)
+				{
+					best.poll();
+					best.add(candidate);
+				}
+			}
+		}
+		int[] result = new int[best.size()];
+		for(int i = result.length - 1; i >= 0; i--)
+			result[i] = best.poll().row;
+		return result;
+	}
+
+	/**
+	 * Helper method. Orders rows best first.
+	 */
+	private static int rank(Ranked a, Ranked b, boolean largest)
+	{
+		int c = largest ? Double.compare(b.value, a.value) : Double.compare(a.value, b.value);
+		return c != 0 ? c : Integer.compare(a.row, b.row);
+	}
+
+	public String toString()
+	{
+		StringBuilder s = new StringBuilder();
+		for(Predicate p: predicates)
+			s.append(s.length() == 0 ? "" : " and ").append(p);
+		return s.toString();
+	}
+
+	/**
+	 * A row and its value of the variable rows are ranked by.
+	 */
+	private static class Ranked
+	{
+		private int row;
+		private double value;
+
+		public Ranked(int row, double value)
+		{
+			this.row = row;
+			this.value = value;
+		}
+	}
+
+	/**
+	 * Reads chunks of whole rows and gathers the values of single columns into arrays. Its buffers are reused
+	 * from chunk to chunk.
+	 */
+	static class ColumnReader
+	{
+		private BinarySnapshot snapshot;
+		private int rowSize;
+		private int rowsPerChunk;
+		private ByteBuffer rows;
+		private double[] values;
+		private int count;
+
+		public ColumnReader(BinarySnapshot snapshot)
+		{
+			this.snapshot = snapshot;
+			rowSize = snapshot.getRowSize();
+			rowsPerChunk = Math.max(1, CHUNK_BYTES / Math.max(rowSize, 1));
+			rows = ByteBuffer.allocate(rowsPerChunk * rowSize);
+			values = new double[rowsPerChunk];
+		}
+
+		/**
+		 * Returns the most rows read at once.
+		 */
+		public int getRowsPerChunk()
+		{
+			return rowsPerChunk;
+		}
+
+		/**
+		 * Reads a chunk of rows.
+		 * @param count -- The number of rows, at most rowsPerChunk.
+		 */
+		public void read(int first, int count) throws IOException
+		{
+			rows.clear();
+			snapshot.readRows(first, count, rows);
+			this.count = count;
+		}
+
+		/**
+		 * Gathers the values of a column for the rows of the last chunk, as they are stored. Cells that hold no
+		 * data are not told apart from values, so they should be left out by the caller with the presence bitmap
+		 * (see BinarySnapshot.getMissingRows).
+		 * @return -- The values, by row of the chunk. The array is reused by the next call.
+		 */
+		public double[] column(int column)
+		{
+			int position = 8 * column;
+			for(int r = 0; r < count; r++, position += rowSize)
+				values[r] = rows.getDouble(position);
+			return values;
+		}
+	}
+}
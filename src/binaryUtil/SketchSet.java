@@ -0,0 +1,282 @@
+package binaryUtil;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * SLHA parsing program
+ * Copyright (C) 2014 Patrick Cowan
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of this License, or
+ * (at your option) any later version.
+ *
+ *You should have received a copy of the GNU General Public License
+ *along with this program if not, see <http://www.gnu.org/licenses/>.
+ */
+/**
+ * The sketches of every column of a binary (see QuantileSketch and DistinctSketch), kept up to date as rows are
+ * appended (see BinaryParser.markRow), so quantiles and distinct counts of whole columns are found without reading
+ * the binary.
+ *
+ * Sketches can not take values out again. A row rewritten in place, or a row whose files are all removed, makes the
+ * set stale, and stale sets are built again from the binary when they are next asked for. Appending rows, the usual
+ * way scans grow, keeps the set up to date.
+ *
+ * The set is saved beside the binary (the name of the binary with EXTENSION) with the number of rows it covers, the
+ * number of those that were dead and the version of the binary. A saved set is only used if none of its rows was
+ * written or removed since, and the binary has no rows it does not cover.
+ * @author Patrick
+ *
+ */
+class SketchSet
+{
+	static final String EXTENSION = ".sketches";
+
+	private static final int MAGIC = 0x44435353;	//"DCSS"
+	private static final int FORMAT_VERSION = 1;
+
+	private int rows;
+	private boolean stale;
+	private QuantileSketch[] quantiles = new QuantileSketch[0];
+	private DistinctSketch[] distinct = new DistinctSketch[0];
+
+	/**
+	 * Returns the file a binary's sketches are saved to.
+	 */
+	static File fileOf(File binary)
+	{
+		return new File(binary.getPath() + EXTENSION);
+	}
+
+	/**
+	 * Creates an empty, or stale, set.
+	 */
+	private SketchSet(boolean stale)
+	{
+		this.stale = stale;
+	}
+
+	/**
+	 * Creates the set of a new binary.
+	 */
+	SketchSet()
+	{
+		this(false);
+	}
+
+	/**
+	 * Reports whether rows were rewritten or removed since the set was built, see build.
+	 */
+	synchronized boolean isStale()
+	{
+		return stale;
+	}
+
+	/**
+	 * Returns the sketches of a column.
+	 * @return -- A copy of the sketches, empty if the column holds no values.
+	 */
+	synchronized ColumnSketch getSketch(Variable var, int column)
+	{
+		if(column >= quantiles.length || quantiles[column] == null)
+			return new ColumnSketch(var);
+		return new ColumnSketch(var, quantiles[column].copy(), distinct[column].copy());
+	}
+
+	/**
+	 * Adds the values of a row being written.
+	 * @param row -- The row. A row that is not the next one (a rewrite) makes the set stale.
+	 * @param values -- The values of the row, one double per column.
+	 * @param present -- Whether each cell of the row holds a value.
+	 */
+	synchronized void addRow(int row, ByteBuffer values, boolean[] present)
+	{
+		if(stale)
+			return;
+		if(row != rows)
+		{
+			stale = true;
+			return;
+		}
+		int columns = values.capacity() / 8;
+		for(int column = 0; column < columns; column++)
+		{
+			if(present[column])
+				add(column, values.getDouble(column*8));
+		}
+		rows++;
+	}
+
+	/**
+	 * Notes that the files of a row were all removed.
+	 */
+	synchronized void removeRow()
+	{
+		stale = true;
+	}
+
+	/**
+	 * Drops the sketches of a removed column.
+	 */
+	synchronized void removeColumn(int column)
+	{
+		if(column < quantiles.length)
+		{
+			quantiles[column] = null;
+			distinct[column] = null;
+		}
+	}
+
+	private void add(int column, double d)
+	{
+		if(column >= quantiles.length)
+		{
+			int length = Math.max(column + 1, quantiles.length * 2);
+			quantiles = Arrays.copyOf(quantiles, length);
+			distinct = Arrays.copyOf(distinct, length);
+		}
+		if(quantiles[column] == null)
+		{
+			quantiles[column] = new QuantileSketch();
+			distinct[column] = new DistinctSketch();
+		}
+		quantiles[column].add(d);
+		distinct[column].add(d);
+	}
+
+	/**
+	 * Builds the set from the live rows of a binary.
+	 */
+	static SketchSet build(BinarySnapshot snapshot) throws IOException
+	{
+		SketchSet set = new SketchSet();
+		int rowCount = snapshot.getUsedFiles();
+		int columns = snapshot.getRowSize() / 8;
+		Query.ColumnReader reader = new Query.ColumnReader(snapshot);
+		int rowsPerChunk = reader.getRowsPerChunk();
+		for(int first = 0; first < rowCount; first += rowsPerChunk)
+		{
+			int count = Math.min(rowsPerChunk, rowCount - first);
+			BitSet live = snapshot.getLiveRows(first, first + count);
+			if(live.isEmpty())
+				continue;
+			reader.read(first, count);
+			for(Variable var: snapshot.getAllVariables())
+			{
+				int column = snapshot.columnOf(var);
+				if(column < 0 || column >= columns)
+					continue;
+				double[] values = reader.column(column);
+				for(int r = live.nextSetBit(0); r >= 0; r = live.nextSetBit(r + 1))
+				{
+					if(snapshot.isPresent(column, first + r))
+						set.add(column, values[r]);
+				}
+			}
+		}
+		set.rows = rowCount;
+		return set;
+	}
+
+	/**
+	 * Loads the set of a binary.
+	 * @param versions -- The version of the last write of every row of the binary, see BinaryParser.getRowVersion.
+	 * @param version -- The version of the binary.
+	 * @param deadRows -- The number of rows of the binary whose files were all removed.
+	 * @return -- The saved set, or a stale set if it was not saved, can not be read, or is out of date.
+	 */
+	static SketchSet load(File file, long[] versions, long version, int deadRows)
+	{
+		if(!file.exists())
+			return new SketchSet(true);
+		try
+		{
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			try
+			{
+				if(in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION)
+					return new SketchSet(true);
+				long savedVersion = in.readLong();
+				int savedRows = in.readInt();
+				int savedDead = in.readInt();
+				if(savedRows != versions.length || savedDead != deadRows)
+					return new SketchSet(true);
+				for(int row = 0; row < savedRows && savedVersion != version; row++)
+				{
+					if(versions[row] > savedVersion)
+						return new SketchSet(true);
+				}
+				SketchSet set = new SketchSet();
+				int columns = in.readInt();
+				set.quantiles = new QuantileSketch[columns];
+				set.distinct = new DistinctSketch[columns];
+				for(int column = 0; column < columns; column++)
+				{
+					if(!in.readBoolean())
+						continue;
+					set.quantiles[column] = QuantileSketch.read(in);
+					set.distinct[column] = DistinctSketch.read(in);
+				}
+				set.rows = savedRows;
+				return set;
+			}
+			finally
+			{
+				in.close();
+			}
+		}
+		catch(IOException e)
+		{
+			//sketches cut short are built again.
+			return new SketchSet(true);
+		}
+	}
+
+	/**
+	 * Saves the set beside its binary. Stale sets are not saved, and the set saved before is deleted.
+	 * @param version -- The version of the binary, see BinaryParser.getVersion.
+	 * @param deadRows -- The number of rows of the binary whose files were all removed.
+	 */
+	synchronized void save(File file, long version, int deadRows) throws IOException
+	{
+		if(stale)
+		{
+			if(file.exists() && !file.delete())
+				throw new IOException("Could not delete " + file);
+			return;
+		}
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try
+		{
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT_VERSION);
+			out.writeLong(version);
+			out.writeInt(rows);
+			out.writeInt(deadRows);
+			out.writeInt(quantiles.length);
+			for(int column = 0; column < quantiles.length; column++)
+			{
+				out.writeBoolean(quantiles[column] != null);
+				if(quantiles[column] == null)
+					continue;
+				quantiles[column].write(out);
+				distinct[column].write(out);
+			}
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+}
@@ -31,6 +31,7 @@ public class SlhaFile {
 	String line;										//A scanner to run through individual lines in the file.
 	int numberOfVariables;
 	private String fileName;									//A string to save the name of the file this is from.
+	private File file;											//The file this was parsed from.
 	private long lastModified;
 	
 
@@ -53,9 +54,9 @@ public class SlhaFile {
 	 */
 	public SlhaFile(String filepath) throws Exception{
 		//get the filename and store it
-		int lastSlash = filepath.lastIndexOf('\\');
-		this.fileName = filepath.substring(lastSlash + 1);
 		File f = new File(filepath);
+		this.file = f;
+		this.fileName = f.getName();
 		this.lastModified = f.lastModified();
 		data = new HashSet<IBlock>();
 		
@@ -64,6 +65,30 @@ public class SlhaFile {
 		} catch (FileNotFoundException e) {
 			e.printStackTrace();
 		}
+		parse();
+	}
+	
+	/**
+	 * reads in a single slha document from the given source, for documents that do not come from a file of their own 
+	 * (e.g. one of several streamed through a pipe). The whole source is read as the document.
+	 * @param name -- The name the document is known by, used in place of a file name.
+	 * @param lastModified -- The time the document was written.
+	 * @param source -- The text of the document.
+	 * @throws Exception --Throws an exception if the document has invalid SLHA syntax
+	 */
+	public SlhaFile(String name, long lastModified, Readable source) throws Exception{
+		this.file = null;
+		this.fileName = name;
+		this.lastModified = lastModified;
+		data = new HashSet<IBlock>();
+		parser = new Scanner(source);
+		parse();
+	}
+	
+	/**
+	 * Parses the blocks of the document from the scanner.
+	 */
+	private void parse() throws Exception{
 		try
 		{
 		line = parser.nextLine();
@@ -303,6 +328,14 @@ public class SlhaFile {
 		return this.fileName;
 	}
 	
+	/**
+	 * Returns the file this was parsed from.
+	 */
+	public File getFile()
+	{
+		return this.file;
+	}
+	
 	/**
 	 * This method will return an IBlock implementing object of variables related to the block name passed
 	 * @param block -- The block to be looked up
@@ -0,0 +1,617 @@
+package binaryUtil;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * SLHA parsing program
+ * Copyright (C) 2014 Patrick Cowan
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of this License, or
+ * (at your option) any later version.
+ *
+ *You should have received a copy of the GNU General Public License
+ *along with this program if not, see <http://www.gnu.org/licenses/>.
+ */
+/**
+ * An index of the values of one variable, sorted by value, so the rows holding values within a range, or the
+ * values nearest a number, are found by binary search rather than by reading the column. Indexes are optional,
+ * see BinaryParser.createIndex.
+ *
+ * The index is a sorted run of (value, row) pairs, and a smaller run of the rows written since the run was built.
+ * Rows written after the run was built are appended to the smaller run, which is only sorted when it is next looked
+ * up, so writes take constant time. Rows of the larger run that are rewritten or removed are marked stale, and rows
+ * of the smaller run are marked dead, and both are left out of lookups. Once the smaller run grows to a fraction of
+ * the larger, the two are merged. Cells that hold no value, and NaN values, are not indexed.
+ *
+ * Each index is saved beside the binary (see fileOf) with the number of rows it covers and the version of the
+ * binary. When it is loaded, rows written after it was saved are read back from the binary, as for ZoneMap.
+ * @author Patrick
+ *
+ */
+public class SortedIndex
+{
+	public static final String EXTENSION = ".idx";
+
+	private static final int MAGIC = 0x44435349;	//"DCSI"
+	private static final int FORMAT_VERSION = 1;
+	private static final int MIN_MERGE = 4096;		//the size the smaller run may reach before it is merged, at least.
+	private static final int MERGE_FRACTION = 16;	//the smaller run is merged once it holds this fraction of the larger.
+
+	private Variable var;
+	private int rows;
+	private double[] values;
+	private int[] valueRows;
+	private int size;
+	private BitSet stale;
+	private double[] deltaValues;
+	private int[] deltaRows;
+	private int deltaSize;
+	private int deltaSorted;		//the smaller run is sorted up to here, the pairs after it in the order they were written.
+	private BitSet deltaDead;		//the pairs of the smaller run whose rows were rewritten or removed since.
+	private HashIndex deltaAt;		//the position in the smaller run of the last pair of every row written to it.
+
+	/**
+	 * Creates an empty index of a variable.
+	 */
+	private SortedIndex(Variable var)
+	{
+		this.var = var;
+		values = new double[0];
+		valueRows = new int[0];
+		stale = new BitSet();
+		deltaValues = new double[16];
+		deltaRows = new int[16];
+		deltaDead = new BitSet();
+		deltaAt = new HashIndex();
+	}
+
+	/**
+	 * Returns the file an index of a variable is saved to, beside the binary.
+	 */
+	public static File fileOf(File binary, Variable var)
+	{
+		String name = var.getKey().replaceAll("[^A-Za-z0-9_.-]", "_");
+		return new File(binary.getParentFile(), binary.getName() + "." + name + EXTENSION);
+	}
+
+	/**
+	 * Reports whether a file beside a binary is one of its indexes.
+	 */
+	static boolean isIndexFile(File binary, File f)
+	{
+		return f.getName().startsWith(binary.getName() + ".") && f.getName().endsWith(EXTENSION);
+	}
+
+	public Variable getVariable()
+	{
+		return var;
+	}
+
+	/**
+	 * Returns the number of rows covered by the index.
+	 */
+	public synchronized int getRows()
+	{
+		return rows;
+	}
+
+	/**
+	 * Builds the index of a variable from the rows of a snapshot.
+	 */
+	static SortedIndex build(Variable var, BinarySnapshot snapshot) throws IOException
+	{
+		SortedIndex index = new SortedIndex(var);
+		index.rebuild(snapshot);
+		return index;
+	}
+
+	/**
+	 * Helper method. Fills this index from every live row of a snapshot.
+	 */
+	private void rebuild(BinarySnapshot snapshot) throws IOException
+	{
+		int used = snapshot.getUsedFiles();
+		int column = snapshot.columnOf(var);
+		double[] v = new double[16];
+		int[] r = new int[16];
+		int n = 0;
+		if(column >= 0 && used > 0)
+		{
+			Query.ColumnReader reader = new Query.ColumnReader(snapshot);
+			int rowsPerChunk = reader.getRowsPerChunk();
+			for(int first = 0; first < used; first += rowsPerChunk)
+			{
+				int count = Math.min(rowsPerChunk, used - first);
+				BitSet selected = snapshot.getLiveRows(first, first + count);
+				selected.andNot(snapshot.getMissingRows(column, first, first + count));
+				if(selected.isEmpty())
+					continue;
+				reader.read(first, count);
+				double[] chunk = reader.column(column);
+				for(int i = selected.nextSetBit(0); i >= 0; i = selected.nextSetBit(i + 1))
+				{
+					if(Double.isNaN(chunk[i]))
+						continue;
+					if(n == v.length)
+					{
+						v = Arrays.copyOf(v, n * 2);
+						r = Arrays.copyOf(r, n * 2);
+					}
+					v[n] = chunk[i];
+					r[n] = first + i;
+					n++;
+				}
+			}
+		}
+		sort(v, r, n);
+		values = v;
+		valueRows = r;
+		size = n;
+		stale.clear();
+		clearDelta();
+		rows = used;
+	}
+
+	/**
+	 * Indexes the value of a row being written.
+	 * @param row -- The row, at most getRows: rows are added in order.
+	 * @param present -- Whether the row holds a value of the variable.
+	 * @param value -- The value of the row, not used if it holds none.
+	 */
+	synchronized void setRow(int row, boolean present, double value)
+	{
+		if(row < rows)
+			removeRow(row);
+		else
+			rows = row + 1;
+		if(!present || Double.isNaN(value))
+			return;
+		insert(row, value);
+		if(deltaSize > Math.max(MIN_MERGE, size / MERGE_FRACTION))
+			merge();
+	}
+
+	/**
+	 * Leaves a row out of the index, e.g. the row of a removed file.
+	 */
+	synchronized void removeRow(int row)
+	{
+		int at = deltaAt.get(row);
+		if(at < 0 || deltaDead.get(at))
+			stale.set(row);
+		else
+			deltaDead.set(at);
+	}
+
+	/**
+	 * Helper method. Appends a row to the smaller run.
+	 */
+	private void insert(int row, double value)
+	{
+		if(deltaSize == deltaValues.length)
+		{
+			deltaValues = Arrays.copyOf(deltaValues, deltaSize * 2);
+			deltaRows = Arrays.copyOf(deltaRows, deltaSize * 2);
+		}
+		deltaValues[deltaSize] = value;
+		deltaRows[deltaSize] = row;
+		deltaAt.put(row, deltaSize);
+		deltaSize++;
+	}
+
+	/**
+	 * Helper method. Sorts the smaller run by value, and by row among equal values, dropping its dead pairs. The pairs
+	 * written since it was last sorted are sorted on their own and merged in.
+	 */
+	private void sortDelta()
+	{
+		if(deltaSorted == deltaSize && deltaDead.isEmpty())
+			return;
+		int tail = 0;
+		double[] tailValues = new double[deltaSize - deltaSorted];
+		int[] tailRows = new int[tailValues.length];
+		for(int at = deltaSorted; at < deltaSize; at++)
+		{
+			if(deltaDead.get(at))
+				continue;
+			tailValues[tail] = deltaValues[at];
+			tailRows[tail++] = deltaRows[at];
+		}
+		sort(tailValues, tailRows, tail);
+		double[] v = new double[Math.max(16, deltaSize)];
+		int[] r = new int[v.length];
+		int n = 0;
+		int a = 0;
+		int b = 0;
+		while(a < deltaSorted || b < tail)
+		{
+			if(a < deltaSorted && deltaDead.get(a))
+			{
+				a++;
+				continue;
+			}
+			boolean fromSorted = b == tail || a < deltaSorted && (deltaValues[a] < tailValues[b]
+					|| deltaValues[a] == tailValues[b] && deltaRows[a] < tailRows[b]);
+			if(fromSorted)
+			{
+				v[n] = deltaValues[a];
+				r[n++] = deltaRows[a++];
+			}
+			else
+			{
+				v[n] = tailValues[b];
+				r[n++] = tailRows[b++];
+			}
+		}
+		deltaValues = v;
+		deltaRows = r;
+		deltaSize = n;
+		deltaSorted = n;
+		deltaDead.clear();
+		deltaAt.clear();
+		for(int at = 0; at < n; at++)
+			deltaAt.put(deltaRows[at], at);
+	}
+
+	/**
+	 * Helper method. Empties the smaller run.
+	 */
+	private void clearDelta()
+	{
+		deltaSize = 0;
+		deltaSorted = 0;
+		deltaDead.clear();
+		deltaAt.clear();
+	}
+
+	/**
+	 * Helper method. Merges the smaller run into the larger, dropping stale rows.
+	 */
+	private void merge()
+	{
+		sortDelta();
+		double[] v = new double[size + deltaSize];
+		int[] r = new int[size + deltaSize];
+		int n = 0;
+		int a = 0;
+		int b = 0;
+		while(a < size || b < deltaSize)
+		{
+			if(a < size && stale.get(valueRows[a]))
+			{
+				a++;
+				continue;
+			}
+			boolean fromRun = b == deltaSize || a < size && (values[a] < deltaValues[b]
+					|| values[a] == deltaValues[b] && valueRows[a] < deltaRows[b]);
+			if(fromRun)
+			{
+				v[n] = values[a];
+				r[n++] = valueRows[a++];
+			}
+			else
+			{
+				v[n] = deltaValues[b];
+				r[n++] = deltaRows[b++];
+			}
+		}
+		values = v;
+		valueRows = r;
+		size = n;
+		stale.clear();
+		clearDelta();
+	}
+
+	/**
+	 * Finds the rows holding values within a range.
+	 * @param from -- The least value of the range, negative infinity for no bound.
+	 * @param fromInclusive -- True if the range holds the value from.
+	 * @param to -- The greatest value of the range, positive infinity for no bound.
+	 * @param toInclusive -- True if the range holds the value to.
+	 * @return -- The rows.
+	 */
+	public synchronized BitSet range(double from, boolean fromInclusive, double to, boolean toInclusive)
+	{
+		sortDelta();
+		BitSet result = new BitSet(rows);
+		for(int at = lowerBound(values, size, from, fromInclusive); at < size; at++)
+		{
+			if(values[at] > to || values[at] == to && !toInclusive)
+				break;
+			if(!stale.get(valueRows[at]))
+				result.set(valueRows[at]);
+		}
+		for(int at = lowerBound(deltaValues, deltaSize, from, fromInclusive); at < deltaSize; at++)
+		{
+			if(deltaValues[at] > to || deltaValues[at] == to && !toInclusive)
+				break;
+			result.set(deltaRows[at]);
+		}
+		return result;
+	}
+
+	/**
+	 * Finds the rows holding the values nearest a number. Of rows as near as each other, the lower rows come first.
+	 * @param k -- The number of rows wanted.
+	 * @return -- At most k rows, nearest first.
+	 */
+	public synchronized int[] nearest(double value, int k)
+	{
+		if(k <= 0 || Double.isNaN(value))
+			return new int[0];
+		sortDelta();
+		//cursors walk outwards from the value through both runs, below and above it, nearest first. Rows as near
+		//as the k-th are all taken, then ordered by row, since the cursors below the value meet them last row first.
+		int aBelow = lowerBound(values, size, value, true) - 1;
+		int aAbove = aBelow + 1;
+		int bBelow = lowerBound(deltaValues, deltaSize, value, true) - 1;
+		int bAbove = bBelow + 1;
+		double[] distances = new double[k];
+		int[] found = new int[k];
+		int n = 0;
+		while(true)
+		{
+			while(aBelow >= 0 && stale.get(valueRows[aBelow]))
+				aBelow--;
+			while(aAbove < size && stale.get(valueRows[aAbove]))
+				aAbove++;
+			int best = -1;
+			double bestDistance = Double.POSITIVE_INFINITY;
+			int bestRow = -1;
+			//0 and 1 take from the larger run below and above the value, 2 and 3 from the smaller.
+			for(int c = 0; c < 4; c++)
+			{
+				int at = c == 0 ? aBelow : c == 1 ? aAbove : c == 2 ? bBelow : bAbove;
+				boolean delta = c >= 2;
+				if(at < 0 || at >= (delta ? deltaSize : size))
+					continue;
+				double d = Math.abs((delta ? deltaValues[at] : values[at]) - value);
+				if(best < 0 || d < bestDistance)
+				{
+					best = c;
+					bestDistance = d;
+					bestRow = delta ? deltaRows[at] : valueRows[at];
+				}
+			}
+			if(best < 0 || n >= k && !(bestDistance <= distances[n - 1]))
+				break;
+			if(n == found.length)
+			{
+				distances = Arrays.copyOf(distances, n * 2);
+				found = Arrays.copyOf(found, n * 2);
+			}
+			distances[n] = bestDistance;
+			found[n++] = bestRow;
+			if(best == 0)
+				aBelow--;
+			else if(best == 1)
+				aAbove++;
+			else if(best == 2)
+				bBelow--;
+			else
+				bAbove++;
+		}
+		//the distances were taken in order, so only rows as near as each other need ordering.
+		for(int start = 0; start < n; )
+		{
+			int end = start + 1;
+			while(end < n && distances[end] == distances[start])
+				end++;
+			Arrays.sort(found, start, end);
+			start = end;
+		}
+		return Arrays.copyOf(found, Math.min(n, k));
+	}
+
+	/**
+	 * Helper method. Returns the first position of a sorted run holding a value at least, or above, a number.
+	 * @param inclusive -- True for the first value at least the number, false for the first above it.
+	 */
+	private static int lowerBound(double[] run, int length, double value, boolean inclusive)
+	{
+		int low = 0;
+		int high = length;
+		while(low < high)
+		{
+			int mid = (low + high) >>> 1;
+			if(run[mid] < value || run[mid] == value && !inclusive)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+
+	/**
+	 * Helper method. Sorts pairs of values and rows by value, and by row among pairs with equal values.
+	 */
+	private static void sort(double[] v, int[] r, int n)
+	{
+		double[] vTemp = new double[n];
+		int[] rTemp = new int[n];
+		for(int width = 1; width < n; width *= 2)
+		{
+			for(int low = 0; low < n - width; low += 2 * width)
+			{
+				int mid = low + width;
+				int high = Math.min(low + 2 * width, n);
+				if(v[mid - 1] < v[mid] || v[mid - 1] == v[mid] && r[mid - 1] <= r[mid])
+					continue;
+				int a = low;
+				int b = mid;
+				int out = low;
+				while(a < mid && b < high)
+				{
+					if(v[b] < v[a] || v[b] == v[a] && r[b] < r[a])
+					{
+						vTemp[out] = v[b];
+						rTemp[out++] = r[b++];
+					}
+					else
+					{
+						vTemp[out] = v[a];
+						rTemp[out++] = r[a++];
+					}
+				}
+				while(a < mid)
+				{
+					vTemp[out] = v[a];
+					rTemp[out++] = r[a++];
+				}
+				while(b < high)
+				{
+					vTemp[out] = v[b];
+					rTemp[out++] = r[b++];
+				}
+				System.arraycopy(vTemp, low, v, low, high - low);
+				System.arraycopy(rTemp, low, r, low, high - low);
+			}
+		}
+	}
+
+	/**
+	 * Loads a saved index, reading back the rows written after it was saved. An index that can not be read, or that
+	 * covers rows the binary no longer has, is built again from every row.
+	 * @param file -- The saved index.
+	 * @param snapshot -- The rows of the binary.
+	 * @return -- The index, or null if the file is not an index.
+	 */
+	static SortedIndex load(File file, BinarySnapshot snapshot) throws IOException
+	{
+		SortedIndex index = new SortedIndex(null);
+		long savedVersion = index.read(file);
+		if(index.var == null)
+			return null;
+		int used = snapshot.getUsedFiles();
+		if(savedVersion < 0 || index.rows > used)
+		{
+			index.rebuild(snapshot);
+			return index;
+		}
+		int column = snapshot.columnOf(index.var);
+		//rows rewritten or removed since the index was saved. Removing a file does not change the version.
+		for(int row = 0; row < index.rows; row++)
+		{
+			long version = snapshot.getRowVersion(row);
+			if(version < 0)
+				index.removeRow(row);
+			else if(version > savedVersion)
+				index.setRow(row, snapshot.isPresent(column, row), snapshot.getData(index.var, row));
+		}
+		for(int row = index.rows; row < used; row++)
+		{
+			if(snapshot.isLiveRow(row))
+				index.setRow(row, snapshot.isPresent(column, row), snapshot.getData(index.var, row));
+			else
+				index.rows = row + 1;
+		}
+		return index;
+	}
+
+	/**
+	 * Reads a saved index into this empty index.
+	 * @return -- The version of the binary the index was saved with, or -1 if only its variable could be read.
+	 */
+	private long read(File file)
+	{
+		try
+		{
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			try
+			{
+				if(in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION)
+					return -1;
+				var = Variable.fromKey(in.readUTF());
+				long version = in.readLong();
+				int savedRows = in.readInt();
+				int n = in.readInt();
+				double[] v = new double[n];
+				int[] r = new int[n];
+				for(int i = 0; i < n; i++)
+				{
+					v[i] = in.readDouble();
+					r[i] = in.readInt();
+				}
+				values = v;
+				valueRows = r;
+				size = n;
+				rows = savedRows;
+				return version;
+			}
+			finally
+			{
+				in.close();
+			}
+		}
+		catch(IOException e)
+		{
+			//an index cut short is built again.
+			return -1;
+		}
+		catch(IllegalArgumentException e)
+		{
+			return -1;
+		}
+	}
+
+	/**
+	 * Replaces a saved index with an empty one that is built again when it is loaded, e.g. before the rows of its
+	 * binary are renumbered.
+	 */
+	static void invalidate(File file, Variable var) throws IOException
+	{
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try
+		{
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT_VERSION);
+			out.writeUTF(var.getKey());
+			out.writeLong(-1);
+			out.writeInt(0);
+			out.writeInt(0);
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+
+	/**
+	 * Saves the index beside its binary, merging its runs.
+	 * @param version -- The version of the binary, see BinaryParser.getVersion.
+	 */
+	synchronized void save(File file, long version) throws IOException
+	{
+		merge();
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try
+		{
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT_VERSION);
+			out.writeUTF(var.getKey());
+			out.writeLong(version);
+			out.writeInt(rows);
+			out.writeInt(size);
+			for(int i = 0; i < size; i++)
+			{
+				out.writeDouble(values[i]);
+				out.writeInt(valueRows[i]);
+			}
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+}
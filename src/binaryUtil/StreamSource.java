@@ -0,0 +1,386 @@
+package binaryUtil;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * SLHA parsing program
+ * Copyright (C) 2014 Patrick Cowan
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of this License, or
+ * (at your option) any later version.
+ *
+ *You should have received a copy of the GNU General Public License
+ *along with this program if not, see <http://www.gnu.org/licenses/>.
+ */
+/**
+ * Reads a stream of concatenated SLHA documents (e.g. standard input, or a named pipe that a generator writes to)
+ * and adds each document to a binary as a row of its own. Two framings are understood:
+ *
+ * Delimited - documents are separated by a line holding only the delimiter. A delimiter after the last document is optional.
+ * Length prefixed - every document is preceded by a line holding its length in bytes, as a decimal number.
+ *
+ * Each document is stored under the synthetic name NAME_PREFIX + source + "/" + number, and is checked for
+ * inconsistencies the same way as files. Numbers count on from the highest number of the source already in the
+ * binary, so every run of a stream adds rows, and never rewrites the documents of an earlier run.
+ * Documents are parsed in parallel while the stream is read, and added in the order they were read.
+ * Documents that can not be parsed are counted and skipped.
+ * @author Patrick
+ *
+ */
+public class StreamSource
+{
+	public static final String NAME_PREFIX = "stream:";
+	public static final String DEFAULT_DELIMITER = "%%END";
+
+	private static final int READ_BUFFER_SIZE = 1 << 16;
+
+	private BinaryParser parser;
+	private InputStream in;
+	private String source;
+	private SlhaFile template;
+	private int documents;
+	private int failed;
+	private long bytes;
+	private int sequence;
+
+	//the read buffer, holding the unread bytes from position to limit.
+	private byte[] buffer;
+	private int position;
+	private int limit;
+
+	/**
+	 * Creates a source reading the given stream into the given binary.
+	 * @param parser -- The binary the documents are added to. It must be open for writing.
+	 * @param in -- The stream of documents. It is read to its end, but not closed.
+	 * @param source -- The name of the stream, used in the names of its documents.
+	 */
+	public StreamSource(BinaryParser parser, InputStream in, String source)
+	{
+		this.parser = parser;
+		this.in = in;
+		this.source = source;
+		sequence = parser.getLastNumber(NAME_PREFIX + source + "/");
+		buffer = new byte[READ_BUFFER_SIZE];
+	}
+
+	/**
+	 * Reads documents separated by delimiter lines until the end of the stream.
+	 * @param delimiter -- The line that separates documents. Whitespace around it is ignored.
+	 * @return -- The number of documents added.
+	 */
+	public int readDelimited(String delimiter) throws IOException
+	{
+		byte[] mark = delimiter.trim().getBytes(StandardCharsets.UTF_8);
+		ExecutorService pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+		LinkedList<Future<Parsed>> parsing = new LinkedList<Future<Parsed>>();
+		int added = documents;
+		try
+		{
+			Document doc = new Document();
+			int[] line = new int[2];
+			while(true)
+			{
+				byte[] lineBuffer = readLine(line);
+				if(lineBuffer == null)
+					break;
+				if(isDelimiter(lineBuffer, line[0], line[1], mark))
+				{
+					submit(doc, pool, parsing);
+					doc = new Document();
+				}
+				else
+					doc.appendLine(lineBuffer, line[0], line[1]);
+			}
+			submit(doc, pool, parsing);
+			while(!parsing.isEmpty())
+				add(parsing.removeFirst());
+		}
+		finally
+		{
+			pool.shutdownNow();
+		}
+		return documents - added;
+	}
+
+	/**
+	 * Reads length prefixed documents until the end of the stream.
+	 * @return -- The number of documents added.
+	 */
+	public int readLengthPrefixed() throws IOException
+	{
+		ExecutorService pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+		LinkedList<Future<Parsed>> parsing = new LinkedList<Future<Parsed>>();
+		int added = documents;
+		try
+		{
+			int[] line = new int[2];
+			while(true)
+			{
+				byte[] lineBuffer = readLine(line);
+				if(lineBuffer == null)
+					break;
+				String prefix = new String(lineBuffer, line[0], line[1] - line[0], StandardCharsets.US_ASCII).trim();
+				if(prefix.isEmpty())
+					continue;
+				int length;
+				try
+				{
+					length = Integer.parseInt(prefix);
+				}
+				catch(NumberFormatException e)
+				{
+					throw new IOException("Invalid length prefix after document " + sequence + ": " + prefix);
+				}
+				if(length < 0)
+					throw new IOException("Invalid length prefix after document " + sequence + ": " + prefix);
+				Document doc = new Document();
+				if(!readFully(doc, length))
+					throw new IOException("Stream ended within document " + (sequence + 1));
+				submit(doc, pool, parsing);
+			}
+			while(!parsing.isEmpty())
+				add(parsing.removeFirst());
+		}
+		finally
+		{
+			pool.shutdownNow();
+		}
+		return documents - added;
+	}
+
+	/**
+	 * Returns the number of documents added from this stream.
+	 */
+	public int getDocuments()
+	{
+		return documents;
+	}
+
+	/**
+	 * Returns the number of documents that could not be parsed.
+	 */
+	public int getFailed()
+	{
+		return failed;
+	}
+
+	/**
+	 * Returns the number of bytes of documents read from this stream.
+	 */
+	public long getBytes()
+	{
+		return bytes;
+	}
+
+	/**
+	 * Helper method. Starts parsing a document, first adding the oldest documents once enough are being parsed.
+	 */
+	private void submit(final Document doc, ExecutorService pool, LinkedList<Future<Parsed>> parsing)
+	{
+		//a trailing delimiter leaves an empty document behind it.
+		if(doc.isBlank())
+			return;
+		bytes += doc.length;
+		final String name = NAME_PREFIX + source + "/" + (++sequence);
+		final long received = System.currentTimeMillis();
+		parsing.addLast(pool.submit(new Callable<Parsed>()
+		{
+			public Parsed call() throws Exception
+			{
+				SlhaFile file = new SlhaFile(name, received, new InputStreamReader(
+						new ByteArrayInputStream(doc.data, 0, doc.length), StandardCharsets.UTF_8));
+				return new Parsed(file, doc.length, ContentHash.of(doc.data, 0, doc.length));
+			}
+		}));
+		//bound the number of documents held in memory.
+		while(parsing.size() > 4 * Runtime.getRuntime().availableProcessors())
+			add(parsing.removeFirst());
+	}
+
+	/**
+	 * Helper method. Waits for a document to be parsed, then adds it to the binary.
+	 */
+	private void add(Future<Parsed> document)
+	{
+		Parsed parsed;
+		try
+		{
+			parsed = document.get();
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			failed++;
+			return;
+		}
+		catch(ExecutionException e)
+		{
+			//not a valid SLHA document.
+			failed++;
+			return;
+		}
+		//the first document is checked against itself.
+		if(template == null)
+			template = parsed.file;
+		parser.addFile(parsed.file, template, parsed.size, parsed.hash);
+		template = parsed.file;
+		documents++;
+	}
+
+	/**
+	 * Helper method. Reads the next line, without its line ending.
+	 * @param line -- Set to the start and end of the line within the returned array.
+	 * @return -- The array holding the line, or null at the end of the stream.
+	 */
+	private byte[] readLine(int[] line) throws IOException
+	{
+		int scanned = position;
+		while(true)
+		{
+			for(int i = scanned; i < limit; i++)
+			{
+				if(buffer[i] == '\n')
+				{
+					line[0] = position;
+					line[1] = i > position && buffer[i - 1] == '\r' ? i - 1 : i;
+					position = i + 1;
+					return buffer;
+				}
+			}
+			//fill moves the unread bytes to the front of the buffer.
+			int unscanned = limit - position;
+			if(!fill())
+			{
+				if(position == limit)
+					return null;
+				line[0] = position;
+				line[1] = limit;
+				position = limit;
+				return buffer;
+			}
+			scanned = position + unscanned;
+		}
+	}
+
+	/**
+	 * Helper method. Reads more of the stream into the buffer, keeping the unread bytes.
+	 * @return -- False at the end of the stream.
+	 */
+	private boolean fill() throws IOException
+	{
+		if(position > 0)
+		{
+			System.arraycopy(buffer, position, buffer, 0, limit - position);
+			limit -= position;
+			position = 0;
+		}
+		if(limit == buffer.length)
+			buffer = Arrays.copyOf(buffer, buffer.length * 2);
+		int read = in.read(buffer, limit, buffer.length - limit);
+		if(read < 0)
+			return false;
+		limit += read;
+		return true;
+	}
+
+	/**
+	 * Helper method. Reads the given number of bytes into a document.
+	 * @return -- False if the stream ended first.
+	 */
+	private boolean readFully(Document doc, int length) throws IOException
+	{
+		while(length > 0)
+		{
+			if(position == limit && !fill())
+				return false;
+			int n = Math.min(length, limit - position);
+			doc.append(buffer, position, position + n);
+			position += n;
+			length -= n;
+		}
+		return true;
+	}
+
+	private static boolean isDelimiter(byte[] b, int start, int end, byte[] mark)
+	{
+		while(start < end && (b[start] == ' ' || b[start] == '\t'))
+			start++;
+		while(end > start && (b[end - 1] == ' ' || b[end - 1] == '\t'))
+			end--;
+		if(end - start != mark.length)
+			return false;
+		for(int i = 0; i < mark.length; i++)
+		{
+			if(b[start + i] != mark[i])
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * A parsed document, with the fingerprint of its bytes.
+	 */
+	private static class Parsed
+	{
+		private SlhaFile file;
+		private long size;
+		private int hash;
+
+		public Parsed(SlhaFile file, long size, int hash)
+		{
+			this.file = file;
+			this.size = size;
+			this.hash = hash;
+		}
+	}
+
+	/**
+	 * The bytes of a single document.
+	 */
+	private static class Document
+	{
+		private byte[] data = new byte[4096];
+		private int length;
+
+		public void append(byte[] b, int start, int end)
+		{
+			int n = end - start;
+			if(length + n + 1 > data.length)
+				data = Arrays.copyOf(data, Math.max(data.length * 2, length + n + 1));
+			System.arraycopy(b, start, data, length, n);
+			length += n;
+		}
+
+		/**
+		 * Appends a line read by readLine, adding back its line ending.
+		 */
+		public void appendLine(byte[] b, int start, int end)
+		{
+			append(b, start, end);
+			data[length++] = '\n';
+		}
+
+		public boolean isBlank()
+		{
+			for(int i = 0; i < length; i++)
+			{
+				if(!Character.isWhitespace(data[i]))
+					return false;
+			}
+			return true;
+		}
+	}
+}
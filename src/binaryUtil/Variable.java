@@ -94,6 +94,34 @@ public class Variable
 	{
 		return this.block;
 	}
+	/**
+	 * Returns a short key naming this variable, as BLOCK:PDG with the second and third PDG codes
+	 * appended (BLOCK:PDG:PDG2:PDG3) when they are used. The key can be read back with fromKey.
+	 */
+	public String getKey()
+	{
+		String key = this.block + ":" + this.PDG;
+		if(!this.PDG_2.equals("0") || !this.PDG_3.equals("0"))
+			key += ":" + this.PDG_2;
+		if(!this.PDG_3.equals("0"))
+			key += ":" + this.PDG_3;
+		return key;
+	}
+	
+	/**
+	 * Creates a variable from a key, see getKey. The variable has no value or description, and is equal to 
+	 * the variable of the binary with the same block and PDG codes.
+	 * @throws IllegalArgumentException -- If the key has no block or PDG code.
+	 */
+	public static Variable fromKey(String key)
+	{
+		String[] parts = key.split(":");
+		if(parts.length < 2 || parts.length > 4 || parts[0].trim().isEmpty())
+			throw new IllegalArgumentException("Variables are named BLOCK:PDG[:PDG2[:PDG3]], not " + key);
+		return new Variable(parts[1], parts.length > 2 ? parts[2] : null, parts.length > 3 ? parts[3] : null, 
+				null, null, parts[0]);
+	}
+	
 	@Override
 	public String toString()
 	{
@@ -0,0 +1,168 @@
+package binaryUtil;
+
+import java.util.Arrays;
+
+/**
+ * SLHA parsing program
+ * Copyright (C) 2014 Patrick Cowan
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of this License, or
+ * (at your option) any later version.
+ *
+ *You should have received a copy of the GNU General Public License
+ *along with this program if not, see <http://www.gnu.org/licenses/>.
+ */
+/**
+ * Maps the variables of a binary to their column. Columns are looked up through an open addressing
+ * table of column numbers, so no boxed locations are kept. Variables are matched the same way as
+ * Variable.equals, by PDG codes and block name ignoring case.
+ * @author Patrick
+ *
+ */
+class VariableIndex
+{
+	//open addressing table, holds column + 1 (0 is an empty slot)
+	private int[] slots;
+	private int mask;
+	private Variable[] columns;
+	private int[] hashes;
+	private int size;
+
+	public VariableIndex()
+	{
+		slots = new int[512];
+		mask = slots.length - 1;
+		columns = new Variable[256];
+		hashes = new int[256];
+	}
+
+	/**
+	 * Returns the number of variables (columns) in this index.
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * Returns the column of the given variable.
+	 * @return -- The column, or -1 if the variable is not in this index.
+	 */
+	public int find(Variable var)
+	{
+		int hash = hash(var);
+		for(int slot = hash & mask; slots[slot] != 0; slot = (slot + 1) & mask)
+		{
+			int column = slots[slot] - 1;
+			if(hashes[column] == hash && columns[column].equals(var))
+				return column;
+		}
+		return -1;
+	}
+
+	/**
+	 * Adds a variable under the given column. Columns must be added in order without gaps.
+	 */
+	public void add(Variable var, int column)
+	{
+		if(column >= columns.length)
+		{
+			int length = Math.max(column + 1, columns.length * 2);
+			columns = Arrays.copyOf(columns, length);
+			hashes = Arrays.copyOf(hashes, length);
+		}
+		columns[column] = var;
+		hashes[column] = hash(var);
+		size = Math.max(size, column + 1);
+		if(size * 2 > slots.length)
+		{
+			slots = new int[slots.length * 2];
+			mask = slots.length - 1;
+			for(int i = 0; i < size; i++)
+			{
+				if(columns[i] != null && i != column)
+					insert(i);
+			}
+		}
+		insert(column);
+	}
+
+	/**
+	 * Returns a copy of this index, that is not changed by later changes to this index.
+	 */
+	public VariableIndex copy()
+	{
+		VariableIndex c = new VariableIndex();
+		c.slots = slots.clone();
+		c.mask = mask;
+		c.columns = columns.clone();
+		c.hashes = hashes.clone();
+		c.size = size;
+		return c;
+	}
+
+	/**
+	 * Returns the variable stored in the given column, or null if the column was removed.
+	 */
+	public Variable get(int column)
+	{
+		return columns[column];
+	}
+
+	/**
+	 * Removes the variable of the given column. The column is left empty, and the variable is
+	 * given a new column if it is added again.
+	 */
+	public void remove(int column)
+	{
+		//remove the column from the table, moving any later entries of its cluster back into the gap.
+		int slot = hashes[column] & mask;
+		while(slots[slot] != column + 1)
+			slot = (slot + 1) & mask;
+		int gap = slot;
+		slots[gap] = 0;
+		for(slot = (gap + 1) & mask; slots[slot] != 0; slot = (slot + 1) & mask)
+		{
+			int home = hashes[slots[slot] - 1] & mask;
+			//entries whose home slot lies cyclically in (gap, slot] stay where they are.
+			if(gap <= slot ? (home <= gap || home > slot) : (home <= gap && home > slot))
+			{
+				slots[gap] = slots[slot];
+				slots[slot] = 0;
+				gap = slot;
+			}
+		}
+		columns[column] = null;
+	}
+
+	private void insert(int column)
+	{
+		int slot = hashes[column] & mask;
+		while(slots[slot] != 0)
+			slot = (slot + 1) & mask;
+		slots[slot] = column + 1;
+	}
+
+	/**
+	 * Hashes the fields used by Variable.equals, ignoring case.
+	 */
+	private static int hash(Variable var)
+	{
+		int h = 17;
+		h = 31*h + hash(var.getPDG());
+		h = 31*h + hash(var.getPDG2());
+		h = 31*h + hash(var.getPDG3());
+		h = 31*h + hash(var.getBlock());
+		return h ^ (h >>> 16);
+	}
+
+	private static int hash(String s)
+	{
+		int h = 0;
+		for(int i = 0; i < s.length(); i++)
+			h = 31*h + Character.toLowerCase(Character.toUpperCase(s.charAt(i)));
+		return h;
+	}
+}
@@ -0,0 +1,92 @@
+package binaryUtil;
+
+/**
+ * SLHA parsing program
+ * Copyright (C) 2014 Patrick Cowan
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of this License, or
+ * (at your option) any later version.
+ *
+ *You should have received a copy of the GNU General Public License
+ *along with this program if not, see <http://www.gnu.org/licenses/>.
+ */
+/**
+ * The result of checking a binary against the files in its directory when it is opened.
+ * @author Patrick
+ *
+ */
+public class VerificationSummary
+{
+	private int changed;
+	private int added;
+	private int removed;
+	private int failed;
+	private int unchanged;
+	private long bytes;
+
+	VerificationSummary(int changed, int added, int removed, int failed, int unchanged, long bytes)
+	{
+		this.changed = changed;
+		this.added = added;
+		this.removed = removed;
+		this.failed = failed;
+		this.unchanged = unchanged;
+		this.bytes = bytes;
+	}
+
+	/**
+	 * Returns the number of files that were modified since they were added, and have been updated.
+	 */
+	public int getChanged()
+	{
+		return changed;
+	}
+
+	/**
+	 * Returns the number of files found in the directory that were not in the binary, and have been added.
+	 */
+	public int getAdded()
+	{
+		return added;
+	}
+
+	/**
+	 * Returns the number of files in the binary that are no longer in the directory.
+	 */
+	public int getRemoved()
+	{
+		return removed;
+	}
+
+	/**
+	 * Returns the number of changed or new files that could not be parsed, and were left as they were.
+	 */
+	public int getFailed()
+	{
+		return failed;
+	}
+
+	/**
+	 * Returns the number of files whose timestamp changed but whose content did not. These are not parsed again.
+	 */
+	public int getUnchanged()
+	{
+		return unchanged;
+	}
+
+	/**
+	 * Returns the total size of the changed and new files that were parsed.
+	 */
+	public long getBytes()
+	{
+		return bytes;
+	}
+
+	public String toString()
+	{
+		return changed + " changed, " + added + " added, " + removed + " removed, " + failed + " failed, " 
+				+ unchanged + " touched but unchanged";
+	}
+}
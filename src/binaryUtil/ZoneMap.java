@@ -0,0 +1,434 @@
+package binaryUtil;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * SLHA parsing program
+ * Copyright (C) 2014 Patrick Cowan
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of this License, or
+ * (at your option) any later version.
+ *
+ *You should have received a copy of the GNU General Public License
+ *along with this program if not, see <http://www.gnu.org/licenses/>.
+ */
+/**
+ * Statistics of every column over each zone of ZONE_ROWS rows: the number of cells holding a value, and the least
+ * and greatest value. The number of missing cells of a zone is its number of rows less the count. Scans use them to
+ * skip zones that can not match (see Query), and ranges of whole columns are found without reading the binary.
+ *
+ * The statistics are kept up to date as rows are written (see BinaryParser.markRow). A row rewritten in place
+ * leaves the count exact, but only widens the bounds of its zone, so bounds may be wider than the values that
+ * remain. Rows of removed files are counted until the binary is compacted. NaN values are counted but do not
+ * widen the bounds, as they match no comparison.
+ *
+ * The map is saved beside the binary (the name of the binary with EXTENSION) with the number of rows it covers and
+ * the version of the binary. When it is loaded, the rows written after it was saved (the rows past the ones it
+ * covers, and rows rewritten since, see BinaryParser.getRowVersion) are read back from the binary.
+ * @author Patrick
+ *
+ */
+public class ZoneMap
+{
+	public static final int ZONE_ROWS = 4096;
+	public static final String EXTENSION = ".zones";
+
+	private static final int MAGIC = 0x44435A4D;	//"DCZM"
+	private static final int FORMAT_VERSION = 1;
+	private static final int READ_ROWS = 1024;		//the rows read from the binary at once when zones are rebuilt.
+
+	private int rows;
+	private int columns;
+	private int[][] counts;
+	private double[][] minimums;
+	private double[][] maximums;
+
+	/**
+	 * Creates an empty map.
+	 */
+	ZoneMap()
+	{
+		counts = new int[0][];
+		minimums = new double[0][];
+		maximums = new double[0][];
+	}
+
+	/**
+	 * Returns the file a binary's map is saved to.
+	 */
+	public static File fileOf(File binary)
+	{
+		return new File(binary.getPath() + EXTENSION);
+	}
+
+	/**
+	 * Returns a copy of this map that is not changed by later changes to it.
+	 */
+	synchronized ZoneMap copy()
+	{
+		ZoneMap c = new ZoneMap();
+		c.rows = rows;
+		c.columns = columns;
+		c.counts = new int[counts.length][];
+		c.minimums = new double[counts.length][];
+		c.maximums = new double[counts.length][];
+		for(int z = 0; z < counts.length; z++)
+		{
+			c.counts[z] = counts[z].clone();
+			c.minimums[z] = minimums[z].clone();
+			c.maximums[z] = maximums[z].clone();
+		}
+		return c;
+	}
+
+	/**
+	 * Returns the number of rows covered by the map.
+	 */
+	public synchronized int getRows()
+	{
+		return rows;
+	}
+
+	/**
+	 * Returns the number of zones of the map.
+	 */
+	public synchronized int getZones()
+	{
+		return (rows + ZONE_ROWS - 1) / ZONE_ROWS;
+	}
+
+	/**
+	 * Returns the number of cells of a zone that hold a value for a column.
+	 */
+	public synchronized int getCount(int zone, int column)
+	{
+		return column < columns && zone < counts.length ? counts[zone][column] : 0;
+	}
+
+	/**
+	 * Returns the number of cells of a zone that hold no value for a column.
+	 */
+	public synchronized int getMissing(int zone, int column)
+	{
+		int zoneRows = Math.max(0, Math.min(ZONE_ROWS, rows - zone * ZONE_ROWS));
+		return zoneRows - getCount(zone, column);
+	}
+
+	/**
+	 * Returns the least value of a column within a zone, or positive infinity if it holds no value but NaN.
+	 */
+	public synchronized double getMinimum(int zone, int column)
+	{
+		return column < columns && zone < counts.length ? minimums[zone][column] : Double.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * Returns the greatest value of a column within a zone, or negative infinity if it holds no value but NaN.
+	 */
+	public synchronized double getMaximum(int zone, int column)
+	{
+		return column < columns && zone < counts.length ? maximums[zone][column] : Double.NEGATIVE_INFINITY;
+	}
+
+	/**
+	 * Returns the number of cells of the whole column that hold a value.
+	 */
+	public synchronized long getCount(int column)
+	{
+		long count = 0;
+		for(int z = 0; z < counts.length && column < columns; z++)
+			count += counts[z][column];
+		return count;
+	}
+
+	/**
+	 * Returns the least and greatest value of a whole column.
+	 * @return -- The bounds, or null if the column holds no value but NaN.
+	 */
+	public synchronized double[] getRange(int column)
+	{
+		double min = Double.POSITIVE_INFINITY;
+		double max = Double.NEGATIVE_INFINITY;
+		for(int z = 0; z < counts.length && column < columns; z++)
+		{
+			min = Math.min(min, minimums[z][column]);
+			max = Math.max(max, maximums[z][column]);
+		}
+		return min <= max ? new double[]{min, max} : null;
+	}
+
+	/**
+	 * Returns the least and greatest value of a column over the zones holding a range of rows.
+	 * @param from -- The first row of the range.
+	 * @param to -- The row after the last row of the range.
+	 * @return -- The bounds, positive and negative infinity if the zones hold no value but NaN, or null if the map
+	 * does not cover the rows.
+	 */
+	public synchronized double[] getBounds(int column, int from, int to)
+	{
+		if(to > rows)
+			return null;
+		double[] bounds = {Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY};
+		for(int z = from / ZONE_ROWS; z * ZONE_ROWS < to && column < columns; z++)
+		{
+			bounds[0] = Math.min(bounds[0], minimums[z][column]);
+			bounds[1] = Math.max(bounds[1], maximums[z][column]);
+		}
+		return bounds;
+	}
+
+	/**
+	 * Counts the values of a row being written. Must be called before the presence of the row's cells is changed,
+	 * so a row rewritten in place first takes its earlier values out of the count.
+	 * @param row -- The row, at most getRows: rows are added in order.
+	 * @param values -- The values of the row, one double per column.
+	 * @param present -- Whether each cell of the row holds a value.
+	 * @param presence -- The presence of the cells before the row is written.
+	 */
+	synchronized void addRow(int row, ByteBuffer values, boolean[] present, NullBitmap presence)
+	{
+		int rowColumns = values.capacity() / 8;
+		ensure(row, rowColumns);
+		int zone = row / ZONE_ROWS;
+		boolean rewrite = row < rows;
+		for(int column = 0; column < rowColumns; column++)
+		{
+			if(rewrite && presence.isPresent(column, row))
+				counts[zone][column]--;
+			if(present[column])
+				add(zone, column, values.getDouble(column*8));
+		}
+		rows = Math.max(rows, row + 1);
+	}
+
+	/**
+	 * Drops the statistics of a removed column.
+	 */
+	synchronized void removeColumn(int column)
+	{
+		for(int z = 0; z < counts.length && column < columns; z++)
+			clear(z, column);
+	}
+
+	private void add(int zone, int column, double d)
+	{
+		counts[zone][column]++;
+		if(d < minimums[zone][column])
+			minimums[zone][column] = d;
+		if(d > maximums[zone][column])
+			maximums[zone][column] = d;
+	}
+
+	private void clear(int zone, int column)
+	{
+		counts[zone][column] = 0;
+		minimums[zone][column] = Double.POSITIVE_INFINITY;
+		maximums[zone][column] = Double.NEGATIVE_INFINITY;
+	}
+
+	/**
+	 * Helper method. Makes room for the zone of a row and the given number of columns.
+	 */
+	private void ensure(int row, int neededColumns)
+	{
+		int zones = row / ZONE_ROWS + 1;
+		if(neededColumns > columns)
+		{
+			int newColumns = Math.max(neededColumns, columns * 2);
+			for(int z = 0; z < counts.length; z++)
+			{
+				counts[z] = Arrays.copyOf(counts[z], newColumns);
+				minimums[z] = Arrays.copyOf(minimums[z], newColumns);
+				maximums[z] = Arrays.copyOf(maximums[z], newColumns);
+				Arrays.fill(minimums[z], columns, newColumns, Double.POSITIVE_INFINITY);
+				Arrays.fill(maximums[z], columns, newColumns, Double.NEGATIVE_INFINITY);
+			}
+			columns = newColumns;
+		}
+		if(zones > counts.length)
+		{
+			int old = counts.length;
+			counts = Arrays.copyOf(counts, zones);
+			minimums = Arrays.copyOf(minimums, zones);
+			maximums = Arrays.copyOf(maximums, zones);
+			for(int z = old; z < zones; z++)
+			{
+				counts[z] = new int[columns];
+				minimums[z] = new double[columns];
+				maximums[z] = new double[columns];
+				Arrays.fill(minimums[z], Double.POSITIVE_INFINITY);
+				Arrays.fill(maximums[z], Double.NEGATIVE_INFINITY);
+			}
+		}
+	}
+
+	/**
+	 * Counts the values of a zone again from the binary, for the rows below the given row.
+	 * @param channel -- The binary.
+	 * @param dataOffset -- Where the rows of the binary start.
+	 * @param rowSize -- The number of bytes of a row.
+	 * @param rowCount -- The number of rows of the binary.
+	 * @param presence -- The presence of the cells of the binary.
+	 */
+	private void rebuild(int zone, FileChannel channel, long dataOffset, int rowSize, int rowCount,
+			NullBitmap presence) throws IOException
+	{
+		int first = zone * ZONE_ROWS;
+		int last = Math.min(first + ZONE_ROWS, rowCount);
+		int rowColumns = rowSize / 8;
+		ensure(first, rowColumns);
+		for(int column = 0; column < columns; column++)
+			clear(zone, column);
+		ByteBuffer b = ByteBuffer.allocate(READ_ROWS * Math.max(rowSize, 1));
+		for(int start = first; start < last; start += READ_ROWS)
+		{
+			int count = Math.min(READ_ROWS, last - start);
+			b.clear();
+			b.limit(count * rowSize);
+			long location = dataOffset + (long)start * rowSize;
+			while(b.hasRemaining())
+			{
+				int read = channel.read(b, location);
+				if(read < 0)
+				{
+					//the last row is only written as far as its used columns.
+					while(b.hasRemaining())
+						b.put((byte)0);
+					break;
+				}
+				location += read;
+			}
+			for(int r = 0; r < count; r++)
+			{
+				for(int column = 0; column < rowColumns; column++)
+				{
+					if(presence.isPresent(column, start + r))
+						add(zone, column, b.getDouble(r * rowSize + column * 8));
+				}
+			}
+		}
+		rows = Math.max(rows, last);
+	}
+
+	/**
+	 * Loads the map of a binary, reading back the rows written after it was saved. A binary without a map, or with
+	 * a map that can not be read, has its map built from all of its rows.
+	 * @param file -- The saved map.
+	 * @param versions -- The version of the last write of every row of the binary, see BinaryParser.getRowVersion.
+	 * @param version -- The version of the binary.
+	 */
+	static ZoneMap load(File file, long[] versions, long version, FileChannel channel, long dataOffset, int rowSize,
+			NullBitmap presence) throws IOException
+	{
+		int rowCount = versions.length;
+		ZoneMap map = new ZoneMap();
+		long savedVersion = -1;
+		if(file.exists())
+		{
+			savedVersion = map.read(file);
+			//a map covering rows the binary no longer has was saved before the binary was compacted.
+			if(savedVersion < 0 || map.rows > rowCount)
+			{
+				map = new ZoneMap();
+				savedVersion = -1;
+			}
+		}
+		int saved = map.rows;
+		for(int zone = 0; zone * ZONE_ROWS < rowCount; zone++)
+		{
+			int first = zone * ZONE_ROWS;
+			boolean stale = first + ZONE_ROWS > saved;
+			//rows rewritten after the map was saved, or removed, whose earlier write is unknown.
+			for(int row = first; row < Math.min(first + ZONE_ROWS, saved) && !stale && savedVersion != version; row++)
+				stale = versions[row] > savedVersion || versions[row] < 0;
+			if(stale)
+				map.rebuild(zone, channel, dataOffset, rowSize, rowCount, presence);
+		}
+		map.rows = rowCount;
+		return map;
+	}
+
+	/**
+	 * Reads a saved map into this empty map.
+	 * @return -- The version of the binary the map was saved with, or -1 if it can not be read.
+	 */
+	private long read(File file)
+	{
+		try
+		{
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			try
+			{
+				if(in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION || in.readInt() != ZONE_ROWS)
+					return -1;
+				long version = in.readLong();
+				int savedRows = in.readInt();
+				int savedColumns = in.readInt();
+				ensure(Math.max(savedRows - 1, 0), savedColumns);
+				for(int z = 0; z * ZONE_ROWS < savedRows; z++)
+				{
+					for(int column = 0; column < savedColumns; column++)
+					{
+						counts[z][column] = in.readInt();
+						minimums[z][column] = in.readDouble();
+						maximums[z][column] = in.readDouble();
+					}
+				}
+				rows = savedRows;
+				return version;
+			}
+			finally
+			{
+				in.close();
+			}
+		}
+		catch(IOException e)
+		{
+			//a map cut short is built again.
+			return -1;
+		}
+	}
+
+	/**
+	 * Saves the map beside its binary.
+	 * @param version -- The version of the binary, see BinaryParser.getVersion.
+	 */
+	synchronized void save(File file, long version) throws IOException
+	{
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try
+		{
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT_VERSION);
+			out.writeInt(ZONE_ROWS);
+			out.writeLong(version);
+			out.writeInt(rows);
+			out.writeInt(columns);
+			for(int z = 0; z * ZONE_ROWS < rows; z++)
+			{
+				for(int column = 0; column < columns; column++)
+				{
+					out.writeInt(counts[z][column]);
+					out.writeDouble(minimums[z][column]);
+					out.writeDouble(maximums[z][column]);
+				}
+			}
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+}
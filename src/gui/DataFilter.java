@@ -4,6 +4,8 @@ import java.io.File;
 
 import javax.swing.filechooser.FileFilter;
 
+import binaryUtil.NpyWriter;
+
 /**
  * SLHA parsing program
  * Copyright (C) 2014 Patrick Cowan
@@ -30,7 +32,7 @@ public class DataFilter extends FileFilter {
 	        }
 		 if(extension == null)
 			 return false;
-		 if(extension.equalsIgnoreCase("dat"))
+		 if(extension.equalsIgnoreCase("dat") || NpyWriter.isExportName(s))
 			 return true;
 		 else
 			 return false;
@@ -39,7 +41,7 @@ public class DataFilter extends FileFilter {
 	@Override
 	public String getDescription() {
 		
-		return ".dat Files";
+		return ".dat, .npy, .npz and .f64 Files";
 	}
 
 }
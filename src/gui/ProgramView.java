@@ -338,8 +338,9 @@ public class ProgramView extends JFrame {
 	 * updates the selected variable in the status bar. This shows which variable in the tree or list has
 	 * been selected.
 	 * @param var -- The variable to be displayed.
+	 * @param range -- The least and greatest value of the variable, or null if they are not known.
 	 */
-	public void updateSelectedVariable(Variable var) {	
+	public void updateSelectedVariable(Variable var, double[] range) {	
 		String displayString = "";
 		if(!var.getBlock().equalsIgnoreCase(""))
 			displayString+= "BLOCK: " + var.getBlock() + " ";
@@ -353,6 +354,8 @@ public class ProgramView extends JFrame {
 			displayString += " BlockName: " + var.getBlock() + " ";
 		if(!var.getDescription().equalsIgnoreCase(""))
 			displayString += " Description: " + var.getDescription();
+		if(range != null)
+			displayString += " Range: " + range[0] + " to " + range[1];
 		selectedVariable.setText(displayString);
 		
 	}
@@ -21,7 +21,9 @@ import javax.swing.tree.TreeModel;
 import javax.swing.tree.TreePath;
 
 
+import binaryUtil.BinaryParser;
 import binaryUtil.IBinaryListener;
+import binaryUtil.NpyWriter;
 import binaryUtil.ProgramModel;
 import binaryUtil.SlhaFile;
 import binaryUtil.Variable;
@@ -118,8 +120,8 @@ public class ParserProgramController implements ActionListener, IBinaryListener,
 	}
 
 	/**
-	 * If the parser has completed the modifying the file then it will
-	 * allow the user to select a directory to save a output data file.
+	 * Allows the user to select a directory to save a output data file. Exports can run while files are
+	 * still being read in, they hold the files that had been written when the export started.
 	 */
 	private void PromptFileWrite() {
 		if(!model.hasFile())
@@ -127,13 +129,6 @@ public class ParserProgramController implements ActionListener, IBinaryListener,
 			System.out.println("no File selected");
 			return;
 		}
-		if(completedWrites != pendingWrites)
-		{
-			//notify the user that writing is still in progress.
-			JOptionPane.showMessageDialog(null, "Please wait for the program to complete reading in the files.", "Working...", 
-					JOptionPane.INFORMATION_MESSAGE);
-			return;
-		}
 		
 		//invoke the view method to save a file.
 		javax.swing.SwingUtilities.invokeLater(new Runnable()
@@ -246,6 +241,23 @@ public class ParserProgramController implements ActionListener, IBinaryListener,
 		});
 	}
 
+	/**
+	 * invoked by the model to notify the user that files read in did not match the earlier files.
+	 * @param count -- The number of inconsistencies, logged within the directory.
+	 */
+	public void ReportInconsistencies(int count) {
+		final int found = count;
+		javax.swing.SwingUtilities.invokeLater(new Runnable()
+		{
+			public void run()
+			{
+				JOptionPane.showConfirmDialog(null,
+						found + " Inconsistencies found, Logged in \"" + BinaryParser.LOG_NAME + "\" within the directory"
+						, "Inconsistencies Found", JOptionPane.PLAIN_MESSAGE,JOptionPane.INFORMATION_MESSAGE);
+			}
+		});
+	}
+
 	public void completedWrites(int progress, int total) {
 		completedWrites = progress;
 		pendingWrites = total;
@@ -271,11 +283,13 @@ public class ParserProgramController implements ActionListener, IBinaryListener,
 			DefaultMutableTreeNode d = (DefaultMutableTreeNode) path.getLastPathComponent();
 			DefaultMutableTreeNode d2 = (DefaultMutableTreeNode)d.getUserObject();
 			final Variable var = (Variable)d2.getUserObject();
+			//the range comes from the zone map of the binary, so no rows are read.
+			final double[] range = model.getRange(var);
 			javax.swing.SwingUtilities.invokeLater(new Runnable()
 			{
 				public void run()
 				{
-					view.updateSelectedVariable(var);
+					view.updateSelectedVariable(var, range);
 				}
 			});
 		}
@@ -288,12 +302,12 @@ public class ParserProgramController implements ActionListener, IBinaryListener,
 	 * @param chooser
 	 */
 	public void passSaveChooser(JFileChooser chooser) {
-		//add the .dat if necessary
+		//add the .dat if necessary, NumPy and raw exports keep their extension.
 		File f = chooser.getSelectedFile();
 		if(f==null)
 			return;
 		String name = f.toString();
-		if(!name.contains(".dat"))
+		if(!name.contains(".dat") && !NpyWriter.isExportName(name))
 		{
 			File f2 = new File(name+".dat");
 			f = f2;
@@ -0,0 +1,1008 @@
+package main;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+
+import binaryUtil.BinaryParser;
+import binaryUtil.ColumnAggregate;
+import binaryUtil.ColumnSketch;
+import binaryUtil.CorrelationMatrix;
+import binaryUtil.Dataset;
+import binaryUtil.DirectoryWatcher;
+import binaryUtil.ExportSummary;
+import binaryUtil.IngestSummary;
+import binaryUtil.Query;
+import binaryUtil.StreamSource;
+import binaryUtil.Variable;
+import binaryUtil.VerificationSummary;
+
+/**
+ * SLHA parsing program
+ * Copyright (C) 2014 Patrick Cowan
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of this License, or
+ * (at your option) any later version.
+ *
+ *You should have received a copy of the GNU General Public License
+ *along with this program if not, see <http://www.gnu.org/licenses/>.
+ */
+/**
+ * The command line interface of the program, for batch jobs on machines without a display. No AWT or Swing
+ * classes are loaded. The binary of a directory is the file BinaryParser.DEFAULT_NAME within it.
+ *
+ * Every command writes a single line of JSON to standard output describing what it did, including its
+ * throughput, and writes messages for people to standard error. The exit status is one of the EXIT_ codes.
+ * @author Patrick
+ *
+ */
+public class CommandLine
+{
+	public static final int EXIT_OK = 0;
+	public static final int EXIT_ERROR = 1;			//the command could not be completed, e.g. an unreadable binary.
+	public static final int EXIT_USAGE = 2;			//the command line was not understood.
+	public static final int EXIT_INCOMPLETE = 3;	//the command completed, but some files failed or were inconsistent.
+
+	private static final String USAGE =
+			"Usage:\n"
+			+ "  ingest <directory> [--dedup] [--watch]\n"
+			+ "      Adds the files of the directory and its subdirectories to its binary. --watch reports them,\n"
+			+ "      then keeps adding files as they are written until the program is stopped.\n"
+			+ "  ingest <directory> --stream <file|-> [--delimiter <line> | --length-prefixed] [--source <name>]\n"
+			+ "      Adds concatenated SLHA documents read from a file, named pipe or standard input (-).\n"
+			+ "  verify <directory>\n"
+			+ "      Brings the binary up to date with the files of the directory, and reports what changed.\n"
+			+ "  export <directory> <output.dat|.npy|.npz|.f64> [--var BLOCK:PDG[:PDG2[:PDG3]]]... [--incremental]\n"
+			+ "      Writes a data file of the given variables, or of every variable. .npy and .npz write NumPy\n"
+			+ "      arrays with a mask of missing cells, .f64 a raw little-endian matrix. --incremental only\n"
+			+ "      writes the rows added or changed since the last incremental export to the same file.\n"
+			+ "  query <directory> <predicate> [and <predicate>]... [--count] [--top <k> --by <variable> [--smallest]]\n"
+			+ "        [--export <output> [--var BLOCK:PDG[:PDG2[:PDG3]]]...]\n"
+			+ "      Finds the file numbers whose values match every predicate, e.g. \"MASS 1000022 < 500 and\n"
+			+ "      MINPAR 1 > 200\". --top ranks the matches by a variable, largest first, --export writes them.\n"
+			+ "  aggregate <directory> [--var BLOCK:PDG[:PDG2[:PDG3]]]... [--bins <n>]\n"
+			+ "      Reports the count, missing cells, mean, variance, least and greatest value of the given\n"
+			+ "      variables, or of every variable, and histograms of n bins, in a single pass.\n"
+			+ "  sketch <directory> [--shard <directory>]... [--var BLOCK:PDG[:PDG2[:PDG3]]]... [--quantile <q>]...\n"
+			+ "      Reports estimated quantiles (by default the median, quartiles and 1, 5, 95 and 99 percentiles)\n"
+			+ "      and distinct counts of the given variables, or of every variable, from the sketches kept with\n"
+			+ "      the binary. The sketches of each --shard directory are merged in.\n"
+			+ "  correlate <directory> <output.csv|.npy> [--var BLOCK:PDG[:PDG2[:PDG3]]]... [--covariance]\n"
+			+ "      Writes the correlation matrix of the given variables, or of every variable, in a single pass.\n"
+			+ "      Each pair is taken over the files holding both. --covariance writes covariances instead.\n"
+			+ "  index <directory> [BLOCK:PDG[:PDG2[:PDG3]]]... [--drop]\n"
+			+ "      Builds sorted indexes of the given variables, used by query and nearest, or drops them with\n"
+			+ "      --drop. Lists the indexed variables. The binary is first brought up to date with the files\n"
+			+ "      of the directory, as verify does, and the files that changed are reported.\n"
+			+ "  nearest <directory> <variable> <value> [--k <k>]\n"
+			+ "      Finds the file numbers whose values of an indexed variable are nearest the value.\n"
+			+ "  stats <directory>\n"
+			+ "      Reports the size of the binary.\n";
+
+	/**
+	 * Runs a command and exits with its status.
+	 * @param args -- The command and its arguments.
+	 */
+	public static void main(String[] args)
+	{
+		System.exit(run(args));
+	}
+
+	/**
+	 * Runs a command.
+	 * @param args -- The command and its arguments.
+	 * @return -- The exit status of the command.
+	 */
+	public static int run(String[] args)
+	{
+		System.setProperty("java.awt.headless", "true");
+		if(args.length < 2)
+			return usage(null);
+		try
+		{
+			String command = args[0];
+			File directory = new File(args[1]).getAbsoluteFile();
+			if(!directory.isDirectory())
+			{
+				System.err.println("Not a directory: " + directory);
+				return EXIT_ERROR;
+			}
+			if(command.equalsIgnoreCase("ingest"))
+				return ingest(directory, args);
+			else if(command.equalsIgnoreCase("verify"))
+				return verify(directory, args);
+			else if(command.equalsIgnoreCase("export"))
+				return export(directory, args);
+			else if(command.equalsIgnoreCase("query"))
+				return query(directory, args);
+			else if(command.equalsIgnoreCase("aggregate"))
+				return aggregate(directory, args);
+			else if(command.equalsIgnoreCase("sketch"))
+				return sketch(directory, args);
+			else if(command.equalsIgnoreCase("correlate"))
+				return correlate(directory, args);
+			else if(command.equalsIgnoreCase("index"))
+				return index(directory, args);
+			else if(command.equalsIgnoreCase("nearest"))
+				return nearest(directory, args);
+			else if(command.equalsIgnoreCase("stats"))
+				return stats(directory, args);
+			return usage("Unknown command: " + command);
+		}
+		catch(UsageException e)
+		{
+			return usage(e.getMessage());
+		}
+		catch(Exception e)
+		{
+			e.printStackTrace();
+			System.err.println("Error: " + e.getMessage());
+			return EXIT_ERROR;
+		}
+	}
+
+	private static int ingest(File directory, String[] args) throws Exception
+	{
+		boolean dedup = false;
+		boolean watch = false;
+		boolean lengthPrefixed = false;
+		String stream = null;
+		String delimiter = StreamSource.DEFAULT_DELIMITER;
+		String source = null;
+		for(int i = 2; i < args.length; i++)
+		{
+			if(args[i].equals("--dedup"))
+				dedup = true;
+			else if(args[i].equals("--watch"))
+				watch = true;
+			else if(args[i].equals("--length-prefixed"))
+				lengthPrefixed = true;
+			else if(args[i].equals("--stream"))
+				stream = value(args, ++i);
+			else if(args[i].equals("--delimiter"))
+				delimiter = value(args, ++i);
+			else if(args[i].equals("--source"))
+				source = value(args, ++i);
+			else
+				throw new UsageException("Unknown option: " + args[i]);
+		}
+		if(stream != null && watch)
+			throw new UsageException("--watch can not be used with --stream");
+
+		long start = System.nanoTime();
+		final Dataset dataset = Dataset.open(directory);
+		if(dedup)
+			dataset.getBinary().setDeduplicate(true);
+		//files found by the check of an existing binary are added when it is opened.
+		VerificationSummary summary = dataset.getVerificationSummary();
+		int files = summary.getAdded() + summary.getChanged();
+		long bytes = summary.getBytes();
+		int failed = summary.getFailed();
+		IngestSummary ingested;
+		if(stream != null)
+		{
+			InputStream in = stream.equals("-") ? System.in : new FileInputStream(stream);
+			String name = source != null ? source : stream.equals("-") ? "stdin" : new File(stream).getName();
+			try
+			{
+				ingested = dataset.ingestStream(in, name, lengthPrefixed ? null : delimiter).get();
+			}
+			finally
+			{
+				if(in != System.in)
+					in.close();
+			}
+		}
+		else
+		{
+			//new binaries are not checked when they are created, their files are added here.
+			ingested = dataset.ingestFiles();
+		}
+		files += ingested.getFiles();
+		bytes += ingested.getBytes();
+		failed += ingested.getFailed();
+		BinaryParser p = dataset.getBinary();
+		//a binary that is watched stays open, what was ingested before watching started is reported first.
+		if(!watch)
+			p.close();
+		double seconds = seconds(start);
+		int inconsistencies = p.getNumberOfInconsistencies();
+		StringBuilder out = new StringBuilder();
+		field(out, "command", "ingest");
+		field(out, "files", files);
+		field(out, "failed", failed);
+		field(out, "inconsistencies", inconsistencies);
+		field(out, "rows", p.getUsedFiles());
+		field(out, "bytes", bytes);
+		field(out, "seconds", seconds);
+		field(out, "files_per_second", files / seconds);
+		field(out, "megabytes_per_second", bytes / 1e6 / seconds);
+		report(out);
+		if(watch)
+		{
+			final DirectoryWatcher watcher = dataset.watch();
+			Runtime.getRuntime().addShutdownHook(new Thread()
+			{
+				public void run()
+				{
+					try
+					{
+						watcher.close();
+						dataset.close();
+					}
+					catch(IOException e)
+					{
+						e.printStackTrace();
+					}
+				}
+			});
+			System.err.println("Watching " + directory + " for new files");
+			//the watcher runs until the program is stopped.
+			while(true)
+				Thread.sleep(Long.MAX_VALUE);
+		}
+		return failed > 0 || inconsistencies > 0 ? EXIT_INCOMPLETE : EXIT_OK;
+	}
+
+	private static int verify(File directory, String[] args) throws Exception
+	{
+		if(args.length > 2)
+			throw new UsageException("Unknown option: " + args[2]);
+		File binary = new File(directory, BinaryParser.DEFAULT_NAME);
+		if(!binary.exists())
+		{
+			System.err.println("No binary in " + directory + ", use ingest to create one");
+			return EXIT_ERROR;
+		}
+		long start = System.nanoTime();
+		BinaryParser p = new BinaryParser(binary);
+		p.close();
+		double seconds = seconds(start);
+		VerificationSummary summary = p.getVerificationSummary();
+		int checked = summary.getAdded() + summary.getChanged() + summary.getFailed();
+		StringBuilder out = new StringBuilder();
+		field(out, "command", "verify");
+		field(out, "changed", summary.getChanged());
+		field(out, "added", summary.getAdded());
+		field(out, "removed", summary.getRemoved());
+		field(out, "failed", summary.getFailed());
+		field(out, "unchanged", summary.getUnchanged());
+		field(out, "inconsistencies", p.getNumberOfInconsistencies());
+		field(out, "bytes", summary.getBytes());
+		field(out, "seconds", seconds);
+		field(out, "files_per_second", checked / seconds);
+		field(out, "megabytes_per_second", summary.getBytes() / 1e6 / seconds);
+		report(out);
+		return summary.getFailed() > 0 || p.getNumberOfInconsistencies() > 0 ? EXIT_INCOMPLETE : EXIT_OK;
+	}
+
+	private static int export(File directory, String[] args) throws Exception
+	{
+		if(args.length < 3)
+			throw new UsageException("export needs an output file");
+		File output = new File(args[2]);
+		LinkedList<String> requested = new LinkedList<String>();
+		boolean incremental = false;
+		for(int i = 3; i < args.length; i++)
+		{
+			if(args[i].equals("--var"))
+			{
+				requested.addLast(value(args, ++i));
+				//check the name before the binary is opened.
+				parseVariable(requested.getLast());
+			}
+			else if(args[i].equals("--incremental"))
+				incremental = true;
+			else
+				throw new UsageException("Unknown option: " + args[i]);
+		}
+		Dataset dataset = openReadOnly(directory);
+		if(dataset == null)
+			return EXIT_ERROR;
+		long start = System.nanoTime();
+		List<Variable> vars = new LinkedList<Variable>();
+		if(requested.isEmpty())
+			vars = dataset.getVariables();
+		else
+		{
+			//every requested variable must be in the binary.
+			for(String key: requested)
+			{
+				Variable found = dataset.findVariable(key);
+				if(found == null)
+				{
+					System.err.println("No such variable in the binary: " + key);
+					dataset.close();
+					return EXIT_ERROR;
+				}
+				vars.add(found);
+			}
+		}
+		int lines;
+		int written;
+		boolean kept = false;
+		try
+		{
+			if(incremental)
+			{
+				ExportSummary summary = dataset.exportIncremental(output, vars);
+				lines = summary.getRows();
+				written = summary.getWritten();
+				kept = summary.isIncremental();
+			}
+			else
+				written = lines = dataset.export(output, vars);
+		}
+		finally
+		{
+			dataset.close();
+		}
+		double seconds = seconds(start);
+		StringBuilder out = new StringBuilder();
+		field(out, "command", "export");
+		field(out, "rows", lines);
+		field(out, "written", written);
+		field(out, "incremental", kept);
+		field(out, "variables", vars.size());
+		field(out, "bytes", output.length());
+		field(out, "seconds", seconds);
+		field(out, "rows_per_second", written / seconds);
+		field(out, "megabytes_per_second", output.length() / 1e6 / seconds);
+		report(out);
+		return EXIT_OK;
+	}
+
+	private static int query(File directory, String[] args) throws Exception
+	{
+		//the predicates run up to the first option, so they may be given as one argument or several.
+		StringBuilder text = new StringBuilder();
+		int i = 2;
+		for(; i < args.length && !args[i].startsWith("--"); i++)
+			text.append(args[i]).append(' ');
+		Query query = parseQuery(text.toString());
+		boolean countOnly = false;
+		int top = 0;
+		String by = null;
+		boolean largest = true;
+		File output = null;
+		LinkedList<String> requested = new LinkedList<String>();
+		for(; i < args.length; i++)
+		{
+			if(args[i].equals("--count"))
+				countOnly = true;
+			else if(args[i].equals("--top"))
+			{
+				try
+				{
+					top = Integer.parseInt(value(args, ++i));
+				}
+				catch(NumberFormatException e)
+				{
+					throw new UsageException("--top needs a number");
+				}
+			}
+			else if(args[i].equals("--by"))
+				by = parseVariable(value(args, ++i)).getKey();
+			else if(args[i].equals("--smallest"))
+				largest = false;
+			else if(args[i].equals("--export"))
+				output = new File(value(args, ++i));
+			else if(args[i].equals("--var"))
+			{
+				requested.addLast(value(args, ++i));
+				parseVariable(requested.getLast());
+			}
+			else
+				throw new UsageException("Unknown option: " + args[i]);
+		}
+		if(top > 0 && by == null)
+			throw new UsageException("--top needs --by");
+		Dataset dataset = openReadOnly(directory);
+		if(dataset == null)
+			return EXIT_ERROR;
+		long start = System.nanoTime();
+		StringBuilder out = new StringBuilder();
+		try
+		{
+			field(out, "command", "query");
+			field(out, "query", query.toString());
+			BitSet rows = dataset.query(query);
+			field(out, "matches", rows.cardinality());
+			if(!countOnly)
+				field(out, "rows", array(rows.stream().toArray()));
+			if(top > 0)
+			{
+				Variable var = dataset.findVariable(by);
+				if(var == null)
+				{
+					System.err.println("No such variable in the binary: " + by);
+					return EXIT_ERROR;
+				}
+				int[] best = dataset.top(query, var, top, largest);
+				double[] values = new double[best.length];
+				for(int r = 0; r < best.length; r++)
+					values[r] = dataset.getValue(var, best[r]);
+				field(out, "top", array(best));
+				field(out, "top_values", array(values));
+			}
+			if(output != null)
+			{
+				List<Variable> vars = new LinkedList<Variable>();
+				if(requested.isEmpty())
+					vars = dataset.getVariables();
+				for(String key: requested)
+				{
+					Variable found = dataset.findVariable(key);
+					if(found == null)
+					{
+						System.err.println("No such variable in the binary: " + key);
+						return EXIT_ERROR;
+					}
+					vars.add(found);
+				}
+				field(out, "exported", dataset.export(output, vars, query));
+			}
+		}
+		finally
+		{
+			dataset.close();
+		}
+		field(out, "seconds", seconds(start));
+		report(out);
+		return EXIT_OK;
+	}
+
+	private static int aggregate(File directory, String[] args) throws Exception
+	{
+		LinkedList<String> requested = new LinkedList<String>();
+		int bins = 0;
+		for(int i = 2; i < args.length; i++)
+		{
+			if(args[i].equals("--var"))
+			{
+				requested.addLast(value(args, ++i));
+				parseVariable(requested.getLast());
+			}
+			else if(args[i].equals("--bins"))
+			{
+				try
+				{
+					bins = Integer.parseInt(value(args, ++i));
+				}
+				catch(NumberFormatException e)
+				{
+					throw new UsageException("--bins needs a number");
+				}
+			}
+			else
+				throw new UsageException("Unknown option: " + args[i]);
+		}
+		Dataset dataset = openReadOnly(directory);
+		if(dataset == null)
+			return EXIT_ERROR;
+		long start = System.nanoTime();
+		List<ColumnAggregate> aggregates;
+		try
+		{
+			List<Variable> vars = new LinkedList<Variable>();
+			if(requested.isEmpty())
+				vars = dataset.getVariables();
+			for(String key: requested)
+			{
+				Variable found = dataset.findVariable(key);
+				if(found == null)
+				{
+					System.err.println("No such variable in the binary: " + key);
+					return EXIT_ERROR;
+				}
+				vars.add(found);
+			}
+			aggregates = dataset.aggregate(vars, bins);
+		}
+		finally
+		{
+			dataset.close();
+		}
+		StringBuilder list = new StringBuilder("[");
+		for(ColumnAggregate a: aggregates)
+		{
+			StringBuilder o = new StringBuilder();
+			field(o, "variable", a.getVariable().getKey());
+			field(o, "count", a.getCount());
+			field(o, "missing", a.getMissing());
+			field(o, "nan", a.getNaNCount());
+			field(o, "mean", number(a.getMean()));
+			field(o, "variance", number(a.getVariance()));
+			field(o, "min", number(a.getMinimum()));
+			field(o, "max", number(a.getMaximum()));
+			if(bins > 0)
+			{
+				field(o, "histogram_min", number(a.getHistogramMinimum()));
+				field(o, "histogram_max", number(a.getHistogramMaximum()));
+				field(o, "histogram", array(a.getHistogram()));
+			}
+			list.append(list.length() == 1 ? "" : ",").append(o).append('}');
+		}
+		StringBuilder out = new StringBuilder();
+		field(out, "command", "aggregate");
+		field(out, "variables", list.append(']'));
+		field(out, "seconds", seconds(start));
+		report(out);
+		return EXIT_OK;
+	}
+
+	private static int sketch(File directory, String[] args) throws Exception
+	{
+		LinkedList<File> shards = new LinkedList<File>();
+		LinkedList<String> requested = new LinkedList<String>();
+		LinkedList<Double> quantiles = new LinkedList<Double>();
+		shards.add(directory);
+		for(int i = 2; i < args.length; i++)
+		{
+			if(args[i].equals("--shard"))
+			{
+				File shard = new File(value(args, ++i)).getAbsoluteFile();
+				if(!shard.isDirectory())
+				{
+					System.err.println("Not a directory: " + shard);
+					return EXIT_ERROR;
+				}
+				shards.addLast(shard);
+			}
+			else if(args[i].equals("--var"))
+			{
+				requested.addLast(value(args, ++i));
+				parseVariable(requested.getLast());
+			}
+			else if(args[i].equals("--quantile"))
+			{
+				double q;
+				try
+				{
+					q = Double.parseDouble(value(args, ++i));
+				}
+				catch(NumberFormatException e)
+				{
+					throw new UsageException("--quantile needs a number");
+				}
+				if(!(q >= 0 && q <= 1))
+					throw new UsageException("Quantiles are from 0 to 1, not " + q);
+				quantiles.addLast(q);
+			}
+			else
+				throw new UsageException("Unknown option: " + args[i]);
+		}
+		if(quantiles.isEmpty())
+		{
+			for(double q: new double[]{0.01, 0.05, 0.25, 0.5, 0.75, 0.95, 0.99})
+				quantiles.addLast(q);
+		}
+		long start = System.nanoTime();
+		//the sketches of each variable, merged over the shards in the order they were given.
+		LinkedHashMap<String, ColumnSketch> merged = new LinkedHashMap<String, ColumnSketch>();
+		for(String key: requested)
+			merged.put(parseVariable(key).getKey(), null);
+		for(File shard: shards)
+		{
+			Dataset dataset = openReadOnly(shard);
+			if(dataset == null)
+				return EXIT_ERROR;
+			try
+			{
+				List<Variable> vars = new LinkedList<Variable>();
+				if(requested.isEmpty())
+					vars = dataset.getVariables();
+				for(String key: requested)
+				{
+					Variable found = dataset.findVariable(key);
+					if(found != null)
+						vars.add(found);
+				}
+				for(Variable var: vars)
+				{
+					ColumnSketch sketch = dataset.getSketch(var);
+					ColumnSketch total = merged.get(var.getKey());
+					if(total == null)
+						merged.put(var.getKey(), sketch);
+					else
+						total.merge(sketch);
+				}
+			}
+			finally
+			{
+				dataset.close();
+			}
+		}
+		StringBuilder list = new StringBuilder("[");
+		for(String key: merged.keySet())
+		{
+			ColumnSketch sketch = merged.get(key);
+			if(sketch == null)
+			{
+				System.err.println("No such variable in any binary: " + key);
+				return EXIT_ERROR;
+			}
+			StringBuilder values = new StringBuilder("[");
+			for(double q: quantiles)
+				values.append(values.length() == 1 ? "" : ",").append(number(sketch.getQuantile(q)));
+			StringBuilder o = new StringBuilder();
+			field(o, "variable", key);
+			field(o, "count", sketch.getCount());
+			field(o, "distinct", sketch.getDistinctCount());
+			field(o, "min", number(sketch.getMinimum()));
+			field(o, "max", number(sketch.getMaximum()));
+			field(o, "quantiles", values.append(']'));
+			list.append(list.length() == 1 ? "" : ",").append(o).append('}');
+		}
+		double[] q = new double[quantiles.size()];
+		for(int i = 0; i < q.length; i++)
+			q[i] = quantiles.get(i);
+		StringBuilder out = new StringBuilder();
+		field(out, "command", "sketch");
+		field(out, "shards", shards.size());
+		field(out, "quantiles", array(q));
+		field(out, "variables", list.append(']'));
+		field(out, "seconds", seconds(start));
+		report(out);
+		return EXIT_OK;
+	}
+
+	private static int correlate(File directory, String[] args) throws Exception
+	{
+		if(args.length < 3 || args[2].startsWith("--"))
+			throw new UsageException("correlate needs an output file");
+		File output = new File(args[2]).getAbsoluteFile();
+		LinkedList<String> requested = new LinkedList<String>();
+		boolean covariance = false;
+		for(int i = 3; i < args.length; i++)
+		{
+			if(args[i].equals("--covariance"))
+				covariance = true;
+			else if(args[i].equals("--var"))
+			{
+				requested.addLast(value(args, ++i));
+				parseVariable(requested.getLast());
+			}
+			else
+				throw new UsageException("Unknown option: " + args[i]);
+		}
+		Dataset dataset = openReadOnly(directory);
+		if(dataset == null)
+			return EXIT_ERROR;
+		long start = System.nanoTime();
+		CorrelationMatrix matrix;
+		try
+		{
+			List<Variable> vars = new LinkedList<Variable>();
+			if(requested.isEmpty())
+				vars = dataset.getVariables();
+			for(String key: requested)
+			{
+				Variable found = dataset.findVariable(key);
+				if(found == null)
+				{
+					System.err.println("No such variable in the binary: " + key);
+					return EXIT_ERROR;
+				}
+				vars.add(found);
+			}
+			matrix = dataset.correlate(vars);
+		}
+		finally
+		{
+			dataset.close();
+		}
+		matrix.write(output, covariance);
+		StringBuilder out = new StringBuilder();
+		field(out, "command", "correlate");
+		field(out, "output", output.getPath());
+		field(out, covariance ? "covariance" : "correlation", true);
+		field(out, "variables", keys(matrix.getVariables()));
+		field(out, "seconds", seconds(start));
+		report(out);
+		return EXIT_OK;
+	}
+
+	private static int index(File directory, String[] args) throws Exception
+	{
+		boolean drop = false;
+		LinkedList<String> requested = new LinkedList<String>();
+		for(int i = 2; i < args.length; i++)
+		{
+			if(args[i].equals("--drop"))
+				drop = true;
+			else if(args[i].startsWith("--"))
+				throw new UsageException("Unknown option: " + args[i]);
+			else
+				requested.addLast(parseVariable(args[i]).getKey());
+		}
+		if(!new File(directory, BinaryParser.DEFAULT_NAME).exists())
+		{
+			System.err.println("No binary in " + directory + ", use ingest to create one");
+			return EXIT_ERROR;
+		}
+		long start = System.nanoTime();
+		//indexes are kept by a binary open for writing, which adds the files changed since it was written.
+		Dataset dataset = Dataset.open(directory);
+		VerificationSummary summary = dataset.getVerificationSummary();
+		int changed = 0;
+		List<Variable> indexed;
+		try
+		{
+			for(String key: requested)
+			{
+				Variable found = dataset.findVariable(key);
+				if(found == null)
+				{
+					System.err.println("No such variable in the binary: " + key);
+					return EXIT_ERROR;
+				}
+				if(drop ? dataset.dropIndex(found) : dataset.createIndex(found))
+					changed++;
+			}
+			indexed = dataset.getIndexedVariables();
+		}
+		finally
+		{
+			dataset.close();
+		}
+		StringBuilder out = new StringBuilder();
+		field(out, "command", "index");
+		field(out, drop ? "dropped" : "created", changed);
+		field(out, "indexes", keys(indexed));
+		field(out, "files_added", summary.getAdded());
+		field(out, "files_changed", summary.getChanged());
+		field(out, "files_removed", summary.getRemoved());
+		field(out, "files_failed", summary.getFailed());
+		field(out, "seconds", seconds(start));
+		report(out);
+		return summary.getFailed() > 0 ? EXIT_INCOMPLETE : EXIT_OK;
+	}
+
+	private static int nearest(File directory, String[] args) throws Exception
+	{
+		if(args.length < 4)
+			throw new UsageException("nearest needs a variable and a value");
+		String key = parseVariable(args[2]).getKey();
+		double value;
+		int k = 10;
+		try
+		{
+			value = Double.parseDouble(args[3]);
+		}
+		catch(NumberFormatException e)
+		{
+			throw new UsageException("Not a number: " + args[3]);
+		}
+		for(int i = 4; i < args.length; i++)
+		{
+			if(!args[i].equals("--k"))
+				throw new UsageException("Unknown option: " + args[i]);
+			try
+			{
+				k = Integer.parseInt(value(args, ++i));
+			}
+			catch(NumberFormatException e)
+			{
+				throw new UsageException("--k needs a number");
+			}
+		}
+		Dataset dataset = openReadOnly(directory);
+		if(dataset == null)
+			return EXIT_ERROR;
+		long start = System.nanoTime();
+		StringBuilder out = new StringBuilder();
+		try
+		{
+			Variable var = dataset.findVariable(key);
+			int[] rows = var == null ? null : dataset.nearest(var, value, k);
+			if(rows == null)
+			{
+				System.err.println(var == null ? "No such variable in the binary: " + key
+						: "No index of " + key + ", build one with the index command");
+				return EXIT_ERROR;
+			}
+			double[] values = new double[rows.length];
+			for(int r = 0; r < rows.length; r++)
+				values[r] = dataset.getValue(var, rows[r]);
+			field(out, "command", "nearest");
+			field(out, "variable", key);
+			field(out, "rows", array(rows));
+			field(out, "values", array(values));
+		}
+		finally
+		{
+			dataset.close();
+		}
+		field(out, "seconds", seconds(start));
+		report(out);
+		return EXIT_OK;
+	}
+
+	private static int stats(File directory, String[] args) throws Exception
+	{
+		if(args.length > 2)
+			throw new UsageException("Unknown option: " + args[2]);
+		long start = System.nanoTime();
+		Dataset dataset = openReadOnly(directory);
+		if(dataset == null)
+			return EXIT_ERROR;
+		BinaryParser p = dataset.getBinary();
+		int variables = dataset.getVariables().size();
+		StringBuilder out = new StringBuilder();
+		field(out, "command", "stats");
+		field(out, "rows", p.getUsedFiles());
+		field(out, "files", p.getNumberOfFiles());
+		field(out, "dead_rows", p.getNumberOfDeadRows());
+		field(out, "variables", variables);
+		field(out, "version", p.getVersion());
+		field(out, "deduplicating", p.isDeduplicating());
+		field(out, "bytes", new File(directory, BinaryParser.DEFAULT_NAME).length());
+		p.close();
+		field(out, "seconds", seconds(start));
+		report(out);
+		return EXIT_OK;
+	}
+
+	/**
+	 * Helper method. Opens the binary of a directory read only, reporting why if it can not be.
+	 * @return -- The binary, or null if it could not be opened.
+	 */
+	private static Dataset openReadOnly(File directory)
+	{
+		File binary = new File(directory, BinaryParser.DEFAULT_NAME);
+		if(!binary.exists())
+		{
+			System.err.println("No binary in " + directory + ", use ingest to create one");
+			return null;
+		}
+		try
+		{
+			return Dataset.openReadOnly(directory);
+		}
+		catch(IOException e)
+		{
+			System.err.println("Could not open " + binary + ": " + e.getMessage());
+			return null;
+		}
+	}
+
+	private static String value(String[] args, int i) throws UsageException
+	{
+		if(i >= args.length)
+			throw new UsageException(args[i - 1] + " needs a value");
+		return args[i];
+	}
+
+	/**
+	 * Helper method. Reads the name of a variable given on the command line.
+	 */
+	private static Variable parseVariable(String key) throws UsageException
+	{
+		try
+		{
+			return Variable.fromKey(key);
+		}
+		catch(IllegalArgumentException e)
+		{
+			throw new UsageException(e.getMessage());
+		}
+	}
+
+	/**
+	 * Helper method. Reads the predicates of a query given on the command line.
+	 */
+	private static Query parseQuery(String text) throws UsageException
+	{
+		try
+		{
+			return Query.parse(text);
+		}
+		catch(IllegalArgumentException e)
+		{
+			throw new UsageException(e.getMessage());
+		}
+	}
+
+	private static double seconds(long start)
+	{
+		//never report a time of zero, so rates stay finite.
+		return Math.max(System.nanoTime() - start, 1) / 1e9;
+	}
+
+	private static int usage(String message)
+	{
+		if(message != null)
+			System.err.println(message);
+		System.err.print(USAGE);
+		return EXIT_USAGE;
+	}
+
+	/**
+	 * Helper method. Adds a field to a line of JSON being built.
+	 */
+	private static void field(StringBuilder out, String name, Object value)
+	{
+		out.append(out.length() == 0 ? "{" : ",");
+		out.append('"').append(name).append("\":");
+		if(value instanceof String)
+			out.append('"').append(((String)value).replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+		else
+			out.append(value);
+	}
+
+	/**
+	 * Helper method. Writes numbers as a JSON array, to be added with field.
+	 */
+	private static StringBuilder array(int[] values)
+	{
+		StringBuilder a = new StringBuilder("[");
+		for(int i = 0; i < values.length; i++)
+			a.append(i == 0 ? "" : ",").append(values[i]);
+		return a.append(']');
+	}
+
+	/**
+	 * Helper method. Writes numbers as a JSON array, NaN and infinities as null, see number.
+	 */
+	private static StringBuilder array(double[] values)
+	{
+		StringBuilder a = new StringBuilder("[");
+		for(int i = 0; i < values.length; i++)
+			a.append(i == 0 ? "" : ",").append(number(values[i]));
+		return a.append(']');
+	}
+
+	private static StringBuilder array(long[] values)
+	{
+		StringBuilder a = new StringBuilder("[");
+		for(int i = 0; i < values.length; i++)
+			a.append(i == 0 ? "" : ",").append(values[i]);
+		return a.append(']');
+	}
+
+	/**
+	 * Helper method. Writes a number for JSON, which has no NaN or infinity, as null.
+	 */
+	private static StringBuilder number(double d)
+	{
+		return new StringBuilder(Double.isNaN(d) || Double.isInfinite(d) ? "null" : Double.toString(d));
+	}
+
+	/**
+	 * Helper method. Writes the keys of variables as a JSON array, to be added with field.
+	 */
+	private static StringBuilder keys(List<Variable> vars)
+	{
+		StringBuilder a = new StringBuilder("[");
+		for(Variable v: vars)
+			a.append(a.length() == 1 ? "" : ",").append('"').append(v.getKey()).append('"');
+		return a.append(']');
+	}
+
+	private static void report(StringBuilder out)
+	{
+		System.out.println(out.append('}'));
+	}
+
+	/**
+	 * Thrown when the command line is not understood. Only these exit with EXIT_USAGE, errors found while a
+	 * command runs exit with EXIT_ERROR.
+	 */
+	private static class UsageException extends Exception
+	{
+		private static final long serialVersionUID = 1L;
+
+		public UsageException(String message)
+		{
+			super(message);
+		}
+	}
+}
@@ -21,13 +21,13 @@ public class Main {
 	 * current progress towards completing the parsing. After that, A new window will pop up displaying all found 
 	 * variables. After the variables are all selected, the program will generate an output file to the specified 
 	 * directory.
-	 * @param args --Unused.
+	 * @param args --When given, a command to run without the window, see CommandLine.
 	 */
 	public static void main(String args[])
 	{
 		if(args.length == 0)
 			new ParserProgramController();	
-		//else
-			//TODO: implement command line params. 
+		else
+			CommandLine.main(args);
 	}
 }